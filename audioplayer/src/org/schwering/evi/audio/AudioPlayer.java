@@ -7,58 +7,92 @@ import java.awt.Component;
 import javax.swing.Icon;
 
 import org.schwering.evi.audio.conf.Configuration;
+import org.schwering.evi.audio.core.DefaultPlaylist;
+import org.schwering.evi.audio.core.Playlist;
 import org.schwering.evi.audio.gui.ControlPanel;
 import org.schwering.evi.audio.gui.MainPanel;
 import org.schwering.evi.audio.lang.Messages;
 import org.schwering.evi.core.IApplet;
 import org.schwering.evi.core.IModule;
 import org.schwering.evi.core.IPanel;
+import org.schwering.evi.gui.EVI;
 import org.schwering.evi.gui.main.MainFrame;
 import org.schwering.evi.gui.main.ToolBar;
 
 /**
- * Audio player module based on JLayer MP3 library.
+ * Audio player module based on JLayer MP3 library.<br>
+ * <br>
+ * The constructor only loads the playlist, so that it can run in a worker 
+ * thread. The panels are created in the event dispatching thread when 
+ * they are requested for the first time.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
  * @version $Id$
  */
 public class AudioPlayer implements IModule, IPanel, IApplet {
+	private Playlist playlist;
 	private MainPanel mainPanel;
 	private ControlPanel ctrlPanel;
+	private boolean componentsCreated = false;
 	
 	public AudioPlayer() {
 		this(null);
 	}
 	
 	public AudioPlayer(Object[] args) {
-		mainPanel = new MainPanel(this);
-		if (Configuration.isApplet()) {
-			ctrlPanel = new ControlPanel(this, 
-					ControlPanel.PREV | ControlPanel.PLAY | ControlPanel.NEXT);
-			ctrlPanel.setBorderPainted(false);
-			MainFrame mainFrame = MainFrame.getInstance();
-			ToolBar toolBar = mainFrame.getMainToolBar();
-			Color bg = toolBar.getBackground();
-			bg = new Color(bg.getRed(), bg.getGreen(), bg.getBlue(), bg.getAlpha());
-			ctrlPanel.setBackground(bg);
-			ctrlPanel.setFocusable(false);
-		} else {
-			ctrlPanel = null;
-		}
+		playlist = new DefaultPlaylist();
+		playlist.setPlayAll(Configuration.isPlayAll());
+		playlist.setShuffle(Configuration.isShuffle());
 		
 		if (args != null) {
 			for (int i = 0; i < args.length; i++) {
 				if (args[i].equals("play")) {
-					mainPanel.getPlaylist().play();
+					playlist.play();
 				}
 			}
 		}
 	}
 	
+	/**
+	 * Creates the main panel and the applet panel unless this has been 
+	 * done already. Must be invoked in the event dispatching thread.
+	 */
+	private synchronized void createComponents() {
+		if (componentsCreated) {
+			return;
+		}
+		ControlPanel c = null;
+		if (Configuration.isApplet() && !EVI.isHeadless()) {
+			c = new ControlPanel(this, 
+					ControlPanel.PREV | ControlPanel.PLAY | ControlPanel.NEXT);
+			c.setBorderPainted(false);
+			MainFrame mainFrame = MainFrame.getInstance();
+			ToolBar toolBar = mainFrame.getMainToolBar();
+			Color bg = toolBar.getBackground();
+			bg = new Color(bg.getRed(), bg.getGreen(), bg.getBlue(), bg.getAlpha());
+			c.setBackground(bg);
+			c.setFocusable(false);
+		}
+		ctrlPanel = c;
+		mainPanel = new MainPanel(this);
+		componentsCreated = true;
+	}
+	
+	/**
+	 * The playlist object.
+	 * @return The playlist that is shown by the main panel.
+	 */
+	public Playlist getPlaylist() {
+		return playlist;
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.core.IApplet#dispose()
 	 */
 	public void dispose() {
-		mainPanel.dispose();
+		playlist.setPlayAll(false);
+		playlist.save();
+		Configuration.store();
+		playlist.stop();
 	}
 	
 	/* (non-Javadoc)
@@ -71,7 +105,8 @@ public class AudioPlayer implements IModule, IPanel, IApplet {
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.core.IPanel#getPanelInstance()
 	 */
-	public Component getPanelInstance() {
+	public synchronized Component getPanelInstance() {
+		createComponents();
 		return mainPanel;
 	}
 	
@@ -85,7 +120,8 @@ public class AudioPlayer implements IModule, IPanel, IApplet {
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.core.IApplet#getAppletInstance()
 	 */
-	public Component getAppletInstance() {
+	public synchronized Component getAppletInstance() {
+		createComponents();
 		return ctrlPanel;
 	}
 }
@@ -3,8 +3,10 @@ package org.schwering.evi.audio;
 
 import org.schwering.evi.audio.conf.ConfigurationPanel;
 import org.schwering.evi.audio.lang.Messages;
+import org.schwering.evi.core.IAsynchronous;
 import org.schwering.evi.core.IButtonable;
 import org.schwering.evi.core.IConfigurable;
+import org.schwering.evi.core.IHeadless;
 import org.schwering.evi.core.IMenuable;
 import org.schwering.evi.core.IModule;
 import org.schwering.evi.core.IModuleInfo;
@@ -17,7 +19,7 @@ import org.schwering.evi.core.IParameterizable;
  * @version $Id$
  */
 public class AudioPlayerInfo implements IModuleInfo, IButtonable, IMenuable, 
-IParameterizable, IConfigurable {
+IParameterizable, IConfigurable, IAsynchronous, IHeadless {
 
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.core.IModuleInfo#getInfoURL()
@@ -1,64 +1,260 @@
 /* Copyright (C) 2006 Christoph Schwering */
 package org.schwering.evi.audio.core;
 
+import java.io.IOException;
 import java.net.URL;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 
 import org.schwering.evi.audio.AudioPlayer;
 import org.schwering.evi.conf.Properties;
 import org.schwering.evi.core.ModuleContainer;
+import org.schwering.evi.util.TaskScheduler;
 
 /**
- * The default playlist which reads from a Properties config file.
+ * The default playlist which reads from a Properties config file.<br>
+ * <br>
+ * The config file is kept in journal mode: changes of the playlist are
+ * written to the properties shortly after they happen, and only the
+ * entries that actually changed are appended to the journal. The file
+ * is rewritten completely only by {@link #save()}.<br>
+ * <br>
+ * The entries are stored as a linked list with stable ids: 
+ * <code>entry.ID</code> holds the URL, <code>next.ID</code> the id of 
+ * the following entry and <code>head</code> the id of the first entry. 
+ * Thus inserting or removing an entry changes only a few properties, 
+ * no matter where in the list it happens. Playlists stored with 
+ * positional keys (<code>entry0</code>, <code>entry1</code>, ...) are 
+ * converted when they are loaded.<br>
+ * <br>
+ * All default playlists share one Properties object, so that the 
+ * instances of the module do not write to the same file independently. 
+ * The properties hold the list of the playlist that was updated last.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
  * @version $Id$
  */
 public class DefaultPlaylist extends Playlist {
 	private static final String DEFAULT_PLAYLIST_APPENDIX = "_default_playlist";
+	private static final String HEAD_KEY = "head";
+	private static final String ENTRY_PREFIX = "entry.";
+	private static final String NEXT_PREFIX = "next.";
+	private static final String POSITIONAL_PREFIX = "entry";
+
+	/**
+	 * The number of milliseconds between a change of the playlist and
+	 * the update of the properties.
+	 */
+	private static final long UPDATE_DELAY = 1000;
+
+	/**
+	 * The properties shared by all default playlists. Guarded by 
+	 * <code>DefaultPlaylist.class</code>, like the following fields.
+	 */
+	private static Properties sharedProps;
+	
+	/**
+	 * The ids of the entries in the properties.
+	 */
+	private static Set<Integer> storedIds = new HashSet<Integer>();
+	
+	/**
+	 * The id of the next new entry.
+	 */
+	private static int nextId = 0;
+	
 	protected Properties props;
+	
+	/**
+	 * The ids of the entries of this playlist that have been loaded or 
+	 * written to the properties.
+	 */
+	private Map<ItemWrapper, Integer> ids = new IdentityHashMap<ItemWrapper, Integer>();
+
+	/**
+	 * Indicates whether an update of the properties is scheduled.
+	 */
+	private boolean updatePending = false;
 
 	/**
 	 * Creates and loads the default playlist.
 	 */
 	public DefaultPlaylist() {
 		load();
+		addListDataListener(new ListDataListener() {
+			public void intervalAdded(ListDataEvent e) {
+				scheduleUpdate();
+			}
+			public void intervalRemoved(ListDataEvent e) {
+				scheduleUpdate();
+			}
+			public void contentsChanged(ListDataEvent e) {
+				scheduleUpdate();
+			}
+		});
 	}
-	
+
 	/**
 	 * Loads the playlist from a org.schwering.evi.conf.Properties file.
 	 */
 	public void load() {
 		try {
-			props = new Properties(ModuleContainer.getIdByClass(AudioPlayer.class) + DEFAULT_PLAYLIST_APPENDIX);
-			props.load();
-			String s;
-			for (int i = 0; (s = props.getString("entry"+i, null)) != null; i++) {
-				try {
-					addElement(new URL(s));
-				} catch (Exception exc) {
-					exc.printStackTrace();
+			int first = getSize();
+			synchronized (DefaultPlaylist.class) {
+				props = getProperties();
+				String id = props.getProperty(HEAD_KEY);
+				for (int i = 0; id != null && i < storedIds.size(); i++) {
+					try {
+						ItemWrapper iw = new ItemWrapper(new URL(props.getProperty(ENTRY_PREFIX + id)));
+						list.add(iw);
+						ids.put(iw, Integer.valueOf(id));
+					} catch (Exception exc) {
+						exc.printStackTrace();
+					}
+					id = props.getProperty(NEXT_PREFIX + id);
 				}
 			}
+			if (getSize() > first) {
+				fireIntervalAdded(first, getSize() - 1);
+			}
 			playingIndex = props.getInt("playingindex", -1);
 		} catch (Exception exc) {
 			exc.printStackTrace();
 		}
 	}
 	
+	/**
+	 * Returns the properties shared by all default playlists. They are 
+	 * loaded when they are requested for the first time.
+	 * @return The properties.
+	 * @throws IOException If the properties cannot be created.
+	 */
+	private static synchronized Properties getProperties() throws IOException {
+		if (sharedProps == null) {
+			Properties p = new Properties(ModuleContainer.getIdByClass(AudioPlayer.class) + DEFAULT_PLAYLIST_APPENDIX);
+			p.setJournal(true);
+			try {
+				p.load();
+			} catch (IOException exc) {
+				exc.printStackTrace();
+			}
+			p.setShutdownHook(true);
+			if (p.getProperty(HEAD_KEY) == null) {
+				convertPositionalEntries(p);
+			}
+			String[] keys = p.getKeys();
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i].startsWith(ENTRY_PREFIX)) {
+					try {
+						int id = Integer.parseInt(keys[i].substring(ENTRY_PREFIX.length()));
+						storedIds.add(Integer.valueOf(id));
+						nextId = Math.max(nextId, id + 1);
+					} catch (NumberFormatException exc) {
+						exc.printStackTrace();
+					}
+				}
+			}
+			sharedProps = p;
+		}
+		return sharedProps;
+	}
+	
+	/**
+	 * Converts a playlist stored with positional keys into the linked 
+	 * list. The n-th entry gets the id n.
+	 * @param p The properties.
+	 */
+	private static void convertPositionalEntries(Properties p) {
+		String link = HEAD_KEY;
+		String s;
+		for (int i = 0; (s = p.getString(POSITIONAL_PREFIX + i, null)) != null; i++) {
+			p.remove(POSITIONAL_PREFIX + i);
+			p.setString(ENTRY_PREFIX + i, s);
+			p.setString(link, String.valueOf(i));
+			link = NEXT_PREFIX + i;
+		}
+	}
+
 	/**
 	 * Saves the playlist to a org.schwering.evi.conf.Properties file.
 	 */
 	public void save() {
 		try {
-			props.clear();
-			filter("");
-			URL[] urls = getElements();
-			for (int i = 0; i < urls.length; i++) {
-				props.setString("entry"+ i, urls[i].toString());
-			}
-			props.setInt("playingindex", playingIndex);
+			update();
 			props.store();
 		} catch (Exception exc) {
 			exc.printStackTrace();
 		}
 	}
+
+	/**
+	 * Writes the entries and links that have changed since the last update 
+	 * to the properties, which append them to their journal. Entries that 
+	 * are not in the properties yet get a new id.
+	 */
+	protected synchronized void update() {
+		Object[] items = list.toArray();
+		synchronized (DefaultPlaylist.class) {
+			Set<Integer> current = new HashSet<Integer>();
+			Map<ItemWrapper, Integer> currentIds = new IdentityHashMap<ItemWrapper, Integer>();
+			String link = HEAD_KEY;
+			for (int i = 0; i < items.length; i++) {
+				ItemWrapper iw = (ItemWrapper)items[i];
+				Integer id = ids.get(iw);
+				if (id == null) {
+					id = Integer.valueOf(nextId++);
+				}
+				current.add(id);
+				currentIds.put(iw, id);
+				props.setString(ENTRY_PREFIX + id, iw.getURL().toString());
+				props.setString(link, id.toString());
+				link = NEXT_PREFIX + id;
+			}
+			props.remove(link);
+			for (Iterator<Integer> it = storedIds.iterator(); it.hasNext(); ) {
+				Integer id = it.next();
+				if (!current.contains(id)) {
+					props.remove(ENTRY_PREFIX + id);
+					props.remove(NEXT_PREFIX + id);
+				}
+			}
+			storedIds = current;
+			ids = currentIds;
+			props.setInt("playingindex", playingIndex);
+		}
+	}
+
+	/**
+	 * Schedules an update of the properties unless one is scheduled
+	 * already, so that many changes in a row lead to one update.
+	 */
+	private synchronized void scheduleUpdate() {
+		if (updatePending) {
+			return;
+		}
+		updatePending = true;
+		final Runnable update = new Runnable() {
+			public void run() {
+				synchronized (DefaultPlaylist.this) {
+					updatePending = false;
+				}
+				try {
+					update();
+				} catch (Exception exc) {
+					exc.printStackTrace();
+				}
+			}
+		};
+		// the timer thread must not block, so the update runs in a pool
+		TaskScheduler.schedule(this, new Runnable() {
+			public void run() {
+				TaskScheduler.submit(DefaultPlaylist.this, update, TaskScheduler.LOW);
+			}
+		}, UPDATE_DELAY);
+	}
 }
@@ -6,6 +6,8 @@ import javazoom.jl.player.AudioDevice;
 import javazoom.jl.player.FactoryRegistry;
 import javazoom.jl.player.advanced.AdvancedPlayer;
 
+import org.schwering.evi.core.ResourceMonitor;
+
 /**
  * Implements an MP3 player using the JLayer API.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
@@ -59,6 +61,7 @@ public class MP3Player extends Player {
 		}
 		try {
 			player = new AdvancedPlayer(resource.openStream(), device);
+			ResourceMonitor.handleOpened(this);
 			firePlaybackStarted();
 			player.play(from, to);
 			if (stopped) {
@@ -92,6 +95,7 @@ public class MP3Player extends Player {
 		if (player != null) {
 			player.close();
 			player = null;
+			ResourceMonitor.handleClosed(this);
 		}
 	}
 	
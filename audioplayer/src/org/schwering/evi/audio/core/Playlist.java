@@ -6,11 +6,14 @@ import java.io.FileFilter;
 import java.net.URL;
 import java.util.LinkedList;
 import java.util.Vector;
+import java.util.concurrent.Future;
 
 import javax.swing.ListModel;
 import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 
+import org.schwering.evi.util.TaskScheduler;
+
 /**
  * The abstract base class for a playlist. This class provides navigation mechanisms.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
@@ -29,8 +32,11 @@ public abstract class Playlist implements ListModel {
 	/** The currently played index. */
 	protected int playingIndex = -1;
 	
-	/** The thread used to play the current file. */
-	protected PlayerThread playerThread;
+	/** The task used to play the current file. */
+	protected PlayerTask playerTask;
+	
+	/** The pending <code>playerTask</code>. */
+	protected Future<?> playerFuture;
 	
 	/** Contains IPlaylistListeners. */
 	protected Vector<IPlaylistListener> listeners = new Vector<IPlaylistListener>(3);
@@ -298,7 +304,7 @@ public abstract class Playlist implements ListModel {
 	 * @return the current player or <code>null</code>.
 	 */
 	public Player getPlayer() {
-		return (playerThread != null) ? playerThread.getPlayer() : null;
+		return (playerTask != null) ? playerTask.getPlayer() : null;
 	}
 	
 	/**
@@ -583,9 +589,10 @@ public abstract class Playlist implements ListModel {
 			final Player p = PlayerFactory.createPlayer(url);
 			p.addListener(getPassthroughPlayerListener(p));
 			p.addListener(getConfigPlayerListener(p));
-			stop(); // interrupt()s the thread
-			playerThread = new PlayerThread(p);
-			playerThread.start();
+			stop(); // cancels the task
+			playerTask = new PlayerTask(p);
+			playerFuture = TaskScheduler.submitBlocking(this, playerTask, 
+					TaskScheduler.HIGH);
 		} catch (Exception exc) {
 			exc.printStackTrace();
 			firePlaybackFailed(null);
@@ -633,8 +640,8 @@ public abstract class Playlist implements ListModel {
 			player.stop();
 			player = null;
 		}
-		if (playerThread != null && !playerThread.isInterrupted()) {
-			playerThread.interrupt();
+		if (playerFuture != null) {
+			playerFuture.cancel(true);
 		}
 	}
 	
@@ -727,14 +734,14 @@ public abstract class Playlist implements ListModel {
 	}
 	
 	/**
-	 * Plays a <code>Player</code> in a different thread.
+	 * Plays a <code>Player</code> in a thread of the module's 
+	 * <code>TaskScheduler</code> pool.
 	 * @author Christoph Schwering (mailto:schwering@gmail.com)
 	 */
-	protected class PlayerThread extends Thread {
+	protected class PlayerTask implements Runnable {
 		private Player p;
 		
-		public PlayerThread(Player p) {
-			setDaemon(true);
+		public PlayerTask(Player p) {
 			this.p = p;
 		}
 		
@@ -67,8 +67,7 @@ public class ControlPanel extends JPanel {
 			prev = new JButton(String.valueOf((char)171)); //$NON-NLS-1$
 			prev.addActionListener(new ActionListener() {
 				public void actionPerformed(ActionEvent e) {
-					MainPanel mainPanel = (MainPanel)owner.getPanelInstance();
-					mainPanel.getPlaylist().previous();
+					owner.getPlaylist().previous();
 				}
 			});
 			add(prev);
@@ -78,11 +77,10 @@ public class ControlPanel extends JPanel {
 			play = new JButton(">"); //$NON-NLS-1$
 			play.addActionListener(new ActionListener() {
 				public void actionPerformed(ActionEvent e) {
-					MainPanel mainPanel = (MainPanel)owner.getPanelInstance();
-					if (mainPanel.getPlaylist().isPlaying()) {
-						mainPanel.getPlaylist().stop();
+					if (owner.getPlaylist().isPlaying()) {
+						owner.getPlaylist().stop();
 					} else {
-						mainPanel.getPlaylist().play();
+						owner.getPlaylist().play();
 					}
 				}
 			});
@@ -93,8 +91,7 @@ public class ControlPanel extends JPanel {
 			next = new JButton(String.valueOf((char)187)); //$NON-NLS-1$
 			next.addActionListener(new ActionListener() {
 				public void actionPerformed(ActionEvent e) {
-					MainPanel mainPanel = (MainPanel)owner.getPanelInstance();
-					mainPanel.getPlaylist().next();
+					owner.getPlaylist().next();
 				}
 			});
 			add(next);
@@ -105,8 +102,7 @@ public class ControlPanel extends JPanel {
 					Configuration.isPlayAll());
 			playAll.addActionListener(new ActionListener() {
 				public void actionPerformed(ActionEvent e) {
-					MainPanel mainPanel = (MainPanel)owner.getPanelInstance();
-					mainPanel.getPlaylist().setPlayAll(playAll.isSelected());
+					owner.getPlaylist().setPlayAll(playAll.isSelected());
 					Configuration.setPlayAll(playAll.isSelected());
 				}
 			});
@@ -118,8 +114,7 @@ public class ControlPanel extends JPanel {
 					Configuration.isShuffle());
 			random.addActionListener(new ActionListener() {
 				public void actionPerformed(ActionEvent e) {
-					MainPanel mainPanel = (MainPanel)owner.getPanelInstance();
-					mainPanel.getPlaylist().setShuffle(random.isSelected());
+					owner.getPlaylist().setShuffle(random.isSelected());
 					Configuration.setShuffle(random.isSelected());
 				}
 			});
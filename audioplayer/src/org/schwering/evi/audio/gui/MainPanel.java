@@ -21,7 +21,6 @@ import javax.swing.filechooser.FileFilter;
 
 import org.schwering.evi.audio.AudioPlayer;
 import org.schwering.evi.audio.conf.Configuration;
-import org.schwering.evi.audio.core.DefaultPlaylist;
 import org.schwering.evi.audio.core.IPlaylistListener;
 import org.schwering.evi.audio.core.Player;
 import org.schwering.evi.audio.core.Playlist;
@@ -39,21 +38,20 @@ public class MainPanel extends JPanel {
 	private static final long serialVersionUID = -3610628136517888050L;
 	
 	private AudioPlayer owner;
-	private Playlist playlist = new DefaultPlaylist();
-	private List list = new List(this, playlist);
+	private Playlist playlist;
+	private List list;
 	private JLabel playingLabel = new JLabel();
 	private JTextField searchField = new JTextField("");
 	
 	/**
-	 * Creates the main panel.
+	 * Creates the main panel for the playlist of the AudioPlayer.
 	 * @param owner The owning AudioPlayer object.
 	 */
 	public MainPanel(final AudioPlayer owner) {
 		super(new BorderLayout());
 		this.owner = owner;
-		
-		playlist.setPlayAll(Configuration.isPlayAll());
-		playlist.setShuffle(Configuration.isShuffle());
+		this.playlist = owner.getPlaylist();
+		this.list = new List(this, playlist);
 		
 		playlist.addListener(new IPlaylistListener() {
 			public void playbackStarted(Player player) {
@@ -258,18 +256,6 @@ public class MainPanel extends JPanel {
 		return playlist;
 	}
 
-	/**
-	 * Save the playlist.
-	 */
-	public void dispose() {
-		playlist.setPlayAll(false);
-		playlist.save();
-		Configuration.store();
-		System.out.println("Stopping now");
-		playlist.stop();
-		System.out.println("Done");
-	}
-	
 	/* (non-Javadoc)
 	 * @see javax.swing.JComponent#requestFocus()
 	 */
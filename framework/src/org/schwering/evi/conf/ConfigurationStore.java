@@ -0,0 +1,523 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.conf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the contents of all {@link Properties} objects in one file,
+ * <code>CONFIG_DIR/config.store</code>, instead of one file per module.
+ * <br>
+ * <br>
+ * The store is optional. It is used if the system property
+ * <code>evi.configstore</code> is <code>true</code> or if the store file
+ * exists (once properties have been moved into the store, they are only
+ * found there). <code>Properties</code> objects use it transparently:
+ * the name that was passed to their constructor is the namespace in the
+ * store. Properties whose old file still exists are migrated when they
+ * are loaded for the first time; the old file is renamed to
+ * <code>name.bak</code> afterwards.<br>
+ * <br>
+ * The file is a log of records, each of which holds the new contents of
+ * one namespace in the format of <code>java.util.Properties</code> (or
+ * marks its removal) together with a checksum. A change only appends one
+ * record and syncs the file, so a small change does not rewrite the
+ * other namespaces. When the log has grown to twice the size of its live
+ * records, it is compacted: all namespaces are written to a temporary
+ * file that replaces the store, and the previous store is kept as
+ * <code>config.store.bak</code>. The file is read into memory completely
+ * and closed when it is opened, so no open handle prevents it from being
+ * replaced.<br>
+ * <br>
+ * A record that was torn by a crash while it was appended is cut off
+ * when the store is opened. If the store is corrupt otherwise, the
+ * backup is used and the corrupt file is kept as
+ * <code>config.store.corrupt</code>; if there is no usable backup, the
+ * store refuses to load or store anything (the properties' old files
+ * are not used, because they have been migrated and may be outdated).
+ * @see Properties
+ * @author Christoph Schwering (schwering@gmail.com)
+ * @version $Id$
+ */
+public final class ConfigurationStore {
+	/**
+	 * The name of the store file in the config dir.
+	 */
+	public static final String FILE_NAME = "config.store"; //$NON-NLS-1$
+
+	/**
+	 * The suffix of backup files.
+	 */
+	public static final String BACKUP_SUFFIX = ".bak"; //$NON-NLS-1$
+
+	private static final String ENABLED_PROPERTY = "evi.configstore"; //$NON-NLS-1$
+	private static final String MAGIC = "EVI-STORE 2"; //$NON-NLS-1$
+	private static final String OLD_MAGIC = "EVI-STORE 1"; //$NON-NLS-1$
+	private static final String CHARSET = "ISO-8859-1"; //$NON-NLS-1$
+	private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+	private static final String CORRUPT_SUFFIX = ".corrupt"; //$NON-NLS-1$
+
+	/**
+	 * The size the log must exceed before it is compacted.
+	 */
+	private static final long MIN_COMPACTION_SIZE = 64 * 1024;
+
+	/**
+	 * The store file.
+	 */
+	private static final File FILE =
+		new File(MainConfiguration.CONFIG_DIR, FILE_NAME);
+
+	/**
+	 * The store before the last compaction.
+	 */
+	private static final File BACKUP_FILE =
+		new File(MainConfiguration.CONFIG_DIR, FILE_NAME + BACKUP_SUFFIX);
+
+	/**
+	 * Indicates whether the store is used.
+	 */
+	private static boolean enabled;
+
+	/**
+	 * The reason why the store cannot be used or <code>null</code>.
+	 */
+	private static IOException failure;
+
+	/**
+	 * The contents of the namespaces.
+	 */
+	private static Map<String, byte[]> contents = new TreeMap<String, byte[]>();
+
+	/**
+	 * The size of the store file or 0 if the next change must compact it.
+	 */
+	private static long fileSize = 0;
+
+	/**
+	 * The size of the records of {@link #contents}, i.e. of the file after
+	 * a compaction.
+	 */
+	private static long liveSize = 0;
+
+	static {
+		enabled = Boolean.getBoolean(ENABLED_PROPERTY) || FILE.isFile()
+			|| BACKUP_FILE.isFile();
+		if (enabled) {
+			try {
+				if (FILE.isFile()) {
+					open(FILE);
+				} else if (BACKUP_FILE.isFile()) {
+					// a compaction was interrupted between the renames
+					open(BACKUP_FILE);
+					compact();
+				}
+			} catch (IOException exc) {
+				System.err.println("Could not open "+ FILE); //$NON-NLS-1$
+				exc.printStackTrace();
+				restoreBackup(exc);
+			}
+		}
+	}
+
+	/**
+	 * No instances allowed/useful.
+	 */
+	private ConfigurationStore() {
+	}
+
+	/**
+	 * Indicates whether the properties are kept in the store.
+	 * @return <code>true</code> if the store is used, even if it is
+	 * corrupt.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns the store file.
+	 * @return <code>CONFIG_DIR/config.store</code>.
+	 */
+	public static File getFile() {
+		return FILE;
+	}
+
+	/**
+	 * Returns the names of all namespaces.
+	 * @return The namespaces in alphabetical order; none if the store is
+	 * corrupt.
+	 */
+	public static synchronized String[] getNamespaces() {
+		return contents.keySet().toArray(new String[contents.size()]);
+	}
+
+	/**
+	 * Returns the contents of a namespace.
+	 * @param namespace The namespace.
+	 * @return The contents in the format of
+	 * <code>java.util.Properties</code> or <code>null</code> if the store
+	 * does not contain the namespace.
+	 * @throws IOException If the store is corrupt.
+	 */
+	static synchronized byte[] get(String namespace) throws IOException {
+		checkUsable();
+		return contents.get(namespace);
+	}
+
+	/**
+	 * Replaces the contents of a namespace and appends them to the store.
+	 * Nothing is written if the contents have not changed.
+	 * @param namespace The namespace.
+	 * @param b The new contents in the format of
+	 * <code>java.util.Properties</code>.
+	 * @throws IOException If the store cannot be written or is corrupt.
+	 */
+	static synchronized void put(String namespace, byte[] b)
+	throws IOException {
+		checkUsable();
+		byte[] old = contents.get(namespace);
+		if (old != null && Arrays.equals(old, b)) {
+			return;
+		}
+		contents.put(namespace, b);
+		liveSize += recordSize(namespace, b);
+		if (old != null) {
+			liveSize -= recordSize(namespace, old);
+		}
+		append(namespace, b);
+	}
+
+	/**
+	 * Removes a namespace and appends the removal to the store.
+	 * @param namespace The namespace.
+	 * @throws IOException If the store cannot be written or is corrupt.
+	 */
+	static synchronized void remove(String namespace) throws IOException {
+		checkUsable();
+		byte[] old = contents.remove(namespace);
+		if (old != null) {
+			liveSize -= recordSize(namespace, old);
+			append(namespace, null);
+		}
+	}
+
+	/**
+	 * Throws an exception if the store is corrupt.
+	 * @throws IOException If the store is corrupt.
+	 */
+	private static void checkUsable() throws IOException {
+		if (failure != null) {
+			IOException exc = new IOException(failure.getMessage());
+			exc.initCause(failure);
+			throw exc;
+		}
+	}
+
+	/**
+	 * Uses the backup after the store could not be opened. The corrupt
+	 * store is kept. If the backup cannot be opened either, the store
+	 * becomes unusable.
+	 * @param cause The reason why the store could not be opened.
+	 */
+	private static void restoreBackup(IOException cause) {
+		contents.clear();
+		fileSize = 0;
+		liveSize = 0;
+		try {
+			if (!BACKUP_FILE.isFile()) {
+				throw cause;
+			}
+			open(BACKUP_FILE);
+			File corrupt = new File(FILE.getAbsoluteFile().getParentFile(),
+					FILE_NAME + CORRUPT_SUFFIX);
+			corrupt.delete();
+			if (!FILE.renameTo(corrupt)) {
+				throw new IOException("Could not rename "+ FILE); //$NON-NLS-1$
+			}
+			compact();
+			System.err.println("Restored "+ FILE +" from "+ BACKUP_FILE //$NON-NLS-1$ //$NON-NLS-2$
+					+"; the corrupt file is "+ corrupt); //$NON-NLS-1$
+		} catch (IOException exc) {
+			contents.clear();
+			failure = new IOException("The configuration store "+ FILE //$NON-NLS-1$
+					+" is corrupt; repair it, or delete it to use the files" //$NON-NLS-1$
+					+" that were kept as *"+ BACKUP_SUFFIX); //$NON-NLS-1$
+			failure.initCause(cause);
+			System.err.println(failure.getMessage());
+		}
+	}
+
+	/**
+	 * Reads a store file. A record at the end that is incomplete or whose
+	 * checksum is wrong is cut off.
+	 * @param file The store file or its backup.
+	 * @throws IOException If the file cannot be read or is corrupt.
+	 */
+	private static void open(File file) throws IOException {
+		byte[] b;
+		RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		try {
+			b = new byte[(int)raf.length()];
+			raf.readFully(b);
+		} finally {
+			raf.close();
+		}
+		int[] pos = new int[1];
+		String magic = readLine(b, pos);
+		if (OLD_MAGIC.equals(magic)) {
+			readIndexed(b, pos);
+			// records cannot be appended to the old format
+			fileSize = 0;
+			return;
+		} else if (!MAGIC.equals(magic)) {
+			throw new IOException("No configuration store: "+ file); //$NON-NLS-1$
+		}
+		int end = readLog(b, pos[0]);
+		if (end < b.length) {
+			System.err.println("Cutting off "+ (b.length - end) //$NON-NLS-1$
+					+" bytes of an incomplete record of "+ file); //$NON-NLS-1$
+			raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+			try {
+				raf.setLength(end);
+			} finally {
+				raf.close();
+			}
+		}
+		fileSize = end;
+	}
+
+	/**
+	 * Reads the records of the log.
+	 * @param b The file's contents.
+	 * @param start The position of the first record.
+	 * @return The end of the last complete record.
+	 * @throws IOException If a record in the middle of the file is
+	 * corrupt.
+	 */
+	private static int readLog(byte[] b, int start) throws IOException {
+		int[] pos = new int[] { start };
+		while (pos[0] < b.length) {
+			int recordStart = pos[0];
+			String line = readLine(b, pos);
+			if (line == null) {
+				return recordStart;
+			}
+			int tab1 = line.indexOf('\t');
+			int tab2 = line.indexOf('\t', tab1 + 1);
+			if (tab1 <= 0 || tab2 < 0) {
+				throw new IOException("Corrupt record at "+ recordStart); //$NON-NLS-1$
+			}
+			String namespace = line.substring(0, tab1);
+			int length;
+			long crc;
+			try {
+				length = Integer.parseInt(line.substring(tab1 + 1, tab2));
+				crc = Long.parseLong(line.substring(tab2 + 1), 16);
+			} catch (NumberFormatException exc) {
+				throw new IOException("Corrupt record at "+ recordStart); //$NON-NLS-1$
+			}
+			if (length < 0) {
+				byte[] old = contents.remove(namespace);
+				if (old != null) {
+					liveSize -= recordSize(namespace, old);
+				}
+				continue;
+			}
+			if (pos[0] + length > b.length) {
+				// torn while it was appended
+				return recordStart;
+			}
+			byte[] data = new byte[length];
+			System.arraycopy(b, pos[0], data, 0, length);
+			pos[0] += length;
+			if (checksum(data) != crc) {
+				if (pos[0] == b.length) {
+					return recordStart;
+				}
+				throw new IOException("Corrupt record at "+ recordStart); //$NON-NLS-1$
+			}
+			byte[] old = contents.put(namespace, data);
+			liveSize += recordSize(namespace, data);
+			if (old != null) {
+				liveSize -= recordSize(namespace, old);
+			}
+		}
+		return pos[0];
+	}
+
+	/**
+	 * Reads a store in the old format, which starts with an index of the
+	 * namespaces.
+	 * @param b The file's contents.
+	 * @param pos The position after the first line.
+	 * @throws IOException If the file is corrupt.
+	 */
+	private static void readIndexed(byte[] b, int[] pos) throws IOException {
+		try {
+			int count = Integer.parseInt(readLine(b, pos));
+			String[] lines = new String[count];
+			for (int i = 0; i < count; i++) {
+				lines[i] = readLine(b, pos);
+			}
+			int data = pos[0];
+			for (int i = 0; i < count; i++) {
+				int tab1 = lines[i].indexOf('\t');
+				int tab2 = lines[i].indexOf('\t', tab1 + 1);
+				int offset = data + Integer.parseInt(
+						lines[i].substring(tab1 + 1, tab2));
+				int length = Integer.parseInt(lines[i].substring(tab2 + 1));
+				if (offset < data || length < 0 || offset + length > b.length) {
+					throw new IOException("Corrupt entry "+ lines[i]); //$NON-NLS-1$
+				}
+				byte[] content = new byte[length];
+				System.arraycopy(b, offset, content, 0, length);
+				String namespace = lines[i].substring(0, tab1);
+				contents.put(namespace, content);
+				liveSize += recordSize(namespace, content);
+			}
+		} catch (RuntimeException exc) {
+			IOException e = new IOException("Corrupt index"); //$NON-NLS-1$
+			e.initCause(exc);
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads a line.
+	 * @param b The file's contents.
+	 * @param pos The position of the line, which is moved behind the line
+	 * break.
+	 * @return The line without the line break or <code>null</code> if
+	 * the file ends before the line break.
+	 * @throws IOException If the line cannot be decoded.
+	 */
+	private static String readLine(byte[] b, int[] pos) throws IOException {
+		int start = pos[0];
+		int end = start;
+		while (end < b.length && b[end] != '\n') {
+			end++;
+		}
+		if (end >= b.length) {
+			return null;
+		}
+		pos[0] = end + 1;
+		return new String(b, start, end - start, CHARSET);
+	}
+
+	/**
+	 * Appends a record to the store file and syncs it. The store is
+	 * compacted instead if the file has grown too much.
+	 * @param namespace The namespace.
+	 * @param b The new contents or <code>null</code> if the namespace
+	 * has been removed.
+	 * @throws IOException If an IO error occurs.
+	 */
+	private static void append(String namespace, byte[] b) throws IOException {
+		if (fileSize == 0 || !FILE.isFile()
+				|| fileSize > Math.max(MIN_COMPACTION_SIZE, 2 * liveSize)) {
+			compact();
+			return;
+		}
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		writeRecord(buf, namespace, b);
+		FileOutputStream fos = new FileOutputStream(FILE, true);
+		try {
+			buf.writeTo(fos);
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		fileSize += buf.size();
+	}
+
+	/**
+	 * Writes all namespaces to a temporary file which then replaces the
+	 * store file. The old store file is kept as backup.
+	 * @throws IOException If an IO error occurs.
+	 */
+	private static void compact() throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream(
+				(int)Math.min(Integer.MAX_VALUE - 1024, liveSize + 64));
+		buf.write((MAGIC +"\n").getBytes(CHARSET)); //$NON-NLS-1$
+		for (Iterator<Map.Entry<String, byte[]>> it =
+			contents.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<String, byte[]> e = it.next();
+			writeRecord(buf, e.getKey(), e.getValue());
+		}
+
+		File tmp = new File(FILE.getAbsoluteFile().getParentFile(),
+				FILE_NAME + TEMP_SUFFIX);
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			buf.writeTo(fos);
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		if (FILE.isFile()) {
+			BACKUP_FILE.delete();
+			if (!FILE.renameTo(BACKUP_FILE)) {
+				tmp.delete();
+				throw new IOException("Could not replace "+ FILE); //$NON-NLS-1$
+			}
+		}
+		if (!tmp.renameTo(FILE)) {
+			tmp.delete();
+			throw new IOException("Could not replace "+ FILE); //$NON-NLS-1$
+		}
+		fileSize = buf.size();
+	}
+
+	/**
+	 * Writes a record.
+	 * @param buf The destination.
+	 * @param namespace The namespace.
+	 * @param b The contents or <code>null</code> for a removal.
+	 * @throws IOException If an IO error occurs.
+	 */
+	private static void writeRecord(ByteArrayOutputStream buf,
+			String namespace, byte[] b) throws IOException {
+		String line;
+		if (b != null) {
+			line = namespace +"\t"+ b.length +"\t" //$NON-NLS-1$ //$NON-NLS-2$
+				+ Long.toHexString(checksum(b)) +"\n"; //$NON-NLS-1$
+		} else {
+			line = namespace +"\t-1\t0\n"; //$NON-NLS-1$
+		}
+		buf.write(line.getBytes(CHARSET));
+		if (b != null) {
+			buf.write(b);
+		}
+	}
+
+	/**
+	 * Returns the approximate size of the record of a namespace.
+	 * @param namespace The namespace.
+	 * @param b The contents.
+	 * @return The number of bytes of the record.
+	 */
+	private static long recordSize(String namespace, byte[] b) {
+		// namespace, length, checksum, two tabs and a line break
+		return namespace.length() + 10 + 8 + 3 + b.length;
+	}
+
+	/**
+	 * Computes the checksum of a record's contents.
+	 * @param b The contents.
+	 * @return The CRC-32 value.
+	 */
+	private static long checksum(byte[] b) {
+		CRC32 crc = new CRC32();
+		crc.update(b, 0, b.length);
+		return crc.getValue();
+	}
+}
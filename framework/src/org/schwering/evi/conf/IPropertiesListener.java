@@ -0,0 +1,23 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.conf;
+
+import java.util.Set;
+
+/**
+ * Listens to changes of the properties with a certain key or prefix.
+ * The changes are delivered in the event dispatching thread; all changes
+ * made until the listener is invoked are delivered at once.
+ * @see Properties#addListener(String, IPropertiesListener)
+ * @see Properties#addPrefixListener(String, IPropertiesListener)
+ * @author Christoph Schwering (schwering@gmail.com)
+ * @version $Id$
+ */
+public interface IPropertiesListener {
+	/**
+	 * Fired in the event dispatching thread when properties the listener
+	 * is interested in have been set, removed or loaded with a new value.
+	 * @param props The properties.
+	 * @param keys The keys of the changed properties.
+	 */
+	public void propertiesChanged(Properties props, Set<String> keys);
+}
@@ -66,7 +66,7 @@ public class LanguageAdministrator {
 	 */
 	private static void load(Class<?> c) {
 		Locale locale = MainConfiguration.PROPS.getLocale("app.lang");
-		Class<?>[] argType = new Class[] { Locale.class };
+		Class<?>[] argType = new Class<?>[] { Locale.class };
 		Object[] argObject = new Object[] { locale };
 		try {
 			Method m = c.getMethod("load", argType);
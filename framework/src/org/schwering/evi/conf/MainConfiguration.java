@@ -21,6 +21,13 @@ import org.schwering.evi.util.ExceptionDialog;
  * <li> gui.tabs.placement (int) </li>
  * <li> app.sayhello (boolean) </li>
  * <li> app.lang (Locale) </li>
+ * <li> app.hotreload (boolean, default <code>true</code>) </li>
+ * <li> app.lazymodules (boolean, default <code>false</code>) </li>
+ * <li> app.leakdetector (boolean, default <code>false</code>) </li>
+ * <li> app.singleinstance (boolean, default <code>true</code>) </li>
+ * <li> app.restoresession (boolean, default <code>true</code>) </li>
+ * <li> app.restoresession.preload (boolean, default <code>true</code>) </li>
+ * <li> app.virtualthreads (boolean, default <code>false</code>) </li>
  * <li> app.modulelist (String [in URL format], default 
  * {@link org.schwering.evi.gui.conf.ModuleConfigurationPanel#MODULE_LIST_URL})
  * </li>
@@ -37,11 +44,18 @@ public class MainConfiguration {
 		
 	/**
 	 * The program's config dir.<br>
-	 * It is tried to set it to <code>${user.home}/.evi</code>.
+	 * It is tried to set it to <code>${user.home}/.evi</code> or to the 
+	 * directory given by the system property {@link #CONFIG_DIR_PROPERTY}.
 	 */
 	public static final File CONFIG_DIR;
 	private static final String CONFIG_FOLDER_NAME = ".evi";
 	
+	/**
+	 * The system property that overrides the config dir, e.g. for a 
+	 * training run that must not modify the user's configuration.
+	 */
+	public static final String CONFIG_DIR_PROPERTY = "evi.configdir";
+	
 	private static final String MAIN_CONFIG_FILE_NAME = "conf";
 	
 	/**
@@ -53,9 +67,11 @@ public class MainConfiguration {
 		File homeDir = new File(System.getProperty("user.home", ""));
 		HOME_DIR = homeDir;
 		
-		File configDir = new File(homeDir, CONFIG_FOLDER_NAME);
+		String configDirName = System.getProperty(CONFIG_DIR_PROPERTY);
+		File configDir = (configDirName != null) ? new File(configDirName) 
+				: new File(homeDir, CONFIG_FOLDER_NAME);
 		if (!configDir.exists()) {
-			configDir.mkdir();
+			configDir.mkdirs();
 		}
 		if (configDir.isDirectory() && configDir.canRead()) {
 			CONFIG_DIR = configDir;
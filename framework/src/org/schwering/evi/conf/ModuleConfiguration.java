@@ -3,13 +3,18 @@ package org.schwering.evi.conf;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.List;
 import java.util.Vector;
 
+import org.schwering.evi.core.EventBus;
+import org.schwering.evi.core.IEventSubscriber;
 import org.schwering.evi.core.ModuleContainer;
 import org.schwering.evi.core.ModuleLoader;
 import org.schwering.evi.util.ExceptionDialog;
@@ -40,6 +45,12 @@ public abstract class ModuleConfiguration {
 	
 	private static final String MODULES_CONFIG_FILE_NAME = "modules";
 	
+	/**
+	 * The number of milliseconds the file is stored after a module has 
+	 * been loaded or unloaded.
+	 */
+	private static final long STORE_DELAY = 1000;
+	
 	static {
 		File moduleFile = new File(MainConfiguration.CONFIG_DIR, 
 				MODULES_CONFIG_FILE_NAME);
@@ -67,37 +78,66 @@ public abstract class ModuleConfiguration {
 	 * which invokes <code>store()</code>.
 	 */
 	public static void load() {
-		BufferedReader br = null;
 		try {
-			br = new BufferedReader(new FileReader(MODULES_CONFIG_FILE));
-			for (String s; (s = br.readLine()) != null; ) {
-				s = s.trim();
-				if (s.length() > 0 && s.charAt(0) != '#') {
-					try {
-						if (s.toLowerCase().endsWith(".jar")) {
-							addURL(s);
-						} else {
-							addClassName(s);
-						}
-					} catch (Exception e) {
-						ExceptionDialog.show("The following URL or classname "+
-								"is not valid in "+ MODULES_CONFIG_FILE_NAME +
-								":\n"+ s, e);
+			Vector<String> entries = read();
+			for (int i = 0; i < entries.size(); i++) {
+				String s = entries.get(i);
+				try {
+					if (s.toLowerCase().endsWith(".jar")) {
+						addURL(s);
+					} else {
+						addClassName(s);
 					}
+				} catch (Exception e) {
+					ExceptionDialog.show("The following URL or classname "+
+							"is not valid in "+ MODULES_CONFIG_FILE_NAME +
+							":\n"+ s, e);
 				}
 			}
 		} catch (Exception exc) {
 			ExceptionDialog.show("Loading modules failed", exc);
-		} finally {
-			if (br != null) {
-				try {
-					br.close();
-				} catch (Exception exc) {
-				}
-			}
 		}
 		
 		addShutdownHook();
+		addChangeSubscriber();
+	}
+	
+	/**
+	 * Reads the URLs and classnames listed in the file without loading 
+	 * them, e.g. to check whether the list has changed.
+	 * @return The entries of the file or an empty array if it cannot be 
+	 * read.
+	 */
+	public static String[] readEntries() {
+		try {
+			Vector<String> entries = read();
+			String[] arr = new String[entries.size()];
+			return entries.toArray(arr);
+		} catch (Exception exc) {
+			return new String[0];
+		}
+	}
+	
+	/**
+	 * Reads the entries of the file.
+	 * @return The URLs and classnames without comments and empty lines.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private static Vector<String> read() throws IOException {
+		Vector<String> entries = new Vector<String>();
+		BufferedReader br = new BufferedReader(
+				new FileReader(MODULES_CONFIG_FILE));
+		try {
+			for (String s; (s = br.readLine()) != null; ) {
+				s = s.trim();
+				if (s.length() > 0 && s.charAt(0) != '#') {
+					entries.add(s);
+				}
+			}
+		} finally {
+			br.close();
+		}
+		return entries;
 	}
 	
 	/**
@@ -114,16 +154,50 @@ public abstract class ModuleConfiguration {
 	}
 	
 	/**
-	 * Stores the URL list to the file.
+	 * Stores the file shortly after modules have been loaded or unloaded, 
+	 * so that a crash does not lose the changes of the whole session.
+	 */
+	private static void addChangeSubscriber() {
+		IEventSubscriber<ModuleContainer> subscriber = 
+			new IEventSubscriber<ModuleContainer>() {
+			public void handle(EventBus.Topic<ModuleContainer> topic, 
+					List<ModuleContainer> events) {
+				store();
+			}
+		};
+		EventBus.subscribe(EventBus.MODULE_LOADED, subscriber, 
+				EventBus.ASYNCHRONOUS, STORE_DELAY);
+		EventBus.subscribe(EventBus.MODULE_UNLOADED, subscriber, 
+				EventBus.ASYNCHRONOUS, STORE_DELAY);
+	}
+	
+	/**
+	 * Stores the URL list to the file. The list is written to a temporary 
+	 * file first, which then replaces the file.
 	 */
-	public static void store() {
+	public static synchronized void store() {
+		File tmp = new File(MODULES_CONFIG_FILE.getAbsoluteFile().getParentFile(), 
+				MODULES_CONFIG_FILE.getName() +".tmp");
 		PrintWriter pw = null;
 		try {
-			pw = new PrintWriter(new FileWriter(MODULES_CONFIG_FILE));
+			FileOutputStream fos = new FileOutputStream(tmp);
+			pw = new PrintWriter(new OutputStreamWriter(fos));
 			ModuleContainer[] containers = ModuleLoader.getLoadedModules();
 			for (int i = 0; i < containers.length; i++) {
 				pw.println(containers[i].getSource().toString());
 			}
+			pw.flush();
+			fos.getFD().sync();
+			pw.close();
+			pw = null;
+			if (!tmp.renameTo(MODULES_CONFIG_FILE)) {
+				// some platforms do not replace existing files
+				MODULES_CONFIG_FILE.delete();
+				if (!tmp.renameTo(MODULES_CONFIG_FILE)) {
+					throw new IOException("Could not replace "+ 
+							MODULES_CONFIG_FILE);
+				}
+			}
 		} catch (Exception exc) {
 			ExceptionDialog.show("Saving modules-config failed", exc);
 		} finally {
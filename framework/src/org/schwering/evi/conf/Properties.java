@@ -5,28 +5,132 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Point;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.zip.CRC32;
 
+import org.schwering.evi.core.EventBus;
+import org.schwering.evi.core.IEventSubscriber;
 import org.schwering.evi.util.Base64;
 import org.schwering.evi.util.ShutdownHookManager;
+import org.schwering.evi.util.TaskScheduler;
 import org.schwering.evi.util.Util;
 
 /**
  * Extended <code>java.util.Properties</code> class.
- * Offers a number of methods to store and load commonly used objects.
+ * Offers a number of methods to store and load commonly used objects.<br>
+ * <br>
+ * Changes are tracked: {@link #store()} only writes the file if a 
+ * property has changed since the last load or store. The file is written 
+ * to a temporary file first, which then replaces the old file, so a crash 
+ * never leaves a half-written file behind.<br>
+ * While the shutdownhook is enabled (see {@link #setShutdownHook(boolean)}), 
+ * changes are also written behind in the background: the first change 
+ * schedules a store after the flush delay (see {@link #setFlushDelay(long)}), 
+ * and all changes made until then are written at once.<br>
+ * <br>
+ * In journal mode (see {@link #setJournal(boolean)}), each change is 
+ * appended as a small record to the journal file 
+ * <code>CONFIG_DIR/moduleId.journal</code> instead; the records are 
+ * synced to disk in batches shortly after the change. When the journal 
+ * has grown larger than the file, it is folded into the file by a 
+ * background store. {@link #load()} replays the journal, so a killed 
+ * process loses at most the changes of the last 
+ * {@link #JOURNAL_SYNC_DELAY} milliseconds.<br>
+ * <br>
+ * If the {@link ConfigurationStore} is enabled, the properties are kept 
+ * there instead of in their own file. An existing file is moved into the 
+ * store when the properties are loaded and kept as <code>name.bak</code>.<br>
+ * <br>
+ * The typed getters like {@link #getFont(String)} or 
+ * {@link #getColor(String)} remember the object they parsed until the 
+ * property is changed or loaded, so repeated calls return the same object 
+ * without parsing the value again. Because <code>Point</code> and 
+ * <code>Dimension</code> are mutable, their getters return copies.<br>
+ * <br>
+ * Components that cache settings can register an 
+ * {@link IPropertiesListener} for a key or a prefix of keys (see 
+ * {@link #addListener(String, IPropertiesListener)}). It is notified in 
+ * the event dispatching thread when one of these properties actually 
+ * changes; changes made in a row are delivered at once.
  * @author Christoph Schwering (schwering@gmail.com)
  * @version $Id$
  */
 public class Properties extends java.util.Properties {
 	private static final long serialVersionUID = 2894356226433006741L;
 	
+	/**
+	 * The default number of milliseconds between the first change and 
+	 * the background store.
+	 */
+	public static final long DEFAULT_FLUSH_DELAY = 2000;
+	
+	/**
+	 * The suffix of the journal file.
+	 */
+	public static final String JOURNAL_SUFFIX = ".journal";
+	
+	/**
+	 * The number of milliseconds between a change and the sync of its 
+	 * journal record.
+	 */
+	public static final long JOURNAL_SYNC_DELAY = 200;
+	
+	/**
+	 * The journal is folded into the file when it exceeds this size or 
+	 * the size of the file, whatever is larger.
+	 */
+	private static final long MIN_COMPACTION_SIZE = 64 * 1024;
+	
+	private static final String TEMP_SUFFIX = ".tmp";
+	
+	private static final byte PUT_RECORD = 'P';
+	private static final byte REMOVE_RECORD = 'R';
+	private static final byte CLEAR_RECORD = 'C';
+	
+	private static boolean defaultJournal = 
+		Boolean.getBoolean("evi.journal");
+	
+	/**
+	 * Marks a value that could not be parsed in the value cache.
+	 */
+	private static final Object INVALID = new Object();
+	
+	private static long defaultFlushDelay = DEFAULT_FLUSH_DELAY;
+	private static long totalFlushCount = 0;
+	private static long totalBytesWritten = 0;
+	
 	protected File propsFile;
+	protected File journalFile;
+	
+	/**
+	 * Indicates whether the properties are kept in the 
+	 * {@link ConfigurationStore}.
+	 */
+	private boolean stored;
 	protected String description;
 	protected Thread shutdownHook = new Thread() {
 		public void run() {
@@ -37,6 +141,173 @@ public class Properties extends java.util.Properties {
 		}
 	}; 
 	
+	/**
+	 * Serializes the writes of the file.
+	 */
+	private transient Object writeLock = new Object();
+	
+	/**
+	 * Indicates whether a property has changed since the last load or 
+	 * store. Guarded by <code>this</code>.
+	 */
+	private transient boolean dirty = false;
+	
+	/**
+	 * The time of the first change since the last load or store.
+	 */
+	private transient long dirtySince;
+	
+	/**
+	 * Indicates whether changes are written behind.
+	 */
+	private transient volatile boolean writeBehind = false;
+	
+	/**
+	 * Indicates whether a background store is scheduled.
+	 */
+	private transient boolean flushPending = false;
+	
+	/**
+	 * The flush delay of this object or -1 for the default.
+	 */
+	private transient volatile long flushDelay = -1;
+	
+	/**
+	 * Indicates whether changes are appended to the journal.
+	 */
+	private transient volatile boolean journal = defaultJournal;
+	
+	/**
+	 * Indicates whether the properties are being loaded, so that the 
+	 * changes are not journaled. Guarded by <code>this</code>.
+	 */
+	private transient boolean loading = false;
+	
+	/**
+	 * The journal records that have not been synced yet. Guarded by 
+	 * <code>this</code>.
+	 */
+	private transient ByteArrayOutputStream journalBuffer = 
+		new ByteArrayOutputStream();
+	
+	/**
+	 * Indicates whether a sync of the journal is scheduled.
+	 */
+	private transient boolean syncPending = false;
+	
+	/**
+	 * The size of the journal file. Guarded by <code>writeLock</code>.
+	 */
+	private transient long journalSize = 0;
+	
+	/**
+	 * The size of the file after the last load or store. Guarded by 
+	 * <code>writeLock</code>.
+	 */
+	private transient long snapshotSize = 0;
+	
+	/**
+	 * The parsed values by key. Guarded by <code>this</code>.
+	 */
+	private transient Map<String, ParsedValue> parsedValues = 
+		new HashMap<String, ParsedValue>();
+	
+	/**
+	 * The registered listeners.
+	 */
+	private transient List<ListenerEntry> listeners = 
+		new CopyOnWriteArrayList<ListenerEntry>();
+	
+	/**
+	 * Indicates whether this object is in {@link #withListeners}. Guarded 
+	 * by <code>this</code>.
+	 */
+	private transient boolean hasListeners = false;
+	
+	/**
+	 * The properties that have had listeners, so that the listeners of an 
+	 * unloaded module can be removed from all of them.
+	 */
+	private static List<WeakReference<Properties>> withListeners = 
+		new CopyOnWriteArrayList<WeakReference<Properties>>();
+	
+	private transient long flushCount = 0;
+	private transient long bytesWritten = 0;
+	private transient long totalFlushLatency = 0;
+	private transient long maxFlushLatency = 0;
+	
+	/**
+	 * Sets the default flush delay of all objects that have no own flush 
+	 * delay.
+	 * @param delay The number of milliseconds between the first change 
+	 * and the background store; 0 disables writing behind.
+	 * @see #setFlushDelay(long)
+	 */
+	public static void setDefaultFlushDelay(long delay) {
+		defaultFlushDelay = Math.max(0, delay);
+	}
+	
+	/**
+	 * Sets whether objects created from now on use the journal mode. 
+	 * The default is given by the system property 
+	 * <code>evi.journal</code>.
+	 * @param on <code>true</code> enables the journal mode.
+	 * @see #setJournal(boolean)
+	 */
+	public static void setDefaultJournal(boolean on) {
+		defaultJournal = on;
+	}
+	
+	/**
+	 * Returns the number of stores of all objects that actually wrote 
+	 * a file.
+	 * @return The number of writes.
+	 */
+	public static synchronized long getTotalFlushCount() {
+		return totalFlushCount;
+	}
+	
+	/**
+	 * Returns the number of bytes all objects have written.
+	 * @return The number of bytes.
+	 */
+	public static synchronized long getTotalBytesWritten() {
+		return totalBytesWritten;
+	}
+	
+	
+	/**
+	 * Returns the names of all properties whose name starts with a 
+	 * prefix, no matter whether they are kept in their own file or in the 
+	 * {@link ConfigurationStore}.
+	 * @param prefix The prefix of the names.
+	 * @return The names in alphabetical order.
+	 */
+	public static String[] getNames(final String prefix) {
+		Set<String> names = new TreeSet<String>();
+		if (ConfigurationStore.isEnabled()) {
+			String[] namespaces = ConfigurationStore.getNamespaces();
+			for (int i = 0; i < namespaces.length; i++) {
+				if (namespaces[i].startsWith(prefix)) {
+					names.add(namespaces[i]);
+				}
+			}
+		}
+		FilenameFilter filter = new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith(prefix) && !name.endsWith(TEMP_SUFFIX) 
+						&& !name.endsWith(JOURNAL_SUFFIX) 
+						&& !name.endsWith(ConfigurationStore.BACKUP_SUFFIX);
+			}
+		};
+		File[] files = MainConfiguration.CONFIG_DIR.listFiles(filter);
+		for (int i = 0; files != null && i < files.length; i++) {
+			if (files[i].isFile()) {
+				names.add(files[i].getName());
+			}
+		}
+		return names.toArray(new String[names.size()]);
+	}
 	
 	/**
 	 * Initializes a new properties file at CONFIG_DIR/moduleId.<br>
@@ -70,11 +341,28 @@ public class Properties extends java.util.Properties {
 	 * @see MainConfiguration#CONFIG_DIR
 	 */
 	public Properties(String moduleId, boolean create) throws IOException {
-		propsFile = new File(MainConfiguration.CONFIG_DIR, moduleId);
-		if (!propsFile.exists()) {
+		this(MainConfiguration.CONFIG_DIR, moduleId, create);
+	}
+	
+	/**
+	 * Initializes a new properties file at dir/name.<br>
+	 * The file is <b>not loaded</b>! Properties outside the CONFIG_DIR are 
+	 * never kept in the {@link ConfigurationStore}.
+	 * @param dir The directory of the file.
+	 * @param name The filename.
+	 * @param create Indicates whether it is tried to create the file it 
+	 * does not yet exist.
+	 */
+	public Properties(File dir, String name, boolean create) 
+	throws IOException {
+		propsFile = new File(dir, name);
+		journalFile = new File(dir, name + JOURNAL_SUFFIX);
+		stored = ConfigurationStore.isEnabled() 
+			&& dir.equals(MainConfiguration.CONFIG_DIR);
+		if (!propsFile.exists() && !stored) {
 			propsFile.createNewFile();
 		}
-		shutdownHook.setName(moduleId +" props");
+		shutdownHook.setName(name +" props");
 	}
 	
 	/**
@@ -88,10 +376,220 @@ public class Properties extends java.util.Properties {
 		} else {
 			ShutdownHookManager.removeShutdownHook(shutdownHook);
 		}
+		writeBehind = set;
+		if (set) {
+			synchronized (this) {
+				if (dirty) {
+					scheduleFlush();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Enables/disables the journal mode. In journal mode, each change is 
+	 * appended to the journal file and the file is only rewritten when 
+	 * the journal has grown large or when {@link #store()} is invoked 
+	 * (e.g. by the shutdownhook).
+	 * @param on <code>true</code> enables the journal mode.
+	 */
+	public void setJournal(boolean on) {
+		journal = on;
+	}
+	
+	/**
+	 * Indicates whether the journal mode is enabled.
+	 * @return <code>true</code> if changes are appended to the journal.
+	 */
+	public boolean isJournal() {
+		return journal;
+	}
+	
+	/**
+	 * Returns the size of the journal file.
+	 * @return The number of bytes of records that have not been folded 
+	 * into the file yet.
+	 */
+	public long getJournalSize() {
+		synchronized (writeLock) {
+			return journalSize;
+		}
+	}
+	
+	/**
+	 * Sets the number of milliseconds between the first change and the 
+	 * background store. Changes made within this time are written at once.
+	 * @param delay The delay; 0 disables writing behind, a negative value 
+	 * selects the default (see {@link #setDefaultFlushDelay(long)}).
+	 */
+	public void setFlushDelay(long delay) {
+		flushDelay = delay;
+	}
+	
+	/**
+	 * Returns the number of milliseconds between the first change and the 
+	 * background store.
+	 * @return The delay; 0 if changes are not written behind.
+	 */
+	public long getFlushDelay() {
+		long delay = flushDelay;
+		return (delay >= 0) ? delay : defaultFlushDelay;
+	}
+	
+	/**
+	 * Indicates whether a property has changed since the last load or 
+	 * store.
+	 * @return <code>true</code> if the file is out of date.
+	 */
+	public synchronized boolean isDirty() {
+		return dirty;
+	}
+	
+	/**
+	 * Returns the number of stores that actually wrote the file.
+	 * @return The number of writes.
+	 */
+	public synchronized long getFlushCount() {
+		return flushCount;
+	}
+	
+	/**
+	 * Returns the number of bytes written to the file.
+	 * @return The number of bytes.
+	 */
+	public synchronized long getBytesWritten() {
+		return bytesWritten;
+	}
+	
+	/**
+	 * Returns the average time between the first change and the write 
+	 * that contained it.
+	 * @return The average latency in milliseconds.
+	 */
+	public synchronized long getAverageFlushLatency() {
+		return (flushCount > 0) ? totalFlushLatency / flushCount : 0;
+	}
+	
+	/**
+	 * Returns the maximum time between the first change and the write 
+	 * that contained it.
+	 * @return The maximum latency in milliseconds.
+	 */
+	public synchronized long getMaxFlushLatency() {
+		return maxFlushLatency;
+	}
+	
+	/**
+	 * Registers a listener that is notified when the property with the 
+	 * given key changes. The listener should be removed with 
+	 * {@link #removeListener(IPropertiesListener)} when it is no longer 
+	 * needed, e.g. when the module instance is disposed.
+	 * @param key The key.
+	 * @param listener The listener.
+	 */
+	public void addListener(String key, IPropertiesListener listener) {
+		getListenerEntry(listener).keys.add(key);
+	}
+	
+	/**
+	 * Registers a listener that is notified when a property whose key 
+	 * starts with the given prefix changes.
+	 * @param prefix The prefix of the keys; <code>""</code> matches all 
+	 * keys.
+	 * @param listener The listener.
+	 * @see #addListener(String, IPropertiesListener)
+	 */
+	public void addPrefixListener(String prefix, 
+			IPropertiesListener listener) {
+		getListenerEntry(listener).prefixes.add(prefix);
+	}
+	
+	/**
+	 * Returns the registration of a listener, so that all its keys and 
+	 * prefixes share one subscription and changes are delivered together.
+	 * @param listener The listener.
+	 * @return The existing or a new registration.
+	 */
+	private synchronized ListenerEntry getListenerEntry(
+			IPropertiesListener listener) {
+		if (listener == null) {
+			throw new NullPointerException();
+		}
+		for (Iterator<ListenerEntry> it = listeners.iterator(); it.hasNext(); ) {
+			ListenerEntry entry = it.next();
+			if (entry.listener == listener) {
+				return entry;
+			}
+		}
+		ListenerEntry entry = new ListenerEntry(listener);
+		listeners.add(entry);
+		if (!hasListeners) {
+			hasListeners = true;
+			withListeners.add(new WeakReference<Properties>(this));
+		}
+		return entry;
 	}
 	
 	/**
-	 * Returns the properties file.
+	 * Removes the listeners whose classes were loaded by the given class 
+	 * loader from all properties. Invoked when a module is unloaded.
+	 * @param loader The class loader of the unloaded module.
+	 */
+	public static void removeListenersLoadedBy(ClassLoader loader) {
+		for (Iterator<WeakReference<Properties>> it = withListeners.iterator(); 
+				it.hasNext(); ) {
+			WeakReference<Properties> ref = it.next();
+			Properties props = ref.get();
+			if (props == null) {
+				withListeners.remove(ref);
+				continue;
+			}
+			for (Iterator<ListenerEntry> it2 = props.listeners.iterator(); 
+					it2.hasNext(); ) {
+				IPropertiesListener listener = it2.next().listener;
+				if (listener.getClass().getClassLoader() == loader) {
+					props.removeListener(listener);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Removes all keys and prefixes of a listener. Changes that have not been 
+	 * delivered yet are dropped.
+	 * @param listener The listener.
+	 */
+	public synchronized void removeListener(IPropertiesListener listener) {
+		for (Iterator<ListenerEntry> it = listeners.iterator(); it.hasNext(); ) {
+			ListenerEntry entry = it.next();
+			if (entry.listener == listener) {
+				listeners.remove(entry);
+				EventBus.unsubscribe(entry.subscription);
+			}
+		}
+	}
+	
+	/**
+	 * Queues the change of a property for the listeners that are 
+	 * interested in it.
+	 * @param key The key of the changed property.
+	 */
+	private void fireChanged(Object key) {
+		if (listeners.isEmpty()) {
+			return;
+		}
+		String s = key.toString();
+		for (Iterator<ListenerEntry> it = listeners.iterator(); it.hasNext(); ) {
+			ListenerEntry entry = it.next();
+			if (entry.matches(s)) {
+				EventBus.publish(entry.topic, s);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the properties file. If the {@link ConfigurationStore} is 
+	 * enabled, the file does not exist.
 	 * @return The properties file.
 	 */
 	public File getFile() {
@@ -115,14 +613,88 @@ public class Properties extends java.util.Properties {
 	}
 	
 	/**
-	 * Loads the properties.
+	 * Loads the properties and replays the journal, if any. If the 
+	 * {@link ConfigurationStore} is enabled but does not contain the 
+	 * properties yet, they are loaded from the file and moved into the 
+	 * store.
 	 * @throws IOException If the file cannot be read etc.
 	 */
 	public void load() throws IOException {
-		FileInputStream fis = null;
-		fis = new FileInputStream(propsFile);
-		load(fis);
-		if (fis != null) {
+		boolean migrate = false;
+		byte[] bytes = null;
+		if (stored) {
+			bytes = ConfigurationStore.get(propsFile.getName());
+			if (bytes == null && propsFile.isFile()) {
+				bytes = readFile(propsFile);
+				migrate = true;
+			}
+		} else if (propsFile.isFile() || !journalFile.isFile()) {
+			// without journal, a missing file is an error as before
+			bytes = readFile(propsFile);
+		}
+		if (bytes != null) {
+			synchronized (this) {
+				loading = true;
+				try {
+					load(new ByteArrayInputStream(bytes));
+				} finally {
+					loading = false;
+				}
+				dirty = false;
+			}
+			synchronized (writeLock) {
+				snapshotSize = bytes.length;
+			}
+		}
+		
+		if (replayJournal()) {
+			synchronized (this) {
+				dirty = true;
+				dirtySince = System.currentTimeMillis();
+			}
+		}
+		
+		if (migrate) {
+			synchronized (this) {
+				dirty = true;
+				dirtySince = System.currentTimeMillis();
+			}
+			try {
+				store();
+			} catch (IOException exc) {
+				// the file is kept and the next store tries again
+				exc.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the file the old properties file is renamed to when it has 
+	 * been moved into the {@link ConfigurationStore}.
+	 * @return The backup file.
+	 */
+	private File getBackupFile() {
+		return new File(propsFile.getAbsoluteFile().getParentFile(), 
+				propsFile.getName() + ConfigurationStore.BACKUP_SUFFIX);
+	}
+	
+	/**
+	 * Reads a file completely.
+	 * @param file The file.
+	 * @return The content.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private static byte[] readFile(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream(
+					(int)file.length());
+			byte[] b = new byte[8192];
+			for (int n; (n = fis.read(b)) != -1; ) {
+				buf.write(b, 0, n);
+			}
+			return buf.toByteArray();
+		} finally {
 			try {
 				fis.close();
 			} catch (Exception exc) {
@@ -131,21 +703,446 @@ public class Properties extends java.util.Properties {
 	}
 	
 	/**
-	 * Stores the new settings.
+	 * Applies the records of the journal file to the loaded properties. 
+	 * A record that was cut off by a crash and everything behind it is 
+	 * removed from the journal.
+	 * @return <code>true</code> if at least one record was replayed.
+	 * @throws IOException If the journal cannot be read.
+	 */
+	private boolean replayJournal() throws IOException {
+		synchronized (writeLock) {
+			if (!journalFile.isFile()) {
+				journalSize = 0;
+				return false;
+			}
+			byte[] data = readFile(journalFile);
+			ByteBuffer buf = ByteBuffer.wrap(data);
+			int valid = 0;
+			int count = 0;
+			synchronized (this) {
+				loading = true;
+				try {
+					while (buf.hasRemaining()) {
+						int start = buf.position();
+						byte type = buf.get();
+						String key = null;
+						String value = null;
+						if (type == PUT_RECORD || type == REMOVE_RECORD) {
+							key = readString(buf);
+						}
+						if (type == PUT_RECORD) {
+							value = readString(buf);
+						} else if (type != REMOVE_RECORD 
+								&& type != CLEAR_RECORD) {
+							break;
+						}
+						CRC32 crc = new CRC32();
+						crc.update(data, start, buf.position() - start);
+						if (buf.getInt() != (int)crc.getValue()) {
+							break;
+						}
+						if (type == PUT_RECORD) {
+							put(key, value);
+						} else if (type == REMOVE_RECORD) {
+							remove(key);
+						} else {
+							clear();
+						}
+						valid = buf.position();
+						count++;
+					}
+				} catch (BufferUnderflowException exc) {
+					// the last record is incomplete
+				} finally {
+					loading = false;
+				}
+			}
+			if (valid < data.length) {
+				RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+				try {
+					raf.setLength(valid);
+				} finally {
+					raf.close();
+				}
+			}
+			journalSize = valid;
+			return count > 0;
+		}
+	}
+	
+	/**
+	 * Reads a string of a journal record.
+	 * @param buf The journal.
+	 * @return The string.
+	 * @throws BufferUnderflowException If the journal ends before the 
+	 * string.
+	 */
+	private static String readString(ByteBuffer buf) {
+		int len = buf.getInt();
+		if (len < 0 || len > buf.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] b = new byte[len];
+		buf.get(b);
+		try {
+			return new String(b, "UTF-8");
+		} catch (IOException exc) {
+			throw new RuntimeException(exc);
+		}
+	}
+	
+	/**
+	 * Appends a record to the journal buffer and schedules its sync. 
+	 * Must be invoked while holding the lock of <code>this</code>.
+	 * @param type The type of the record.
+	 * @param key The key or <code>null</code>.
+	 * @param value The value or <code>null</code>.
+	 */
+	private void appendRecord(byte type, Object key, Object value) {
+		if (!journal || loading) {
+			return;
+		}
+		try {
+			ByteArrayOutputStream rec = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(rec);
+			out.writeByte(type);
+			if (key != null) {
+				byte[] b = key.toString().getBytes("UTF-8");
+				out.writeInt(b.length);
+				out.write(b);
+			}
+			if (value != null) {
+				byte[] b = value.toString().getBytes("UTF-8");
+				out.writeInt(b.length);
+				out.write(b);
+			}
+			CRC32 crc = new CRC32();
+			crc.update(rec.toByteArray());
+			out.writeInt((int)crc.getValue());
+			rec.writeTo(journalBuffer);
+		} catch (IOException exc) {
+			// cannot happen with a ByteArrayOutputStream
+			throw new RuntimeException(exc);
+		}
+		scheduleSync();
+	}
+	
+	/**
+	 * Schedules a sync of the journal unless one is scheduled already. 
+	 * Must be invoked while holding the lock of <code>this</code>.
+	 */
+	private void scheduleSync() {
+		if (syncPending) {
+			return;
+		}
+		syncPending = true;
+		final Runnable sync = new Runnable() {
+			public void run() {
+				synchronized (Properties.this) {
+					syncPending = false;
+				}
+				try {
+					syncJournal();
+				} catch (Exception exc) {
+					exc.printStackTrace();
+				}
+			}
+		};
+		// the timer thread must not block, so the journal is written in a pool
+		TaskScheduler.schedule(this, new Runnable() {
+			public void run() {
+				TaskScheduler.submit(Properties.this, sync, TaskScheduler.LOW);
+			}
+		}, JOURNAL_SYNC_DELAY);
+	}
+	
+	/**
+	 * Appends the buffered records to the journal file and syncs it to 
+	 * disk. Folds the journal into the file if it has grown too large.
+	 * @throws IOException If an IO error occurs.
+	 */
+	public void syncJournal() throws IOException {
+		synchronized (writeLock) {
+			byte[] bytes;
+			synchronized (this) {
+				if (journalBuffer.size() == 0) {
+					return;
+				}
+				bytes = journalBuffer.toByteArray();
+				journalBuffer.reset();
+			}
+			try {
+				FileOutputStream fos = new FileOutputStream(journalFile, true);
+				try {
+					fos.write(bytes);
+					fos.getFD().sync();
+				} finally {
+					fos.close();
+				}
+			} catch (IOException exc) {
+				synchronized (this) {
+					byte[] newer = journalBuffer.toByteArray();
+					journalBuffer.reset();
+					journalBuffer.write(bytes, 0, bytes.length);
+					journalBuffer.write(newer, 0, newer.length);
+				}
+				throw exc;
+			}
+			journalSize += bytes.length;
+			if (journalSize > Math.max(MIN_COMPACTION_SIZE, snapshotSize)) {
+				store();
+			}
+		}
+	}
+	
+	/**
+	 * Deletes the stored properties and disables the shutdownhook. The 
+	 * properties in memory are kept.
+	 * @throws IOException If the properties cannot be removed from the 
+	 * {@link ConfigurationStore}.
+	 */
+	public void delete() throws IOException {
+		setShutdownHook(false);
+		synchronized (writeLock) {
+			if (stored) {
+				ConfigurationStore.remove(propsFile.getName());
+				getBackupFile().delete();
+			}
+			propsFile.delete();
+			synchronized (this) {
+				journalBuffer.reset();
+			}
+			journalFile.delete();
+			journalSize = 0;
+		}
+	}
+	
+	/**
+	 * Stores the new settings if anything has changed since the last 
+	 * load or store. The file is replaced atomically. The journal is 
+	 * folded into the file, i.e. it is deleted afterwards.
 	 * @throws IOException If an IO error occurs.
 	 */
 	public void store() throws IOException {
-		FileOutputStream fos = null;
-		fos = new FileOutputStream(propsFile);
-		store(fos, description);
-		if (fos != null) {
+		synchronized (writeLock) {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			long since;
+			int journaled;
+			synchronized (this) {
+				if (!dirty) {
+					return;
+				}
+				store(buf, description);
+				dirty = false;
+				since = dirtySince;
+				journaled = journalBuffer.size();
+			}
 			try {
-				fos.close();
-			} catch (Exception exc) {
+				write(buf.toByteArray());
+			} catch (IOException exc) {
+				synchronized (this) {
+					if (!dirty) {
+						dirty = true;
+						dirtySince = since;
+					}
+				}
+				throw exc;
+			}
+			
+			// the records up to now are contained in the file
+			synchronized (this) {
+				byte[] newer = journalBuffer.toByteArray();
+				journalBuffer.reset();
+				journalBuffer.write(newer, journaled, newer.length - journaled);
+			}
+			if (journalFile.exists()) {
+				journalFile.delete();
+			}
+			journalSize = 0;
+			snapshotSize = buf.size();
+			
+			long latency = System.currentTimeMillis() - since;
+			synchronized (this) {
+				flushCount++;
+				bytesWritten += buf.size();
+				totalFlushLatency += latency;
+				maxFlushLatency = Math.max(maxFlushLatency, latency);
+			}
+			synchronized (Properties.class) {
+				totalFlushCount++;
+				totalBytesWritten += buf.size();
 			}
 		}
 	}
 	
+	/**
+	 * Writes the file: the bytes are written to a temporary file, which 
+	 * then replaces the file. If the {@link ConfigurationStore} is enabled, 
+	 * the bytes are put into the store and the file is kept as backup 
+	 * (<code>name.bak</code>) in case the store gets lost.
+	 * @param bytes The new content.
+	 * @throws IOException If an IO error occurs.
+	 */
+	private void write(byte[] bytes) throws IOException {
+		if (stored) {
+			ConfigurationStore.put(propsFile.getName(), bytes);
+			if (propsFile.exists()) {
+				// moved into the store
+				File backup = getBackupFile();
+				backup.delete();
+				if (!propsFile.renameTo(backup)) {
+					propsFile.delete();
+				}
+			}
+			return;
+		}
+		
+		File tmp = new File(propsFile.getAbsoluteFile().getParentFile(), 
+				propsFile.getName() + TEMP_SUFFIX);
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			fos.write(bytes);
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		if (!tmp.renameTo(propsFile)) {
+			// some platforms do not replace existing files
+			propsFile.delete();
+			if (!tmp.renameTo(propsFile)) {
+				tmp.delete();
+				throw new IOException("Could not replace "+ propsFile);
+			}
+		}
+	}
+	
+	/**
+	 * Remembers that a property has changed and schedules a background 
+	 * store if writing behind is enabled. Must be invoked while holding 
+	 * the lock of <code>this</code>.
+	 */
+	private void markDirty() {
+		if (!dirty) {
+			dirty = true;
+			dirtySince = System.currentTimeMillis();
+		}
+		if (writeBehind && !journal) {
+			scheduleFlush();
+		}
+	}
+	
+	/**
+	 * Schedules a background store unless one is scheduled already. Must 
+	 * be invoked while holding the lock of <code>this</code>.
+	 */
+	private void scheduleFlush() {
+		long delay = getFlushDelay();
+		if (flushPending || delay <= 0 || journal) {
+			return;
+		}
+		flushPending = true;
+		final Runnable flush = new Runnable() {
+			public void run() {
+				synchronized (Properties.this) {
+					flushPending = false;
+				}
+				if (!writeBehind) {
+					return;
+				}
+				try {
+					store();
+				} catch (Exception exc) {
+					exc.printStackTrace();
+				}
+			}
+		};
+		// the timer thread must not block, so the file is written in a pool
+		TaskScheduler.schedule(this, new Runnable() {
+			public void run() {
+				TaskScheduler.submit(Properties.this, flush, TaskScheduler.LOW);
+			}
+		}, delay);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.Hashtable#put(java.lang.Object, java.lang.Object)
+	 */
+	public synchronized Object put(Object key, Object value) {
+		parsedValues.remove(key);
+		Object old = super.put(key, value);
+		if (!value.equals(old)) {
+			markDirty();
+			appendRecord(PUT_RECORD, key, value);
+			fireChanged(key);
+		}
+		return old;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.Hashtable#putAll(java.util.Map)
+	 */
+	public synchronized void putAll(Map<?, ?> t) {
+		Iterator<? extends Map.Entry<?, ?>> it = t.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<?, ?> e = it.next();
+			put(e.getKey(), e.getValue());
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.Hashtable#remove(java.lang.Object)
+	 */
+	public synchronized Object remove(Object key) {
+		parsedValues.remove(key);
+		Object old = super.remove(key);
+		if (old != null) {
+			markDirty();
+			appendRecord(REMOVE_RECORD, key, null);
+			fireChanged(key);
+		}
+		return old;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.Hashtable#clear()
+	 */
+	public synchronized void clear() {
+		parsedValues.clear();
+		if (!isEmpty()) {
+			String[] keys = getKeys();
+			super.clear();
+			markDirty();
+			appendRecord(CLEAR_RECORD, null, null);
+			for (int i = 0; i < keys.length; i++) {
+				fireChanged(keys[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the cached parsed value of a property.
+	 * Must be invoked while holding the lock of <code>this</code>.
+	 * @param key The key.
+	 * @param type The type of the value.
+	 * @return The value, {@link #INVALID} if the property could not be 
+	 * parsed or <code>null</code> if no value of this type is cached.
+	 */
+	private Object getParsedValue(String key, Class<?> type) {
+		ParsedValue v = parsedValues.get(key);
+		return (v != null && v.type == type) ? v.value : null;
+	}
+	
+	/**
+	 * Caches the parsed value of a property until it changes.
+	 * Must be invoked while holding the lock of <code>this</code>.
+	 * @param key The key.
+	 * @param type The type of the value.
+	 * @param value The value or {@link #INVALID}.
+	 */
+	private void putParsedValue(String key, Class<?> type, Object value) {
+		parsedValues.put(key, new ParsedValue(type, value));
+	}
+	
 	/**
 	 * Returns all keys in an array.
 	 * @return All configuration keys.
@@ -468,19 +1465,24 @@ public class Properties extends java.util.Properties {
 	 * @param def The default point.
 	 * @return A new point.
 	 */
-	public Point getPoint(String key, Point def) {
-		try {
-			String s = getString(key);
-			s = s.substring(1, s.length()-1).trim();
-			String[] arr = s.split("\\|");
-			arr[0] = arr[0].trim();
-			arr[1] = arr[1].trim();
-			int x = Integer.parseInt(arr[0]);
-			int y = Integer.parseInt(arr[1]);
-			return new Point(x, y);
-		} catch (Exception exc) {
-			return def;
+	public synchronized Point getPoint(String key, Point def) {
+		Object cached = getParsedValue(key, Point.class);
+		if (cached == null) {
+			try {
+				String s = getString(key);
+				s = s.substring(1, s.length()-1).trim();
+				String[] arr = s.split("\\|");
+				arr[0] = arr[0].trim();
+				arr[1] = arr[1].trim();
+				int x = Integer.parseInt(arr[0]);
+				int y = Integer.parseInt(arr[1]);
+				cached = new Point(x, y);
+			} catch (Exception exc) {
+				cached = INVALID;
+			}
+			putParsedValue(key, Point.class, cached);
 		}
+		return (cached != INVALID) ? new Point((Point)cached) : def;
 	}
 	
 	/**
@@ -511,18 +1513,23 @@ public class Properties extends java.util.Properties {
 	 * @param def The default dimension.
 	 * @return A new point.
 	 */
-	public Dimension getDimension(String key, Dimension def) {
-		try {
-			String s = getString(key);
-			String[] arr = s.trim().split("x");
-			arr[0] = arr[0].trim();
-			arr[1] = arr[1].trim();
-			int width = Integer.parseInt(arr[0]);
-			int height = Integer.parseInt(arr[1]);
-			return new Dimension(width, height);
-		} catch (Exception exc) {
-			return def;
+	public synchronized Dimension getDimension(String key, Dimension def) {
+		Object cached = getParsedValue(key, Dimension.class);
+		if (cached == null) {
+			try {
+				String s = getString(key);
+				String[] arr = s.trim().split("x");
+				arr[0] = arr[0].trim();
+				arr[1] = arr[1].trim();
+				int width = Integer.parseInt(arr[0]);
+				int height = Integer.parseInt(arr[1]);
+				cached = new Dimension(width, height);
+			} catch (Exception exc) {
+				cached = INVALID;
+			}
+			putParsedValue(key, Dimension.class, cached);
 		}
+		return (cached != INVALID) ? new Dimension((Dimension)cached) : def;
 	}
 	
 	/**
@@ -551,13 +1558,18 @@ public class Properties extends java.util.Properties {
 	 * @param def The default font.
 	 * @return A new font.
 	 */
-	public Font getFont(String key, Font def) {
-		String s = getString(key);
-		if (s != null && s.length() > 0) {
-			return Font.decode(s);
-		} else {
-			return def;
+	public synchronized Font getFont(String key, Font def) {
+		Object cached = getParsedValue(key, Font.class);
+		if (cached == null) {
+			String s = getString(key);
+			if (s != null && s.length() > 0) {
+				cached = Font.decode(s);
+			} else {
+				cached = INVALID;
+			}
+			putParsedValue(key, Font.class, cached);
 		}
+		return (cached != INVALID) ? (Font)cached : def;
 	}
 	
 	/**
@@ -584,22 +1596,27 @@ public class Properties extends java.util.Properties {
 	 * @param def The default color.
 	 * @return A new color.
 	 */
-	public Color getColor(String key, Color def) {
-		String s = getString(key);
-		if (s != null && s.length() > 0) {
-			try {
-				String[] arr = s.split(" ");
-				int r = Integer.parseInt(arr[0]);
-				int g = Integer.parseInt(arr[1]);
-				int b = Integer.parseInt(arr[2]);
-				int a = Integer.parseInt(arr[3]);
-				return new Color(r, g, b, a);
-			} catch (Exception exc) {
-				return def;
+	public synchronized Color getColor(String key, Color def) {
+		Object cached = getParsedValue(key, Color.class);
+		if (cached == null) {
+			String s = getString(key);
+			if (s != null && s.length() > 0) {
+				try {
+					String[] arr = s.split(" ");
+					int r = Integer.parseInt(arr[0]);
+					int g = Integer.parseInt(arr[1]);
+					int b = Integer.parseInt(arr[2]);
+					int a = Integer.parseInt(arr[3]);
+					cached = new Color(r, g, b, a);
+				} catch (Exception exc) {
+					cached = INVALID;
+				}
+			} else {
+				cached = INVALID;
 			}
-		} else {
-			return def;
+			putParsedValue(key, Color.class, cached);
 		}
+		return (cached != INVALID) ? (Color)cached : def;
 	}
 	
 	/**
@@ -631,17 +1648,22 @@ public class Properties extends java.util.Properties {
 	 * @param def The default locale.
 	 * @return A new locale.
 	 */
-	public Locale getLocale(String key, Locale def) {
-		String s = getString(key);
-		if (s != null && s.length() > 0) {
-			try {
-				return new Locale(s);
-			} catch (Exception exc) {
-				return def;
+	public synchronized Locale getLocale(String key, Locale def) {
+		Object cached = getParsedValue(key, Locale.class);
+		if (cached == null) {
+			String s = getString(key);
+			if (s != null && s.length() > 0) {
+				try {
+					cached = new Locale(s);
+				} catch (Exception exc) {
+					cached = INVALID;
+				}
+			} else {
+				cached = INVALID;
 			}
-		} else {
-			return def;
+			putParsedValue(key, Locale.class, cached);
 		}
+		return (cached != INVALID) ? (Locale)cached : def;
 	}
 	
 	/**
@@ -653,4 +1675,58 @@ public class Properties extends java.util.Properties {
 		String s = value.getLanguage();
 		setProperty(key, s);
 	}
+	
+	/**
+	 * A registered listener with its keys and prefixes. Each listener has 
+	 * its own topic in the {@link EventBus}, which collects the changes 
+	 * and delivers them in the event dispatching thread.
+	 */
+	private class ListenerEntry implements IEventSubscriber<String> {
+		private IPropertiesListener listener;
+		private Set<String> keys = new CopyOnWriteArraySet<String>();
+		private List<String> prefixes = new CopyOnWriteArrayList<String>();
+		private EventBus.Topic<String> topic;
+		private EventBus.Subscription<String> subscription;
+		
+		private ListenerEntry(IPropertiesListener listener) {
+			this.listener = listener;
+			topic = new EventBus.Topic<String>(propsFile.getName() 
+					+" "+ listener.getClass().getName());
+			// the listener owns the subscription, so that it is attributed 
+			// to the listener's module
+			subscription = EventBus.subscribe(topic, this, EventBus.EDT, 0, 
+					listener);
+		}
+		
+		private boolean matches(String k) {
+			if (keys.contains(k)) {
+				return true;
+			}
+			for (Iterator<String> it = prefixes.iterator(); it.hasNext(); ) {
+				if (k.startsWith(it.next())) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		public void handle(EventBus.Topic<String> t, List<String> keys) {
+			Set<String> set = new LinkedHashSet<String>(keys);
+			listener.propertiesChanged(Properties.this, 
+					Collections.unmodifiableSet(set));
+		}
+	}
+	
+	/**
+	 * A parsed value and its type.
+	 */
+	private static class ParsedValue {
+		private Class<?> type;
+		private Object value;
+		
+		private ParsedValue(Class<?> type, Object value) {
+			this.type = type;
+			this.value = value;
+		}
+	}
 }
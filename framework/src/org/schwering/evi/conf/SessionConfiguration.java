@@ -0,0 +1,285 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.conf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Vector;
+
+import org.schwering.evi.util.ExceptionDialog;
+
+/**
+ * Administers the session file. It lists the module instances that were
+ * open in the main tabbar when EVI was closed, so that they can be
+ * restored at the next start.<br>
+ * Each line describes one tab: the module's id, the tab's title and the
+ * arguments the instance was created with, separated by tabulators. Only
+ * <code>String</code> and <code>URI</code> arguments can be stored. A
+ * line that starts with <code>*</code> contains the index of the
+ * selected tab:
+ * <pre>
+ * # this is a comment
+ * org.schwering.evi.irc.IRC	#evi	uri:irc://irc.freenode.net/evi
+ * org.schwering.evi.audio.AudioPlayer	Audio Player
+ * *1
+ * </pre>
+ * @author Christoph Schwering (schwering@gmail.com)
+ * @version $Id$
+ */
+public abstract class SessionConfiguration {
+	/**
+	 * The session file.<br>
+	 * It is tried to set it to <code>CONFIG_DIR/session</code>.
+	 */
+	public static final File SESSION_CONFIG_FILE;
+
+	private static final String SESSION_CONFIG_FILE_NAME = "session";
+
+	private static final String URI_PREFIX = "uri:";
+	private static final String STRING_PREFIX = "str:";
+
+	static {
+		SESSION_CONFIG_FILE = new File(MainConfiguration.CONFIG_DIR,
+				SESSION_CONFIG_FILE_NAME);
+	}
+
+	private static Vector<String> idList = new Vector<String>();
+	private static Vector<String> titleList = new Vector<String>();
+	private static Vector<Object[]> argList = new Vector<Object[]>();
+	private static int selectedIndex = -1;
+
+	/**
+	 * No instances allowed/useful.
+	 */
+	private SessionConfiguration() {
+	}
+
+	/**
+	 * Loads the session. If an exception is thrown, this method shows an
+	 * <code>ExceptionDialog</code>.
+	 */
+	public static synchronized void load() {
+		clear();
+		if (!SESSION_CONFIG_FILE.isFile()) {
+			return;
+		}
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(SESSION_CONFIG_FILE));
+			for (String s; (s = br.readLine()) != null; ) {
+				if (s.trim().length() == 0 || s.charAt(0) == '#') {
+					continue;
+				}
+				if (s.charAt(0) == '*') {
+					selectedIndex = Integer.parseInt(s.substring(1).trim());
+					continue;
+				}
+				String[] arr = s.split("\t");
+				Object[] args = null;
+				if (arr.length > 2) {
+					args = new Object[arr.length - 2];
+					for (int i = 0; i < args.length; i++) {
+						args[i] = decode(arr[i + 2]);
+					}
+				}
+				add(arr[0], (arr.length > 1) ? arr[1] : "", args);
+			}
+		} catch (Exception exc) {
+			ExceptionDialog.show("Loading the session failed", exc);
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (Exception exc) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the session to the session file. The session is written to a 
+	 * temporary file first, which then replaces the file, so that a crash 
+	 * while storing does not destroy the previous session.
+	 */
+	public static synchronized void store() {
+		File tmp = new File(SESSION_CONFIG_FILE.getAbsoluteFile().getParentFile(), 
+				SESSION_CONFIG_FILE.getName() +".tmp");
+		PrintWriter pw = null;
+		try {
+			FileOutputStream fos = new FileOutputStream(tmp);
+			pw = new PrintWriter(new OutputStreamWriter(fos));
+			for (int i = 0; i < idList.size(); i++) {
+				pw.print(idList.get(i));
+				pw.print("\t");
+				pw.print(titleList.get(i));
+				Object[] args = argList.get(i);
+				for (int j = 0; args != null && j < args.length; j++) {
+					pw.print("\t");
+					pw.print(encode(args[j]));
+				}
+				pw.println();
+			}
+			if (selectedIndex != -1) {
+				pw.println("*"+ selectedIndex);
+			}
+			if (pw.checkError()) {
+				throw new IOException("Could not write "+ tmp);
+			}
+			fos.getFD().sync();
+			pw.close();
+			pw = null;
+			if (!tmp.renameTo(SESSION_CONFIG_FILE)) {
+				// some platforms do not replace existing files
+				SESSION_CONFIG_FILE.delete();
+				if (!tmp.renameTo(SESSION_CONFIG_FILE)) {
+					throw new IOException("Could not replace "+ 
+							SESSION_CONFIG_FILE);
+				}
+			}
+		} catch (Exception exc) {
+			ExceptionDialog.show("Saving the session failed", exc);
+		} finally {
+			if (pw != null) {
+				try {
+					pw.close();
+				} catch (Exception exc) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Indicates whether an argument can be stored.
+	 * @param arg The argument.
+	 * @return <code>true</code> if <code>arg</code> is a <code>String</code>
+	 * or an <code>URI</code>.
+	 */
+	public static boolean isStorable(Object arg) {
+		return arg instanceof String || arg instanceof URI;
+	}
+
+	private static String encode(Object arg) {
+		String prefix = (arg instanceof URI) ? URI_PREFIX : STRING_PREFIX;
+		return prefix + clean(arg.toString());
+	}
+
+	private static Object decode(String s) throws Exception {
+		if (s.startsWith(URI_PREFIX)) {
+			return new URI(s.substring(URI_PREFIX.length()));
+		} else if (s.startsWith(STRING_PREFIX)) {
+			return s.substring(STRING_PREFIX.length());
+		} else {
+			return s;
+		}
+	}
+
+	/**
+	 * Replaces tabulators and line breaks with spaces.
+	 * @param s The string.
+	 * @return A string that fits into one field of a line.
+	 */
+	private static String clean(String s) {
+		return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	/**
+	 * Returns the number of tabs.
+	 * @return The number of tabs in the session.
+	 */
+	public static synchronized int size() {
+		return idList.size();
+	}
+
+	/**
+	 * Returns the module id of a tab.
+	 * @param i The index of the tab.
+	 * @return The module's id.
+	 */
+	public static synchronized String getId(int i) {
+		return idList.get(i);
+	}
+
+	/**
+	 * Returns the title of a tab.
+	 * @param i The index of the tab.
+	 * @return The tab's title.
+	 */
+	public static synchronized String getTitle(int i) {
+		return titleList.get(i);
+	}
+
+	/**
+	 * Returns the arguments of the module instance of a tab.
+	 * @param i The index of the tab.
+	 * @return The arguments or <code>null</code>.
+	 */
+	public static synchronized Object[] getArgs(int i) {
+		return argList.get(i);
+	}
+
+	/**
+	 * Returns the index of the selected tab.
+	 * @return The index or -1.
+	 */
+	public static synchronized int getSelectedIndex() {
+		return selectedIndex;
+	}
+
+	/**
+	 * Sets the index of the selected tab.
+	 * @param i The index or -1.
+	 */
+	public static synchronized void setSelectedIndex(int i) {
+		selectedIndex = i;
+	}
+
+	/**
+	 * Adds another tab.
+	 * @param id The module's id.
+	 * @param title The tab's title.
+	 * @param args The arguments of the module instance or <code>null</code>.
+	 * They must be storable.
+	 * @see #isStorable(Object)
+	 */
+	public static synchronized void add(String id, String title, Object[] args) {
+		idList.add(id.trim());
+		titleList.add((title != null) ? clean(title) : "");
+		argList.add((args != null && args.length > 0) ? args : null);
+	}
+
+	/**
+	 * Indicates whether the session contains a tab of a module instance
+	 * with certain arguments.
+	 * @param id The module's id.
+	 * @param args The arguments or <code>null</code>.
+	 * @return <code>true</code> if such a tab is contained.
+	 */
+	public static synchronized boolean contains(String id, Object[] args) {
+		if (args != null && args.length == 0) {
+			args = null;
+		}
+		for (int i = 0; i < idList.size(); i++) {
+			if (idList.get(i).equals(id)
+					&& Arrays.equals(argList.get(i), args)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Clears the whole session.
+	 */
+	public static synchronized void clear() {
+		idList.removeAllElements();
+		titleList.removeAllElements();
+		argList.removeAllElements();
+		selectedIndex = -1;
+	}
+}
@@ -0,0 +1,279 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Resolves the requirements of a set of modules.<br>
+ * The resolver builds the dependency graph of the modules from their
+ * {@link Requirement}s. It detects
+ * <ul>
+ * <li> requirements of modules that are not given, </li>
+ * <li> requirements of versions that are newer than the given module and
+ * </li>
+ * <li> cyclic requirements. </li>
+ * </ul>
+ * Furthermore, it divides the modules into <i>waves</i>: the first wave
+ * contains the modules which require no other module, the second wave
+ * contains the modules which only require modules of the first wave etc.
+ * The modules of one wave are independent of each other and therefore
+ * can be started concurrently. Modules that are part of a cycle are not
+ * contained in any wave.<br>
+ * <br>
+ * Each requirement is looked up in a table, so resolving takes time
+ * linear in the number of modules and requirements.
+ * @see Requirement
+ * @see IDemanding
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public class DependencyResolver {
+	/**
+	 * The modules in the given order. Each value's key is its id.
+	 */
+	private Map<String, ModuleContainer> modules =
+		new LinkedHashMap<String, ModuleContainer>();
+
+	/**
+	 * The given modules each module requires.
+	 */
+	private Map<ModuleContainer, List<ModuleContainer>> prerequisites =
+		new HashMap<ModuleContainer, List<ModuleContainer>>();
+
+	/**
+	 * The problems of the modules whose requirements are not satisfied.
+	 */
+	private Map<ModuleContainer, StringBuffer> problems =
+		new LinkedHashMap<ModuleContainer, StringBuffer>();
+
+	private List<ModuleContainer[]> waves = new Vector<ModuleContainer[]>();
+	
+	/**
+	 * The index of the wave of each module that is contained in a wave.
+	 */
+	private Map<ModuleContainer, Integer> waveIndex = 
+		new HashMap<ModuleContainer, Integer>();
+
+	/**
+	 * Resolves the requirements of the given modules.
+	 * @param containers The modules, e.g.
+	 * {@link ModuleLoader#getLoadedModules()}.
+	 */
+	public DependencyResolver(ModuleContainer[] containers) {
+		for (int i = 0; i < containers.length; i++) {
+			if (containers[i] != null) {
+				modules.put(containers[i].getId(), containers[i]);
+			}
+		}
+		buildGraph();
+		buildWaves();
+	}
+
+	/**
+	 * Looks up the required module of each requirement and records
+	 * missing modules and too old versions.
+	 */
+	private void buildGraph() {
+		for (Iterator<ModuleContainer> it = modules.values().iterator();
+		it.hasNext(); ) {
+			ModuleContainer module = it.next();
+			Requirement[] reqs = module.getRequirements();
+			List<ModuleContainer> pre = new Vector<ModuleContainer>(reqs.length);
+			for (int i = 0; i < reqs.length; i++) {
+				ModuleContainer required = modules.get(reqs[i].getId());
+				if (required == null) {
+					addProblem(module, reqs[i] +" (not loaded)");
+				} else if (!reqs[i].isSatisfiedBy(required)) {
+					addProblem(module, reqs[i] +" (version "+
+							required.getVersion() +" loaded)");
+					pre.add(required);
+				} else {
+					pre.add(required);
+				}
+			}
+			prerequisites.put(module, pre);
+		}
+	}
+
+	/**
+	 * Divides the modules into waves. The modules that remain are part of
+	 * or depend on a cycle.
+	 */
+	private void buildWaves() {
+		Map<ModuleContainer, Integer> indegree =
+			new HashMap<ModuleContainer, Integer>();
+		Map<ModuleContainer, List<ModuleContainer>> dependents =
+			new HashMap<ModuleContainer, List<ModuleContainer>>();
+		List<ModuleContainer> wave = new Vector<ModuleContainer>();
+		for (Iterator<ModuleContainer> it = modules.values().iterator();
+		it.hasNext(); ) {
+			ModuleContainer module = it.next();
+			List<ModuleContainer> pre = prerequisites.get(module);
+			indegree.put(module, Integer.valueOf(pre.size()));
+			for (int i = 0; i < pre.size(); i++) {
+				ModuleContainer required = pre.get(i);
+				List<ModuleContainer> deps = dependents.get(required);
+				if (deps == null) {
+					deps = new Vector<ModuleContainer>(2);
+					dependents.put(required, deps);
+				}
+				deps.add(module);
+			}
+			if (pre.size() == 0) {
+				wave.add(module);
+			}
+		}
+
+		int resolved = 0;
+		while (wave.size() > 0) {
+			ModuleContainer[] arr = new ModuleContainer[wave.size()];
+			waves.add(wave.toArray(arr));
+			for (int i = 0; i < arr.length; i++) {
+				waveIndex.put(arr[i], Integer.valueOf(waves.size() - 1));
+			}
+			resolved += arr.length;
+			wave = new Vector<ModuleContainer>();
+			for (int i = 0; i < arr.length; i++) {
+				List<ModuleContainer> deps = dependents.get(arr[i]);
+				if (deps == null) {
+					continue;
+				}
+				for (int j = 0; j < deps.size(); j++) {
+					ModuleContainer dep = deps.get(j);
+					int n = indegree.get(dep).intValue() - 1;
+					indegree.put(dep, Integer.valueOf(n));
+					if (n == 0) {
+						wave.add(dep);
+					}
+				}
+			}
+		}
+
+		if (resolved < modules.size()) {
+			for (Iterator<ModuleContainer> it = modules.values().iterator();
+			it.hasNext(); ) {
+				ModuleContainer module = it.next();
+				if (indegree.get(module).intValue() > 0) {
+					addProblem(module, "cyclic requirements: "+
+							describeCycle(module, indegree));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Describes the cycle <code>module</code> is part of or depends on.
+	 * @param module A module that could not be resolved.
+	 * @param indegree The number of unresolved prerequisites per module.
+	 * @return A string like <code>a -&gt; b -&gt; a</code>.
+	 */
+	private String describeCycle(ModuleContainer module,
+			Map<ModuleContainer, Integer> indegree) {
+		List<ModuleContainer> path = new Vector<ModuleContainer>();
+		ModuleContainer current = module;
+		while (current != null && !path.contains(current)) {
+			path.add(current);
+			List<ModuleContainer> pre = prerequisites.get(current);
+			ModuleContainer next = null;
+			for (int i = 0; i < pre.size() && next == null; i++) {
+				if (indegree.get(pre.get(i)).intValue() > 0) {
+					next = pre.get(i);
+				}
+			}
+			current = next;
+		}
+		StringBuffer buf = new StringBuffer();
+		for (int i = 0; i < path.size(); i++) {
+			buf.append(path.get(i).getId()).append(" -> ");
+		}
+		buf.append((current != null) ? current.getId() : "?");
+		return buf.toString();
+	}
+
+	/**
+	 * Adds a problem of a module.
+	 * @param module The module whose requirement is not satisfied.
+	 * @param msg A description of the requirement.
+	 */
+	private void addProblem(ModuleContainer module, String msg) {
+		StringBuffer buf = problems.get(module);
+		if (buf == null) {
+			buf = new StringBuffer();
+			buf.append(module +" requires the following modules:");
+			problems.put(module, buf);
+		}
+		buf.append("\n\t"+ msg);
+	}
+
+	/**
+	 * Indicates whether the requirements of all modules are satisfied.
+	 * @return <code>true</code> if no module misses a requirement and if
+	 * there are no cycles.
+	 */
+	public boolean isSatisfied() {
+		return problems.isEmpty();
+	}
+
+	/**
+	 * Returns the modules whose requirements are not satisfied.
+	 * @return The modules with problems in the given order.
+	 */
+	public ModuleContainer[] getUnsatisfied() {
+		ModuleContainer[] arr = new ModuleContainer[problems.size()];
+		return problems.keySet().toArray(arr);
+	}
+
+	/**
+	 * Returns an exception that describes why the requirements of the
+	 * module are not satisfied.
+	 * @param module The module.
+	 * @return <code>null</code> if the module is satisfied, otherwise a
+	 * <code>RequirementException</code>.
+	 */
+	public RequirementException getCause(ModuleContainer module) {
+		StringBuffer buf = problems.get(module);
+		return (buf != null) ? new RequirementException(buf.toString()) : null;
+	}
+
+	/**
+	 * Returns the given modules the module requires.
+	 * @param module The module.
+	 * @return The required modules that are given. Missing modules are
+	 * not contained.
+	 */
+	public ModuleContainer[] getPrerequisites(ModuleContainer module) {
+		List<ModuleContainer> pre = prerequisites.get(module);
+		if (pre == null) {
+			return new ModuleContainer[0];
+		}
+		ModuleContainer[] arr = new ModuleContainer[pre.size()];
+		return pre.toArray(arr);
+	}
+
+	/**
+	 * Returns the waves. The modules in one wave only require modules of
+	 * previous waves.
+	 * @return The waves in the order they can be started.
+	 */
+	public ModuleContainer[][] getWaves() {
+		ModuleContainer[][] arr = new ModuleContainer[waves.size()][];
+		return waves.toArray(arr);
+	}
+
+	/**
+	 * Returns the number of the wave the module belongs to.
+	 * @param module The module.
+	 * @return The index of the module's wave or -1 if it is not contained
+	 * in any wave (because it is part of a cycle or because it is not
+	 * known).
+	 */
+	public int getWave(ModuleContainer module) {
+		Integer i = waveIndex.get(module);
+		return (i != null) ? i.intValue() : -1;
+	}
+}
@@ -0,0 +1,517 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+
+import javax.swing.SwingUtilities;
+
+import org.schwering.evi.util.TaskScheduler;
+
+/**
+ * Delivers the framework's events to subscribers.<br>
+ * <br>
+ * Events are published to typed topics, e.g. {@link #MODULE_LOADED} or
+ * {@link #INSTANTIATED}. Each subscriber chooses how its events are
+ * delivered:
+ * <ul>
+ * <li> {@link #SYNCHRONOUS}: in the publishing thread before
+ * <code>publish()</code> returns, </li>
+ * <li> {@link #EDT}: later in the event dispatching thread, </li>
+ * <li> {@link #ASYNCHRONOUS}: later in the subscriber's
+ * {@link TaskScheduler} pool. </li>
+ * </ul>
+ * Events of the latter two modes are delivered in the order they were
+ * published, and a slow subscriber does not delay the publisher or other
+ * subscribers. If a subscriber is subscribed with a batch delay, the
+ * events published within this delay are collected and delivered at once,
+ * e.g. ten modules loaded at once lead to a single relayout of the
+ * toolbar.<br>
+ * <br>
+ * The bus measures for each subscription how many events it has received
+ * and how long they took from publishing until the subscriber had handled
+ * them (see {@link Subscription}).<br>
+ * <br>
+ * The listeners registered with
+ * {@link ModuleLoader#addListener(IModuleLoaderListener)} and
+ * {@link ModuleContainer#addListener(IModuleListener)} are still invoked
+ * synchronously before the events are published to the bus.
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public final class EventBus {
+	/**
+	 * Events are delivered in the publishing thread.
+	 */
+	public static final int SYNCHRONOUS = 0;
+
+	/**
+	 * Events are delivered in the event dispatching thread.
+	 */
+	public static final int EDT = 1;
+
+	/**
+	 * Events are delivered in the subscriber's pool.
+	 */
+	public static final int ASYNCHRONOUS = 2;
+
+	/**
+	 * Published when a module has been loaded; see
+	 * {@link IModuleLoaderListener#loaded(ModuleContainer)}.
+	 */
+	public static final Topic<ModuleContainer> MODULE_LOADED =
+		new Topic<ModuleContainer>("module.loaded"); //$NON-NLS-1$
+
+	/**
+	 * Published when a module has been unloaded; see
+	 * {@link IModuleLoaderListener#unloaded(ModuleContainer)}.
+	 */
+	public static final Topic<ModuleContainer> MODULE_UNLOADED =
+		new Topic<ModuleContainer>("module.unloaded"); //$NON-NLS-1$
+
+	/**
+	 * Published when a module instance has been created; see
+	 * {@link IModuleListener#instantiated(IModule)}.
+	 */
+	public static final Topic<IModule> INSTANTIATED =
+		new Topic<IModule>("module.instantiated"); //$NON-NLS-1$
+
+	/**
+	 * Published when a module instance has been disposed; see
+	 * {@link IModuleListener#disposed(IModule)}.
+	 */
+	public static final Topic<IModule> DISPOSED =
+		new Topic<IModule>("module.disposed"); //$NON-NLS-1$
+
+	/**
+	 * All subscriptions.
+	 */
+	private static List<Subscription<?>> subscriptions =
+		new CopyOnWriteArrayList<Subscription<?>>();
+
+	/**
+	 * No instances allowed/useful.
+	 */
+	private EventBus() {
+	}
+
+	/**
+	 * Subscribes to a topic without batching.
+	 * @param topic The topic.
+	 * @param subscriber The subscriber.
+	 * @param mode {@link #SYNCHRONOUS}, {@link #EDT} or
+	 * {@link #ASYNCHRONOUS}.
+	 * @return The subscription.
+	 */
+	public static <T> Subscription<T> subscribe(Topic<T> topic,
+			IEventSubscriber<T> subscriber, int mode) {
+		return subscribe(topic, subscriber, mode, 0);
+	}
+
+	/**
+	 * Subscribes to a topic.
+	 * @param topic The topic.
+	 * @param subscriber The subscriber.
+	 * @param mode {@link #SYNCHRONOUS}, {@link #EDT} or
+	 * {@link #ASYNCHRONOUS}.
+	 * @param batchDelay The number of milliseconds events are collected
+	 * before they are delivered; 0 delivers them as soon as possible.
+	 * Ignored for {@link #SYNCHRONOUS} subscriptions.
+	 * @return The subscription.
+	 */
+	public static <T> Subscription<T> subscribe(Topic<T> topic,
+			IEventSubscriber<T> subscriber, int mode, long batchDelay) {
+		return subscribe(topic, subscriber, mode, batchDelay, subscriber);
+	}
+
+	/**
+	 * Subscribes to a topic on behalf of another object, e.g. a listener
+	 * the subscriber wraps. The owner's class loader decides to which
+	 * module the subscription belongs (see {@link #unsubscribeLoadedBy(ClassLoader)})
+	 * and its pool is used for {@link #ASYNCHRONOUS} deliveries.
+	 * @param topic The topic.
+	 * @param subscriber The subscriber.
+	 * @param mode {@link #SYNCHRONOUS}, {@link #EDT} or
+	 * {@link #ASYNCHRONOUS}.
+	 * @param batchDelay The number of milliseconds events are collected
+	 * before they are delivered; 0 delivers them as soon as possible.
+	 * Ignored for {@link #SYNCHRONOUS} subscriptions.
+	 * @param owner The object the subscriber acts for.
+	 * @return The subscription.
+	 */
+	public static <T> Subscription<T> subscribe(Topic<T> topic,
+			IEventSubscriber<T> subscriber, int mode, long batchDelay,
+			Object owner) {
+		if (topic == null || subscriber == null || owner == null) {
+			throw new NullPointerException();
+		}
+		if (mode != SYNCHRONOUS && mode != EDT && mode != ASYNCHRONOUS) {
+			throw new IllegalArgumentException("Unknown mode: "+ mode);
+		}
+		Subscription<T> s = new Subscription<T>(topic, subscriber, owner,
+				mode, (mode == SYNCHRONOUS) ? 0 : Math.max(0, batchDelay));
+		subscriptions.add(s);
+		return s;
+	}
+
+	/**
+	 * Cancels a subscription. Events that have not been delivered yet are
+	 * dropped.
+	 * @param subscription The subscription.
+	 * @return <code>true</code> if the subscription was active.
+	 */
+	public static boolean unsubscribe(Subscription<?> subscription) {
+		if (subscription == null) {
+			return false;
+		}
+		subscription.cancelled = true;
+		return subscriptions.remove(subscription);
+	}
+
+	/**
+	 * Cancels all subscriptions of a subscriber.
+	 * @param subscriber The subscriber.
+	 */
+	public static void unsubscribeAll(IEventSubscriber<?> subscriber) {
+		Subscription<?>[] arr = getSubscriptions();
+		for (int i = 0; i < arr.length; i++) {
+			if (arr[i].subscriber == subscriber) {
+				unsubscribe(arr[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns all subscriptions, e.g. to examine their metrics.
+	 * @return The active subscriptions.
+	 */
+	public static Subscription<?>[] getSubscriptions() {
+		Subscription<?>[] arr = new Subscription<?>[subscriptions.size()];
+		return subscriptions.toArray(arr);
+	}
+
+	/**
+	 * Publishes an event to all subscribers of its topic. Synchronous
+	 * subscribers have handled it when this method returns.
+	 * @param topic The topic.
+	 * @param event The event.
+	 */
+	public static <T> void publish(Topic<T> topic, T event) {
+		long now = System.nanoTime();
+		Subscription<?>[] arr = getSubscriptions();
+		for (int i = 0; i < arr.length; i++) {
+			if (arr[i].topic == topic) {
+				@SuppressWarnings("unchecked")
+				Subscription<T> s = (Subscription<T>)arr[i];
+				s.post(event, now);
+			}
+		}
+	}
+
+	/**
+	 * Cancels all subscriptions whose owners (by default the subscribers)
+	 * were loaded by the given class loader. Invoked by
+	 * {@link ModuleLoader#unload(String)}.
+	 * @param loader The class loader of an unloaded module.
+	 */
+	static void unsubscribeLoadedBy(ClassLoader loader) {
+		Subscription<?>[] arr = getSubscriptions();
+		for (int i = 0; i < arr.length; i++) {
+			if (LeakDetector.isLoadedBy(arr[i].owner, loader)) {
+				unsubscribe(arr[i]);
+			}
+		}
+	}
+
+	/**
+	 * Describes all subscriptions whose owners were loaded by the given
+	 * class loader.
+	 * @param loader The class loader of a module.
+	 * @return The classnames of the owners and their topics.
+	 */
+	static String[] describeSubscribersLoadedBy(ClassLoader loader) {
+		List<String> list = new Vector<String>();
+		Subscription<?>[] arr = getSubscriptions();
+		for (int i = 0; i < arr.length; i++) {
+			if (LeakDetector.isLoadedBy(arr[i].owner, loader)) {
+				list.add(arr[i].owner.getClass().getName()
+						+" in EventBus ("+ arr[i].topic +")");
+			}
+		}
+		String[] a = new String[list.size()];
+		return list.toArray(a);
+	}
+
+	/**
+	 * A topic of events of type <code>T</code>. Topics are compared by
+	 * identity.
+	 */
+	public static final class Topic<T> {
+		private String name;
+
+		/**
+		 * Creates a new topic.
+		 * @param name The topic's name.
+		 */
+		public Topic(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Returns the topic's name.
+		 * @return The name.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * A subscription of a subscriber to a topic. It delivers the events
+	 * and keeps the metrics of the deliveries.
+	 */
+	public static final class Subscription<T> implements Runnable {
+		private Topic<T> topic;
+		private IEventSubscriber<T> subscriber;
+		private Object owner;
+		private int mode;
+		private long batchDelay;
+		private volatile boolean cancelled = false;
+
+		/**
+		 * The events that have not been delivered yet.
+		 */
+		private List<T> pending = new ArrayList<T>();
+
+		/**
+		 * The time when the oldest pending event was published.
+		 */
+		private long pendingSince;
+
+		/**
+		 * The delayed or submitted delivery or <code>null</code>.
+		 */
+		private Future<?> scheduled;
+
+		/**
+		 * Indicates whether a delivery waits in the event queue.
+		 */
+		private boolean invoked = false;
+
+		/**
+		 * Serializes the deliveries.
+		 */
+		private Object deliveryLock = new Object();
+
+		private long deliveryCount = 0;
+		private long eventCount = 0;
+		private long totalLatency = 0;
+		private long maxLatency = 0;
+		private long busyTime = 0;
+
+		private Subscription(Topic<T> topic, IEventSubscriber<T> subscriber,
+				Object owner, int mode, long batchDelay) {
+			this.topic = topic;
+			this.subscriber = subscriber;
+			this.owner = owner;
+			this.mode = mode;
+			this.batchDelay = batchDelay;
+		}
+
+		/**
+		 * Queues or delivers an event.
+		 * @param event The event.
+		 * @param published The time it was published.
+		 */
+		private void post(T event, long published) {
+			if (cancelled) {
+				return;
+			}
+			if (mode == SYNCHRONOUS) {
+				synchronized (deliveryLock) {
+					List<T> list = Collections.singletonList(event);
+					deliver(list, published);
+				}
+				return;
+			}
+			synchronized (this) {
+				if (pending.isEmpty()) {
+					pendingSince = published;
+				}
+				pending.add(event);
+				if (invoked || (scheduled != null && !scheduled.isDone())) {
+					return;
+				}
+				if (batchDelay > 0) {
+					scheduled = TaskScheduler.schedule(owner, new Runnable() {
+						public void run() {
+							dispatch();
+						}
+					}, batchDelay);
+				} else {
+					dispatch();
+				}
+			}
+		}
+
+		/**
+		 * Hands the delivery to the event dispatching thread or to the
+		 * owner's pool.
+		 */
+		private synchronized void dispatch() {
+			if (mode == EDT) {
+				invoked = true;
+				SwingUtilities.invokeLater(this);
+			} else {
+				scheduled = TaskScheduler.submit(owner, this);
+			}
+		}
+
+		/**
+		 * Delivers the pending events.
+		 */
+		public void run() {
+			synchronized (deliveryLock) {
+				List<T> list;
+				long since;
+				synchronized (this) {
+					invoked = false;
+					scheduled = null;
+					list = pending;
+					since = pendingSince;
+					pending = new ArrayList<T>();
+				}
+				if (!cancelled && !list.isEmpty()) {
+					deliver(list, since);
+				}
+			}
+		}
+
+		/**
+		 * Invokes the subscriber and measures the latency.
+		 * @param list The events.
+		 * @param since The time the oldest event was published.
+		 */
+		private void deliver(List<T> list, long since) {
+			long start = System.nanoTime();
+			try {
+				subscriber.handle(topic, Collections.unmodifiableList(list));
+			} catch (Throwable exc) {
+				exc.printStackTrace();
+			}
+			long end = System.nanoTime();
+			synchronized (this) {
+				deliveryCount++;
+				eventCount += list.size();
+				totalLatency += end - since;
+				maxLatency = Math.max(maxLatency, end - since);
+				busyTime += end - start;
+			}
+		}
+
+		/**
+		 * Returns the topic.
+		 * @return The topic.
+		 */
+		public Topic<T> getTopic() {
+			return topic;
+		}
+
+		/**
+		 * Returns the subscriber.
+		 * @return The subscriber.
+		 */
+		public IEventSubscriber<T> getSubscriber() {
+			return subscriber;
+		}
+
+		/**
+		 * Returns the object the subscriber acts for.
+		 * @return The owner; the subscriber itself unless another owner
+		 * was given.
+		 */
+		public Object getOwner() {
+			return owner;
+		}
+
+		/**
+		 * Returns the delivery mode.
+		 * @return {@link EventBus#SYNCHRONOUS}, {@link EventBus#EDT} or
+		 * {@link EventBus#ASYNCHRONOUS}.
+		 */
+		public int getMode() {
+			return mode;
+		}
+
+		/**
+		 * Returns the batch delay.
+		 * @return The number of milliseconds events are collected.
+		 */
+		public long getBatchDelay() {
+			return batchDelay;
+		}
+
+		/**
+		 * Returns the number of times the subscriber has been invoked.
+		 * @return The number of deliveries.
+		 */
+		public synchronized long getDeliveryCount() {
+			return deliveryCount;
+		}
+
+		/**
+		 * Returns the number of events the subscriber has handled.
+		 * @return The number of events.
+		 */
+		public synchronized long getEventCount() {
+			return eventCount;
+		}
+
+		/**
+		 * Returns the average time from publishing the oldest event of a
+		 * delivery until the subscriber had handled it.
+		 * @return The average latency in nanoseconds.
+		 */
+		public synchronized long getAverageLatency() {
+			return (deliveryCount > 0) ? totalLatency / deliveryCount : 0;
+		}
+
+		/**
+		 * Returns the maximum latency of a delivery.
+		 * @return The maximum latency in nanoseconds.
+		 * @see #getAverageLatency()
+		 */
+		public synchronized long getMaxLatency() {
+			return maxLatency;
+		}
+
+		/**
+		 * Returns the time the subscriber has spent handling events.
+		 * @return The time in nanoseconds.
+		 */
+		public synchronized long getBusyTime() {
+			return busyTime;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			return owner.getClass().getName() +" on "+ topic +": "
+				+ getEventCount() +" events in "+ getDeliveryCount()
+				+" deliveries, avg latency "+ (getAverageLatency() / 1000)
+				+" us, max "+ (getMaxLatency() / 1000) +" us";
+		}
+	}
+}
@@ -0,0 +1,28 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+/**
+ * ModuleInfoClass marker interface used to allow asynchronous 
+ * instantiation.<br>
+ * Implement this interface in your Module-Info-Class if creating an 
+ * instance of your module takes a while (e.g. because it opens network 
+ * connections or reads many files) and if your module may be 
+ * instantiated outside the event dispatching thread. Such modules are 
+ * instantiated in a worker thread by 
+ * {@link ModuleFactory#newInstanceAsync(ModuleContainer, Object[], Runnable)};
+ * their panels are added to the GUI in the event dispatching thread 
+ * afterwards.<br>
+ * <br>
+ * The constructor of such a module should only build the part that 
+ * does not touch Swing (e.g. read its configuration and data). The 
+ * components should be created when they are needed for the first time, 
+ * i.e. by {@link IPanel#getPanelInstance()} and 
+ * {@link IApplet#getAppletInstance()}, which the framework invokes in 
+ * the event dispatching thread, or by a task the constructor passes to 
+ * <code>SwingUtilities.invokeLater</code>.
+ * @see ModuleContainer#isAsynchronous()
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public interface IAsynchronous extends IModuleInfo {
+}
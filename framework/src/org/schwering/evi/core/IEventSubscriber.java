@@ -0,0 +1,22 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+import java.util.List;
+
+/**
+ * Receives the events of a topic of the {@link EventBus}.
+ * @see EventBus#subscribe(EventBus.Topic, IEventSubscriber, int, long)
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public interface IEventSubscriber<T> {
+	/**
+	 * Invoked with one or more events of a topic, the oldest first. More
+	 * than one event is only delivered if the subscriber was subscribed
+	 * with a batch delay or if the events were published faster than they
+	 * could be delivered.
+	 * @param topic The topic.
+	 * @param events The events.
+	 */
+	public void handle(EventBus.Topic<T> topic, List<T> events);
+}
@@ -0,0 +1,19 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+/**
+ * ModuleInfoClass marker interface used to allow instantiation in 
+ * headless mode.<br>
+ * Implement this interface in your Module-Info-Class if your module does 
+ * something useful without GUI (e.g. keeps network connections open or 
+ * plays music). When EVI runs headless, only such modules are started. 
+ * The module's constructor and methods must not open windows or dialogs 
+ * then; check <code>GraphicsEnvironment.isHeadless()</code> to skip the 
+ * GUI-only parts. Creating lightweight Swing components is fine.
+ * @see ModuleContainer#isHeadless()
+ * @see org.schwering.evi.gui.EVI#isHeadless()
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public interface IHeadless extends IModuleInfo {
+}
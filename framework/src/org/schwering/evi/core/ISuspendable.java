@@ -0,0 +1,37 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+/**
+ * Optional interface for panels and applets that do work which is only
+ * useful while they are visible, e.g. animations, periodic updates or
+ * text layout.<br>
+ * <br>
+ * Implement this interface in your Module-Class (or in any other
+ * {@link IPanel}) besides {@link IPanel} or {@link IApplet}. The main
+ * tabbar suspends a panel when its tab is deselected and resumes it when
+ * the tab is selected again. Panels and applets are also suspended while
+ * the main window is iconified.<br>
+ * <br>
+ * A new instance is considered to be running; <code>suspend()</code> and
+ * <code>resume()</code> are always invoked alternately and in the event
+ * dispatching thread. A suspended instance should stop its animators,
+ * pollers and rendering and catch up when it is resumed. It may still be
+ * disposed while it is suspended.
+ * @see IPanel
+ * @see IApplet
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public interface ISuspendable {
+	/**
+	 * Invoked when the panel becomes invisible. Should pause all work
+	 * whose results cannot be seen.
+	 */
+	public void suspend();
+
+	/**
+	 * Invoked when the panel becomes visible again after it has been
+	 * suspended.
+	 */
+	public void resume();
+}
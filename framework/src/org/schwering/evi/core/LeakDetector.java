@@ -0,0 +1,253 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+import java.awt.Frame;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Detects class loaders of unloaded modules that cannot be garbage
+ * collected.<br>
+ * When a module is unloaded with {@link ModuleLoader#unload(String)}, its
+ * class loader is watched through a weak reference. Some seconds later,
+ * a garbage collection is requested; if the class loader is still
+ * reachable, the module leaks its classes (and metaspace). A report is
+ * printed to <code>System.err</code> that names the module and lists the
+ * known places which still refer to the module's classes:
+ * <ul>
+ * <li> live threads that were created by the module, whose context class
+ * loader is the module's class loader or that currently execute the
+ * module's code, </li>
+ * <li> frames and windows of the module, </li>
+ * <li> framework listeners implemented by the module. </li>
+ * </ul>
+ * Other references (e.g. from static fields of the framework or of other
+ * modules) cannot be found without a heap dump; the report says so if no
+ * known place is found.<br>
+ * <br>
+ * The detector is disabled by default.
+ * @see ModuleLoader#unload(String)
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public final class LeakDetector {
+	/**
+	 * The number of milliseconds between unloading a module and checking
+	 * its class loader.
+	 */
+	public static final long CHECK_DELAY = 10000;
+
+	private static volatile boolean enabled = false;
+
+	/**
+	 * The watched class loaders.
+	 */
+	private static List<Entry> watched = new Vector<Entry>();
+
+	/**
+	 * No instances allowed/useful.
+	 */
+	private LeakDetector() {
+	}
+
+	/**
+	 * Enables or disables the detector. Class loaders that are already
+	 * watched are still checked.
+	 * @param b <code>true</code> enables the detector.
+	 */
+	public static void setEnabled(boolean b) {
+		enabled = b;
+	}
+
+	/**
+	 * Indicates whether the detector is enabled.
+	 * @return <code>true</code> if unloaded modules are watched.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts watching the class loader of an unloaded module. A check is
+	 * scheduled in {@link #CHECK_DELAY} milliseconds.<br>
+	 * Invoked by {@link ModuleLoader#unload(String)}.
+	 * @param id The id of the unloaded module.
+	 * @param loader The module's class loader.
+	 */
+	static void watch(String id, ClassLoader loader) {
+		if (!enabled || loader == null) {
+			return;
+		}
+		watched.add(new Entry(id, loader));
+		Thread t = new Thread("LeakDetector") { //$NON-NLS-1$
+			public void run() {
+				try {
+					Thread.sleep(CHECK_DELAY);
+				} catch (InterruptedException exc) {
+					return;
+				}
+				String[] reports = check();
+				for (int i = 0; i < reports.length; i++) {
+					System.err.println(reports[i]);
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Requests a garbage collection and checks which watched class loaders
+	 * are still reachable. Class loaders that have been collected are no
+	 * longer watched.
+	 * @return One report for each module whose class loader is still
+	 * reachable.
+	 */
+	public static synchronized String[] check() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			System.runFinalization();
+		}
+
+		List<String> reports = new Vector<String>();
+		Entry[] entries = new Entry[watched.size()];
+		entries = watched.toArray(entries);
+		for (int i = 0; i < entries.length; i++) {
+			ClassLoader loader = entries[i].loader.get();
+			if (loader == null) {
+				watched.remove(entries[i]);
+			} else {
+				reports.add(describe(entries[i].id, loader));
+			}
+		}
+		String[] arr = new String[reports.size()];
+		return reports.toArray(arr);
+	}
+
+	/**
+	 * Returns the ids of the modules whose class loaders are watched and
+	 * have not been collected at the last check.
+	 * @return The ids of (possibly) leaking modules.
+	 */
+	public static String[] getWatchedIds() {
+		Entry[] entries = new Entry[watched.size()];
+		entries = watched.toArray(entries);
+		String[] arr = new String[entries.length];
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = entries[i].id;
+		}
+		return arr;
+	}
+
+	/**
+	 * Describes where a class loader is still referenced from.
+	 * @param id The id of the module.
+	 * @param loader The module's class loader.
+	 * @return A multi-line report.
+	 */
+	private static String describe(String id, ClassLoader loader) {
+		StringBuffer buf = new StringBuffer();
+		buf.append("Class loader of unloaded module "+ id
+				+" is still reachable");
+		int found = 0;
+
+		Map<Thread, StackTraceElement[]> traces = Thread.getAllStackTraces();
+		for (Iterator<Map.Entry<Thread, StackTraceElement[]>> it =
+			traces.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<Thread, StackTraceElement[]> e = it.next();
+			Thread t = e.getKey();
+			StackTraceElement elem = findModuleFrame(e.getValue(), loader);
+			if (isLoadedBy(t, loader)) {
+				buf.append("\n\tthread created by module: "+ t.getName());
+			} else if (t.getContextClassLoader() == loader) {
+				buf.append("\n\tthread with module's context class loader: "
+						+ t.getName());
+			} else if (elem != null) {
+				buf.append("\n\tthread executing module code: "+ t.getName());
+			} else {
+				continue;
+			}
+			if (elem != null) {
+				buf.append(" at "+ elem);
+			}
+			found++;
+		}
+
+		Frame[] frames = Frame.getFrames();
+		for (int i = 0; i < frames.length; i++) {
+			if (isLoadedBy(frames[i], loader)) {
+				buf.append("\n\tframe of module: "+ frames[i].getClass().getName()
+						+" ("+ frames[i].getTitle() +")");
+				found++;
+			}
+			java.awt.Window[] owned = frames[i].getOwnedWindows();
+			for (int j = 0; j < owned.length; j++) {
+				if (isLoadedBy(owned[j], loader)) {
+					buf.append("\n\twindow of module: "
+							+ owned[j].getClass().getName());
+					found++;
+				}
+			}
+		}
+
+		String[] listeners = ModuleLoader.describeListenersLoadedBy(loader);
+		for (int i = 0; i < listeners.length; i++) {
+			buf.append("\n\tlistener of module: "+ listeners[i]);
+			found++;
+		}
+
+		if (found == 0) {
+			buf.append("\n\tno known reference found, it is probably held "
+					+"by a static field; use a heap dump to find it");
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Searches the first stack frame that executes a class of the module.
+	 * @param trace The stack trace of a thread.
+	 * @param loader The module's class loader.
+	 * @return The frame or <code>null</code>.
+	 */
+	private static StackTraceElement findModuleFrame(StackTraceElement[] trace,
+			ClassLoader loader) {
+		if (!(loader instanceof ModuleLoader)) {
+			return null;
+		}
+		ModuleLoader moduleLoader = (ModuleLoader)loader;
+		for (int i = 0; i < trace.length; i++) {
+			if (moduleLoader.defines(trace[i].getClassName())) {
+				return trace[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Indicates whether an object's class was loaded by a class loader.
+	 * @param o The object.
+	 * @param loader The class loader.
+	 * @return <code>true</code> if <code>o</code> is an instance of a class
+	 * defined by <code>loader</code>.
+	 */
+	static boolean isLoadedBy(Object o, ClassLoader loader) {
+		return o != null && loader != null
+			&& o.getClass().getClassLoader() == loader;
+	}
+
+	/**
+	 * A watched class loader.
+	 */
+	private static class Entry {
+		private String id;
+		private WeakReference<ClassLoader> loader;
+
+		public Entry(String id, ClassLoader loader) {
+			this.id = id;
+			this.loader = new WeakReference<ClassLoader>(loader);
+		}
+	}
+}
@@ -1,9 +1,14 @@
 /* Copyright (C) 2006 Christoph Schwering */
 package org.schwering.evi.core;
 
+import java.lang.reflect.Constructor;
 import java.net.URL;
-import java.util.HashSet;
-import java.util.Vector;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import javax.swing.JButton;
 import javax.swing.JMenu;
@@ -31,13 +36,34 @@ import javax.swing.JMenu;
  * @version $Id$
  */
 public final class ModuleContainer {
-	private Class<? extends IModule> cls;
-	private IModuleInfo info;
+	/*
+	 * Set by activate() under the container's lock, but read without it 
+	 * by isActive() and the is* methods in any thread. info is written 
+	 * before cls, so whoever sees cls also sees info.
+	 */
+	private volatile Class<? extends IModule> cls;
+	private volatile IModuleInfo info;
+	private ModuleDescriptor descriptor;
 	private Object source;
-	private int priority = priorityCounter++;
+	private int priority = -1;
 	
-	private HashSet<IModule> instances = new HashSet<IModule>(5);
-	private Vector<IModuleListener> listeners = new Vector<IModuleListener>(2);
+	private boolean unloaded = false;
+	
+	private Set<IModule> instances = new CopyOnWriteArraySet<IModule>();
+	
+	/**
+	 * The arguments of the instances that were created with arguments.
+	 */
+	private Map<IModule, Object[]> arguments = 
+		new ConcurrentHashMap<IModule, Object[]>();
+	private List<IModuleListener> listeners = new CopyOnWriteArrayList<IModuleListener>();
+	
+	/**
+	 * The constructors of the ModuleClass that have been found for 
+	 * argument type lists by the <code>ModuleFactory</code>.
+	 */
+	private Map<List<Class<?>>, Constructor<? extends IModule>> constructors = 
+		new ConcurrentHashMap<List<Class<?>>, Constructor<? extends IModule>>();
 	
 	private static int priorityCounter = 0;
 	
@@ -69,6 +95,108 @@ public final class ModuleContainer {
 		info = moduleInfo;
 	}
 	
+	/**
+	 * Creates a new container based on cached meta information. The 
+	 * module's JAR is not opened until the container is activated with 
+	 * {@link #activate()}. Until then, all information is taken from the 
+	 * descriptor.
+	 * @param descriptor The cached meta information of the module.
+	 */
+	ModuleContainer(ModuleDescriptor descriptor) {
+		this.descriptor = descriptor;
+		this.source = descriptor.getSource();
+	}
+	
+	/**
+	 * Loads the module's ModuleInfoClass if this has not been done yet. 
+	 * Invoked by {@link ModuleFactory#newInstance(ModuleContainer, Object[])}
+	 * and by the methods that need the <code>IModuleInfo</code> object.
+	 * @throws ModuleLoaderException If the JAR cannot be loaded or if it 
+	 * does no longer contain the module described by the descriptor.
+	 * @see #isActive()
+	 */
+	synchronized void activate() throws ModuleLoaderException {
+		if (cls != null) {
+			return;
+		}
+		IModuleInfo moduleInfo = ModuleLoader.instantiateModuleInfo(descriptor);
+		Class<? extends IModule> moduleClass = moduleInfo.getModuleClass();
+		if (!isModule(moduleClass)) {
+			throw new ModuleLoaderException(moduleClass +" is no module");
+		}
+		if (!descriptor.getId().equals(getIdByClass(moduleClass))) {
+			throw new ModuleLoaderException(source +" does not contain "+
+					descriptor.getId() +" anymore");
+		}
+		info = moduleInfo;
+		cls = moduleClass;
+	}
+	
+	/**
+	 * Activates the module and catches all exceptions.
+	 * @return <code>true</code> if the module is active.
+	 */
+	private boolean activateQuietly() {
+		try {
+			activate();
+			return true;
+		} catch (Exception exc) {
+			exc.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Indicates whether the module's classes are loaded. This is always 
+	 * the case unless the module was loaded with lazy activation (see 
+	 * {@link ModuleLoader#setLazyActivation(boolean)}) and has not been 
+	 * used yet.
+	 * @return <code>true</code> if the ModuleInfoClass is loaded.
+	 */
+	public boolean isActive() {
+		return cls != null;
+	}
+	
+	/**
+	 * Indicates whether the answers of the <code>is*</code> methods are 
+	 * taken from the cached descriptor.
+	 * @return <code>true</code> if the module is not active yet.
+	 */
+	private boolean isDescribed() {
+		return cls == null && descriptor != null;
+	}
+	
+	/**
+	 * Marks the module as unloaded. Afterwards, no new instances can be 
+	 * created. Invoked by {@link ModuleLoader#unload(String)}.
+	 * @return <code>true</code> if the module has not been marked before.
+	 */
+	synchronized boolean markUnloaded() {
+		if (unloaded) {
+			return false;
+		}
+		unloaded = true;
+		return true;
+	}
+	
+	/**
+	 * Indicates whether the module has been unloaded.
+	 * @return <code>true</code> if the module has been unloaded.
+	 */
+	synchronized boolean isUnloaded() {
+		return unloaded;
+	}
+	
+	/**
+	 * Returns the next unused priority. Invoked by <code>ModuleLoader</code> 
+	 * when a container is registered.
+	 * @return The next priority.
+	 * @see #getPriority()
+	 */
+	static synchronized int nextPriority() {
+		return priorityCounter++;
+	}
+	
 	IModuleInfo getModuleInfo() {
 		return info;
 	}
@@ -79,10 +207,15 @@ public final class ModuleContainer {
 	 * and 
 	 * {@link ModuleFactory#newInstance(ModuleContainer, Object[])}.
 	 * @param o The new module.
+	 * @param args The arguments the instance was created with or 
+	 * <code>null</code>.
 	 * @see #unregisterInstance(IModule)
 	 */
-	void registerInstance(IModule o) {
+	void registerInstance(IModule o, Object[] args) {
 		instances.add(o);
+		if (args != null && args.length > 0) {
+			arguments.put(o, args.clone());
+		}
 	}
 	
 	/**
@@ -92,29 +225,48 @@ public final class ModuleContainer {
 	 * @see #registerInstance(IModule)
 	 */
 	boolean unregisterInstance(IModule o) {
-		return (o != null) ? instances.remove(o) : false;
+		if (o == null) {
+			return false;
+		}
+		arguments.remove(o);
+		return instances.remove(o);
+	}
+	
+	/**
+	 * Returns the arguments an instance of this module was created with.
+	 * @param o The instance.
+	 * @return A copy of the arguments or <code>null</code> if the instance 
+	 * was created without arguments or is not an instance of this module.
+	 */
+	public Object[] getArguments(IModule o) {
+		Object[] args = (o != null) ? arguments.get(o) : null;
+		return (args != null) ? args.clone() : null;
 	}
 	
 	/**
 	 * Fires the {@link IModuleListener#instantiated(IModule)} event for all 
-	 * listeners.
+	 * listeners and publishes it to {@link EventBus#INSTANTIATED}.
 	 * @param m The newly created instance.
 	 */
 	void fireInstantiated(IModule m) {
-		for (int i = listeners.size() - 1; i >= 0; i--) {
-			((IModuleListener)listeners.get(i)).instantiated(m);
+		IModuleListener[] arr = getListeners();
+		for (int i = arr.length - 1; i >= 0; i--) {
+			arr[i].instantiated(m);
 		}
+		EventBus.publish(EventBus.INSTANTIATED, m);
 	}
 	
 	/**
 	 * Fires the {@link IModuleListener#disposed(IModule)} event for all 
-	 * listeners.
+	 * listeners and publishes it to {@link EventBus#DISPOSED}.
 	 * @param m The instance which is disposed.
 	 */
 	void fireDisposed(IModule m) {
-		for (int i = listeners.size() - 1; i >= 0; i--) {
-			((IModuleListener)listeners.get(i)).disposed(m);
+		IModuleListener[] arr = getListeners();
+		for (int i = arr.length - 1; i >= 0; i--) {
+			arr[i].disposed(m);
 		}
+		EventBus.publish(EventBus.DISPOSED, m);
 	}
 
 	/**
@@ -144,11 +296,39 @@ public final class ModuleContainer {
 		return listeners.remove(listener);
 	}
 	
+	/**
+	 * Returns the listeners of this module.
+	 * @return An array that contains all <code>IModuleListener</code>s.
+	 */
+	IModuleListener[] getListeners() {
+		IModuleListener[] arr = new IModuleListener[listeners.size()];
+		return listeners.toArray(arr);
+	}
+	
+	/**
+	 * Removes all listeners. Invoked by {@link ModuleLoader#unload(String)}.
+	 */
+	void removeAllListeners() {
+		listeners.clear();
+	}
+	
+	/**
+	 * Returns the class loader of the module's classes.
+	 * @return The class loader or <code>null</code> if the module is not 
+	 * active.
+	 */
+	ClassLoader getClassLoader() {
+		return (cls != null) ? cls.getClassLoader() : null;
+	}
+	
 	/**
 	 * Returns the id. This is the ModuleClass's classname.
 	 * @return The id.
 	 */
 	public String getId() {
+		if (isDescribed()) {
+			return descriptor.getId();
+		}
 		return getIdByClass(cls);
 	}
 	
@@ -169,15 +349,50 @@ public final class ModuleContainer {
 	 * @see IModuleInfo#getModuleClass()
 	 */
 	Class<? extends IModule> getModuleClass() {
+		activateQuietly();
 		return cls;
 	}
 	
+	/**
+	 * Returns the constructor of the ModuleClass that has been found for 
+	 * the given argument types before.
+	 * @param signature The types of the arguments.
+	 * @return The constructor or <code>null</code>.
+	 * @see ModuleFactory#newInstance(ModuleContainer, Object[])
+	 */
+	Constructor<? extends IModule> getConstructor(List<Class<?>> signature) {
+		return constructors.get(signature);
+	}
+	
+	/**
+	 * Remembers the constructor of the ModuleClass that matches the given 
+	 * argument types.
+	 * @param signature The types of the arguments.
+	 * @param constructor The matching constructor.
+	 */
+	void putConstructor(List<Class<?>> signature, 
+			Constructor<? extends IModule> constructor) {
+		constructors.put(signature, constructor);
+	}
+	
+	/**
+	 * Forgets all constructors found by {@link #getConstructor(List)}. 
+	 * Invoked when a module is unloaded, because the argument types might 
+	 * be classes of that module.
+	 */
+	void clearConstructors() {
+		constructors.clear();
+	}
+	
 	/**
 	 * Returns the version.
 	 * @return The version.
 	 * @see IModuleInfo#getVersion()
 	 */
 	public float getVersion() {
+		if (isDescribed()) {
+			return descriptor.getVersion();
+		}
 		return (info != null) ? info.getVersion() : 0.0f;
 	}
 	
@@ -189,6 +404,9 @@ public final class ModuleContainer {
 	 * @see IModuleInfo#getName()
 	 */
 	public String getName() {
+		if (isDescribed()) {
+			return descriptor.getName();
+		}
 		if (info != null && info.getName() != null) {
 			return info.getName();
 		} else {
@@ -204,11 +422,16 @@ public final class ModuleContainer {
 	 * @see IModuleInfo#getInfoURL()
 	 */
 	public URL getInfoURL() {
-		if (info != null && info.getInfoURL() != null 
-				&& source instanceof URL) {
+		String infoURL = null;
+		if (isDescribed()) {
+			infoURL = descriptor.getInfoURL();
+		} else if (info != null) {
+			infoURL = info.getInfoURL();
+		}
+		if (infoURL != null && source instanceof URL) {
 			try {
 				URL context = new URL("jar", "", source.toString() +"!/");
-				return new URL(context, info.getInfoURL());
+				return new URL(context, infoURL);
 			} catch (Exception exc) {
 				exc.printStackTrace();
 				return null;
@@ -242,6 +465,7 @@ public final class ModuleContainer {
 	 */
 	public void setPriority(int priority) {
 		this.priority = priority;
+		ModuleLoader.invalidateSnapshot();
 	}
 	
 	/**
@@ -285,6 +509,9 @@ public final class ModuleContainer {
 	 * @see IApplet
 	 */
 	public boolean isApplet() {
+		if (isDescribed()) {
+			return descriptor.has(ModuleDescriptor.APPLET);
+		}
 		return classImplements(cls, IApplet.class);
 	}
 	
@@ -296,6 +523,9 @@ public final class ModuleContainer {
 	 * @see IPanel
 	 */
 	public boolean isPanel() {
+		if (isDescribed()) {
+			return descriptor.has(ModuleDescriptor.PANEL);
+		}
 		return classImplements(cls, IPanel.class);
 	}
 	
@@ -308,6 +538,9 @@ public final class ModuleContainer {
 	 * @see #isCustomButtonable()
 	 */
 	public boolean isButtonable() {
+		if (isDescribed()) {
+			return descriptor.has(ModuleDescriptor.BUTTONABLE);
+		}
 		return info != null && info instanceof IButtonable
 			&& ((IButtonable)info).isButtonable();
 	}
@@ -321,6 +554,9 @@ public final class ModuleContainer {
 	 * @see #getCustomButton()
 	 */
 	public boolean isCustomButtonable() {
+		if (isDescribed()) {
+			return descriptor.has(ModuleDescriptor.CUSTOM_BUTTONABLE);
+		}
 		return isButtonable() && info instanceof ICustomButtonable;
 	}
 	
@@ -335,7 +571,7 @@ public final class ModuleContainer {
 	 * @see #isCustomButtonable()
 	 */
 	public JButton getCustomButton() {
-		return (isCustomButtonable())
+		return (isCustomButtonable() && activateQuietly())
 				? ((ICustomButtonable)info).getCustomButton()
 				: null;
 	}
@@ -349,6 +585,9 @@ public final class ModuleContainer {
 	 * @see #getConfigPanel()
 	 */
 	public boolean isConfigurable() {
+		if (isDescribed()) {
+			return descriptor.has(ModuleDescriptor.CONFIGURABLE);
+		}
 		return info != null && info instanceof IConfigurable;
 	}
 	
@@ -363,7 +602,7 @@ public final class ModuleContainer {
 	 * @see #isConfigurable()
 	 */
 	public IPanel getConfigPanel() {
-		return (isConfigurable()) 
+		return (isConfigurable() && activateQuietly()) 
 				? ((IConfigurable)info).getConfigPanel() 
 				: null;
 	}
@@ -377,6 +616,9 @@ public final class ModuleContainer {
 	 * @see #getRequirements()
 	 */
 	public boolean isDemanding() {
+		if (isDescribed()) {
+			return descriptor.has(ModuleDescriptor.DEMANDING);
+		}
 		return info != null && info instanceof IDemanding;
 	}
 	
@@ -387,7 +629,9 @@ public final class ModuleContainer {
 	 * @see #isDemanding()
 	 */
 	public Requirement[] getRequirements() {
-		if (isDemanding()) {
+		if (isDescribed()) {
+			return descriptor.getRequirements();
+		} else if (isDemanding()) {
 			Requirement[] reqs = ((IDemanding)info).getRequirements();
 			return (reqs != null) ? reqs : new Requirement[0];
 		} else {
@@ -404,6 +648,9 @@ public final class ModuleContainer {
 	 * @see #isCustomMenuable()
 	 */
 	public boolean isMenuable() {
+		if (isDescribed()) {
+			return descriptor.has(ModuleDescriptor.MENUABLE);
+		}
 		return info != null && info instanceof IMenuable
 			&& ((IMenuable)info).isMenuable();
 	}
@@ -417,6 +664,9 @@ public final class ModuleContainer {
 	 * @see #getCustomMenu()
 	 */
 	public boolean isCustomMenuable() {
+		if (isDescribed()) {
+			return descriptor.has(ModuleDescriptor.CUSTOM_MENUABLE);
+		}
 		return isMenuable() && info instanceof ICustomMenuable;
 	}
 	
@@ -431,7 +681,7 @@ public final class ModuleContainer {
 	 * @see #isCustomMenuable()
 	 */
 	public JMenu getCustomMenu() {
-		return (isCustomMenuable())
+		return (isCustomMenuable() && activateQuietly())
 				? ((ICustomMenuable)info).getCustomMenu()
 				: null;
 	}
@@ -445,9 +695,41 @@ public final class ModuleContainer {
 	 * @see ModuleFactory#newInstance(ModuleContainer, Object[])
 	 */
 	public boolean isParameterizable() {
+		if (isDescribed()) {
+			return descriptor.has(ModuleDescriptor.PARAMETERIZABLE);
+		}
 		return info != null && info instanceof IParameterizable;
 	}
 	
+	/**
+	 * Returns <code>true</code> if the ModuleInfoClass implements 
+	 * <code>IAsynchronous</code>.
+	 * @return <code>true</code> if the module may be instantiated outside 
+	 * the event dispatching thread.
+	 * @see IAsynchronous
+	 * @see ModuleFactory#newInstanceAsync(ModuleContainer, Object[], Runnable)
+	 */
+	public boolean isAsynchronous() {
+		if (isDescribed()) {
+			return descriptor.has(ModuleDescriptor.ASYNCHRONOUS);
+		}
+		return info != null && info instanceof IAsynchronous;
+	}
+	
+	/**
+	 * Returns <code>true</code> if the ModuleInfoClass implements 
+	 * <code>IHeadless</code>.
+	 * @return <code>true</code> if the module may be started when EVI runs 
+	 * without GUI.
+	 * @see IHeadless
+	 */
+	public boolean isHeadless() {
+		if (isDescribed()) {
+			return descriptor.has(ModuleDescriptor.HEADLESS);
+		}
+		return info != null && info instanceof IHeadless;
+	}
+	
 	/**
 	 * Returns <code>true</code> if the ModuleInfoClass implements 
 	 * <code>IURIHandler</code>.
@@ -457,6 +739,9 @@ public final class ModuleContainer {
 	 * @see #handlesURI(String)
 	 */
 	public boolean isURIHandler() {
+		if (isDescribed()) {
+			return descriptor.has(ModuleDescriptor.URI_HANDLER);
+		}
 		return info != null && info instanceof IURIHandler;
 	}
 	
@@ -472,7 +757,7 @@ public final class ModuleContainer {
 		if (!isURIHandler()) {
 			return false;
 		}
-		String[] protocols = ((IURIHandler)info).getProtocols();
+		String[] protocols = getProtocols();
 		if (protocol == null || protocols == null) {
 			return false;
 		}
@@ -484,6 +769,19 @@ public final class ModuleContainer {
 		return false;
 	}
 	
+	/**
+	 * Returns the protocols of a URI handler.
+	 * @return The protocols or <code>null</code> if the module is no 
+	 * URI handler.
+	 * @see IURIHandler#getProtocols()
+	 */
+	String[] getProtocols() {
+		if (isDescribed()) {
+			return descriptor.getProtocols();
+		}
+		return (isURIHandler()) ? ((IURIHandler)info).getProtocols() : null;
+	}
+	
 	/**
 	 * Indicates whether a given class implements a given interface.
 	 * @param c The class.
@@ -0,0 +1,247 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+import java.io.File;
+import java.net.URL;
+import java.util.StringTokenizer;
+
+import org.schwering.evi.conf.Properties;
+
+/**
+ * Cached meta information about a module JAR.<br>
+ * A descriptor stores everything that is known about a module after its
+ * JAR has been opened once: the Module-Info-Class, the id, the name, the
+ * version, the capabilities and the requirements. It also stores the size
+ * and the modification time of the JAR, so that a changed JAR can be
+ * detected without opening it.<br>
+ * <br>
+ * Descriptors are administered by {@link ModuleIndex}.
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+final class ModuleDescriptor {
+	static final int PANEL = 1;
+	static final int APPLET = 2;
+	static final int BUTTONABLE = 4;
+	static final int CUSTOM_BUTTONABLE = 8;
+	static final int MENUABLE = 16;
+	static final int CUSTOM_MENUABLE = 32;
+	static final int CONFIGURABLE = 64;
+	static final int PARAMETERIZABLE = 128;
+	static final int URI_HANDLER = 256;
+	static final int DEMANDING = 512;
+	static final int ASYNCHRONOUS = 1024;
+	static final int HEADLESS = 2048;
+
+	private URL source;
+	private long size;
+	private long lastModified;
+	private String infoClassName;
+	private String id;
+	private String name;
+	private float version;
+	private String infoURL;
+	private int flags;
+	private String[] protocols;
+	private Requirement[] requirements;
+
+	/**
+	 * No public instances. Use {@link #create(URL, ModuleContainer, String)}
+	 * or {@link #load(Properties, URL)}.
+	 */
+	private ModuleDescriptor() {
+	}
+
+	/**
+	 * Creates a descriptor of a freshly loaded module.
+	 * @param source The URL of the module's JAR.
+	 * @param container The loaded module.
+	 * @param infoClassName The classname of the Module-Info-Class.
+	 * @return A new descriptor or <code>null</code> if the source is no
+	 * local file.
+	 */
+	static ModuleDescriptor create(URL source, ModuleContainer container,
+			String infoClassName) {
+		File file = toFile(source);
+		if (file == null) {
+			return null;
+		}
+		ModuleDescriptor d = new ModuleDescriptor();
+		d.source = source;
+		d.size = file.length();
+		d.lastModified = file.lastModified();
+		d.infoClassName = infoClassName;
+		d.id = container.getId();
+		d.name = container.getName();
+		d.version = container.getVersion();
+		d.infoURL = container.getModuleInfo().getInfoURL();
+		d.flags = 0;
+		d.flags |= container.isPanel() ? PANEL : 0;
+		d.flags |= container.isApplet() ? APPLET : 0;
+		d.flags |= container.isButtonable() ? BUTTONABLE : 0;
+		d.flags |= container.isCustomButtonable() ? CUSTOM_BUTTONABLE : 0;
+		d.flags |= container.isMenuable() ? MENUABLE : 0;
+		d.flags |= container.isCustomMenuable() ? CUSTOM_MENUABLE : 0;
+		d.flags |= container.isConfigurable() ? CONFIGURABLE : 0;
+		d.flags |= container.isParameterizable() ? PARAMETERIZABLE : 0;
+		d.flags |= container.isURIHandler() ? URI_HANDLER : 0;
+		d.flags |= container.isDemanding() ? DEMANDING : 0;
+		d.flags |= container.isAsynchronous() ? ASYNCHRONOUS : 0;
+		d.flags |= container.isHeadless() ? HEADLESS : 0;
+		String[] protocols = container.getProtocols();
+		d.protocols = (protocols != null) ? protocols : new String[0];
+		d.requirements = container.getRequirements();
+		return d;
+	}
+
+	/**
+	 * Reads a descriptor from the index properties.
+	 * @param props The properties of the index.
+	 * @param source The URL of the JAR.
+	 * @return The descriptor or <code>null</code> if the properties do not
+	 * contain a (complete) descriptor for <code>source</code>.
+	 */
+	static ModuleDescriptor load(Properties props, URL source) {
+		String prefix = source.toString() +".";
+		if (props.getProperty(prefix +"class") == null) {
+			return null;
+		}
+		try {
+			ModuleDescriptor d = new ModuleDescriptor();
+			d.source = source;
+			d.size = Long.parseLong(props.getProperty(prefix +"size"));
+			d.lastModified = Long.parseLong(props.getProperty(prefix +"mtime"));
+			d.infoClassName = props.getProperty(prefix +"class");
+			d.id = props.getProperty(prefix +"id");
+			d.name = props.getProperty(prefix +"name");
+			d.version = Float.parseFloat(props.getProperty(prefix +"version"));
+			d.infoURL = props.getProperty(prefix +"info");
+			d.flags = Integer.parseInt(props.getProperty(prefix +"flags"));
+
+			StringTokenizer st = new StringTokenizer(
+					props.getProperty(prefix +"protocols", ""));
+			d.protocols = new String[st.countTokens()];
+			for (int i = 0; i < d.protocols.length; i++) {
+				d.protocols[i] = st.nextToken();
+			}
+
+			st = new StringTokenizer(
+					props.getProperty(prefix +"requirements", ""));
+			d.requirements = new Requirement[st.countTokens()];
+			for (int i = 0; i < d.requirements.length; i++) {
+				String s = st.nextToken();
+				int colon = s.lastIndexOf(':');
+				d.requirements[i] = new Requirement(s.substring(0, colon),
+						Float.parseFloat(s.substring(colon + 1)));
+			}
+
+			if (d.id == null || d.name == null) {
+				return null;
+			}
+			return d;
+		} catch (Exception exc) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the descriptor into the index properties.
+	 * @param props The properties of the index.
+	 */
+	void store(Properties props) {
+		String prefix = source.toString() +".";
+		props.setProperty(prefix +"size", String.valueOf(size));
+		props.setProperty(prefix +"mtime", String.valueOf(lastModified));
+		props.setProperty(prefix +"class", infoClassName);
+		props.setProperty(prefix +"id", id);
+		props.setProperty(prefix +"name", name);
+		props.setProperty(prefix +"version", String.valueOf(version));
+		if (infoURL != null) {
+			props.setProperty(prefix +"info", infoURL);
+		} else {
+			props.remove(prefix +"info");
+		}
+		props.setProperty(prefix +"flags", String.valueOf(flags));
+
+		StringBuffer buf = new StringBuffer();
+		for (int i = 0; i < protocols.length; i++) {
+			buf.append(protocols[i]).append(' ');
+		}
+		props.setProperty(prefix +"protocols", buf.toString().trim());
+
+		buf = new StringBuffer();
+		for (int i = 0; i < requirements.length; i++) {
+			buf.append(requirements[i]).append(' ');
+		}
+		props.setProperty(prefix +"requirements", buf.toString().trim());
+	}
+
+	/**
+	 * Indicates whether the JAR still has the size and modification time
+	 * it had when the descriptor was created.
+	 * @return <code>true</code> if the JAR seems to be unchanged.
+	 */
+	boolean isUpToDate() {
+		File file = toFile(source);
+		return file != null && file.isFile() && file.length() == size
+			&& file.lastModified() == lastModified;
+	}
+
+	/**
+	 * Returns the local file of a <code>file:</code> URL.
+	 * @param url The URL.
+	 * @return The file or <code>null</code> if the URL does not point to
+	 * a local file.
+	 */
+	static File toFile(URL url) {
+		if (url == null || !"file".equalsIgnoreCase(url.getProtocol())) {
+			return null;
+		}
+		try {
+			return new File(url.toURI());
+		} catch (Exception exc) {
+			return new File(url.getPath());
+		}
+	}
+
+	/**
+	 * Indicates whether the module has a certain capability.
+	 * @param flag One of the flag constants, e.g. {@link #PANEL}.
+	 * @return <code>true</code> if the flag is set.
+	 */
+	boolean has(int flag) {
+		return (flags & flag) != 0;
+	}
+
+	URL getSource() {
+		return source;
+	}
+
+	String getInfoClassName() {
+		return infoClassName;
+	}
+
+	String getId() {
+		return id;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	float getVersion() {
+		return version;
+	}
+
+	String getInfoURL() {
+		return infoURL;
+	}
+
+	String[] getProtocols() {
+		return protocols;
+	}
+
+	Requirement[] getRequirements() {
+		return requirements;
+	}
+}
@@ -1,248 +1,371 @@
-/* Copyright (C) 2006 Christoph Schwering */
-package org.schwering.evi.core;
-
-import java.lang.reflect.Constructor;
-import java.net.URI;
-
-import org.schwering.evi.util.ShutdownHookManager;
-
-/**
- * Provides methods to instantiate and dispose a module.<br>
- * When a module is instantiated, this new instance is registered in the 
- * module's <code>ModuleContainer</code>. And the <code>newInstance</code> / 
- * <code>disposeInstance</code> methods cause <code>IModuleListener</code> 
- * events to be fired. Hence, it is necessary to <b>use this class's methods 
- * to instantiate and dispose a module</b> to keep the internal mechanisms 
- * faultless!<br>
- * <br>
- * This class adds a shutdownhook that invokes <code>disposeInstance</code> 
- * for each module instance when the client is shut down. (This shutdownhook 
- * is added in a <code>static</code> block; this means it is added 
- * automatically when this class is loaded.)
- * @see ModuleLoader
- * @see ModuleContainer
- * @see IModuleListener
- * @author Christoph Schwering (mailto:schwering@gmail.com)
- * @version $Id$
- */
-public final class ModuleFactory {
-	/*
-	 * Adds a shutdownhook that shuts down all open modules.
-	 */
-	static {
-		ShutdownHookManager.addShutdownHook(new Thread() {
-			public void run() {
-				ModuleContainer[] containers = ModuleLoader.getLoadedModules();
-				for (int i = 0; i < containers.length; i++) {
-					IModule[] instances = containers[i].getInstances();
-					for (int j = 0; j < instances.length; j++) {
-						disposeInstance(instances[j]);
-					}
-				}
-			}
-		});
-	}
-	
-	/**
-	 * No instances allowed/useful.
-	 */
-	private ModuleFactory() {
-	}
-	
-	/**
-	 * Creates a new instance of the given module.
-	 * The method also registers the instance internally and fires the 
-	 * {@link IModuleListener#instantiated(IModule)} event. 
-	 * @param module The module.
-	 * @return The module's instance.
-	 * @throws ModuleInstantiationException If something fails (e.g. no 
-	 * constructor).
-	 * @see #newInstance(ModuleContainer, Object[])
-	 * @see #disposeInstance(IModule)
-	 */
-	public static synchronized IModule newInstance(ModuleContainer module) 
-	throws ModuleInstantiationException {
-		return newInstance(module, null);
-	}
-	
-	/**
-	 * Creates a new instance of the given module, optionally with arguments.
-	 * The method also registers the instance internally and fires the 
-	 * {@link IModuleListener#instantiated(IModule)} event. <br>
-	 * <br>
-	 * <h3>If the module was loaded from a JAR with a <code>IModuleInfo</code> 
-	 * information class:</h3>
-	 * <ul>
-	 * <li> If <code>args</code> is <code>null</code>, the module is tried to 
-	 * be instantiated without arguments using 
-	 * {@link IModuleInfo#newInstance()}. </li>
-	 * <li> If <code>args</code> has just one element and if this element is an 
-	 * instance of <code>java.net.URI</code> and if the module is a URI 
-	 * handler, the instance is created using the method 
-	 * {@link IURIHandler#newInstance(URI)}. </li>
-	 * <li> Otherwise, if the module is parameterizable, the <code>args</code> 
-	 * are passed to the module using the 
-	 * {@link IParameterizable#newInstance(Object[])} method. </li>
-	 * <li> Otherwise, an exception is thrown. </li>
-	 * </ul>
-	 * <br>
-	 * <h3>If the module was loaded as single class using 
-	 * <code>ModuleLoader.load(Class)</code></h3>
-	 * <ul>
-	 * <li> If <code>args</code> is <code>null</code>, a constructor is 
-	 * searched that takes no arguments. If it is found, the constructor 
-	 * is used to create a new instance. </li>
-	 * <li> Otherwise, a constructor is searched that matches the 
-	 * types of the objects in <code>args</code>. The constructor is invoked 
-	 * and the new instance is returned. </li>
-	 * <li> Otherwise, an exception is thrown. </li>
-	 * </ul>
-	 * @param module The module.
-	 * @param args The constructors arguments.
-	 * @return The module's instance.
-	 * @throws ModuleInstantiationException If something fails (e.g. no 
-	 * constructor).
-	 * @see #newInstance(ModuleContainer)
-	 * @see #disposeInstance(IModule)
-	 */
-	public static synchronized IModule newInstance(ModuleContainer module, 
-			Object[] args) throws ModuleInstantiationException {
-		try {
-			IModuleInfo info = module.getModuleInfo();
-			IModule instance = null;
-			if (info != null) {
-				Object object = null;
-				if (args == null) {
-					// create default instance
-					object = info.newInstance();
-				} else if (args.length == 1 
-						&& args[0] instanceof URI
-						&& module.isURIHandler()) {
-					// create instance with URI argument
-					URI uri = (URI)args[0];
-					object = ((IURIHandler)info).newInstance(uri);
-				} else if (module.isParameterizable()) {
-					// create instance with variable arguments
-					object = ((IParameterizable)info).newInstance(args);
-				} else {
-					// generate exception
-					StringBuffer msg = new StringBuffer();
-					msg.append("The method failed:\n");
-					msg.append("\tnewInstance("+ module +", args)\n");
-					msg.append("where args ");
-					if (args == null) {
-						msg.append("null.\n");
-					} else {
-						msg.append("has "+args.length+" elements:\n");
-						for (int i = 0; i < args.length; i++) {
-							msg.append("\targs["+i+"] is instance of ");
-							msg.append((args[i] == null) ? null : args[i].getClass());
-							msg.append("\n");
-						}
-					}
-					msg.append("Module information:\n");
-					msg.append("\tURIHandler: ");
-					msg.append((module.isURIHandler()) ? "yes" : "no");
-					msg.append("\n");
-					msg.append("\tParameterizable: ");
-					msg.append((module.isParameterizable()) ? "yes" : "no");
-					msg.append("\n");
-					throw new ModuleInstantiationException(msg.toString());
-				}
-				instance = (IModule)object;
-			} else {
-				Constructor<? extends IModule> c = searchConstructor(module, args);
-				Object object = c.newInstance(args);
-				instance = (IModule)object;
-			}
-			module.registerInstance(instance);
-			module.fireInstantiated(instance);
-			return instance;
-		} catch (ModuleInstantiationException exc) {
-			throw exc;
-		} catch (Throwable exc) {
-			throw new ModuleInstantiationException("Creating instance failed.",
-					exc);
-		}
-	}
-	
-	/**
-	 * Searches for the first constructor in the module's ModuleClass
-	 * that matches the types of the objects in <code>args</code>.
-	 * @param module The module that should be instantiated.
-	 * @param args The arguments that its constructor should take.
-	 * @return A matching constructor.
-	 * @throws ModuleInstantiationException If no constructor is found.
-	 */
-	@SuppressWarnings("unchecked")
-	private static Constructor<? extends IModule> searchConstructor(
-			ModuleContainer module, Object[] args) 
-			throws ModuleInstantiationException {
-		int len = (args != null) ? args.length : 0;
-		Class<?>[] wantedTypes = new Class[len];
-		for (int i = 0; i < len; i++) {
-			wantedTypes[i] = args[i].getClass();
-		}
-		
-		Class<? extends IModule> moduleClass = module.getModuleClass();
-		Constructor<? extends IModule>[] cons = 
-			(Constructor<? extends IModule>[])moduleClass.getConstructors();
-		for (int i = 0; i < cons.length; i++) {
-			Class[] argList = cons[i].getParameterTypes();
-			if (argListMatches(argList, wantedTypes)) {
-				return cons[i];
-			}
-		}
-		throw new ModuleInstantiationException("No matching constructor.");
-	}
-	
-	/**
-	 * Checks whether the wanted argument list would fit to the declared 
-	 * arguments.
-	 * @param args The arguments of a declared arguments.
-	 * @param wanted The types of the objects that are intended to be arguments.
-	 * @return <code>true</code> if objects of the type of wanted satisfy 
-	 * the requirements of the argument list args.
-	 */
-	private static boolean argListMatches(Class<?>[] args, Class<?>[] wanted) {
-		if (args == null || wanted == null) {
-			return false;
-		}
-		if (args.length != wanted.length) {
-			return false;
-		}
-		for (int i = 0; i < args.length && i < wanted.length; i++) {
-			if (!args[i].isAssignableFrom(wanted[i])) {
-				return false;
-			}
-		}
-		return true;
-	}
-	
-	/**
-	 * Fires the {@link IModuleListener#disposed(IModule)} event, unregisters
-	 * the module internally and invokes {@link IModule#dispose()}.
-	 * <br>
-	 * Why should you call <code>ModuleFactorydisposeInstance(module)</code> 
-	 * instead of calling <code>module.dispose()</code> directly?<br>
-	 * Because (as told two lines above) this method does more than just 
-	 * calling <code>dispose()</code>: it also unregisters the instance 
-	 * internally and fires the respective event.
-	 * @param instance The module.
-	 * @return <code>true</code> if the module is unregistered successfully.
-	 */
-	public synchronized static boolean disposeInstance(IModule instance) {
-		if (instance == null) {
-			return false;
-		}
-		String id = ModuleContainer.getIdByClass(instance.getClass());
-		ModuleContainer container = ModuleLoader.getLoadedModule(id);
-		if (container == null) {
-			return false;
-		}
-		container.fireDisposed(instance);
-		boolean returnValue = container.unregisterInstance(instance);
-		instance.dispose();
-		return returnValue;
-	}
-}
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+import java.lang.reflect.Constructor;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.swing.SwingUtilities;
+
+import org.schwering.evi.util.ShutdownHookManager;
+import org.schwering.evi.util.TaskScheduler;
+
+/**
+ * Provides methods to instantiate and dispose a module.<br>
+ * When a module is instantiated, this new instance is registered in the 
+ * module's <code>ModuleContainer</code>. And the <code>newInstance</code> / 
+ * <code>disposeInstance</code> methods cause <code>IModuleListener</code> 
+ * events to be fired. Hence, it is necessary to <b>use this class's methods 
+ * to instantiate and dispose a module</b> to keep the internal mechanisms 
+ * faultless!<br>
+ * <br>
+ * This class adds a shutdownhook that invokes <code>disposeInstance</code> 
+ * for each module instance when the client is shut down. (This shutdownhook 
+ * is added in a <code>static</code> block; this means it is added 
+ * automatically when this class is loaded.)
+ * @see ModuleLoader
+ * @see ModuleContainer
+ * @see IModuleListener
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public final class ModuleFactory {
+	/*
+	 * Adds a shutdownhook that shuts down all open modules.
+	 */
+	static {
+		ShutdownHookManager.addShutdownHook(new Thread() {
+			public void run() {
+				ModuleContainer[] containers = ModuleLoader.getLoadedModules();
+				for (int i = 0; i < containers.length; i++) {
+					IModule[] instances = containers[i].getInstances();
+					for (int j = 0; j < instances.length; j++) {
+						disposeInstance(instances[j]);
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * No instances allowed/useful.
+	 */
+	private ModuleFactory() {
+	}
+	
+	/**
+	 * Creates a new instance of the given module in the framework's pool of 
+	 * the <code>TaskScheduler</code> if the module allows this, i.e. if its 
+	 * ModuleInfoClass implements {@link IAsynchronous}. Otherwise, the 
+	 * instance is created immediately in the current thread.<br>
+	 * The instance is created by 
+	 * {@link #newInstance(ModuleContainer, Object[])}, so only the 
+	 * module's non-GUI part is constructed in the worker thread (see 
+	 * {@link IAsynchronous}) and the 
+	 * {@link IModuleListener#instantiated(IModule)} event is fired there, 
+	 * too. Listeners that modify the GUI must hand the new instance over 
+	 * to the event dispatching thread, where they attach its components 
+	 * (the main <code>TabBar</code> and <code>ToolBar</code> do so).
+	 * @param module The module.
+	 * @param args The constructors arguments or <code>null</code>.
+	 * @param whenDone Invoked in the event dispatching thread when the 
+	 * instance has been created or creating it failed, after the 
+	 * listeners' hand-overs. It is always invoked later, even if the 
+	 * instance is created immediately in the event dispatching thread, so 
+	 * it can rely on the returned <code>Future</code>. May be 
+	 * <code>null</code>.
+	 * @return The pending instance. Its <code>get</code> method throws an 
+	 * <code>ExecutionException</code> whose cause is a 
+	 * <code>ModuleInstantiationException</code> if creating it failed.
+	 * @see #newInstance(ModuleContainer, Object[])
+	 * @see #newInstanceAsync(ModuleContainer, Object[], Runnable, int)
+	 */
+	public static Future<IModule> newInstanceAsync(ModuleContainer module,
+			Object[] args, Runnable whenDone) {
+		return newInstanceAsync(module, args, whenDone, TaskScheduler.HIGH);
+	}
+	
+	/**
+	 * Creates a new instance of the given module like 
+	 * {@link #newInstanceAsync(ModuleContainer, Object[], Runnable)}, but 
+	 * with the given priority, e.g. <code>TaskScheduler.LOW</code> for 
+	 * instances nobody is waiting for.
+	 * @param module The module.
+	 * @param args The constructors arguments or <code>null</code>.
+	 * @param whenDone Invoked later in the event dispatching thread when 
+	 * the instance has been created or creating it failed. May be 
+	 * <code>null</code>.
+	 * @param priority The priority of the worker thread.
+	 * @return The pending instance.
+	 */
+	public static Future<IModule> newInstanceAsync(final ModuleContainer module,
+			final Object[] args, final Runnable whenDone, int priority) {
+		FutureTask<IModule> task = new FutureTask<IModule>(
+				new Callable<IModule>() {
+			public IModule call() throws ModuleInstantiationException {
+				return newInstance(module, args);
+			}
+		}) {
+			protected void done() {
+				// not inline: the caller has not received the Future yet
+				if (whenDone != null) {
+					SwingUtilities.invokeLater(whenDone);
+				}
+			}
+		};
+		if (module.isAsynchronous()) {
+			TaskScheduler.submit(module, task, priority);
+		} else {
+			task.run();
+		}
+		return task;
+	}
+	
+	/**
+	 * Creates a new instance of the given module.
+	 * The method also registers the instance internally and fires the 
+	 * {@link IModuleListener#instantiated(IModule)} event. 
+	 * @param module The module.
+	 * @return The module's instance.
+	 * @throws ModuleInstantiationException If something fails (e.g. no 
+	 * constructor).
+	 * @see #newInstance(ModuleContainer, Object[])
+	 * @see #disposeInstance(IModule)
+	 */
+	public static IModule newInstance(ModuleContainer module) 
+	throws ModuleInstantiationException {
+		return newInstance(module, null);
+	}
+	
+	/**
+	 * Creates a new instance of the given module, optionally with arguments.
+	 * The method also registers the instance internally and fires the 
+	 * {@link IModuleListener#instantiated(IModule)} event. <br>
+	 * If the module has been loaded lazily and is not active yet, its 
+	 * JAR is opened and its ModuleInfoClass is loaded first. <br>
+	 * <br>
+	 * Instances of the same module are created one after another (the 
+	 * container serves as lock), but instances of different modules can 
+	 * be created concurrently. No instance can be created after the module 
+	 * has been unloaded.<br>
+	 * <br>
+	 * <h3>If the module was loaded from a JAR with a <code>IModuleInfo</code> 
+	 * information class:</h3>
+	 * <ul>
+	 * <li> If <code>args</code> is <code>null</code>, the module is tried to 
+	 * be instantiated without arguments using 
+	 * {@link IModuleInfo#newInstance()}. </li>
+	 * <li> If <code>args</code> has just one element and if this element is an 
+	 * instance of <code>java.net.URI</code> and if the module is a URI 
+	 * handler, the instance is created using the method 
+	 * {@link IURIHandler#newInstance(URI)}. </li>
+	 * <li> Otherwise, if the module is parameterizable, the <code>args</code> 
+	 * are passed to the module using the 
+	 * {@link IParameterizable#newInstance(Object[])} method. </li>
+	 * <li> Otherwise, an exception is thrown. </li>
+	 * </ul>
+	 * <br>
+	 * <h3>If the module was loaded as single class using 
+	 * <code>ModuleLoader.load(Class)</code></h3>
+	 * <ul>
+	 * <li> If <code>args</code> is <code>null</code>, a constructor is 
+	 * searched that takes no arguments. If it is found, the constructor 
+	 * is used to create a new instance. </li>
+	 * <li> Otherwise, a constructor is searched that matches the 
+	 * types of the objects in <code>args</code>. The constructor is invoked 
+	 * and the new instance is returned. </li>
+	 * <li> Otherwise, an exception is thrown. </li>
+	 * </ul>
+	 * @param module The module.
+	 * @param args The constructors arguments.
+	 * @return The module's instance.
+	 * @throws ModuleInstantiationException If something fails (e.g. no 
+	 * constructor).
+	 * @see #newInstance(ModuleContainer)
+	 * @see #disposeInstance(IModule)
+	 */
+	public static IModule newInstance(ModuleContainer module, 
+			Object[] args) throws ModuleInstantiationException {
+		synchronized (module) {
+			if (module.isUnloaded()) {
+				throw new ModuleInstantiationException(module 
+						+" has been unloaded");
+			}
+			return createInstance(module, args);
+		}
+	}
+	
+	/**
+	 * Creates, registers and announces a new instance. Invoked by 
+	 * {@link #newInstance(ModuleContainer, Object[])} while holding the 
+	 * container's lock.
+	 * @param module The module.
+	 * @param args The constructors arguments.
+	 * @return The module's instance.
+	 * @throws ModuleInstantiationException If something fails.
+	 */
+	private static IModule createInstance(ModuleContainer module, 
+			Object[] args) throws ModuleInstantiationException {
+		try {
+			module.activate();
+			IModuleInfo info = module.getModuleInfo();
+			IModule instance = null;
+			if (info != null) {
+				Object object = null;
+				if (args == null) {
+					// create default instance
+					object = info.newInstance();
+				} else if (args.length == 1 
+						&& args[0] instanceof URI
+						&& module.isURIHandler()) {
+					// create instance with URI argument
+					URI uri = (URI)args[0];
+					object = ((IURIHandler)info).newInstance(uri);
+				} else if (module.isParameterizable()) {
+					// create instance with variable arguments
+					object = ((IParameterizable)info).newInstance(args);
+				} else {
+					// generate exception
+					StringBuffer msg = new StringBuffer();
+					msg.append("The method failed:\n");
+					msg.append("\tnewInstance("+ module +", args)\n");
+					msg.append("where args ");
+					if (args == null) {
+						msg.append("null.\n");
+					} else {
+						msg.append("has "+args.length+" elements:\n");
+						for (int i = 0; i < args.length; i++) {
+							msg.append("\targs["+i+"] is instance of ");
+							msg.append((args[i] == null) ? null : args[i].getClass());
+							msg.append("\n");
+						}
+					}
+					msg.append("Module information:\n");
+					msg.append("\tURIHandler: ");
+					msg.append((module.isURIHandler()) ? "yes" : "no");
+					msg.append("\n");
+					msg.append("\tParameterizable: ");
+					msg.append((module.isParameterizable()) ? "yes" : "no");
+					msg.append("\n");
+					throw new ModuleInstantiationException(msg.toString());
+				}
+				instance = (IModule)object;
+			} else {
+				Constructor<? extends IModule> c = searchConstructor(module, args);
+				Object object = c.newInstance(args);
+				instance = (IModule)object;
+			}
+			module.registerInstance(instance, args);
+			module.fireInstantiated(instance);
+			return instance;
+		} catch (ModuleInstantiationException exc) {
+			throw exc;
+		} catch (Throwable exc) {
+			throw new ModuleInstantiationException("Creating instance failed.",
+					exc);
+		}
+	}
+	
+	/**
+	 * Searches for the first constructor in the module's ModuleClass
+	 * that matches the types of the objects in <code>args</code>. The 
+	 * result is cached in the container per list of argument types, so 
+	 * the constructors are only scanned once for each list. Package-private 
+	 * for <code>ConstructorCacheBenchmark</code>.
+	 * @param module The module that should be instantiated.
+	 * @param args The arguments that its constructor should take.
+	 * @return A matching constructor.
+	 * @throws ModuleInstantiationException If no constructor is found.
+	 */
+	@SuppressWarnings("unchecked")
+	static Constructor<? extends IModule> searchConstructor(
+			ModuleContainer module, Object[] args) 
+			throws ModuleInstantiationException {
+		int len = (args != null) ? args.length : 0;
+		Class<?>[] wantedTypes = new Class<?>[len];
+		for (int i = 0; i < len; i++) {
+			wantedTypes[i] = args[i].getClass();
+		}
+		List<Class<?>> signature = Arrays.asList(wantedTypes);
+		Constructor<? extends IModule> cached = module.getConstructor(signature);
+		if (cached != null) {
+			return cached;
+		}
+		
+		Class<? extends IModule> moduleClass = module.getModuleClass();
+		Constructor<? extends IModule>[] cons = 
+			(Constructor<? extends IModule>[])moduleClass.getConstructors();
+		for (int i = 0; i < cons.length; i++) {
+			Class<?>[] argList = cons[i].getParameterTypes();
+			if (argListMatches(argList, wantedTypes)) {
+				module.putConstructor(signature, cons[i]);
+				return cons[i];
+			}
+		}
+		throw new ModuleInstantiationException("No matching constructor.");
+	}
+	
+	/**
+	 * Checks whether the wanted argument list would fit to the declared 
+	 * arguments.
+	 * @param args The arguments of a declared arguments.
+	 * @param wanted The types of the objects that are intended to be arguments.
+	 * @return <code>true</code> if objects of the type of wanted satisfy 
+	 * the requirements of the argument list args.
+	 */
+	private static boolean argListMatches(Class<?>[] args, Class<?>[] wanted) {
+		if (args == null || wanted == null) {
+			return false;
+		}
+		if (args.length != wanted.length) {
+			return false;
+		}
+		for (int i = 0; i < args.length && i < wanted.length; i++) {
+			if (!args[i].isAssignableFrom(wanted[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Fires the {@link IModuleListener#disposed(IModule)} event, unregisters
+	 * the module internally and invokes {@link IModule#dispose()}.
+	 * <br>
+	 * Why should you call <code>ModuleFactorydisposeInstance(module)</code> 
+	 * instead of calling <code>module.dispose()</code> directly?<br>
+	 * Because (as told two lines above) this method does more than just 
+	 * calling <code>dispose()</code>: it also unregisters the instance 
+	 * internally and fires the respective event.<br>
+	 * Like instantiation, disposing is serialized per module. The tasks the 
+	 * instance has submitted to the {@link TaskScheduler} are cancelled; 
+	 * if it was the module's last instance, all tasks of the module are 
+	 * cancelled.
+	 * @param instance The module.
+	 * @return <code>true</code> if the module is unregistered successfully.
+	 */
+	public static boolean disposeInstance(IModule instance) {
+		if (instance == null) {
+			return false;
+		}
+		String id = ModuleContainer.getIdByClass(instance.getClass());
+		ModuleContainer container = ModuleLoader.getLoadedModule(id);
+		if (container == null) {
+			return false;
+		}
+		synchronized (container) {
+			container.fireDisposed(instance);
+			boolean returnValue = container.unregisterInstance(instance);
+			instance.dispose();
+			TaskScheduler.cancel(instance);
+			if (container.getInstances().length == 0) {
+				TaskScheduler.cancelPool(container.getId());
+			}
+			return returnValue;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,126 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+import java.net.URL;
+
+import org.schwering.evi.conf.Properties;
+
+/**
+ * Administers the module index file <code>CONFIG_DIR/modules.index</code>.
+ * <br>
+ * The index caches a {@link ModuleDescriptor} for each module JAR that has
+ * been loaded from a local file. It is keyed by the JAR's URL; a
+ * descriptor is only used as long as the JAR's size and modification time
+ * are unchanged. This allows the <code>ModuleLoader</code> to skip reading
+ * the JAR's manifest.<br>
+ * <br>
+ * The index is stored automatically by a shutdownhook.
+ * @see ModuleLoader
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public final class ModuleIndex {
+	private static final String INDEX_FILE_NAME = "modules.index";
+	
+	/**
+	 * The version of the index format. An index with another version is 
+	 * discarded. Increase it when descriptors get new fields or flags.
+	 */
+	private static final String FORMAT_KEY = "format";
+	private static final String FORMAT = "3";
+
+	/**
+	 * The index properties or <code>null</code> if the index could not be
+	 * initialized.
+	 */
+	private static Properties props;
+
+	static {
+		try {
+			props = new Properties(INDEX_FILE_NAME);
+			props.setDescription("EVI module index -- generated, do not edit");
+			props.load();
+			if (!FORMAT.equals(props.getProperty(FORMAT_KEY))) {
+				props.clear();
+				props.setProperty(FORMAT_KEY, FORMAT);
+			}
+			props.setShutdownHook(true);
+		} catch (Exception exc) {
+			exc.printStackTrace();
+			props = null;
+		}
+	}
+
+	/**
+	 * No instances allowed/useful.
+	 */
+	private ModuleIndex() {
+	}
+
+	/**
+	 * Returns the descriptor of a JAR if it is indexed and unchanged.
+	 * @param url The URL of the JAR.
+	 * @return The up-to-date descriptor or <code>null</code>.
+	 */
+	static synchronized ModuleDescriptor lookup(URL url) {
+		if (props == null || url == null) {
+			return null;
+		}
+		ModuleDescriptor d = ModuleDescriptor.load(props, url);
+		return (d != null && d.isUpToDate()) ? d : null;
+	}
+
+	/**
+	 * Adds or replaces a descriptor.
+	 * @param d The new descriptor. Nothing happens if it is <code>null</code>.
+	 */
+	static synchronized void put(ModuleDescriptor d) {
+		if (props == null || d == null) {
+			return;
+		}
+		remove(d.getSource());
+		d.store(props);
+	}
+
+	/**
+	 * Removes the descriptor of a JAR.
+	 * @param url The URL of the JAR.
+	 */
+	static synchronized void remove(URL url) {
+		if (props == null || url == null) {
+			return;
+		}
+		String prefix = url.toString() +".";
+		String[] keys = props.getKeys();
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i].startsWith(prefix)) {
+				props.remove(keys[i]);
+			}
+		}
+	}
+
+	/**
+	 * Removes all descriptors.
+	 */
+	public static synchronized void clear() {
+		if (props != null) {
+			props.clear();
+			props.setProperty(FORMAT_KEY, FORMAT);
+		}
+	}
+
+	/**
+	 * Writes the index to <code>CONFIG_DIR/modules.index</code>.
+	 * This is done automatically when EVI is shut down.
+	 */
+	public static synchronized void store() {
+		if (props == null) {
+			return;
+		}
+		try {
+			props.store();
+		} catch (Exception exc) {
+			exc.printStackTrace();
+		}
+	}
+}
@@ -2,17 +2,33 @@
 package org.schwering.evi.core;
 
 import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.JarURLConnection;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.schwering.evi.conf.Properties;
+import org.schwering.evi.util.Profiler;
+import org.schwering.evi.util.TaskScheduler;
 
 /**
  * Provides methods to load JARs.<br>
@@ -43,12 +59,32 @@ public final class ModuleLoader extends URLClassLoader {
 	 * Contains the <code>ModuleContainer</code> objects. Each value's key 
 	 * is the module's id.
 	 */
-	private static Hashtable<String, ModuleContainer> table = new Hashtable<String, ModuleContainer>();
+	private static ConcurrentMap<String, ModuleContainer> table = new ConcurrentHashMap<String, ModuleContainer>();
+	
+	/**
+	 * Contains all <code>IModuleLoaderListener</code>s. Events are fired 
+	 * on a snapshot, so listeners may (un)register themselves while an 
+	 * event is fired.
+	 */
+	private static List<IModuleLoaderListener> listeners = new CopyOnWriteArrayList<IModuleLoaderListener>();
+	
+	/**
+	 * The cached view of the loaded modules or <code>null</code> if it 
+	 * has to be rebuilt.
+	 */
+	private static volatile Snapshot snapshot;
 	
 	/**
-	 * Contains all <code>IModuleLoaderListener</code>s.
+	 * The number of modifications of the loaded modules. Guarded by 
+	 * <code>snapshotLock</code>.
 	 */
-	private static List<IModuleLoaderListener> listeners = new LinkedList<IModuleLoaderListener>();
+	private static int modCount = 0;
+	private static final Object snapshotLock = new Object();
+	
+	/**
+	 * Indicates whether modules are activated lazily.
+	 */
+	private static volatile boolean lazyActivation = false;
 	
 	/**
 	 * The URL of the JAR file.
@@ -65,19 +101,24 @@ public final class ModuleLoader extends URLClassLoader {
 	}
 	
 	/**
-	 * Loads the <code>Module-Info-Class</code> implementation of the JAR.
-	 * @return The <code>Class</code> representation of the class 
-	 * the <code>Module-Info-Class</code> manifest-attribute points to.
-	 * @throws ModuleLoaderException If the JAR cannot be loaded, if 
-	 * the Module-Info-Class attribute is not defined or if the class 
-	 * cannot be found for any reason.
+	 * Reads the <code>Module-Info-Class</code> attribute from the JAR's 
+	 * manifest.
+	 * @return The classname the <code>Module-Info-Class</code> 
+	 * manifest-attribute points to.
+	 * @throws ModuleLoaderException If the JAR cannot be loaded or if 
+	 * the Module-Info-Class attribute is not defined.
 	 */
-	@SuppressWarnings("unchecked")
-	private Class<? extends IModuleInfo> getModuleInfoClass() throws ModuleLoaderException {
+	private String getModuleInfoClassName() throws ModuleLoaderException {
+		JarFile jar = null;
 		try {
 			URL jarURL = new URL("jar", "", url +"!/");
 			JarURLConnection conn = (JarURLConnection)jarURL.openConnection();
-			Attributes attr = conn.getMainAttributes();
+			// a cached JarFile would stay open after the module is unloaded
+			conn.setUseCaches(false);
+			jar = conn.getJarFile();
+			Manifest manifest = jar.getManifest();
+			Attributes attr = (manifest != null) 
+					? manifest.getMainAttributes() : null;
 			if (attr == null) {
 				throw new ModuleLoaderException("No Module-Info-Class defined");
 			}
@@ -86,7 +127,60 @@ public final class ModuleLoader extends URLClassLoader {
 			if (infoClassName == null) {
 				throw new ModuleLoaderException("No Module-Info defined");
 			}
-			infoClassName = infoClassName.trim();
+			return infoClassName.trim();
+		} catch (ModuleLoaderException exc) {
+			throw exc;
+		} catch (Exception exc) {
+			throw new ModuleLoaderException(exc);
+		} finally {
+			if (jar != null) {
+				try {
+					jar.close();
+				} catch (Exception exc) {
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Closes the JAR so that its file handle is released. On JREs before 
+	 * 1.7, <code>URLClassLoader</code> cannot be closed; nothing happens 
+	 * then. The loader must not be used afterwards.
+	 */
+	private void release() {
+		try {
+			Method close = URLClassLoader.class.getMethod("close", 
+					new Class<?>[0]);
+			close.invoke(this, new Object[0]);
+		} catch (NoSuchMethodException exc) {
+		} catch (Exception exc) {
+			exc.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Indicates whether a class has been loaded by this loader. Used by 
+	 * the {@link LeakDetector}.
+	 * @param className The name of the class.
+	 * @return <code>true</code> if this loader defined the class.
+	 */
+	boolean defines(String className) {
+		Class<?> c = findLoadedClass(className);
+		return c != null && c.getClassLoader() == this;
+	}
+	
+	/**
+	 * Loads the <code>Module-Info-Class</code> implementation of the JAR.
+	 * @param infoClassName The classname of the Module-Info-Class.
+	 * @return The <code>Class</code> representation of the class 
+	 * <code>infoClassName</code>.
+	 * @throws ModuleLoaderException If the class cannot be found for any 
+	 * reason or if it does not implement <code>IModuleInfo</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	private Class<? extends IModuleInfo> getModuleInfoClass(String infoClassName) 
+	throws ModuleLoaderException {
+		try {
 			Class<?> infoClass = findClass(infoClassName);
 			if (IModuleInfo.class.isAssignableFrom(infoClass)) {
 				return (Class<? extends IModuleInfo>)infoClass;
@@ -96,7 +190,53 @@ public final class ModuleLoader extends URLClassLoader {
 			}
 		} catch (ModuleLoaderException exc) {
 			throw exc;
-		} catch (Exception exc) {
+		} catch (Throwable exc) {
+			throw new ModuleLoaderException(exc);
+		}
+	}
+	
+	/**
+	 * Enables or disables lazy activation. If enabled, a module whose JAR 
+	 * is listed in the {@link ModuleIndex} and has not changed since is 
+	 * loaded without opening the JAR: its <code>ModuleContainer</code> is 
+	 * built from the cached meta information, so toolbar buttons, menus 
+	 * and URI handling work without loading any of the module's classes. 
+	 * The JAR is opened and the ModuleInfoClass is instantiated when the 
+	 * module is instantiated for the first time (or when its custom 
+	 * button, custom menu or config panel is requested).<br>
+	 * Modules that are already loaded are not affected.
+	 * @param lazy <code>true</code> enables lazy activation.
+	 * @see ModuleContainer#isActive()
+	 */
+	public static void setLazyActivation(boolean lazy) {
+		lazyActivation = lazy;
+	}
+	
+	/**
+	 * Indicates whether lazy activation is enabled.
+	 * @return <code>true</code> if modules are activated lazily.
+	 * @see #setLazyActivation(boolean)
+	 */
+	public static boolean isLazyActivation() {
+		return lazyActivation;
+	}
+	
+	/**
+	 * Loads and instantiates the ModuleInfoClass of a module that was 
+	 * loaded lazily. Invoked by {@link ModuleContainer#activate()}.
+	 * @param descriptor The cached meta information of the module.
+	 * @return A new instance of the ModuleInfoClass.
+	 * @throws ModuleLoaderException If anything fails.
+	 */
+	static IModuleInfo instantiateModuleInfo(ModuleDescriptor descriptor) 
+	throws ModuleLoaderException {
+		try {
+			ModuleLoader loader = new ModuleLoader(descriptor.getSource());
+			return newModuleInfo(loader.getModuleInfoClass(
+					descriptor.getInfoClassName()));
+		} catch (ModuleLoaderException exc) {
+			throw exc;
+		} catch (Throwable exc) {
 			throw new ModuleLoaderException(exc);
 		}
 	}
@@ -118,23 +258,63 @@ public final class ModuleLoader extends URLClassLoader {
 	}
 	
 	/**
-	 * Fires the {@link IModuleLoaderListener#loaded(ModuleContainer)} event.
+	 * Creates an instance of a ModuleInfoClass with its no-arg constructor.
+	 * Unlike <code>Class.newInstance()</code>, this does not hide checked 
+	 * exceptions; the exception thrown by the constructor is rethrown 
+	 * unwrapped, though.
+	 * @param cls The ModuleInfoClass.
+	 * @return A new instance of the ModuleInfoClass.
+	 * @throws Exception If the constructor is not accessible or fails.
+	 */
+	private static IModuleInfo newModuleInfo(Class<? extends IModuleInfo> cls) 
+	throws Exception {
+		try {
+			return cls.getDeclaredConstructor().newInstance();
+		} catch (InvocationTargetException exc) {
+			Throwable cause = exc.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception)cause;
+			} else if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw exc;
+		}
+	}
+	
+	/**
+	 * Returns a snapshot of the listeners.
+	 * @return The currently registered listeners.
+	 */
+	private static IModuleLoaderListener[] getListeners() {
+		IModuleLoaderListener[] arr = 
+			new IModuleLoaderListener[listeners.size()];
+		return listeners.toArray(arr);
+	}
+	
+	/**
+	 * Fires the {@link IModuleLoaderListener#loaded(ModuleContainer)} event 
+	 * and publishes it to {@link EventBus#MODULE_LOADED}.
 	 * @param module The new module.
 	 */
 	private static void fireLoaded(ModuleContainer module) {
-		for (int i = listeners.size() - 1; i >= 0; i--) {
-			((IModuleLoaderListener)listeners.get(i)).loaded(module);
+		IModuleLoaderListener[] arr = getListeners();
+		for (int i = arr.length - 1; i >= 0; i--) {
+			arr[i].loaded(module);
 		}
+		EventBus.publish(EventBus.MODULE_LOADED, module);
 	}
 	
 	/**
-	 * Fires the {@link IModuleLoaderListener#unloaded(ModuleContainer)} event.
+	 * Fires the {@link IModuleLoaderListener#unloaded(ModuleContainer)} event 
+	 * and publishes it to {@link EventBus#MODULE_UNLOADED}.
 	 * @param module The removed module.
 	 */
 	private static void fireUnloaded(ModuleContainer module) {
-		for (int i = listeners.size() - 1; i >= 0; i--) {
-			((IModuleLoaderListener)listeners.get(i)).unloaded(module);
+		IModuleLoaderListener[] arr = getListeners();
+		for (int i = arr.length - 1; i >= 0; i--) {
+			arr[i].unloaded(module);
 		}
+		EventBus.publish(EventBus.MODULE_UNLOADED, module);
 	}
 	
 	/**
@@ -160,34 +340,226 @@ public final class ModuleLoader extends URLClassLoader {
 	 * @throws ModuleLoaderException If anything fails.
 	 */
 	public static ModuleContainer load(URL url) throws ModuleLoaderException {
+		return register(introspect(url));
+	}
+	
+	/**
+	 * Loads several modules from JARs. The JARs are opened and their 
+	 * ModuleInfoClasses are instantiated concurrently by the framework's 
+	 * pool of the <code>TaskScheduler</code>. The modules are registered 
+	 * afterwards in the calling thread in the order of <code>urls</code>, 
+	 * i.e. the priorities are the same as if each URL had been loaded 
+	 * with {@link #load(URL)} one after the other.<br>
+	 * <br>
+	 * A JAR that cannot be loaded does not affect the others. All failures 
+	 * are collected and thrown as one 
+	 * <code>MultiModuleLoaderException</code> after the successfully 
+	 * loaded modules have been registered.<br>
+	 * Fires the {@link IModuleLoaderListener#loaded(ModuleContainer)} event 
+	 * for each new module.
+	 * @param urls The destinations of the JARs.
+	 * @return The <code>ModuleContainer</code>s of the successfully loaded 
+	 * modules, in the order of <code>urls</code>.
+	 * @throws MultiModuleLoaderException If one or more JARs fail.
+	 */
+	public static ModuleContainer[] load(URL[] urls) 
+	throws MultiModuleLoaderException {
+		if (urls == null || urls.length == 0) {
+			return new ModuleContainer[0];
+		}
+		
+		// the tasks are cancelled together if the calling thread fails
+		Object owner = new Object();
+		List<Future<ModuleContainer>> futures = 
+			new Vector<Future<ModuleContainer>>(urls.length);
 		try {
-			ModuleLoader loader = new ModuleLoader(url);
-			Class<? extends IModuleInfo> moduleInfoClass = loader.getModuleInfoClass();
-			IModuleInfo moduleInfo = moduleInfoClass.newInstance();
+			for (int i = 0; i < urls.length; i++) {
+				final URL url = urls[i];
+				FutureTask<ModuleContainer> task = new FutureTask<ModuleContainer>(
+						new Callable<ModuleContainer>() {
+					public ModuleContainer call() throws Exception {
+						return introspect(url);
+					}
+				});
+				TaskScheduler.submit(owner, task, TaskScheduler.HIGH);
+				futures.add(task);
+			}
 			
-			ModuleContainer container = new ModuleContainer(moduleInfo);
-			container.setSource(url);
+			MultiModuleLoaderException failures = 
+				new MultiModuleLoaderException();
+			List<ModuleContainer> loaded = 
+				new Vector<ModuleContainer>(urls.length);
+			for (int i = 0; i < urls.length; i++) {
+				try {
+					ModuleContainer container = futures.get(i).get();
+					loaded.add(register(container));
+				} catch (ExecutionException exc) {
+					failures.add(urls[i], exc.getCause());
+				} catch (Exception exc) {
+					failures.add(urls[i], exc);
+				}
+			}
 			
-			String id = container.getId();
-			if (!isLoaded(id)) {
-				table.put(id, container);
-				fireLoaded(container);
+			if (failures.size() > 0) {
+				throw failures;
+			}
+			ModuleContainer[] arr = new ModuleContainer[loaded.size()];
+			return loaded.toArray(arr);
+		} finally {
+			TaskScheduler.cancel(owner);
+		}
+	}
+	
+	/**
+	 * Opens the JAR, loads and instantiates its ModuleInfoClass and wraps 
+	 * it in a new <code>ModuleContainer</code>. The container is 
+	 * <i>not</i> registered. This method may be invoked by several threads 
+	 * at the same time.<br>
+	 * If the JAR is listed in the {@link ModuleIndex} and has not changed 
+	 * since, its manifest is not read. With lazy activation, the JAR is 
+	 * not opened at all in this case. Otherwise the index is updated.<br>
+	 * Remote JARs are loaded from their local copy in the 
+	 * {@link ModuleRepository}, which is downloaded first if necessary. 
+	 * The container's source is the remote URL nevertheless.
+	 * @param url The destination of the JAR.
+	 * @return A new and unregistered <code>ModuleContainer</code>.
+	 * @throws ModuleLoaderException If anything fails.
+	 */
+	private static ModuleContainer introspect(URL url) 
+	throws ModuleLoaderException {
+		return introspect(url, lazyActivation);
+	}
+	
+	/**
+	 * Like {@link #introspect(URL)}, but lazy activation can be chosen 
+	 * explicitly.
+	 * @param url The destination of the JAR.
+	 * @param lazy If <code>true</code>, the JAR is not opened if it is 
+	 * listed in the index.
+	 * @return A new and unregistered <code>ModuleContainer</code>.
+	 * @throws ModuleLoaderException If anything fails.
+	 */
+	private static ModuleContainer introspect(URL url, boolean lazy) 
+	throws ModuleLoaderException {
+		Profiler.Sample sample = Profiler.start(Profiler.LOAD, url.toString());
+		try {
+			URL jar = ModuleRepository.localize(url);
+			ModuleDescriptor descriptor = ModuleIndex.lookup(jar);
+			if (descriptor != null && lazy) {
+				ModuleContainer container = new ModuleContainer(descriptor);
+				container.setSource(url);
 				return container;
-			} else {
-				return getLoadedModule(id);
 			}
+			
+			ModuleLoader loader = new ModuleLoader(jar);
+			Class<? extends IModuleInfo> moduleInfoClass = null;
+			if (descriptor != null) {
+				try {
+					moduleInfoClass = loader.getModuleInfoClass(
+							descriptor.getInfoClassName());
+				} catch (ModuleLoaderException exc) {
+					// the index is outdated, fall back to the manifest
+					descriptor = null;
+				}
+			}
+			if (moduleInfoClass == null) {
+				moduleInfoClass = loader.getModuleInfoClass(
+						loader.getModuleInfoClassName());
+			}
+			IModuleInfo moduleInfo = newModuleInfo(moduleInfoClass);
+			
+			ModuleContainer container = new ModuleContainer(moduleInfo);
+			container.setSource(url);
+			if (descriptor == null) {
+				ModuleIndex.put(ModuleDescriptor.create(jar, container, 
+						moduleInfoClass.getName()));
+			}
+			return container;
 		} catch (ModuleLoaderException exc) {
 			throw exc;
 		} catch (Throwable exc) {
 			throw new ModuleLoaderException(exc);
+		} finally {
+			sample.stop();
+		}
+	}
+	
+	/**
+	 * Registers a new container unless a module with the same id is already 
+	 * loaded. A newly registered container gets the next priority and the 
+	 * {@link IModuleLoaderListener#loaded(ModuleContainer)} event is fired.
+	 * @param container The new container.
+	 * @return <code>container</code> or, if the module is already loaded, 
+	 * the container that was registered before.
+	 */
+	private static ModuleContainer register(ModuleContainer container) {
+		String id = container.getId();
+		container.setPriority(ModuleContainer.nextPriority());
+		ModuleContainer registered = table.putIfAbsent(id, container);
+		if (registered == null) {
+			invalidateSnapshot();
+			fireLoaded(container);
+			return container;
+		} else {
+			return registered;
+		}
+	}
+	
+	/**
+	 * Opens a (changed) JAR and loads its ModuleInfoClass without 
+	 * registering the module. This is the expensive part of reloading a 
+	 * module and should not be done in the event dispatching thread. 
+	 * The result is passed to {@link #replace(ModuleContainer, 
+	 * ModuleContainer)}.
+	 * @param url The destination of the JAR.
+	 * @return A new, active and unregistered <code>ModuleContainer</code>.
+	 * @throws ModuleLoaderException If anything fails.
+	 */
+	public static ModuleContainer prepare(URL url) 
+	throws ModuleLoaderException {
+		return introspect(url, false);
+	}
+	
+	/**
+	 * Replaces a loaded module with a new version of it, that has been 
+	 * prepared with {@link #prepare(URL)}. The old module is unloaded 
+	 * (its instances are disposed) and the new one takes over its 
+	 * priority. The {@link IModuleLoaderListener#unloaded(ModuleContainer)} 
+	 * and {@link IModuleLoaderListener#loaded(ModuleContainer)} events are 
+	 * fired.<br>
+	 * The instances of the old module are not re-created; this is up to 
+	 * the caller.
+	 * @param old The loaded module.
+	 * @param fresh The new version.
+	 * @throws ModuleLoaderException If <code>fresh</code> has another id 
+	 * that is already loaded.
+	 */
+	public static void replace(ModuleContainer old, ModuleContainer fresh) 
+	throws ModuleLoaderException {
+		String id = fresh.getId();
+		ModuleContainer registered = getLoadedModule(id);
+		if (registered != null && registered != old) {
+			throw new ModuleLoaderException("A module with id "+ id 
+					+" is already loaded");
+		}
+		int priority = old.getPriority();
+		unload(old.getId(), false);
+		fresh.setPriority(priority);
+		if (table.putIfAbsent(id, fresh) != null) {
+			throw new ModuleLoaderException("A module with id "+ id 
+					+" has been loaded meanwhile");
 		}
+		invalidateSnapshot();
+		fireLoaded(fresh);
 	}
 	
 	/**
 	 * Loads a module directly from the classpath. It does not have to be 
 	 * in a seperate JAR but it must be accessible in the classpath.<br>
 	 * The method also fires the 	 
-	 * {@link IModuleLoaderListener#loaded(ModuleContainer)} event.
+	 * {@link IModuleLoaderListener#loaded(ModuleContainer)} event.<br>
+	 * If a module has already been loaded from this class, its container 
+	 * is returned without loading and instantiating the class again.
 	 * @param moduleInfoClassName The classname modules 
 	 * {@link IModuleInfo} class
 	 * @return A <code>ModuleContainer</code> for the module.
@@ -196,22 +568,20 @@ public final class ModuleLoader extends URLClassLoader {
 	@SuppressWarnings("unchecked")
 	public static ModuleContainer load(String moduleInfoClassName) 
 	throws ModuleLoaderException {
+		ModuleContainer[] loaded = getLoadedModules();
+		for (int i = 0; i < loaded.length; i++) {
+			if (moduleInfoClassName.equals(loaded[i].getSource())) {
+				return loaded[i];
+			}
+		}
 		try {
 			Class<? extends IModuleInfo> moduleInfoClass = 
 				(Class<? extends IModuleInfo>)Class.forName(moduleInfoClassName);
-			IModuleInfo moduleInfo = moduleInfoClass.newInstance();
+			IModuleInfo moduleInfo = newModuleInfo(moduleInfoClass);
 			
 			ModuleContainer container = new ModuleContainer(moduleInfo);
 			container.setSource(moduleInfoClassName);
-			
-			String id = container.getId();
-			if (!isLoaded(id)) {
-				table.put(id, container);
-				fireLoaded(container);
-				return container;
-			} else {
-				return getLoadedModule(id);
-			}
+			return register(container);
 		} catch (ModuleLoaderException exc) {
 			throw exc;
 		} catch (Exception exc) {
@@ -223,19 +593,141 @@ public final class ModuleLoader extends URLClassLoader {
 	 * Unloads a module. Each instance of module is shut down softly 
 	 * via <code>ModuleFactory.disposeInstance()</code>. After that, the 
 	 * {@link IModuleLoaderListener#unloaded(ModuleContainer)} event is fired.
+	 * <br>
+	 * Finally, all listeners of the module and all framework listeners 
+	 * whose classes belong to the module are removed and the module's 
+	 * JAR is closed, so that its classes can be garbage collected. If 
+	 * enabled, the {@link LeakDetector} checks later whether this worked.
 	 * @param id The id of the module that is intended to be unloaded.
 	 */
 	public static void unload(String id) {
+		unload(id, true);
+	}
+	
+	/**
+	 * Unloads a module.
+	 * @param id The id of the module that is intended to be unloaded.
+	 * @param forget If <code>true</code>, the module is removed from the 
+	 * {@link ModuleIndex}.
+	 * @see #unload(String)
+	 */
+	private static void unload(String id, boolean forget) {
 		ModuleContainer container = getLoadedModule(id);
-		if (container == null) {
+		if (container == null || !container.markUnloaded()) {
 			return;
 		}
+		// no new instances can be created from now on
 		IModule[] instances = container.getInstances();
 		for (int i = 0; i < instances.length; i++) {
 			ModuleFactory.disposeInstance(instances[i]);
 		}
-		table.remove(id);
+		table.remove(id, container);
+		invalidateSnapshot();
+		// cached constructors might refer to classes of the module
+		ModuleContainer[] others = getLoadedModules();
+		for (int i = 0; i < others.length; i++) {
+			others[i].clearConstructors();
+		}
+		container.clearConstructors();
+		if (forget && container.getSource() instanceof URL) {
+			ModuleIndex.remove(ModuleRepository.getLocalURL(
+					(URL)container.getSource()));
+		}
 		fireUnloaded(container);
+		
+		container.removeAllListeners();
+		ClassLoader loader = container.getClassLoader();
+		if (loader instanceof ModuleLoader) {
+			removeListenersLoadedBy(loader);
+			Properties.removeListenersLoadedBy(loader);
+			EventBus.unsubscribeLoadedBy(loader);
+			TaskScheduler.shutdownPool(id);
+			((ModuleLoader)loader).release();
+			LeakDetector.watch(id, loader);
+		}
+		if (forget && container.getSource() instanceof URL) {
+			ModuleRepository.remove((URL)container.getSource());
+		}
+	}
+	
+	/**
+	 * Removes all <code>IModuleLoaderListener</code>s and all 
+	 * <code>IModuleListener</code>s of the loaded modules whose classes 
+	 * were loaded by the given class loader.
+	 * @param loader The class loader of an unloaded module.
+	 */
+	private static void removeListenersLoadedBy(ClassLoader loader) {
+		IModuleLoaderListener[] arr = getListeners();
+		for (int i = 0; i < arr.length; i++) {
+			if (LeakDetector.isLoadedBy(arr[i], loader)) {
+				listeners.remove(arr[i]);
+			}
+		}
+		ModuleContainer[] modules = getLoadedModules();
+		for (int i = 0; i < modules.length; i++) {
+			IModuleListener[] l = modules[i].getListeners();
+			for (int j = 0; j < l.length; j++) {
+				if (LeakDetector.isLoadedBy(l[j], loader)) {
+					modules[i].removeListener(l[j]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Describes all framework listeners whose classes were loaded by the 
+	 * given class loader. Used by the {@link LeakDetector}.
+	 * @param loader The class loader of an unloaded module.
+	 * @return The classnames of the listeners and where they are 
+	 * registered.
+	 */
+	static String[] describeListenersLoadedBy(ClassLoader loader) {
+		List<String> list = new Vector<String>();
+		IModuleLoaderListener[] ll = getListeners();
+		for (int i = 0; i < ll.length; i++) {
+			if (LeakDetector.isLoadedBy(ll[i], loader)) {
+				list.add(ll[i].getClass().getName() +" in ModuleLoader");
+			}
+		}
+		ModuleContainer[] modules = getLoadedModules();
+		for (int i = 0; i < modules.length; i++) {
+			IModuleListener[] l = modules[i].getListeners();
+			for (int j = 0; j < l.length; j++) {
+				if (LeakDetector.isLoadedBy(l[j], loader)) {
+					list.add(l[j].getClass().getName() +" in "+ modules[i]);
+				}
+			}
+		}
+		list.addAll(Arrays.asList(EventBus.describeSubscribersLoadedBy(loader)));
+		String[] arr = new String[list.size()];
+		return list.toArray(arr);
+	}
+	
+	/**
+	 * Counts all framework listeners whose classes were loaded by the 
+	 * given class loader. Used by the {@link ResourceMonitor}.
+	 * @param loader The class loader of a module.
+	 * @return The number of <code>IModuleLoaderListener</code>s and 
+	 * <code>IModuleListener</code>s of the module.
+	 */
+	static int countListenersLoadedBy(ClassLoader loader) {
+		int count = 0;
+		IModuleLoaderListener[] ll = getListeners();
+		for (int i = 0; i < ll.length; i++) {
+			if (LeakDetector.isLoadedBy(ll[i], loader)) {
+				count++;
+			}
+		}
+		ModuleContainer[] modules = getLoadedModules();
+		for (int i = 0; i < modules.length; i++) {
+			IModuleListener[] l = modules[i].getListeners();
+			for (int j = 0; j < l.length; j++) {
+				if (LeakDetector.isLoadedBy(l[j], loader)) {
+					count++;
+				}
+			}
+		}
+		return count + EventBus.describeSubscribersLoadedBy(loader).length;
 	}
 	
 	/**
@@ -243,43 +735,157 @@ public final class ModuleLoader extends URLClassLoader {
 	 * @return An array containing the ids of all loaded modules.
 	 */
 	public static String[] getLoadedIds() {
-		Vector<String> list = new Vector<String>();
-		Enumeration<String> e = table.keys();
-		while (e.hasMoreElements()) {
-			list.add((String)e.nextElement());
+		ModuleContainer[] modules = getSnapshot().modules;
+		String[] arr = new String[modules.length];
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = modules[i].getId();
 		}
-		String[] arr = new String[list.size()];
-		list.toArray(arr);
 		return arr;
 	}
 	
 	/**
 	 * Returns a sorted array of the loaded modules. It is sorted by the 
 	 * module's priorities, i.e. the returned array represents the 
-	 * order in which the modules were loaded.
+	 * order in which the modules were loaded.<br>
+	 * The array is a copy of a cached snapshot, which is only sorted again 
+	 * after a module has been loaded or unloaded or a priority has changed.
 	 * @return A sorted array containing all loaded modules.
 	 */
 	public static ModuleContainer[] getLoadedModules() {
-		Vector<ModuleContainer> list = new Vector<ModuleContainer>();
-		Enumeration<ModuleContainer> e = table.elements();
-		while (e.hasMoreElements()) {
-			list.add((ModuleContainer)e.nextElement());
-		}
-		ModuleContainer[] arr = new ModuleContainer[list.size()];
-		list.toArray(arr);
-		Comparator<ModuleContainer> comparator = new Comparator<ModuleContainer>() {
-			public int compare(ModuleContainer m1, ModuleContainer m2) {
-				if (m1.getPriority() < m2.getPriority()) {
-					return -1;
-				} else if (m1.getPriority() == m2.getPriority()) {
-					return 0;
-				} else {
-					return 1;
+		return getSnapshot().modules.clone();
+	}
+	
+	/**
+	 * Returns the loaded modules that handle URIs with a certain protocol.
+	 * @param protocol The protocol (or scheme) of the URI, e.g. 
+	 * <code>irc</code>. The case is ignored.
+	 * @return The modules sorted by priority; an empty array if no module 
+	 * handles the protocol.
+	 * @see ModuleContainer#handlesURI(String)
+	 */
+	public static ModuleContainer[] getURIHandlers(String protocol) {
+		if (protocol == null) {
+			return new ModuleContainer[0];
+		}
+		ModuleContainer[] arr = getSnapshot().handlers.get(
+				protocol.toLowerCase());
+		return (arr != null) 
+				? arr.clone() : new ModuleContainer[0];
+	}
+	
+	/**
+	 * Discards the snapshot of the loaded modules. Invoked when a module is 
+	 * loaded or unloaded and by {@link ModuleContainer#setPriority(int)}.
+	 */
+	static void invalidateSnapshot() {
+		synchronized (snapshotLock) {
+			modCount++;
+			snapshot = null;
+		}
+	}
+	
+	/**
+	 * Returns the current snapshot of the loaded modules and builds it if 
+	 * necessary.
+	 * @return The snapshot.
+	 */
+	private static Snapshot getSnapshot() {
+		Snapshot current = snapshot;
+		if (current != null) {
+			return current;
+		}
+		int expectedModCount;
+		synchronized (snapshotLock) {
+			expectedModCount = modCount;
+		}
+		current = new Snapshot(table.values());
+		synchronized (snapshotLock) {
+			// don't publish a snapshot that missed a modification
+			if (modCount == expectedModCount) {
+				snapshot = current;
+			}
+		}
+		return current;
+	}
+	
+	/**
+	 * An immutable view of the loaded modules.
+	 */
+	private static class Snapshot {
+		/**
+		 * The modules sorted by priority.
+		 */
+		private ModuleContainer[] modules;
+		
+		/**
+		 * The URI handlers sorted by priority. Each value's key is a 
+		 * lowercase protocol.
+		 */
+		private Map<String, ModuleContainer[]> handlers = 
+			new HashMap<String, ModuleContainer[]>();
+		
+		public Snapshot(Collection<ModuleContainer> containers) {
+			modules = new ModuleContainer[containers.size()];
+			modules = containers.toArray(modules);
+			Arrays.sort(modules, new Comparator<ModuleContainer>() {
+				public int compare(ModuleContainer m1, ModuleContainer m2) {
+					if (m1.getPriority() < m2.getPriority()) {
+						return -1;
+					} else if (m1.getPriority() == m2.getPriority()) {
+						return 0;
+					} else {
+						return 1;
+					}
+				}
+			});
+			
+			Map<String, List<ModuleContainer>> map = 
+				new HashMap<String, List<ModuleContainer>>();
+			for (int i = 0; i < modules.length; i++) {
+				if (!modules[i].isURIHandler()) {
+					continue;
+				}
+				String[] protocols = modules[i].getProtocols();
+				for (int j = 0; protocols != null && j < protocols.length; j++) {
+					String protocol = protocols[j].toLowerCase();
+					List<ModuleContainer> list = map.get(protocol);
+					if (list == null) {
+						list = new Vector<ModuleContainer>(1);
+						map.put(protocol, list);
+					}
+					if (!list.contains(modules[i])) {
+						list.add(modules[i]);
+					}
 				}
 			}
-		};
-		Arrays.sort(arr, comparator);
-		return arr;
+			for (Iterator<Map.Entry<String, List<ModuleContainer>>> it = 
+				map.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<String, List<ModuleContainer>> e = it.next();
+				ModuleContainer[] arr = new ModuleContainer[e.getValue().size()];
+				handlers.put(e.getKey(), e.getValue().toArray(arr));
+			}
+		}
+	}
+	
+	/**
+	 * Looks for the loaded module whose class loader has defined a class.
+	 * @param cls The class.
+	 * @return The module or <code>null</code> if the class was not loaded 
+	 * by the class loader of a module (e.g. because it is a class of the 
+	 * framework).
+	 */
+	public static ModuleContainer getDefiningModule(Class<?> cls) {
+		ClassLoader loader = cls.getClassLoader();
+		if (!(loader instanceof ModuleLoader)) {
+			return null;
+		}
+		ModuleContainer[] modules = getSnapshot().modules;
+		for (int i = 0; i < modules.length; i++) {
+			if (modules[i].getClassLoader() == loader) {
+				return modules[i];
+			}
+		}
+		return null;
 	}
 	
 	/**
@@ -306,6 +912,6 @@ public final class ModuleLoader extends URLClassLoader {
 	 * @return <code>true</code> if the module is loaded.
 	 */
 	public static boolean isLoaded(ModuleContainer module) {
-		return table.containsValue(module);
+		return module != null && table.get(module.getId()) == module;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,587 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+import org.schwering.evi.conf.MainConfiguration;
+import org.schwering.evi.conf.Properties;
+
+/**
+ * Administers local copies of remote module JARs in
+ * <code>CONFIG_DIR/repository</code>.<br>
+ * <br>
+ * A module that has been added by an <code>http</code>,
+ * <code>https</code> or <code>ftp</code> URL is downloaded once by
+ * {@link #localize(URL)}; afterwards, the <code>ModuleLoader</code> opens
+ * the local copy and no network access is needed at the startup. The
+ * module list and the configuration still refer to the remote URL.<br>
+ * <br>
+ * The SHA-1 checksum of each download is recorded in
+ * <code>CONFIG_DIR/repository.index</code>. A local copy whose size or
+ * modification time has changed is only used if its checksum still
+ * matches; otherwise it is downloaded again. If the module list
+ * specifies a checksum for a JAR (see {@link #fetchModuleList(URL)}),
+ * downloads with another checksum are rejected and a local copy with
+ * another checksum is replaced.<br>
+ * <br>
+ * The module list is fetched with a conditional request
+ * (<code>If-None-Match</code> / <code>If-Modified-Since</code>), so an
+ * unchanged list is not transferred again; if the server cannot be
+ * reached, the cached list is used. Cached JARs can be updated the same
+ * way with {@link #refresh(URL)}.<br>
+ * <br>
+ * All methods may be invoked by several threads at the same time;
+ * different JARs are downloaded in parallel (e.g. by
+ * {@link ModuleLoader#load(URL[])}), the same JAR only once.<br>
+ * <br>
+ * The repository lives in the config dir unless another root directory 
+ * is set with {@link #setRoot(File)}, e.g. by tests.
+ * @see ModuleLoader
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public final class ModuleRepository {
+	/**
+	 * The name of the directory in the config dir that contains the
+	 * local copies.
+	 */
+	public static final String DIRECTORY_NAME = "repository";
+
+	/**
+	 * The timeout in milliseconds for connecting to a server.
+	 */
+	public static final int CONNECT_TIMEOUT = 10000;
+
+	/**
+	 * The timeout in milliseconds for reading from a server.
+	 */
+	public static final int READ_TIMEOUT = 30000;
+
+	private static final String INDEX_FILE_NAME = "repository.index";
+	private static final String DIGEST_ALGORITHM = "SHA-1";
+	private static final String PART_SUFFIX = ".part";
+
+	/**
+	 * The directory of the local copies.
+	 */
+	private static volatile File directory;
+
+	/**
+	 * The index properties or <code>null</code> if the index could not be
+	 * initialized.
+	 */
+	private static volatile Properties props;
+
+	/**
+	 * One lock per URL, so that a JAR is not downloaded twice at the
+	 * same time.
+	 */
+	private static Map<String, Object> locks = new HashMap<String, Object>();
+
+	static {
+		setRoot(MainConfiguration.CONFIG_DIR);
+	}
+
+	/**
+	 * No instances allowed/useful.
+	 */
+	private ModuleRepository() {
+	}
+
+	/**
+	 * Moves the repository to another root directory. The local copies 
+	 * are kept in <code>root/repository</code> and the index in 
+	 * <code>root/repository.index</code>; the previous index is stored 
+	 * first. Downloads that are in progress finish in the old directory.
+	 * @param root The new root directory; by default the config dir.
+	 */
+	public static synchronized void setRoot(File root) {
+		if (props != null) {
+			store();
+			props.setShutdownHook(false);
+		}
+		directory = new File(root, DIRECTORY_NAME);
+		try {
+			directory.mkdirs();
+			Properties p = new Properties(root, INDEX_FILE_NAME, true);
+			p.setDescription("EVI module repository -- generated, do not edit");
+			p.load();
+			p.setShutdownHook(true);
+			props = p;
+		} catch (Exception exc) {
+			exc.printStackTrace();
+			props = null;
+		}
+	}
+
+	/**
+	 * Indicates whether a URL refers to a remote JAR that is copied to the
+	 * repository.
+	 * @param url The URL of a JAR.
+	 * @return <code>true</code> for <code>http</code>, <code>https</code>
+	 * and <code>ftp</code> URLs.
+	 */
+	public static boolean isRemote(URL url) {
+		if (url == null) {
+			return false;
+		}
+		String protocol = url.getProtocol();
+		return "http".equalsIgnoreCase(protocol)
+			|| "https".equalsIgnoreCase(protocol)
+			|| "ftp".equalsIgnoreCase(protocol);
+	}
+
+	/**
+	 * Returns the URL of the local copy of a remote JAR. The JAR is
+	 * downloaded if there is no intact local copy.
+	 * @param url The URL of the JAR.
+	 * @return The URL of the local copy or <code>url</code> itself if it
+	 * is no remote URL.
+	 * @throws IOException If the JAR cannot be downloaded or its checksum
+	 * does not match the one of the module list.
+	 */
+	public static URL localize(URL url) throws IOException {
+		if (!isRemote(url) || props == null) {
+			return url;
+		}
+		synchronized (getLock(url)) {
+			File file = getFile(url);
+			if (!isIntact(url, file)) {
+				download(url, file, false);
+			}
+			return file.toURI().toURL();
+		}
+	}
+
+	/**
+	 * Returns the URL of the local copy of a remote JAR without
+	 * downloading it.
+	 * @param url The URL of the JAR.
+	 * @return The URL of the local copy or <code>url</code> itself if it
+	 * is no remote URL.
+	 */
+	public static URL getLocalURL(URL url) {
+		if (!isRemote(url) || props == null) {
+			return url;
+		}
+		try {
+			return getFile(url).toURI().toURL();
+		} catch (IOException exc) {
+			return url;
+		}
+	}
+
+	/**
+	 * Downloads a remote JAR again if it has changed on the server. The
+	 * request is conditional, i.e. an unchanged JAR is not transferred.
+	 * A module that is loaded from the old copy keeps using it until it
+	 * is loaded again.
+	 * @param url The URL of the JAR.
+	 * @return <code>true</code> if a new copy has been downloaded.
+	 * @throws IOException If the JAR cannot be downloaded.
+	 */
+	public static boolean refresh(URL url) throws IOException {
+		if (!isRemote(url) || props == null) {
+			return false;
+		}
+		synchronized (getLock(url)) {
+			File file = getFile(url);
+			return download(url, file, isIntact(url, file));
+		}
+	}
+
+	/**
+	 * Deletes the local copy of a remote JAR. Invoked when the module is
+	 * removed from the module list.
+	 * @param url The URL of the JAR.
+	 */
+	public static void remove(URL url) {
+		if (!isRemote(url) || props == null) {
+			return;
+		}
+		synchronized (getLock(url)) {
+			getFile(url).delete();
+			synchronized (ModuleRepository.class) {
+				String expected = get(url, "expected");
+				removeEntry(url);
+				if (expected != null) {
+					// the checksum belongs to the module list
+					set(url, "expected", expected);
+				}
+			}
+			store();
+		}
+	}
+
+	/**
+	 * Fetches the module list and returns the URLs it contains. The list
+	 * is cached in the repository and only transferred again if it has
+	 * changed. If the server cannot be reached, the cached list is
+	 * returned.<br>
+	 * Each line of the list contains the URL of a JAR, optionally followed
+	 * by the SHA-1 checksum of the JAR as hexadecimal string. Empty lines
+	 * and lines that start with <code>#</code> are ignored. The checksums
+	 * are remembered and verified by {@link #localize(URL)}.
+	 * @param listURL The URL of the module list.
+	 * @return The URLs of the JARs.
+	 * @throws IOException If the list can neither be fetched nor is
+	 * cached.
+	 */
+	public static URL[] fetchModuleList(URL listURL) throws IOException {
+		File file;
+		if (!isRemote(listURL) || props == null) {
+			file = null;
+		} else {
+			synchronized (getLock(listURL)) {
+				file = getFile(listURL);
+				try {
+					download(listURL, file, isIntact(listURL, file));
+				} catch (IOException exc) {
+					if (!file.isFile()) {
+						throw exc;
+					}
+					System.err.println("Using cached module list: "+ exc);
+				}
+			}
+		}
+
+		List<URL> urls = new Vector<URL>();
+		BufferedReader br = new BufferedReader((file != null)
+				? new FileReader(file)
+				: new InputStreamReader(listURL.openStream()));
+		try {
+			for (String s; (s = br.readLine()) != null; ) {
+				s = s.trim();
+				if (s.length() == 0 || s.charAt(0) == '#') {
+					continue;
+				}
+				StringTokenizer st = new StringTokenizer(s);
+				URL url = new URL(st.nextToken());
+				String checksum = st.hasMoreTokens() 
+					? st.nextToken().toLowerCase() : null;
+				if (checksum != null && checksum.matches("[0-9a-f]{40}") 
+						&& props != null) {
+					synchronized (ModuleRepository.class) {
+						set(url, "expected", checksum);
+					}
+				}
+				urls.add(url);
+			}
+		} finally {
+			br.close();
+		}
+		store();
+		return urls.toArray(new URL[urls.size()]);
+	}
+
+	/**
+	 * Returns the lock object of a URL.
+	 * @param url The URL.
+	 * @return The lock object, always the same for equal URLs.
+	 */
+	private static Object getLock(URL url) {
+		synchronized (locks) {
+			String key = url.toString();
+			Object lock = locks.get(key);
+			if (lock == null) {
+				lock = new Object();
+				locks.put(key, lock);
+			}
+			return lock;
+		}
+	}
+
+	/**
+	 * Returns the local file for a remote URL. The name consists of a hash
+	 * of the URL and the URL's file name.
+	 * @param url The remote URL.
+	 * @return The local file.
+	 */
+	private static File getFile(URL url) {
+		String path = url.getPath();
+		String name = path.substring(path.lastIndexOf('/') + 1)
+			.replaceAll("[^A-Za-z0-9._-]", "_");
+		if (name.length() == 0) {
+			name = "index";
+		}
+		String hash = toHex(digest(url.toString().getBytes()));
+		return new File(directory, hash.substring(0, 8) +"-"+ name);
+	}
+
+	/**
+	 * Indicates whether the local copy exists and matches the recorded
+	 * checksum and, if known, the checksum of the module list. The
+	 * checksum is only computed if the file's size or modification time
+	 * has changed since the download.
+	 * @param url The remote URL.
+	 * @param file The local copy.
+	 * @return <code>true</code> if the local copy can be used.
+	 */
+	private static boolean isIntact(URL url, File file) throws IOException {
+		String checksum;
+		long size;
+		long lastModified;
+		String expected;
+		synchronized (ModuleRepository.class) {
+			checksum = get(url, "sha1");
+			size = getLong(url, "size");
+			lastModified = getLong(url, "mtime");
+			expected = get(url, "expected");
+		}
+		if (!file.isFile() || checksum == null) {
+			return false;
+		}
+		if (expected != null && !expected.equals(checksum)) {
+			return false;
+		}
+		if (file.length() == size && file.lastModified() == lastModified) {
+			return true;
+		}
+		if (!checksum.equals(digest(file))) {
+			return false;
+		}
+		synchronized (ModuleRepository.class) {
+			set(url, "size", String.valueOf(file.length()));
+			set(url, "mtime", String.valueOf(file.lastModified()));
+		}
+		return true;
+	}
+
+	/**
+	 * Downloads a remote file to the repository. The file is written to
+	 * a temporary file first, which replaces the local copy when the
+	 * download is complete and its checksum is verified.
+	 * @param url The remote URL.
+	 * @param file The local copy.
+	 * @param conditional If <code>true</code>, the file is only
+	 * transferred if it has changed since the last download.
+	 * @return <code>true</code> if the file has been downloaded,
+	 * <code>false</code> if it has not changed.
+	 * @throws IOException If the download fails or the checksum does not
+	 * match.
+	 */
+	private static boolean download(URL url, File file, boolean conditional)
+	throws IOException {
+		URLConnection conn = url.openConnection();
+		conn.setConnectTimeout(CONNECT_TIMEOUT);
+		conn.setReadTimeout(READ_TIMEOUT);
+		conn.setUseCaches(false);
+		if (conditional) {
+			String etag;
+			long lastModified;
+			synchronized (ModuleRepository.class) {
+				etag = get(url, "etag");
+				lastModified = getLong(url, "lastmodified");
+			}
+			if (etag != null) {
+				conn.setRequestProperty("If-None-Match", etag);
+			}
+			if (lastModified > 0) {
+				conn.setIfModifiedSince(lastModified);
+			}
+		}
+		if (conn instanceof HttpURLConnection) {
+			int code = ((HttpURLConnection)conn).getResponseCode();
+			if (code == HttpURLConnection.HTTP_NOT_MODIFIED && conditional) {
+				return false;
+			} else if (code != HttpURLConnection.HTTP_OK) {
+				((HttpURLConnection)conn).disconnect();
+				throw new IOException(url +": HTTP "+ code);
+			}
+		}
+
+		File part = new File(file.getParentFile(), file.getName() + PART_SUFFIX);
+		MessageDigest md = newDigest();
+		InputStream in = conn.getInputStream();
+		try {
+			OutputStream out = new FileOutputStream(part);
+			try {
+				byte[] buf = new byte[8192];
+				for (int n; (n = in.read(buf)) != -1; ) {
+					md.update(buf, 0, n);
+					out.write(buf, 0, n);
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException exc) {
+			part.delete();
+			throw exc;
+		} finally {
+			in.close();
+		}
+
+		String checksum = toHex(md.digest());
+		String expected;
+		synchronized (ModuleRepository.class) {
+			expected = get(url, "expected");
+		}
+		if (expected != null && !expected.equals(checksum)) {
+			part.delete();
+			throw new IOException("Checksum mismatch for "+ url +": expected "
+					+ expected +", got "+ checksum);
+		}
+		if (!part.renameTo(file)) {
+			// some platforms do not replace existing files
+			file.delete();
+			if (!part.renameTo(file)) {
+				part.delete();
+				throw new IOException("Could not create "+ file);
+			}
+		}
+
+		synchronized (ModuleRepository.class) {
+			set(url, "sha1", checksum);
+			set(url, "size", String.valueOf(file.length()));
+			set(url, "mtime", String.valueOf(file.lastModified()));
+			set(url, "etag", conn.getHeaderField("ETag"));
+			set(url, "lastmodified", String.valueOf(conn.getLastModified()));
+		}
+		store();
+		return true;
+	}
+
+	/**
+	 * Returns an entry of the index. Must be invoked while holding the
+	 * class lock.
+	 * @param url The remote URL.
+	 * @param key The key of the entry.
+	 * @return The value or <code>null</code>.
+	 */
+	private static String get(URL url, String key) {
+		return props.getProperty(url.toString() +"."+ key);
+	}
+
+	/**
+	 * Returns a numeric entry of the index. Must be invoked while holding
+	 * the class lock.
+	 * @param url The remote URL.
+	 * @param key The key of the entry.
+	 * @return The value or 0.
+	 */
+	private static long getLong(URL url, String key) {
+		try {
+			return Long.parseLong(get(url, key));
+		} catch (Exception exc) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Sets or, if <code>value</code> is <code>null</code>, removes an
+	 * entry of the index. Must be invoked while holding the class lock.
+	 * @param url The remote URL.
+	 * @param key The key of the entry.
+	 * @param value The new value.
+	 */
+	private static void set(URL url, String key, String value) {
+		if (value != null) {
+			props.setProperty(url.toString() +"."+ key, value);
+		} else {
+			props.remove(url.toString() +"."+ key);
+		}
+	}
+
+	/**
+	 * Removes all entries of a URL from the index. Must be invoked while
+	 * holding the class lock.
+	 * @param url The remote URL.
+	 */
+	private static void removeEntry(URL url) {
+		String prefix = url.toString() +".";
+		String[] keys = props.getKeys();
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i].startsWith(prefix)) {
+				props.remove(keys[i]);
+			}
+		}
+	}
+
+	/**
+	 * Writes the index to <code>root/repository.index</code>.
+	 */
+	private static synchronized void store() {
+		if (props == null) {
+			return;
+		}
+		try {
+			props.store();
+		} catch (Exception exc) {
+			exc.printStackTrace();
+		}
+	}
+
+	/**
+	 * Creates a new message digest.
+	 * @return A SHA-1 message digest.
+	 */
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException exc) {
+			// every JRE supports SHA-1
+			throw new RuntimeException(exc);
+		}
+	}
+
+	/**
+	 * Computes the checksum of bytes.
+	 * @param bytes The bytes.
+	 * @return The SHA-1 digest.
+	 */
+	private static byte[] digest(byte[] bytes) {
+		return newDigest().digest(bytes);
+	}
+
+	/**
+	 * Computes the checksum of a file.
+	 * @param file The file.
+	 * @return The SHA-1 checksum as hexadecimal string.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private static String digest(File file) throws IOException {
+		MessageDigest md = newDigest();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[8192];
+			for (int n; (n = in.read(buf)) != -1; ) {
+				md.update(buf, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return toHex(md.digest());
+	}
+
+	/**
+	 * Converts bytes to a lowercase hexadecimal string.
+	 * @param bytes The bytes.
+	 * @return Two hexadecimal digits per byte.
+	 */
+	private static String toHex(byte[] bytes) {
+		StringBuffer buf = new StringBuffer(bytes.length * 2);
+		for (int i = 0; i < bytes.length; i++) {
+			String s = "00"+ Integer.toHexString(bytes[i] & 0xFF);
+			buf.append(s.substring(s.length() - 2));
+		}
+		return buf.toString();
+	}
+}
@@ -0,0 +1,103 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Collects the failures of loading several modules at once.<br>
+ * Thrown by {@link ModuleLoader#load(java.net.URL[])}. Each failure
+ * consists of the source of the module (a URL or a classname) and the
+ * exception that occurred while loading it.
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public class MultiModuleLoaderException extends ModuleLoaderException {
+	private static final long serialVersionUID = 6317485023718862247L;
+
+	private List<Object> sources = new Vector<Object>();
+	private List<Throwable> causes = new Vector<Throwable>();
+
+	/**
+	 * An empty exception. Failures are added with
+	 * {@link #add(Object, Throwable)}.
+	 */
+	public MultiModuleLoaderException() {
+	}
+
+	/**
+	 * Adds another failure.
+	 * @param source The module's source, a URL or a classname.
+	 * @param exc The exception that occurred while loading the module.
+	 */
+	public void add(Object source, Throwable exc) {
+		sources.add(source);
+		causes.add(exc);
+		if (getCause() == null) {
+			initCause(exc);
+		}
+	}
+
+	/**
+	 * Returns the number of failures.
+	 * @return The number of modules that could not be loaded.
+	 */
+	public int size() {
+		return sources.size();
+	}
+
+	/**
+	 * Returns the sources of the modules that could not be loaded.
+	 * @return An array of URLs and classnames.
+	 */
+	public Object[] getSources() {
+		return sources.toArray();
+	}
+
+	/**
+	 * Returns the exceptions. The i-th exception belongs to the i-th
+	 * element of {@link #getSources()}.
+	 * @return The exceptions that occurred.
+	 */
+	public Throwable[] getCauses() {
+		Throwable[] arr = new Throwable[causes.size()];
+		return causes.toArray(arr);
+	}
+
+	/**
+	 * Returns a list of the sources that failed.
+	 * @return A message that lists all failed sources.
+	 */
+	public String getMessage() {
+		StringBuffer msg = new StringBuffer();
+		msg.append(size() +" module(s) could not be loaded:");
+		for (int i = 0; i < sources.size(); i++) {
+			msg.append("\n\t"+ sources.get(i));
+		}
+		return msg.toString();
+	}
+
+	/**
+	 * Prints the stack traces of all collected exceptions.
+	 * @param s The stream.
+	 */
+	public void printStackTrace(PrintStream s) {
+		printStackTrace(new PrintWriter(s, true));
+	}
+
+	/**
+	 * Prints the stack traces of all collected exceptions.
+	 * @param s The writer.
+	 */
+	public void printStackTrace(PrintWriter s) {
+		s.println(getClass().getName() +": "+ getMessage());
+		for (int i = 0; i < sources.size(); i++) {
+			s.println();
+			s.println(sources.get(i) +":");
+			causes.get(i).printStackTrace(s);
+		}
+		s.flush();
+	}
+}
@@ -10,7 +10,10 @@ package org.schwering.evi.core;
  * <br>
  * <b>Note:</b> Requirements of modules can be defined by the ModuleInfoClass. 
  * It needs to implement the {@link IDemanding} interface and override the 
- * {@link IDemanding#getRequirements()} method.
+ * {@link IDemanding#getRequirements()} method.<br>
+ * <br>
+ * To check the requirements of many modules at once, use the 
+ * {@link DependencyResolver}.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
  * @version $Id$
  */
@@ -79,18 +82,36 @@ public class Requirement {
 	 * @return <code>true</code> if one of the modules fulfills the requirement.
 	 */
 	public boolean matches(ModuleContainer[] modules) {
-		String id;
 		for (int i = 0; i < modules.length; i++) {
-			if (modules[i] != null) {
-				id = modules[i].getId();
-				if (moduleId.equals(id)) {
-					return modules[i].getVersion() >= version;
-				}
+			if (modules[i] != null && moduleId.equals(modules[i].getId())) {
+				return isSatisfiedBy(modules[i]);
 			}
 		}
 		return false;
 	}
 	
+	/**
+	 * Checks whether a loaded module fulfills the requirement. The module 
+	 * is looked up by its id.
+	 * @return <code>true</code> if the required module is loaded in the 
+	 * required version.
+	 * @see ModuleLoader#getLoadedModule(String)
+	 */
+	public boolean matches() {
+		return isSatisfiedBy(ModuleLoader.getLoadedModule(moduleId));
+	}
+	
+	/**
+	 * Checks whether the given module fulfills the requirement, i.e. 
+	 * whether it has the required id and at least the required version.
+	 * @param module The module which might fulfill the requirement.
+	 * @return <code>true</code> if the module fulfills the requirement.
+	 */
+	public boolean isSatisfiedBy(ModuleContainer module) {
+		return module != null && moduleId.equals(module.getId())
+			&& module.getVersion() >= version;
+	}
+	
 	/**
 	 * Returns a string representation with the form 
 	 * <code>moduleId:moduleVersion</code>.
@@ -0,0 +1,507 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.schwering.evi.util.Profiler;
+import org.schwering.evi.util.TaskScheduler;
+
+/**
+ * Accounts the resources that the loaded modules use, so that a module
+ * which slows EVI down can be found.<br>
+ * <br>
+ * Each invocation of {@link #sample()} measures for each loaded module:
+ * <ul>
+ * <li> the number of live threads of the module, i.e. the threads of the
+ * module's {@link TaskScheduler} pool and the threads they created (see
+ * {@link TaskScheduler#getThreadGroup(String)}), threads whose classes
+ * were loaded by the module and threads whose context class loader is the
+ * module's class loader, </li>
+ * <li> the CPU time and the bytes allocated by these threads since the
+ * module is monitored, </li>
+ * <li> the number of framework listeners the module has registered, </li>
+ * <li> the number of open file and socket handles the module has reported
+ * with {@link #handleOpened(Object)} and {@link #handleClosed(Object)}.
+ * </li>
+ * </ul>
+ * The threads belong to a module, not to a single instance, because all
+ * instances of a module share its class loader and its pool. The CPU time
+ * and the allocated bytes are only available if the JVM supports them;
+ * otherwise they are -1. Time spent in the event dispatching thread is
+ * accounted to no module.<br>
+ * <br>
+ * The last {@link #HISTORY_SIZE} samples of each module are kept. Nothing
+ * is measured unless someone invokes {@link #sample()}, e.g. the
+ * running modules panel while it is visible.
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public final class ResourceMonitor {
+	/**
+	 * The recommended number of milliseconds between two samples.
+	 */
+	public static final long SAMPLE_INTERVAL = 2000;
+
+	/**
+	 * The number of samples kept per module.
+	 */
+	public static final int HISTORY_SIZE = 60;
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * <code>com.sun.management.UnixOperatingSystemMXBean.
+	 * getOpenFileDescriptorCount()</code> if available.
+	 */
+	private static final Method OPEN_DESCRIPTORS;
+
+	static {
+		try {
+			if (THREADS.isThreadCpuTimeSupported()
+					&& !THREADS.isThreadCpuTimeEnabled()) {
+				THREADS.setThreadCpuTimeEnabled(true);
+			}
+		} catch (Exception exc) {
+		}
+		OPEN_DESCRIPTORS = getMethod(
+				"com.sun.management.UnixOperatingSystemMXBean", //$NON-NLS-1$
+				ManagementFactory.getOperatingSystemMXBean(),
+				"getOpenFileDescriptorCount", new Class<?>[0]); //$NON-NLS-1$
+	}
+
+	/**
+	 * The accounts of the monitored modules.
+	 */
+	private static Map<String, Account> accounts = new HashMap<String, Account>();
+
+	/**
+	 * The number of open handles reported by each module.
+	 */
+	private static Map<String, int[]> handles = new HashMap<String, int[]>();
+
+	/**
+	 * No instances allowed/useful.
+	 */
+	private ResourceMonitor() {
+	}
+
+	/**
+	 * Looks up a method of a JVM-specific interface.
+	 * @param cls The interface's name.
+	 * @param o The object that should implement the interface.
+	 * @param name The method's name.
+	 * @param params The method's parameter types.
+	 * @return The method or <code>null</code> if <code>o</code> does not
+	 * implement the interface.
+	 */
+	private static Method getMethod(String cls, Object o, String name,
+			Class<?>[] params) {
+		try {
+			Class<?> c = Class.forName(cls);
+			if (c.isInstance(o)) {
+				return c.getMethod(name, params);
+			}
+		} catch (Throwable exc) {
+		}
+		return null;
+	}
+
+	/**
+	 * Indicates whether the JVM measures the CPU time of threads.
+	 * @return <code>true</code> if the CPU time is available.
+	 */
+	public static boolean isCpuTimeSupported() {
+		return THREADS.isThreadCpuTimeSupported();
+	}
+
+	/**
+	 * Indicates whether the JVM measures the bytes allocated by threads.
+	 * @return <code>true</code> if the allocated bytes are available.
+	 */
+	public static boolean isAllocatedBytesSupported() {
+		return Profiler.isAllocatedBytesSupported();
+	}
+
+	/**
+	 * Reports that an object of a module has opened a file or a socket.
+	 * @param owner The module instance or another object whose class was
+	 * loaded by the module.
+	 */
+	public static void handleOpened(Object owner) {
+		countHandle(owner, 1);
+	}
+
+	/**
+	 * Reports that an object of a module has closed a file or a socket
+	 * which it had reported with {@link #handleOpened(Object)}.
+	 * @param owner The module instance or another object whose class was
+	 * loaded by the module.
+	 */
+	public static void handleClosed(Object owner) {
+		countHandle(owner, -1);
+	}
+
+	private static synchronized void countHandle(Object owner, int delta) {
+		String id = null;
+		if (owner instanceof IModule) {
+			id = ModuleContainer.getIdByClass(((IModule)owner).getClass());
+		} else if (owner != null) {
+			ModuleContainer module = ModuleLoader.getDefiningModule(
+					owner.getClass());
+			id = (module != null) ? module.getId() : null;
+		}
+		if (id == null) {
+			return;
+		}
+		int[] count = handles.get(id);
+		if (count == null) {
+			count = new int[1];
+			handles.put(id, count);
+		}
+		count[0] = Math.max(0, count[0] + delta);
+	}
+
+	/**
+	 * Returns the number of file and socket handles of the whole process.
+	 * @return The number of open handles or -1 if the JVM does not
+	 * provide it.
+	 */
+	public static long getProcessHandleCount() {
+		if (OPEN_DESCRIPTORS == null) {
+			return -1;
+		}
+		try {
+			Object o = OPEN_DESCRIPTORS.invoke(
+					ManagementFactory.getOperatingSystemMXBean(), new Object[0]);
+			return ((Number)o).longValue();
+		} catch (Exception exc) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Measures the resources of all loaded modules once. The accounts of
+	 * modules that have been unloaded are dropped.
+	 * @return The new usages of the loaded modules.
+	 */
+	public static synchronized Usage[] sample() {
+		long now = System.currentTimeMillis();
+		ModuleContainer[] modules = ModuleLoader.getLoadedModules();
+		Map<ClassLoader, Account> byLoader = new HashMap<ClassLoader, Account>();
+		Map<ThreadGroup, Account> byGroup = new HashMap<ThreadGroup, Account>();
+		Map<String, Account> fresh = new HashMap<String, Account>();
+		for (int i = 0; i < modules.length; i++) {
+			String id = modules[i].getId();
+			Account account = accounts.get(id);
+			if (account == null || account.module != modules[i]) {
+				account = new Account(modules[i]);
+			}
+			account.threads = 0;
+			fresh.put(id, account);
+			ClassLoader loader = modules[i].getClassLoader();
+			if (loader instanceof ModuleLoader) {
+				byLoader.put(loader, account);
+			}
+			ThreadGroup group = TaskScheduler.getThreadGroup(id);
+			if (group != null) {
+				byGroup.put(group, account);
+			}
+		}
+		accounts = fresh;
+		for (Iterator<String> it = handles.keySet().iterator(); it.hasNext(); ) {
+			if (!accounts.containsKey(it.next())) {
+				it.remove();
+			}
+		}
+
+		Thread[] threads = getAllThreads();
+		for (int i = 0; i < threads.length; i++) {
+			Thread t = threads[i];
+			if (t == null) {
+				continue;
+			}
+			Account account = null;
+			for (ThreadGroup g = t.getThreadGroup(); g != null && account == null;
+					g = g.getParent()) {
+				account = byGroup.get(g);
+			}
+			if (account == null) {
+				account = byLoader.get(t.getClass().getClassLoader());
+			}
+			if (account == null) {
+				account = byLoader.get(t.getContextClassLoader());
+			}
+			if (account != null) {
+				account.threads++;
+				account.charge(t.getId(), getCpuTime(t.getId()),
+						Profiler.getThreadAllocatedBytes(t.getId()));
+			}
+		}
+
+		Usage[] arr = new Usage[modules.length];
+		for (int i = 0; i < modules.length; i++) {
+			Account account = accounts.get(modules[i].getId());
+			int[] count = handles.get(modules[i].getId());
+			ClassLoader loader = modules[i].getClassLoader();
+			int listeners = (loader instanceof ModuleLoader)
+				? ModuleLoader.countListenersLoadedBy(loader) : 0;
+			arr[i] = account.record(now, modules[i].getInstances().length,
+					listeners, (count != null) ? count[0] : 0);
+		}
+		return arr;
+	}
+
+	/**
+	 * Returns the last usage of a module.
+	 * @param id The module's id.
+	 * @return The usage measured by the last {@link #sample()} or
+	 * <code>null</code> if the module has not been sampled yet.
+	 */
+	public static synchronized Usage getUsage(String id) {
+		Account account = accounts.get(id);
+		return (account != null && !account.history.isEmpty())
+			? account.history.getLast() : null;
+	}
+
+	/**
+	 * Returns the last {@link #HISTORY_SIZE} usages of a module.
+	 * @param id The module's id.
+	 * @return The usages, the oldest first; an empty array if the module
+	 * has not been sampled yet.
+	 */
+	public static synchronized Usage[] getHistory(String id) {
+		Account account = accounts.get(id);
+		if (account == null) {
+			return new Usage[0];
+		}
+		Usage[] arr = new Usage[account.history.size()];
+		return account.history.toArray(arr);
+	}
+
+	/**
+	 * Returns all live threads.
+	 * @return An array that may contain <code>null</code>s.
+	 */
+	private static Thread[] getAllThreads() {
+		ThreadGroup root = Thread.currentThread().getThreadGroup();
+		while (root.getParent() != null) {
+			root = root.getParent();
+		}
+		Thread[] threads = new Thread[root.activeCount() + 16];
+		while (root.enumerate(threads, true) == threads.length) {
+			threads = new Thread[threads.length * 2];
+		}
+		return threads;
+	}
+
+	private static long getCpuTime(long threadId) {
+		try {
+			return THREADS.getThreadCpuTime(threadId);
+		} catch (Exception exc) {
+			return -1;
+		}
+	}
+
+	/**
+	 * The resources a module has used since it is monitored.
+	 */
+	private static class Account {
+		private ModuleContainer module;
+		private int threads;
+		private long cpuTime = 0;
+		private long allocatedBytes = 0;
+
+		/**
+		 * The last measured CPU time and allocated bytes of each thread.
+		 */
+		private Map<Long, long[]> last = new HashMap<Long, long[]>();
+
+		/**
+		 * The threads measured by the current sample.
+		 */
+		private Map<Long, long[]> current = new HashMap<Long, long[]>();
+
+		private LinkedList<Usage> history = new LinkedList<Usage>();
+
+		public Account(ModuleContainer module) {
+			this.module = module;
+		}
+
+		/**
+		 * Adds the CPU time and the bytes a thread has used since the last
+		 * sample. A thread that is seen for the first time is charged with
+		 * all its CPU time and bytes.
+		 */
+		public void charge(long threadId, long cpu, long bytes) {
+			Long key = Long.valueOf(threadId);
+			long[] prev = last.get(key);
+			if (cpu >= 0) {
+				cpuTime += cpu - ((prev != null && prev[0] >= 0) ? prev[0] : 0);
+			}
+			if (bytes >= 0) {
+				allocatedBytes += bytes - ((prev != null && prev[1] >= 0) ? prev[1] : 0);
+			}
+			current.put(key, new long[] { cpu, bytes });
+		}
+
+		/**
+		 * Finishes a sample and appends it to the history.
+		 */
+		public Usage record(long time, int instances, int listeners,
+				int handleCount) {
+			last = current;
+			current = new HashMap<Long, long[]>();
+			Usage prev = history.isEmpty() ? null : history.getLast();
+			Usage usage = new Usage(module.getId(), time, instances, threads,
+					isCpuTimeSupported() ? cpuTime : -1,
+					isAllocatedBytesSupported() ? allocatedBytes : -1,
+					listeners, handleCount, prev);
+			history.addLast(usage);
+			if (history.size() > HISTORY_SIZE) {
+				history.removeFirst();
+			}
+			return usage;
+		}
+	}
+
+	/**
+	 * The resources a module used at the time of one sample.
+	 */
+	public static class Usage {
+		private String id;
+		private long time;
+		private int instanceCount;
+		private int threadCount;
+		private long cpuTime;
+		private long allocatedBytes;
+		private int listenerCount;
+		private int handleCount;
+		private double cpuLoad = -1.0;
+		private long allocationRate = -1;
+
+		Usage(String id, long time, int instanceCount, int threadCount,
+				long cpuTime, long allocatedBytes, int listenerCount,
+				int handleCount, Usage prev) {
+			this.id = id;
+			this.time = time;
+			this.instanceCount = instanceCount;
+			this.threadCount = threadCount;
+			this.cpuTime = cpuTime;
+			this.allocatedBytes = allocatedBytes;
+			this.listenerCount = listenerCount;
+			this.handleCount = handleCount;
+			if (prev != null && time > prev.time) {
+				long millis = time - prev.time;
+				if (cpuTime >= 0 && prev.cpuTime >= 0) {
+					cpuLoad = (cpuTime - prev.cpuTime) / (millis * 10000.0);
+				}
+				if (allocatedBytes >= 0 && prev.allocatedBytes >= 0) {
+					allocationRate = (allocatedBytes - prev.allocatedBytes)
+						* 1000 / millis;
+				}
+			}
+		}
+
+		/**
+		 * Returns the module's id.
+		 * @return The id.
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * Returns the time of the sample.
+		 * @return The time in milliseconds since 1970.
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * Returns the number of instances of the module.
+		 * @return The number of instances.
+		 */
+		public int getInstanceCount() {
+			return instanceCount;
+		}
+
+		/**
+		 * Returns the number of live threads of the module.
+		 * @return The number of threads.
+		 */
+		public int getThreadCount() {
+			return threadCount;
+		}
+
+		/**
+		 * Returns the CPU time used by the module's threads since the
+		 * module is monitored.
+		 * @return The CPU time in nanoseconds or -1.
+		 */
+		public long getCpuTime() {
+			return cpuTime;
+		}
+
+		/**
+		 * Returns the bytes allocated by the module's threads since the
+		 * module is monitored.
+		 * @return The number of bytes or -1.
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		/**
+		 * Returns the CPU load of the module since the previous sample.
+		 * @return The percentage of one CPU or -1 if unknown.
+		 */
+		public double getCpuLoad() {
+			return cpuLoad;
+		}
+
+		/**
+		 * Returns the allocation rate of the module since the previous
+		 * sample.
+		 * @return The number of bytes per second or -1 if unknown.
+		 */
+		public long getAllocationRate() {
+			return allocationRate;
+		}
+
+		/**
+		 * Returns the number of framework listeners of the module.
+		 * @return The number of <code>IModuleListener</code>s and
+		 * <code>IModuleLoaderListener</code>s.
+		 */
+		public int getListenerCount() {
+			return listenerCount;
+		}
+
+		/**
+		 * Returns the number of open handles the module has reported.
+		 * @return The number of open files and sockets.
+		 * @see ResourceMonitor#handleOpened(Object)
+		 */
+		public int getHandleCount() {
+			return handleCount;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			return id +": "+ threadCount +" threads, "
+				+ (cpuTime / 1000000) +" ms CPU, "
+				+ (allocatedBytes / 1024) +" KB allocated, "
+				+ listenerCount +" listeners, "+ handleCount +" handles";
+		}
+	}
+}
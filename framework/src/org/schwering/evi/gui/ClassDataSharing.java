@@ -0,0 +1,439 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.gui;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.List;
+import java.util.Vector;
+
+import org.schwering.evi.conf.MainConfiguration;
+import org.schwering.evi.conf.ModuleConfiguration;
+
+/**
+ * Shortens the cold start of EVI with an application class data sharing
+ * (AppCDS) archive of the classes EVI and its modules load during the
+ * startup.<br>
+ * <br>
+ * When EVI is invoked with {@link #TRAIN_ARGUMENT}, a training run is
+ * started in a new JVM which dumps the archive at its exit: it goes
+ * through the whole startup including the autostart, opens an instance of
+ * each loaded module, waits {@link #TRAINING_DELAY} milliseconds and
+ * exits. The training run works on a temporary copy of the files in the
+ * config dir (see <code>MainConfiguration.CONFIG_DIR_PROPERTY</code>), so 
+ * whatever the modules it opens store is discarded afterwards. The 
+ * archive is written to <code>CONFIG_DIR/evi.jsa</code> together with a 
+ * stamp that describes the JVM, the class path and the module JARs of the 
+ * training run.<br>
+ * <br>
+ * A JVM cannot map an archive after it has been started. The training 
+ * therefore writes the JVM options that use the archive to 
+ * <code>CONFIG_DIR/evi.jsa.options</code>; a launcher that starts EVI 
+ * with <code>java @CONFIG_DIR/evi.jsa.options ...</code> gets the archive 
+ * without a second JVM. Otherwise, later invocations of EVI start a new 
+ * JVM with the archive and exit if the stamp is still valid, i.e. if the 
+ * JVM, the class path, the module list and the size and modification time 
+ * of the local module JARs have not changed. This relaunch costs the 
+ * startup of a second JVM, which only pays off if the modules load many 
+ * classes. If the stamp is invalid, EVI starts without the archive; the 
+ * training has to be repeated. Setting the system property 
+ * <code>evi.cds</code> to <code>false</code> disables the relaunch.<br>
+ * <br>
+ * Dynamic archives require Java 13 or later and a class path that
+ * consists of JARs only (e.g. <code>java -jar evi.jar</code>); otherwise,
+ * this class does nothing.
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public final class ClassDataSharing {
+	/**
+	 * The command line argument that starts a training run.
+	 */
+	public static final String TRAIN_ARGUMENT = "--cds-train"; //$NON-NLS-1$
+
+	/**
+	 * The number of milliseconds the training run waits after it has
+	 * opened the modules.
+	 */
+	public static final long TRAINING_DELAY = 5000;
+
+	private static final String ARCHIVE_FILE_NAME = "evi.jsa"; //$NON-NLS-1$
+	private static final String STAMP_FILE_NAME = "evi.jsa.stamp"; //$NON-NLS-1$
+	private static final String OPTIONS_FILE_NAME = "evi.jsa.options"; //$NON-NLS-1$
+
+	/**
+	 * Set in the JVM of a training run.
+	 */
+	private static final String TRAINING_PROPERTY = "evi.cds.training"; //$NON-NLS-1$
+
+	/**
+	 * Set in a JVM that has been started with the archive.
+	 */
+	private static final String ARCHIVE_PROPERTY = "evi.cds.archive"; //$NON-NLS-1$
+
+	private static final String ENABLED_PROPERTY = "evi.cds"; //$NON-NLS-1$
+
+	/**
+	 * No instances allowed/useful.
+	 */
+	private ClassDataSharing() {
+	}
+
+	/**
+	 * Indicates whether the JVM supports dynamic archives.
+	 * @return <code>true</code> for HotSpot JVMs of Java 13 and later.
+	 */
+	public static boolean isSupported() {
+		String vm = System.getProperty("java.vm.name", ""); //$NON-NLS-1$ //$NON-NLS-2$
+		if (vm.indexOf("HotSpot") == -1 && vm.indexOf("OpenJDK") == -1) { //$NON-NLS-1$ //$NON-NLS-2$
+			return false;
+		}
+		String version = System.getProperty("java.specification.version", ""); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			int dot = version.indexOf('.');
+			int major = Integer.parseInt((dot != -1)
+					? version.substring(0, dot) : version);
+			return major >= 13;
+		} catch (NumberFormatException exc) {
+			return false;
+		}
+	}
+
+	/**
+	 * Indicates whether the class path only consists of JARs. The JVM 
+	 * refuses to archive classes from directories.
+	 * @return <code>true</code> if no class path entry is a directory.
+	 */
+	private static boolean isClassPathArchivable() {
+		String[] entries = System.getProperty("java.class.path", "") //$NON-NLS-1$ //$NON-NLS-2$
+			.split(File.pathSeparator);
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i].length() > 0 && new File(entries[i]).isDirectory()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Indicates whether the command line requests a training run.
+	 * @param args The command line arguments.
+	 * @return <code>true</code> if {@link #TRAIN_ARGUMENT} is given.
+	 */
+	public static boolean isTrainingRequested(String[] args) {
+		for (int i = 0; args != null && i < args.length; i++) {
+			if (TRAIN_ARGUMENT.equals(args[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Indicates whether this JVM performs a training run.
+	 * @return <code>true</code> if EVI should exit after the startup.
+	 */
+	public static boolean isTrainingRun() {
+		return Boolean.getBoolean(TRAINING_PROPERTY);
+	}
+
+	/**
+	 * Returns the archive.
+	 * @return <code>CONFIG_DIR/evi.jsa</code>.
+	 */
+	public static File getArchiveFile() {
+		return new File(MainConfiguration.CONFIG_DIR, ARCHIVE_FILE_NAME);
+	}
+
+	/**
+	 * Starts a training run in a new JVM and waits until it has finished.
+	 * The training run uses a copy of the config dir, which is deleted 
+	 * afterwards. If it succeeds, the stamp of the archive and the options 
+	 * file are written.
+	 * @param args The command line arguments.
+	 * @return The exit code of the training run; 1 if it could not be
+	 * started.
+	 */
+	public static int train(String[] args) {
+		if (!isSupported()) {
+			System.err.println("Class data sharing archives require Java 13 or later");
+			return 1;
+		}
+		if (!isClassPathArchivable()) {
+			System.err.println("Class data sharing archives require a class path of JARs");
+			return 1;
+		}
+		File archive = getArchiveFile();
+		File stamp = new File(MainConfiguration.CONFIG_DIR, STAMP_FILE_NAME);
+		File options = new File(MainConfiguration.CONFIG_DIR, OPTIONS_FILE_NAME);
+		stamp.delete();
+		options.delete();
+		archive.delete();
+		File copy = null;
+		try {
+			copy = copyConfigDir();
+			List<String> cmd = getCommand("-XX:ArchiveClassesAtExit=" //$NON-NLS-1$
+					+ archive.getAbsolutePath(), TRAINING_PROPERTY, args);
+			cmd.add(1, "-D"+ MainConfiguration.CONFIG_DIR_PROPERTY +"=" //$NON-NLS-1$ //$NON-NLS-2$
+					+ copy.getAbsolutePath());
+			ProcessBuilder pb = new ProcessBuilder(cmd);
+			pb.redirectErrorStream(true);
+			Process p = pb.start();
+			InputStream in = p.getInputStream();
+			byte[] buf = new byte[4096];
+			for (int n; (n = in.read(buf)) != -1; ) {
+				System.out.write(buf, 0, n);
+			}
+			System.out.flush();
+			int code = p.waitFor();
+			if (code != 0 || !archive.isFile()) {
+				System.err.println("Training run failed: "+ code);
+				return (code != 0) ? code : 1;
+			}
+			PrintWriter pw = new PrintWriter(new FileWriter(stamp));
+			try {
+				pw.print(createStamp());
+			} finally {
+				pw.close();
+			}
+			pw = new PrintWriter(new FileWriter(options));
+			try {
+				pw.println(quote("-XX:SharedArchiveFile=" //$NON-NLS-1$
+						+ archive.getAbsolutePath()));
+				pw.println("-D"+ ARCHIVE_PROPERTY +"=true"); //$NON-NLS-1$ //$NON-NLS-2$
+			} finally {
+				pw.close();
+			}
+			System.out.println("Created "+ archive);
+			System.out.println("Start EVI with java @"+ options //$NON-NLS-1$
+					+" to use it without a relaunch"); //$NON-NLS-1$
+			return 0;
+		} catch (Exception exc) {
+			exc.printStackTrace();
+			return 1;
+		} finally {
+			if (copy != null) {
+				delete(copy);
+			}
+		}
+	}
+
+	/**
+	 * Copies the files of the config dir to a new temporary directory. 
+	 * Subdirectories are not copied; module JARs are referred to by 
+	 * absolute URLs anyway. The archive files and the instance file of 
+	 * {@link SingleInstance} are left out.
+	 * @return The new directory.
+	 * @throws IOException If copying fails.
+	 */
+	private static File copyConfigDir() throws IOException {
+		File dir = File.createTempFile("evi-cds", ""); //$NON-NLS-1$ //$NON-NLS-2$
+		if (!dir.delete() || !dir.mkdir()) {
+			throw new IOException("Could not create "+ dir);
+		}
+		File[] files = MainConfiguration.CONFIG_DIR.listFiles();
+		byte[] buf = new byte[8192];
+		for (int i = 0; files != null && i < files.length; i++) {
+			String name = files[i].getName();
+			if (!files[i].isFile() || name.startsWith(ARCHIVE_FILE_NAME)
+					|| name.equals(SingleInstance.INSTANCE_FILE_NAME)
+					|| name.equals(SingleInstance.LOCK_FILE_NAME)) {
+				continue;
+			}
+			InputStream in = new FileInputStream(files[i]);
+			try {
+				OutputStream out = new FileOutputStream(new File(dir, name));
+				try {
+					for (int n; (n = in.read(buf)) != -1; ) {
+						out.write(buf, 0, n);
+					}
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return dir;
+	}
+
+	/**
+	 * Deletes a directory and its contents.
+	 * @param dir The directory.
+	 */
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			if (files[i].isDirectory()) {
+				delete(files[i]);
+			} else {
+				files[i].delete();
+			}
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Quotes an argument for a JVM options file.
+	 * @param s The argument.
+	 * @return The argument in double quotes with escaped backslashes.
+	 */
+	private static String quote(String s) {
+		return '"' + s.replace("\\", "\\\\") + '"'; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Starts EVI in a new JVM with the archive if it is valid and this JVM
+	 * does not use it yet. The new JVM shares the standard streams of this
+	 * JVM, which requires Java 7 or later.
+	 * @param args The command line arguments.
+	 * @return <code>true</code> if the new JVM has been started; this JVM
+	 * should exit then.
+	 */
+	public static boolean relaunch(String[] args) {
+		if (System.getProperty(ARCHIVE_PROPERTY) != null
+				|| isTrainingRun()
+				|| !Boolean.valueOf(System.getProperty(ENABLED_PROPERTY,
+						"true")).booleanValue() //$NON-NLS-1$
+				|| !getArchiveFile().isFile()
+				|| !isSupported()
+				|| !isValid()) {
+			return false;
+		}
+		try {
+			List<String> cmd = getCommand("-XX:SharedArchiveFile=" //$NON-NLS-1$
+					+ getArchiveFile().getAbsolutePath(), ARCHIVE_PROPERTY, args);
+			ProcessBuilder pb = new ProcessBuilder(cmd);
+			// ProcessBuilder.inheritIO() is available since 1.7
+			Method m = ProcessBuilder.class.getMethod("inheritIO", //$NON-NLS-1$
+					new Class<?>[0]);
+			m.invoke(pb, new Object[0]);
+			pb.start();
+			return true;
+		} catch (Exception exc) {
+			return false;
+		}
+	}
+
+	/**
+	 * Ends a training run after {@link #TRAINING_DELAY} milliseconds. The
+	 * JVM writes the archive when it exits.
+	 */
+	public static void finishTraining() {
+		Thread t = new Thread("ClassDataSharing") { //$NON-NLS-1$
+			public void run() {
+				try {
+					Thread.sleep(TRAINING_DELAY);
+				} catch (InterruptedException exc) {
+				}
+				System.exit(0);
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Indicates whether the stamp of the archive matches the current JVM,
+	 * class path and modules.
+	 * @return <code>true</code> if the archive can be used.
+	 */
+	private static boolean isValid() {
+		File stamp = new File(MainConfiguration.CONFIG_DIR, STAMP_FILE_NAME);
+		if (!stamp.isFile()) {
+			return false;
+		}
+		StringBuffer buf = new StringBuffer();
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(stamp));
+			try {
+				for (String s; (s = br.readLine()) != null; ) {
+					buf.append(s);
+					buf.append('\n');
+				}
+			} finally {
+				br.close();
+			}
+		} catch (Exception exc) {
+			return false;
+		}
+		return buf.toString().equals(createStamp());
+	}
+
+	/**
+	 * Describes the JVM, the class path and the module JARs.
+	 * @return One line per item.
+	 */
+	private static String createStamp() {
+		StringBuffer buf = new StringBuffer();
+		buf.append(System.getProperty("java.home")).append('\n'); //$NON-NLS-1$
+		buf.append(System.getProperty("java.vm.version")).append('\n'); //$NON-NLS-1$
+		buf.append(System.getProperty("java.class.path")).append('\n'); //$NON-NLS-1$
+		String[] entries = ModuleConfiguration.readEntries();
+		for (int i = 0; i < entries.length; i++) {
+			buf.append(entries[i]);
+			try {
+				URL url = new URL(entries[i]);
+				if ("file".equalsIgnoreCase(url.getProtocol())) { //$NON-NLS-1$
+					File file = new File(url.toURI());
+					buf.append('\t').append(file.length());
+					buf.append('\t').append(file.lastModified());
+				}
+			} catch (Exception exc) {
+			}
+			buf.append('\n');
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Builds the command line of a new JVM that runs EVI with the same
+	 * JVM options, class path and arguments as this one.
+	 * @param option The additional JVM option.
+	 * @param property The system property that is set in the new JVM.
+	 * @param args The command line arguments.
+	 * @return The command line.
+	 */
+	private static List<String> getCommand(String option, String property,
+			String[] args) {
+		List<String> cmd = new Vector<String>();
+		File bin = new File(System.getProperty("java.home"), "bin"); //$NON-NLS-1$ //$NON-NLS-2$
+		File java = new File(bin, "java"); //$NON-NLS-1$
+		if (!java.isFile()) {
+			java = new File(bin, "java.exe"); //$NON-NLS-1$
+		}
+		cmd.add(java.isFile() ? java.getAbsolutePath() : "java"); //$NON-NLS-1$
+		List<String> jvmArgs = ManagementFactory.getRuntimeMXBean().getInputArguments();
+		for (int i = 0; i < jvmArgs.size(); i++) {
+			String s = jvmArgs.get(i);
+			if (!s.startsWith("-XX:SharedArchiveFile") //$NON-NLS-1$
+					&& !s.startsWith("-XX:ArchiveClassesAtExit") //$NON-NLS-1$
+					&& !s.startsWith("-Xshare") //$NON-NLS-1$
+					&& !s.startsWith("-D"+ TRAINING_PROPERTY) //$NON-NLS-1$
+					&& !s.startsWith("-D"+ ARCHIVE_PROPERTY)) { //$NON-NLS-1$
+				cmd.add(s);
+			}
+		}
+		cmd.add(option);
+		cmd.add("-D"+ property +"=true"); //$NON-NLS-1$ //$NON-NLS-2$
+		cmd.add("-cp"); //$NON-NLS-1$
+		cmd.add(System.getProperty("java.class.path")); //$NON-NLS-1$
+		cmd.add(EVI.class.getName());
+		for (int i = 0; args != null && i < args.length; i++) {
+			if (!TRAIN_ARGUMENT.equals(args[i])) {
+				cmd.add(args[i]);
+			}
+		}
+		return cmd;
+	}
+}
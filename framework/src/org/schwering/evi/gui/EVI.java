@@ -2,24 +2,46 @@
 package org.schwering.evi.gui;
 
 import java.awt.Dimension;
+import java.awt.Frame;
+import java.awt.GraphicsEnvironment;
 import java.awt.Point;
+import java.io.File;
 import java.net.URI;
 import java.net.URL;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.swing.SwingUtilities;
 
 import org.schwering.evi.conf.LanguageAdministrator;
 import org.schwering.evi.conf.MainConfiguration;
 import org.schwering.evi.conf.ModuleAutoStartConfiguration;
+import org.schwering.evi.conf.SessionConfiguration;
 import org.schwering.evi.conf.ModuleConfiguration;
+import org.schwering.evi.conf.Properties;
+import org.schwering.evi.core.DependencyResolver;
+import org.schwering.evi.core.EventBus;
+import org.schwering.evi.core.IEventSubscriber;
+import org.schwering.evi.core.IModule;
+import org.schwering.evi.core.LeakDetector;
 import org.schwering.evi.core.ModuleContainer;
 import org.schwering.evi.core.ModuleFactory;
 import org.schwering.evi.core.ModuleInstantiationException;
 import org.schwering.evi.core.ModuleLoader;
-import org.schwering.evi.core.Requirement;
+import org.schwering.evi.core.MultiModuleLoaderException;
 import org.schwering.evi.core.RequirementException;
 import org.schwering.evi.gui.main.HelloWorldPanel;
 import org.schwering.evi.gui.main.MainFrame;
 import org.schwering.evi.gui.main.ProgressFrame;
 import org.schwering.evi.util.ExceptionDialog;
+import org.schwering.evi.util.Profiler;
+import org.schwering.evi.util.TaskScheduler;
 import org.schwering.evi.util.Util;
 
 /**
@@ -51,6 +73,18 @@ public class EVI {
 	 */
 	public static final String LOAD_SCHEME = "eviload";
 	
+	/**
+	 * The command line argument that starts EVI without GUI.
+	 * @see #isHeadless()
+	 */
+	public static final String HEADLESS_ARGUMENT = "--headless"; //$NON-NLS-1$
+	
+	/**
+	 * The number of milliseconds between two counts of the module 
+	 * instances in headless mode.
+	 */
+	private static final long INSTANCE_POLL_INTERVAL = 500;
+	
 	/**
 	 * Gives access to the one and only instance of the application.
 	 * With {@link #getInstance()} this provides simple access to the owning 
@@ -58,8 +92,25 @@ public class EVI {
 	 */
 	private static EVI instance = null;
 	
+	/**
+	 * The file in the config dir the startup report is written to.
+	 */
+	private static final String STARTUP_REPORT_FILE_NAME = "startup.report"; //$NON-NLS-1$
+	
+	
 	private MainFrame frame;
 	
+	/**
+	 * The progress window of the startup or <code>null</code> in headless 
+	 * mode.
+	 */
+	private ProgressFrame progress;
+	
+	/**
+	 * The resolved requirements of the loaded modules.
+	 */
+	private DependencyResolver resolver;
+	
 	/**
 	 * Creates one initial instance and returns it in future.
 	 * @return The current instance.
@@ -84,15 +135,137 @@ public class EVI {
 	}
 	
 	/**
-	 * The main method.
+	 * The main method.<br>
+	 * If another EVI process is running, the arguments are handed over to 
+	 * it and this process exits immediately (see {@link SingleInstance}). 
+	 * If a valid class data sharing archive exists, EVI is started in a 
+	 * new JVM that uses the archive; with {@link ClassDataSharing#TRAIN_ARGUMENT} 
+	 * the archive is created (see {@link ClassDataSharing}).<br>
+	 * With {@link #HEADLESS_ARGUMENT}, EVI runs in headless mode (see 
+	 * {@link #isHeadless()}).
 	 * @param args The command line arguments.
 	 */
 	public static void main(String[] args) {
+		if (isHeadlessRequested(args)) {
+			System.setProperty("java.awt.headless", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		if (ClassDataSharing.isTrainingRequested(args)) {
+			int code = ClassDataSharing.train(args);
+			exitEarly();
+			System.exit(code);
+		}
+		if (!ClassDataSharing.isTrainingRun() && SingleInstance.handOff(args)) {
+			exitEarly();
+			return;
+		}
+		if (ClassDataSharing.relaunch(args)) {
+			exitEarly();
+			return;
+		}
 		try {
 			EVI.getInstance(args);
 		} catch (Exception exc) {
 			ExceptionDialog.show(exc);
 		}
+		if (isHeadless() && !ClassDataSharing.isTrainingRun()) {
+			waitForInstances();
+			System.exit(0);
+		}
+	}
+	
+	/**
+	 * Indicates whether EVI runs without GUI. This is the case if EVI was 
+	 * started with {@link #HEADLESS_ARGUMENT}, with the system property 
+	 * <code>java.awt.headless=true</code> or if no display is available.<br>
+	 * In headless mode, EVI neither creates the main frame nor the 
+	 * progress window, sets no look and feel and restores no session. The 
+	 * modules are loaded as usual, but only modules whose ModuleInfoClass 
+	 * implements {@link org.schwering.evi.core.IHeadless} are started 
+	 * (automatically or by command line arguments). Exceptions are 
+	 * printed to <code>System.err</code> instead of shown in a dialog. 
+	 * EVI exits when no module instance is left or when the JVM is 
+	 * terminated.<br>
+	 * Modules may use this method (or 
+	 * <code>GraphicsEnvironment.isHeadless()</code>) to run only their 
+	 * non-GUI core.
+	 * @return <code>true</code> if EVI runs without GUI.
+	 */
+	public static boolean isHeadless() {
+		return GraphicsEnvironment.isHeadless();
+	}
+	
+	/**
+	 * Indicates whether the command line requests the headless mode.
+	 * @param args The command line arguments.
+	 * @return <code>true</code> if {@link #HEADLESS_ARGUMENT} is given.
+	 */
+	private static boolean isHeadlessRequested(String[] args) {
+		for (int i = 0; args != null && i < args.length; i++) {
+			if (HEADLESS_ARGUMENT.equals(args[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Blocks until no module instance is left. Used in headless mode, 
+	 * where no main frame keeps EVI alive.<br>
+	 * The DISPOSED event is published before the instance is unregistered 
+	 * from its container, so the waiter does not rely on the event alone 
+	 * but re-counts the instances at least every 
+	 * {@link #INSTANCE_POLL_INTERVAL} milliseconds.<br>
+	 * Note that the count only covers instances that exist when this 
+	 * method is invoked or that are created later: the modules that are 
+	 * started at startup (autostart and command line arguments) are 
+	 * created with the synchronous <code>ModuleFactory.newInstance</code> 
+	 * even if they are <code>IAsynchronous</code> (like IRC and the audio 
+	 * player), so they are registered before this method is invoked.
+	 */
+	private static void waitForInstances() {
+		final Object lock = new Object();
+		IEventSubscriber<IModule> subscriber = new IEventSubscriber<IModule>() {
+			public void handle(EventBus.Topic<IModule> topic, List<IModule> events) {
+				synchronized (lock) {
+					lock.notifyAll();
+				}
+			}
+		};
+		EventBus.subscribe(EventBus.DISPOSED, subscriber, EventBus.SYNCHRONOUS);
+		try {
+			synchronized (lock) {
+				while (countInstances() > 0) {
+					lock.wait(INSTANCE_POLL_INTERVAL);
+				}
+			}
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		} finally {
+			EventBus.unsubscribeAll(subscriber);
+		}
+		System.out.println("No module instance left, exiting"); //$NON-NLS-1$
+	}
+	
+	/**
+	 * Counts the instances of all loaded modules.
+	 * @return The number of module instances.
+	 */
+	private static int countInstances() {
+		ModuleContainer[] modules = ModuleLoader.getLoadedModules();
+		int count = 0;
+		for (int i = 0; i < modules.length; i++) {
+			count += modules[i].getInstances().length;
+		}
+		return count;
+	}
+	
+	/**
+	 * Prepares the exit of a process that has not loaded the configuration, 
+	 * so that the shutdown hook does not overwrite the configuration with 
+	 * empty properties.
+	 */
+	private static void exitEarly() {
+		MainConfiguration.PROPS.setShutdownHook(false);
 	}
 	
 	/**
@@ -100,141 +273,311 @@ public class EVI {
 	 * @see #getInstance()
 	 */
 	private EVI(String[] args) {
-		ProgressFrame progress = new ProgressFrame();
+		Profiler.Sample startup = Profiler.start(Profiler.PHASE, "total"); //$NON-NLS-1$
+		Profiler.Sample phase = Profiler.start(Profiler.PHASE, "progress"); //$NON-NLS-1$
+		boolean headless = isHeadless();
+		if (!headless) {
+			progress = new ProgressFrame();
+		}
+		phase.stop();
 		
-		progress.update(5, "Configuration: Loading..."); //$NON-NLS-1$
+		updateProgress(5, "Configuration: Loading..."); //$NON-NLS-1$
+		phase = Profiler.start(Profiler.PHASE, "config"); //$NON-NLS-1$
 		try {
 			MainConfiguration.PROPS.load();
 		} catch (Exception exc) {
 			ExceptionDialog.show("Unexcepted exception caught while loading",  //$NON-NLS-1$
 					exc);
 		}
+		if (MainConfiguration.PROPS.getBoolean("app.singleinstance", true) //$NON-NLS-1$
+				&& !ClassDataSharing.isTrainingRun()) {
+			SingleInstance.listen();
+		}
+		TaskScheduler.setVirtualThreadsEnabled(
+				MainConfiguration.PROPS.getBoolean("app.virtualthreads", false)); //$NON-NLS-1$
+		Properties.setDefaultFlushDelay(
+				MainConfiguration.PROPS.getInt("app.flushdelay",  //$NON-NLS-1$
+						(int)Properties.DEFAULT_FLUSH_DELAY));
+		phase.stop();
 		
-		progress.update(10, "Configuration: Loading language..."); //$NON-NLS-1$
+		updateProgress(10, "Configuration: Loading language..."); //$NON-NLS-1$
+		phase = Profiler.start(Profiler.PHASE, "language"); //$NON-NLS-1$
 		try {
 			LanguageAdministrator.load();
 		} catch (Exception exc) {
 			ExceptionDialog.show("Unexcepted exception caught while loading",  //$NON-NLS-1$
 					exc);
 		}
+		phase.stop();
 		
-		progress.update(15, Messages.getString("EVI.3")); //$NON-NLS-1$
-		try {
-			setLookAndFeel();
-		} catch (Exception exc) {
-			ExceptionDialog.show(Messages.getString("EVI.2"),  //$NON-NLS-1$
-					exc);
+		updateProgress(15, Messages.getString("EVI.3")); //$NON-NLS-1$
+		phase = Profiler.start(Profiler.PHASE, "lookandfeel"); //$NON-NLS-1$
+		if (!headless) {
+			try {
+				setLookAndFeel();
+			} catch (Exception exc) {
+				ExceptionDialog.show(Messages.getString("EVI.2"),  //$NON-NLS-1$
+						exc);
+			}
 		}
+		phase.stop();
 		
-		progress.update(25, Messages.getString("EVI.5")); //$NON-NLS-1$
+		updateProgress(25, Messages.getString("EVI.5")); //$NON-NLS-1$
+		phase = Profiler.start(Profiler.PHASE, "modulelist"); //$NON-NLS-1$
 		try {
 			ModuleConfiguration.load();
 		} catch (Exception exc) {
 			ExceptionDialog.show(Messages.getString("EVI.2"),  //$NON-NLS-1$
 					exc);
 		}
+		phase.stop();
 		
-		progress.update(35, Messages.getString("EVI.7")); //$NON-NLS-1$
-		progress.setIndeterminate(true);
+		updateProgress(35, Messages.getString("EVI.7")); //$NON-NLS-1$
+		phase = Profiler.start(Profiler.PHASE, "modules"); //$NON-NLS-1$
+		setProgressIndeterminate(true);
 		try {
 			loadModules();
 		} catch (Exception exc) {
 			ExceptionDialog.show(Messages.getString("EVI.2"),  //$NON-NLS-1$
 					exc);
 		}
-		progress.setIndeterminate(false);
+		setProgressIndeterminate(false);
+		phase.stop();
 		
-		progress.update(45, Messages.getString("EVI.7")); //$NON-NLS-1$
-		progress.setIndeterminate(true);
+		updateProgress(45, Messages.getString("EVI.7")); //$NON-NLS-1$
+		phase = Profiler.start(Profiler.PHASE, "argmodules"); //$NON-NLS-1$
+		setProgressIndeterminate(true);
 		try {
 			loadArgRelatedModules(args);
 		} catch (Exception exc) {
 			ExceptionDialog.show(Messages.getString("EVI.2"),  //$NON-NLS-1$
 					exc);
 		}
-		progress.setIndeterminate(false);
+		setProgressIndeterminate(false);
+		phase.stop();
 		
-		progress.update(50, Messages.getString("EVI.9")); //$NON-NLS-1$
+		updateProgress(50, Messages.getString("EVI.9")); //$NON-NLS-1$
+		phase = Profiler.start(Profiler.PHASE, "dependencies"); //$NON-NLS-1$
 		try {
 			checkModuleDependencies();
 		} catch (Exception exc) {
 			ExceptionDialog.show(Messages.getString("EVI.2"),  //$NON-NLS-1$
 					exc);
 		}
+		phase.stop();
 		
-		progress.update(55, Messages.getString("EVI.11")); //$NON-NLS-1$
+		updateProgress(55, Messages.getString("EVI.11")); //$NON-NLS-1$
+		phase = Profiler.start(Profiler.PHASE, "autostartlist"); //$NON-NLS-1$
 		try {
 			ModuleAutoStartConfiguration.load();
 		} catch (Exception exc) {
 			ExceptionDialog.show(Messages.getString("EVI.2"),  //$NON-NLS-1$
 					exc);
 		}
+		phase.stop();
 		
-		progress.update(60, Messages.getString("EVI.13")); //$NON-NLS-1$
-		try {
-			initMainFrame();
-		} catch (Throwable exc) {
-			ExceptionDialog.show(Messages.getString("EVI.2"),  //$NON-NLS-1$
-					exc);
+		updateProgress(60, Messages.getString("EVI.13")); //$NON-NLS-1$
+		phase = Profiler.start(Profiler.PHASE, "mainframe"); //$NON-NLS-1$
+		if (!headless) {
+			try {
+				initMainFrame();
+			} catch (Throwable exc) {
+				ExceptionDialog.show(Messages.getString("EVI.2"),  //$NON-NLS-1$
+						exc);
+			}
 		}
+		phase.stop();
 		
-		progress.update(65, Messages.getString("EVI.15")); //$NON-NLS-1$
+		phase = Profiler.start(Profiler.PHASE, "session"); //$NON-NLS-1$
+		if (!headless 
+				&& MainConfiguration.PROPS.getBoolean("app.restoresession", true)) { //$NON-NLS-1$
+			try {
+				SessionConfiguration.load();
+				frame.getMainTabBar().restoreSession();
+			} catch (Throwable exc) {
+				ExceptionDialog.show(Messages.getString("EVI.2"),  //$NON-NLS-1$
+						exc);
+			}
+		}
+		phase.stop();
+		
+		updateProgress(65, Messages.getString("EVI.15")); //$NON-NLS-1$
+		phase = Profiler.start(Profiler.PHASE, "autostart"); //$NON-NLS-1$
 		try {
 			autoStartModules();
 		} catch (Throwable exc) {
 			ExceptionDialog.show(Messages.getString("EVI.2"),  //$NON-NLS-1$
 					exc);
 		}
+		phase.stop();
 		
-		progress.update(75, Messages.getString("EVI.17")); //$NON-NLS-1$
+		updateProgress(75, Messages.getString("EVI.17")); //$NON-NLS-1$
+		phase = Profiler.start(Profiler.PHASE, "argstart"); //$NON-NLS-1$
 		try {
 			startArgRelatedModules(args);
 		} catch (Exception exc) {
 			ExceptionDialog.show(Messages.getString("EVI.2"),  //$NON-NLS-1$
 					exc);
 		}
+		phase.stop();
 		
-		progress.update(91, Messages.getString("EVI.20")); //$NON-NLS-1$
-		try {
-			makeVisible();
-		} catch (Throwable exc) {
-			ExceptionDialog.show(Messages.getString("EVI.2"),  //$NON-NLS-1$
-					exc);
+		updateProgress(91, Messages.getString("EVI.20")); //$NON-NLS-1$
+		phase = Profiler.start(Profiler.PHASE, "visible"); //$NON-NLS-1$
+		if (!headless) {
+			try {
+				makeVisible();
+			} catch (Throwable exc) {
+				ExceptionDialog.show(Messages.getString("EVI.2"),  //$NON-NLS-1$
+						exc);
+			}
 		}
+		phase.stop();
+		
+		if (!headless 
+				&& MainConfiguration.PROPS.getBoolean("app.restoresession", true) //$NON-NLS-1$
+				&& MainConfiguration.PROPS.getBoolean("app.restoresession.preload", true)) { //$NON-NLS-1$
+			frame.getMainTabBar().preloadSession();
+		}
+		
+		updateProgress(100, Messages.getString("EVI.22")); //$NON-NLS-1$
+		startup.stop();
+		storeStartupReport();
 		
-		progress.update(100, Messages.getString("EVI.22")); //$NON-NLS-1$
+		if (ClassDataSharing.isTrainingRun()) {
+			openAllModules();
+			ClassDataSharing.finishTraining();
+			return;
+		}
+		if (MainConfiguration.PROPS.getBoolean("app.hotreload", true)) { //$NON-NLS-1$
+			ModuleWatcher.start();
+		}
+		SingleInstance.setReady();
+	}
+	
+	/**
+	 * Updates the progress window if there is one.
+	 * @param i The new percentage.
+	 * @param s The new string of the progressbar.
+	 */
+	private void updateProgress(int i, String s) {
+		if (progress != null) {
+			progress.update(i, s);
+			if (i >= 100) {
+				progress = null;
+			}
+		}
+	}
+	
+	/**
+	 * Changes the indeterminate-style of the progress window if there is 
+	 * one.
+	 * @param b Enable/disable indetermination.
+	 */
+	private void setProgressIndeterminate(boolean b) {
+		if (progress != null) {
+			progress.setIndeterminate(b);
+		}
+	}
+	
+	/**
+	 * Indicates whether a module may be started. In headless mode, only 
+	 * modules that support it are started; the others are reported on 
+	 * <code>System.err</code>.
+	 * @param container The module.
+	 * @return <code>true</code> if the module may be instantiated.
+	 * @see #isHeadless()
+	 */
+	private static boolean isStartable(ModuleContainer container) {
+		if (!isHeadless() || container.isHeadless()) {
+			return true;
+		}
+		System.err.println("Not starting module "+ container.getId() //$NON-NLS-1$
+				+" in headless mode"); //$NON-NLS-1$
+		return false;
+	}
+	
+	/**
+	 * Creates an instance of each loaded module that has none yet, so that 
+	 * the training run of the class data sharing archive loads the classes 
+	 * of all modules.
+	 */
+	private void openAllModules() {
+		ModuleContainer[] modules = ModuleLoader.getLoadedModules();
+		for (int i = 0; i < modules.length; i++) {
+			if (modules[i].getInstances().length > 0 
+					|| !isStartable(modules[i])) {
+				continue;
+			}
+			try {
+				ModuleFactory.newInstance(modules[i]);
+			} catch (Exception exc) {
+				exc.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Stops the profiler and writes the startup report to 
+	 * <code>CONFIG_DIR/startup.report</code>.
+	 * @see Profiler
+	 */
+	private void storeStartupReport() {
+		Profiler.finish();
+		try {
+			Profiler.store(new File(MainConfiguration.CONFIG_DIR, 
+					STARTUP_REPORT_FILE_NAME));
+		} catch (Exception exc) {
+			exc.printStackTrace();
+		}
 	}
 	
 	/**
-	 * Loads the modules specified in the configuration.
+	 * Loads the modules specified in the configuration. The JARs are 
+	 * loaded concurrently. All failures are reported in one 
+	 * <code>ExceptionDialog</code> and the respective modules are 
+	 * removed from the module list.
 	 */
 	private void loadModules() {
+		ModuleLoader.setLazyActivation(
+				MainConfiguration.PROPS.getBoolean("app.lazymodules", false)); //$NON-NLS-1$
+		LeakDetector.setEnabled(
+				MainConfiguration.PROPS.getBoolean("app.leakdetector", false)); //$NON-NLS-1$
+		MultiModuleLoaderException failures = null;
 		URL[] urls = ModuleConfiguration.getURLs();
 		if (urls != null) {
-			for (int i = 0; i < urls.length; i++) {
-				try {
-					ModuleLoader.load(urls[i]);
-				} catch (Exception exc) {
-					ExceptionDialog.show(Messages.getString("EVI.23")+  //$NON-NLS-1$
-							urls[i] +"\n"+ //$NON-NLS-1$
-							Messages.getString("EVI.25"), exc); //$NON-NLS-1$
-					ModuleConfiguration.remove(urls[i]);
-				}
+			try {
+				ModuleLoader.load(urls);
+			} catch (MultiModuleLoaderException exc) {
+				failures = exc;
 			}
 		}
 		String[] classNames = ModuleConfiguration.getClassNames();
 		if (classNames != null) {
 			for (int i = 0; i < classNames.length; i++) {
 				try {
+					Profiler.Sample sample = Profiler.start(
+							Profiler.LOAD, classNames[i]);
 					ModuleLoader.load(classNames[i]);
+					sample.stop();
 				} catch (Exception exc) {
-					ExceptionDialog.show(Messages.getString("EVI.23")+  //$NON-NLS-1$
-							classNames[i] +"\n"+ //$NON-NLS-1$
-							Messages.getString("EVI.25"), exc); //$NON-NLS-1$
-					ModuleConfiguration.remove(classNames[i]);
+					if (failures == null) {
+						failures = new MultiModuleLoaderException();
+					}
+					failures.add(classNames[i], exc);
 				}
 			}
 		}
+		if (failures != null) {
+			Object[] sources = failures.getSources();
+			StringBuffer msg = new StringBuffer();
+			for (int i = 0; i < sources.length; i++) {
+				msg.append(Messages.getString("EVI.23")); //$NON-NLS-1$
+				msg.append(sources[i] +"\n"); //$NON-NLS-1$
+				ModuleConfiguration.remove(sources[i]);
+			}
+			msg.append(Messages.getString("EVI.25")); //$NON-NLS-1$
+			ExceptionDialog.show(msg.toString(), failures);
+		}
 	}
 	
 	/**
@@ -266,30 +609,45 @@ public class EVI {
 	}
 	
 	/**
-	 * Checks dependencies and automatically starts respective modules.
+	 * Resolves the requirements of the loaded modules and reports the 
+	 * modules whose requirements are not satisfied.
+	 * @see DependencyResolver
 	 */
 	private void checkModuleDependencies() {
 		ModuleContainer[] modules = ModuleLoader.getLoadedModules();
 		if (modules == null) {
 			return;
 		}
-		for (int i = 0; i < modules.length; i++) {
-			if (!Requirement.matches(modules[i], modules)) {
-				RequirementException exc = Requirement.getCause(modules[i], 
-						modules);
-				ExceptionDialog.show(Messages.getString("EVI.29")+ modules[i].getId() +Messages.getString("EVI.30")+ //$NON-NLS-1$ //$NON-NLS-2$
-						Messages.getString("EVI.31"), exc); //$NON-NLS-1$
-			}
+		resolver = new DependencyResolver(modules);
+		ModuleContainer[] unsatisfied = resolver.getUnsatisfied();
+		for (int i = 0; i < unsatisfied.length; i++) {
+			RequirementException exc = resolver.getCause(unsatisfied[i]);
+			ExceptionDialog.show(Messages.getString("EVI.29")+ unsatisfied[i].getId() +Messages.getString("EVI.30")+ //$NON-NLS-1$ //$NON-NLS-2$
+					Messages.getString("EVI.31"), exc); //$NON-NLS-1$
 		}
 	}
 	
 	/**
 	 * Starts all modules listed in the 
-	 * <code>ModuleAutoStartConfiguration</code>.
+	 * <code>ModuleAutoStartConfiguration</code>.<br>
+	 * The modules are started concurrently in the framework's pool of the 
+	 * <code>TaskScheduler</code> in the order of their dependency waves. 
+	 * A module only waits until the modules it requires have been 
+	 * started; because the pool starts tasks of equal priority in the 
+	 * order they were submitted, the required modules are running or done 
+	 * by then. The method returns when all modules are started.<br>
+	 * Modules with the same arguments as a tab of the restored session are 
+	 * not started again.
+	 * @see DependencyResolver#getWaves()
 	 */
 	private void autoStartModules() {
 		String[] ids = ModuleAutoStartConfiguration.getIds();
 		String[] args = ModuleAutoStartConfiguration.getArgs();
+		if (resolver == null) {
+			resolver = new DependencyResolver(ModuleLoader.getLoadedModules());
+		}
+		
+		List<Integer> order = new Vector<Integer>(ids.length);
 		for (int i = 0; i < ids.length; i++) {
 			ModuleContainer container = ModuleLoader.getLoadedModule(ids[i]);
 			if (container == null) {
@@ -297,20 +655,166 @@ public class EVI {
 						new ModuleInstantiationException(Messages.getString("EVI.33")+ //$NON-NLS-1$
 								ids[i] +Messages.getString("EVI.34"))); //$NON-NLS-1$
 			} else {
+				order.add(Integer.valueOf(i));
+			}
+		}
+		if (order.size() == 0) {
+			resolver = null;
+			return;
+		}
+		final String[] autoStartIds = ids;
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				int w1 = getWave(autoStartIds[i1.intValue()]);
+				int w2 = getWave(autoStartIds[i2.intValue()]);
+				return (w1 < w2) ? -1 : ((w1 == w2) ? 0 : 1);
+			}
+		});
+		
+		Map<ModuleContainer, List<Future<?>>> started = 
+			new HashMap<ModuleContainer, List<Future<?>>>();
+		List<Future<?>> all = new Vector<Future<?>>(order.size());
+		for (int k = 0; k < order.size(); k++) {
+			int i = order.get(k).intValue();
+			ModuleContainer container = ModuleLoader.getLoadedModule(ids[i]);
+			String[] argarr;
+			if (args[i] == null || args[i].length() == 0) {
+				argarr = null;
+			} else {
+				argarr = new String[] { args[i] };
+			}
+			if (SessionConfiguration.contains(ids[i], argarr)) {
+				// restored from the session
+				continue;
+			}
+			if (!isStartable(container)) {
+				continue;
+			}
+			
+			// Wait only for required modules of earlier waves. Modules 
+			// that are part of a cycle are started last and do not wait 
+			// for other modules of the cycle.
+			int wave = resolver.getWave(container);
+			ModuleContainer[] pre = resolver.getPrerequisites(container);
+			List<Future<?>> prerequisites = new Vector<Future<?>>();
+			for (int j = 0; j < pre.length; j++) {
+				int preWave = resolver.getWave(pre[j]);
+				List<Future<?>> futures = started.get(pre[j]);
+				if (futures != null && preWave >= 0 
+						&& (wave < 0 || preWave < wave)) {
+					prerequisites.addAll(futures);
+				}
+			}
+			
+			Future<?> future = TaskScheduler.submit(this, 
+					new AutoStartTask(container, argarr, prerequisites), 
+					TaskScheduler.HIGH);
+			List<Future<?>> futures = started.get(container);
+			if (futures == null) {
+				futures = new Vector<Future<?>>(1);
+				started.put(container, futures);
+			}
+			futures.add(future);
+			all.add(future);
+		}
+		for (int k = 0; k < all.size(); k++) {
+			try {
+				all.get(k).get();
+			} catch (ExecutionException exc) {
+				if (!(exc.getCause() instanceof AutoStartException)) {
+					exc.printStackTrace();
+				}
+			} catch (Exception exc) {
+				exc.printStackTrace();
+			}
+		}
+		// the resolver refers to the containers, which must not be kept 
+		// alive after the modules are unloaded
+		resolver = null;
+	}
+	
+	/**
+	 * Returns the dependency wave of a module. Modules that are not 
+	 * contained in any wave come last.
+	 * @param id The module's id.
+	 * @return The wave index or <code>Integer.MAX_VALUE</code>.
+	 */
+	private int getWave(String id) {
+		int wave = resolver.getWave(ModuleLoader.getLoadedModule(id));
+		return (wave >= 0) ? wave : Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * Starts one module automatically after the modules it requires have 
+	 * been started. If a required module could not be started, the module 
+	 * is skipped and this is reported. A failed task throws an 
+	 * {@link AutoStartException}, so that the modules that require it are 
+	 * skipped, too.
+	 */
+	private static class AutoStartTask implements Runnable {
+		private ModuleContainer container;
+		private String[] args;
+		private List<Future<?>> prerequisites;
+		
+		public AutoStartTask(ModuleContainer container, String[] args, 
+				List<Future<?>> prerequisites) {
+			this.container = container;
+			this.args = args;
+			this.prerequisites = prerequisites;
+		}
+		
+		public void run() {
+			for (int i = 0; i < prerequisites.size(); i++) {
+				String failed = null;
 				try {
-					String[] argarr;
-					if (args[i] == null || args[i].length() == 0) {
-						argarr = null;
-					} else {
-						argarr = new String[] { args[i] };
-					}
-					ModuleFactory.newInstance(container, argarr);
-				} catch (ModuleInstantiationException exc) {
-					ExceptionDialog.show(
-							Messages.getString("EVI.32") +":\n"+  //$NON-NLS-1$  //$NON-NLS-2$
-							container.getId(), exc);
+					prerequisites.get(i).get();
+				} catch (ExecutionException exc) {
+					failed = (exc.getCause() instanceof AutoStartException) 
+						? exc.getCause().getMessage() : exc.toString();
+				} catch (Exception exc) {
+					failed = exc.toString();
+				}
+				if (failed != null) {
+					fail(new ModuleInstantiationException(
+							Messages.getString("EVI.PREREQUISITE_FAILED")  //$NON-NLS-1$
+							+ failed));
 				}
 			}
+			try {
+				Profiler.Sample sample = Profiler.start(
+						Profiler.AUTOSTART, container.getId());
+				ModuleFactory.newInstance(container, args);
+				sample.stop();
+			} catch (ModuleInstantiationException exc) {
+				fail(exc);
+			}
+		}
+		
+		/**
+		 * Reports that the module has not been started and ends the task.
+		 * @param exc The reason.
+		 * @throws AutoStartException Always.
+		 */
+		private void fail(ModuleInstantiationException exc) {
+			ExceptionDialog.show(
+					Messages.getString("EVI.32") +":\n"+  //$NON-NLS-1$  //$NON-NLS-2$
+					container.getId(), exc);
+			throw new AutoStartException(container.getId());
+		}
+	}
+	
+	/**
+	 * Thrown by an {@link AutoStartTask} whose module has not been 
+	 * started. The failure has been reported already.
+	 */
+	private static class AutoStartException extends RuntimeException {
+		private static final long serialVersionUID = -4183306825279112573L;
+		
+		/**
+		 * @param id The id of the module that has not been started.
+		 */
+		public AutoStartException(String id) {
+			super(id);
 		}
 	}
 	
@@ -323,14 +827,14 @@ public class EVI {
 		if (args == null) {
 			return;
 		}
-		ModuleContainer[] modules = ModuleLoader.getLoadedModules();
 		for (int i = 0; i < args.length; i++) {
 			String arg = args[i];
 			try {
 				URI uri = new URI(arg);
-				String scheme = uri.getScheme();
+				ModuleContainer[] modules = 
+					ModuleLoader.getURIHandlers(uri.getScheme());
 				for (int j = 0; j < modules.length; j++) {
-					if (modules[j].handlesURI(scheme)) {
+					if (isStartable(modules[j])) {
 						ModuleFactory.newInstance(modules[j], 
 								new Object[] { uri });
 					}
@@ -359,9 +863,37 @@ public class EVI {
 		frame.setVisible(true);
 	}
 	
+	/**
+	 * Handles the command line arguments of a later invocation of EVI: 
+	 * loads and starts the modules the arguments refer to and brings the 
+	 * main frame to the front.<br>
+	 * Invoked by {@link SingleInstance}.
+	 * @param args The command line arguments of the other invocation.
+	 */
+	void handleArguments(String[] args) {
+		try {
+			loadArgRelatedModules(args);
+			startArgRelatedModules(args);
+		} catch (Exception exc) {
+			ExceptionDialog.show(Messages.getString("EVI.2"), exc); //$NON-NLS-1$
+		}
+		if (frame == null) {
+			return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if ((frame.getExtendedState() & Frame.ICONIFIED) != 0) {
+					frame.setExtendedState(
+							frame.getExtendedState() & ~Frame.ICONIFIED);
+				}
+				frame.toFront();
+			}
+		});
+	}
+	
 	/**
 	 * Returns the main frame.
-	 * @return The main frame.
+	 * @return The main frame or <code>null</code> in headless mode.
 	 */
 	public MainFrame getMainFrame() {
 		return frame;
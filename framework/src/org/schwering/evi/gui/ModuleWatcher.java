@@ -0,0 +1,219 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.gui;
+
+import java.io.File;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import javax.swing.SwingUtilities;
+
+import org.schwering.evi.core.IModule;
+import org.schwering.evi.core.ModuleContainer;
+import org.schwering.evi.core.ModuleFactory;
+import org.schwering.evi.core.ModuleLoader;
+import org.schwering.evi.gui.main.MainFrame;
+import org.schwering.evi.gui.main.TabBar;
+import org.schwering.evi.util.ExceptionDialog;
+
+/**
+ * Reloads modules whose JARs change while EVI is running.<br>
+ * The watcher periodically checks the size and the modification time of
+ * the JARs of all modules that were loaded from local files. When a JAR
+ * has changed and has not been changed again for {@link #QUIET_PERIOD}
+ * milliseconds (so that a JAR that is still being copied is not loaded),
+ * the module is reloaded:
+ * <ol>
+ * <li> the new JAR is opened and its ModuleInfoClass is loaded in the
+ * watcher's thread, </li>
+ * <li> the old module is replaced by the new one in the event dispatching
+ * thread (see {@link ModuleLoader#replace(ModuleContainer, ModuleContainer)}),
+ * which disposes the old instances, </li>
+ * <li> an instance is created again for each old instance, with the
+ * same arguments, by the main <code>TabBar</code> in the event
+ * dispatching thread (asynchronous modules are constructed in a worker
+ * thread), or in the watcher's thread in headless mode. </li>
+ * </ol>
+ * Other modules, e.g. open IRC connections, are not affected.
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public final class ModuleWatcher implements Runnable {
+	/**
+	 * The number of milliseconds between two checks.
+	 */
+	public static final long POLL_INTERVAL = 1000;
+
+	/**
+	 * The number of milliseconds a changed JAR must remain unchanged
+	 * before the module is reloaded.
+	 */
+	public static final long QUIET_PERIOD = 2000;
+
+	private static ModuleWatcher watcher;
+
+	private Thread thread;
+	private volatile boolean running = true;
+
+	/**
+	 * The last seen size and modification time of each JAR.
+	 */
+	private Map<URL, Long[]> stamps = new HashMap<URL, Long[]>();
+
+	/**
+	 * The time of the last change of each JAR whose module has not been
+	 * reloaded yet.
+	 */
+	private Map<URL, Long> pending = new HashMap<URL, Long>();
+
+	private ModuleWatcher() {
+		thread = new Thread(this, "ModuleWatcher"); //$NON-NLS-1$
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+	}
+
+	/**
+	 * Starts watching the JARs of the loaded modules. Nothing happens if
+	 * the watcher is already running.
+	 */
+	public static synchronized void start() {
+		if (watcher == null) {
+			watcher = new ModuleWatcher();
+			watcher.thread.start();
+		}
+	}
+
+	/**
+	 * Stops watching.
+	 */
+	public static synchronized void stop() {
+		if (watcher != null) {
+			watcher.running = false;
+			watcher.thread.interrupt();
+			watcher = null;
+		}
+	}
+
+	/**
+	 * Indicates whether the watcher is running.
+	 * @return <code>true</code> if changed JARs are reloaded.
+	 */
+	public static synchronized boolean isRunning() {
+		return watcher != null;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		while (running) {
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			} catch (InterruptedException exc) {
+				return;
+			}
+			try {
+				poll();
+			} catch (Exception exc) {
+				exc.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Checks all JARs once and reloads the modules whose JARs have changed
+	 * and have been quiet since.
+	 */
+	private void poll() {
+		long now = System.currentTimeMillis();
+		ModuleContainer[] modules = ModuleLoader.getLoadedModules();
+		for (int i = 0; i < modules.length && running; i++) {
+			if (!(modules[i].getSource() instanceof URL)) {
+				continue;
+			}
+			URL url = (URL)modules[i].getSource();
+			File file = toFile(url);
+			if (file == null) {
+				continue;
+			}
+			Long[] stamp = new Long[] { Long.valueOf(file.length()),
+					Long.valueOf(file.lastModified()) };
+			Long[] known = stamps.put(url, stamp);
+			if (known == null) {
+				continue;
+			}
+			if (!known[0].equals(stamp[0]) || !known[1].equals(stamp[1])) {
+				pending.put(url, Long.valueOf(now));
+			} else if (pending.containsKey(url) && file.isFile()
+					&& now - pending.get(url).longValue() >= QUIET_PERIOD) {
+				pending.remove(url);
+				reload(modules[i], url);
+			}
+		}
+	}
+
+	/**
+	 * Reloads a module from its changed JAR.
+	 * @param old The loaded module.
+	 * @param url The module's JAR.
+	 */
+	private void reload(final ModuleContainer old, URL url) {
+		try {
+			final ModuleContainer fresh = ModuleLoader.prepare(url);
+			final String errorMsg = Messages.getString("ModuleWatcher.RELOAD_FAILED") //$NON-NLS-1$
+				+ old.getId();
+			final List<Object[]> arguments = new Vector<Object[]>();
+			final Exception[] failure = new Exception[1];
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					try {
+						IModule[] instances = old.getInstances();
+						for (int i = 0; i < instances.length; i++) {
+							arguments.add(old.getArguments(instances[i]));
+						}
+						ModuleLoader.replace(old, fresh);
+						if (!EVI.isHeadless()) {
+							TabBar tabBar = MainFrame.getInstance().getMainTabBar();
+							for (int i = 0; i < arguments.size(); i++) {
+								tabBar.newInstance(fresh, arguments.get(i), 
+										errorMsg);
+							}
+						}
+					} catch (Exception exc) {
+						failure[0] = exc;
+					}
+				}
+			});
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+			if (EVI.isHeadless()) {
+				for (int i = 0; i < arguments.size(); i++) {
+					ModuleFactory.newInstance(fresh, arguments.get(i));
+				}
+			}
+		} catch (Exception exc) {
+			ExceptionDialog.show(Messages.getString("ModuleWatcher.RELOAD_FAILED") //$NON-NLS-1$
+					+ old.getId(), exc);
+		}
+	}
+
+	/**
+	 * Returns the local file of a <code>file:</code> URL.
+	 * @param url The URL.
+	 * @return The file or <code>null</code> if the URL does not point to
+	 * a local file.
+	 */
+	private static File toFile(URL url) {
+		if (!"file".equalsIgnoreCase(url.getProtocol())) { //$NON-NLS-1$
+			return null;
+		}
+		try {
+			return new File(url.toURI());
+		} catch (Exception exc) {
+			return new File(url.getPath());
+		}
+	}
+}
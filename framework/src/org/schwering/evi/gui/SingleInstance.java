@@ -0,0 +1,378 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.gui;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+
+import org.schwering.evi.conf.MainConfiguration;
+import org.schwering.evi.util.ShutdownHookManager;
+
+/**
+ * Makes sure that only one EVI process runs per user.<br>
+ * The first EVI process listens on a socket bound to the loopback
+ * interface and writes the port and a random secret to
+ * <code>CONFIG_DIR/instance</code>. A later invocation of EVI reads this
+ * file, sends its command line arguments to the running process and exits
+ * immediately; the running process then loads and starts the modules the
+ * arguments refer to (see {@link EVI#handleArguments(String[])}).<br>
+ * <br>
+ * If the file does not exist or the running process does not answer
+ * (e.g. because it has crashed), the invocation starts normally and
+ * becomes the listening process itself. Only the process that holds the
+ * lock on <code>CONFIG_DIR/instance.lock</code> listens; if two
+ * invocations start at the same time, the second one does not overwrite
+ * the file of the first one. A process only deletes the file when it
+ * exits if the file still belongs to it.<br>
+ * <br>
+ * The secret prevents other processes from loading modules into EVI.
+ * The file is only readable by its owner if the JRE supports it. Before 
+ * the invocation sends the secret, the listening process must prove that 
+ * it knows the secret, too: it answers a random challenge with a digest 
+ * of the challenge and the secret. Thus an unrelated program that has 
+ * taken over the port of a crashed process neither learns the secret nor 
+ * swallows the arguments.
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public final class SingleInstance implements Runnable {
+	static final String INSTANCE_FILE_NAME = "instance"; //$NON-NLS-1$
+	static final String LOCK_FILE_NAME = "instance.lock"; //$NON-NLS-1$
+
+	/**
+	 * The number of milliseconds a later invocation waits for the running
+	 * process.
+	 */
+	private static final int TIMEOUT = 2000;
+
+	/**
+	 * Starts each request, so that other programs are recognized early.
+	 */
+	private static final String MAGIC = "EVI-INSTANCE 1"; //$NON-NLS-1$
+
+	/**
+	 * Confirms that the running process has received the arguments.
+	 */
+	private static final String ACCEPTED = "ACCEPTED"; //$NON-NLS-1$
+
+	private static SingleInstance server;
+
+	/**
+	 * The lock held by the listening process until it exits.
+	 */
+	private static FileLock lock;
+
+	private ServerSocket socket;
+	private String secret;
+
+	/**
+	 * Released when EVI has been started completely.
+	 */
+	private CountDownLatch ready = new CountDownLatch(1);
+
+	private SingleInstance(ServerSocket socket, String secret) {
+		this.socket = socket;
+		this.secret = secret;
+	}
+
+	/**
+	 * Tries to hand the arguments over to a running EVI process.
+	 * @param args The command line arguments.
+	 * @return <code>true</code> if a running process has received the
+	 * arguments; this process should exit then.
+	 */
+	public static boolean handOff(String[] args) {
+		File file = getInstanceFile();
+		if (!file.isFile()) {
+			return false;
+		}
+		Socket s = null;
+		try {
+			String[] contents = readInstanceFile();
+			int port = Integer.parseInt(contents[0]);
+			String secret = contents[1];
+
+			s = new Socket();
+			s.connect(new InetSocketAddress(InetAddress.getByName(null),
+					port), TIMEOUT);
+			s.setSoTimeout(TIMEOUT);
+			DataOutputStream out = new DataOutputStream(s.getOutputStream());
+			DataInputStream in = new DataInputStream(s.getInputStream());
+			String challenge = createSecret();
+			out.writeUTF(MAGIC);
+			out.writeUTF(challenge);
+			out.flush();
+			if (!in.readUTF().equals(digest(secret, challenge))) {
+				return false;
+			}
+			out.writeUTF(secret);
+			out.writeInt(args.length);
+			for (int i = 0; i < args.length; i++) {
+				out.writeUTF(args[i]);
+			}
+			out.flush();
+			return in.readUTF().equals(ACCEPTED);
+		} catch (Exception exc) {
+			return false;
+		} finally {
+			if (s != null) {
+				try {
+					s.close();
+				} catch (IOException exc) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts listening for later invocations. The received arguments are
+	 * not handled until {@link #setReady()} is invoked.<br>
+	 * Nothing happens if another process holds the lock, i.e. listens 
+	 * already or is about to.
+	 */
+	public static synchronized void listen() {
+		if (server != null) {
+			return;
+		}
+		try {
+			if (!acquireLock()) {
+				return;
+			}
+			ServerSocket ss = new ServerSocket(0, 10,
+					InetAddress.getByName(null));
+			final SingleInstance instance = new SingleInstance(ss, 
+					createSecret());
+			instance.writeInstanceFile();
+			server = instance;
+
+			Thread t = new Thread(server, "SingleInstance"); //$NON-NLS-1$
+			t.setDaemon(true);
+			t.start();
+
+			ShutdownHookManager.addShutdownHook(new Thread() {
+				public void run() {
+					if (instance.ownsInstanceFile()) {
+						getInstanceFile().delete();
+					}
+				}
+			});
+		} catch (Exception exc) {
+			exc.printStackTrace();
+			server = null;
+		}
+	}
+
+	/**
+	 * Acquires the lock on <code>CONFIG_DIR/instance.lock</code> unless 
+	 * this process holds it already. The lock is released when the 
+	 * process exits.
+	 * @return <code>true</code> if this process holds the lock.
+	 * @throws IOException If the lock file cannot be opened.
+	 */
+	private static boolean acquireLock() throws IOException {
+		if (lock != null) {
+			return true;
+		}
+		RandomAccessFile raf = new RandomAccessFile(new File(
+				MainConfiguration.CONFIG_DIR, LOCK_FILE_NAME), "rw"); //$NON-NLS-1$
+		try {
+			lock = raf.getChannel().tryLock();
+		} catch (OverlappingFileLockException exc) {
+			lock = null;
+		} catch (IOException exc) {
+			raf.close();
+			throw exc;
+		}
+		if (lock == null) {
+			raf.close();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Indicates that EVI has been started completely, so that received
+	 * arguments can be handled.
+	 */
+	public static synchronized void setReady() {
+		if (server != null) {
+			server.ready.countDown();
+		}
+	}
+
+	/**
+	 * Creates a random secret or challenge.
+	 * @return 16 random bytes in hexadecimal notation.
+	 */
+	private static String createSecret() {
+		byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		return toHex(bytes);
+	}
+
+	/**
+	 * Computes the answer to a challenge.
+	 * @param secret The secret.
+	 * @param challenge The challenge.
+	 * @return The SHA-1 digest of the secret and the challenge in 
+	 * hexadecimal notation.
+	 * @throws Exception If SHA-1 is not available.
+	 */
+	private static String digest(String secret, String challenge) 
+	throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+		md.update(secret.getBytes("UTF-8")); //$NON-NLS-1$
+		md.update((byte)':');
+		md.update(challenge.getBytes("UTF-8")); //$NON-NLS-1$
+		return toHex(md.digest());
+	}
+
+	/**
+	 * Converts bytes to hexadecimal notation.
+	 * @param bytes The bytes.
+	 * @return Two hexadecimal digits per byte.
+	 */
+	private static String toHex(byte[] bytes) {
+		StringBuffer sb = new StringBuffer(bytes.length * 2);
+		for (int i = 0; i < bytes.length; i++) {
+			sb.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(bytes[i] & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Reads the port and the secret from the instance file.
+	 * @return The port and the secret.
+	 * @throws IOException If the file cannot be read or is incomplete.
+	 */
+	private static String[] readInstanceFile() throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(
+				getInstanceFile()));
+		try {
+			String port = br.readLine();
+			String secret = br.readLine();
+			if (port == null || secret == null) {
+				throw new IOException("Incomplete instance file"); //$NON-NLS-1$
+			}
+			return new String[] { port.trim(), secret.trim() };
+		} finally {
+			br.close();
+		}
+	}
+
+	/**
+	 * Indicates whether the instance file still contains the port and the 
+	 * secret of this process. Another process may have replaced it if 
+	 * this process did not answer in time.
+	 * @return <code>true</code> if the file belongs to this process.
+	 */
+	private boolean ownsInstanceFile() {
+		try {
+			String[] contents = readInstanceFile();
+			return contents[0].equals(String.valueOf(socket.getLocalPort())) 
+				&& contents[1].equals(secret);
+		} catch (IOException exc) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the file that contains the port and the secret.
+	 * @return <code>CONFIG_DIR/instance</code>.
+	 */
+	private static File getInstanceFile() {
+		return new File(MainConfiguration.CONFIG_DIR, INSTANCE_FILE_NAME);
+	}
+
+	/**
+	 * Writes the port and the secret to the instance file and restricts
+	 * its permissions to the owner.
+	 * @throws IOException If the file cannot be written.
+	 */
+	private void writeInstanceFile() throws IOException {
+		File file = getInstanceFile();
+		file.delete();
+		file.createNewFile();
+		try {
+			// File.setReadable(boolean, boolean) is available since 1.6
+			Method m = File.class.getMethod("setReadable", //$NON-NLS-1$
+					new Class<?>[] { boolean.class, boolean.class });
+			m.invoke(file, new Object[] { Boolean.FALSE, Boolean.FALSE });
+			m.invoke(file, new Object[] { Boolean.TRUE, Boolean.TRUE });
+		} catch (Exception exc) {
+		}
+		PrintWriter pw = new PrintWriter(new FileWriter(file));
+		try {
+			pw.println(socket.getLocalPort());
+			pw.println(secret);
+		} finally {
+			pw.close();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		while (!socket.isClosed()) {
+			Socket s = null;
+			try {
+				s = socket.accept();
+				s.setSoTimeout(TIMEOUT);
+				DataInputStream in = new DataInputStream(s.getInputStream());
+				DataOutputStream out = new DataOutputStream(s.getOutputStream());
+				if (!MAGIC.equals(in.readUTF())) {
+					continue;
+				}
+				out.writeUTF(digest(secret, in.readUTF()));
+				out.flush();
+				if (!secret.equals(in.readUTF())) {
+					continue;
+				}
+				int count = in.readInt();
+				if (count < 0 || count > 1024) {
+					continue;
+				}
+				String[] args = new String[count];
+				for (int i = 0; i < count; i++) {
+					args[i] = in.readUTF();
+				}
+				out.writeUTF(ACCEPTED);
+				out.flush();
+				s.close();
+				s = null;
+
+				ready.await();
+				EVI.getInstance().handleArguments(args);
+			} catch (InterruptedException exc) {
+				return;
+			} catch (Exception exc) {
+				exc.printStackTrace();
+			} finally {
+				if (s != null) {
+					try {
+						s.close();
+					} catch (IOException exc) {
+					}
+				}
+			}
+		}
+	}
+}
@@ -151,16 +151,16 @@ public class MainConfigurationPanel extends JPanel implements IPanel {
 
 	private void addTabBarPositionChooser(JPanel p) {
 		Wrapper[] objs = new Wrapper[] {
-				new Wrapper(Messages.getString("MainConfigurationPanel.TOP"), new Integer(JTabbedPane.TOP)), //$NON-NLS-1$
-				new Wrapper(Messages.getString("MainConfigurationPanel.RIGHT"), new Integer(JTabbedPane.RIGHT)), //$NON-NLS-1$
-				new Wrapper(Messages.getString("MainConfigurationPanel.BOTTOM"), new Integer(JTabbedPane.BOTTOM)), //$NON-NLS-1$
-				new Wrapper(Messages.getString("MainConfigurationPanel.LEFT"), new Integer(JTabbedPane.LEFT)), //$NON-NLS-1$
+				new Wrapper(Messages.getString("MainConfigurationPanel.TOP"), Integer.valueOf(JTabbedPane.TOP)), //$NON-NLS-1$
+				new Wrapper(Messages.getString("MainConfigurationPanel.RIGHT"), Integer.valueOf(JTabbedPane.RIGHT)), //$NON-NLS-1$
+				new Wrapper(Messages.getString("MainConfigurationPanel.BOTTOM"), Integer.valueOf(JTabbedPane.BOTTOM)), //$NON-NLS-1$
+				new Wrapper(Messages.getString("MainConfigurationPanel.LEFT"), Integer.valueOf(JTabbedPane.LEFT)), //$NON-NLS-1$
 		};
 		tabBarPosition = new JComboBox(objs);
 		tabBarPosition.setToolTipText(Messages.getString("MainConfigurationPanel.POSITION_OF_TABBAR")); //$NON-NLS-1$
 		try {
 			int current = MainConfiguration.PROPS.getInt("gui.tabs.placement"); //$NON-NLS-1$
-			tabBarPosition.setSelectedIndex(find(new Integer(current), objs));
+			tabBarPosition.setSelectedIndex(find(Integer.valueOf(current), objs));
 		} catch (Exception exc) {
 		}
 		
@@ -370,7 +370,6 @@ public class MainConfigurationPanel extends JPanel implements IPanel {
 		w = (Wrapper)tabBarPosition.getSelectedItem();
 		int tabPos = ((Integer)w.getObject()).intValue();
 		MainConfiguration.PROPS.setInt("gui.tabs.placement", tabPos); //$NON-NLS-1$
-		EVI.getInstance().getMainFrame().getMainTabBar().setTabPlacement(tabPos);
 		
 		w = (Wrapper)lookAndFeels.getSelectedItem();
 		String lookAndFeel = (String)w.getObject();
@@ -8,10 +8,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URL;
 import java.util.Vector;
@@ -37,9 +34,11 @@ import org.schwering.evi.core.IModuleLoaderListener;
 import org.schwering.evi.core.IPanel;
 import org.schwering.evi.core.ModuleContainer;
 import org.schwering.evi.core.ModuleLoader;
+import org.schwering.evi.core.ModuleRepository;
 import org.schwering.evi.core.Requirement;
 import org.schwering.evi.util.ExceptionDialog;
 import org.schwering.evi.util.RightClickMenu;
+import org.schwering.evi.util.TaskScheduler;
 
 /**
  * A GUI to setup the module list.
@@ -252,7 +251,7 @@ implements IPanel {
 			final JButton urlAddButton = new JButton(Messages.getString("ModuleConfigurationPanel.ADD")); //$NON-NLS-1$
 			urlAddButton.addActionListener(new ActionListener() {
 				public void actionPerformed(ActionEvent arg0) {
-					new Thread() {
+					TaskScheduler.submitBlocking(owner, new Runnable() {
 						public void run() {
 							try {
 								URL url = getURLText();
@@ -266,7 +265,7 @@ implements IPanel {
 							urlAddButton.setEnabled(true);
 							disableProgressBar();
 						}
-					}.start();
+					});
 				}
 			});
 			
@@ -329,7 +328,7 @@ implements IPanel {
 			JButton addClassNameButton = new JButton(Messages.getString("ModuleConfigurationPanel.ADD")); //$NON-NLS-1$
 			addClassNameButton.addActionListener(new ActionListener() {
 				public void actionPerformed(ActionEvent arg0) {
-					new Thread() {
+					TaskScheduler.submit(owner, new Runnable() {
 						public void run() {
 							try {
 								String className = classNameTextField.getText();
@@ -339,7 +338,7 @@ implements IPanel {
 										exc);
 							}
 						}
-					}.start();
+					}, TaskScheduler.HIGH);
 				}
 			});
 			
@@ -354,30 +353,27 @@ implements IPanel {
 		}
 		
 		/**
-		 * Obtains a list of module URLs from the internet.
+		 * Obtains a list of module URLs from the internet. The list is 
+		 * cached by the <code>ModuleRepository</code> and only transferred 
+		 * if it has changed.
+		 * @see ModuleRepository#fetchModuleList(URL)
 		 */
 		private void obtainUrlsFromInternet() {
-			new Thread() {
+			TaskScheduler.submitBlocking(owner, new Runnable() {
 				public void run() {
 					try {
 						String strurl = MainConfiguration.PROPS.getString("app.modulelist",  //$NON-NLS-1$
 								MODULE_LIST_URL);
-						URL url = new URL(strurl);
-						InputStream is = url.openStream();
-						InputStreamReader isr = new InputStreamReader(is);
-						BufferedReader br = new BufferedReader(isr);
-						for (String s; (s = br.readLine()) != null; ) {
-							s = s.trim();
-							if (s.length() > 0 && s.charAt(0) != '#') {
-								urlComboBox.addItem(s);
-							}
+						URL[] urls = ModuleRepository.fetchModuleList(
+								new URL(strurl));
+						for (int i = 0; i < urls.length; i++) {
+							urlComboBox.addItem(urls[i].toString());
 						}
-						br.close();
 					} catch (Exception exc) {
 						ExceptionDialog.show(Messages.getString("ModuleConfigurationPanel.OBTAINING_MODULE_FAILED"), exc); //$NON-NLS-1$
 					}
 				}
-			}.start();
+			});
 		}
 		
 		/**
@@ -649,13 +645,13 @@ implements IPanel {
 		public Object getValueAt(int row, int col) {
 			ModuleContainer m = (ModuleContainer)modules.get(row);
 			if (col == 0) {
-				return new Integer(row+1);
+				return Integer.valueOf(row+1);
 			} else if (col == 1) {
 				return m.getSource();
 			} else if (col == 2) {
 				return m.getId();
 			} else if (col == 3) {
-				return new Float(m.getVersion());
+				return Float.valueOf(m.getVersion());
 			} else if (col == 4) {
 				return m.getName();
 			} else {
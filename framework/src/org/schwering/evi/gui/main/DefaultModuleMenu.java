@@ -10,7 +10,6 @@ import javax.swing.JMenuItem;
 
 import org.schwering.evi.core.IPanel;
 import org.schwering.evi.core.ModuleContainer;
-import org.schwering.evi.core.ModuleFactory;
 import org.schwering.evi.util.ExceptionDialog;
 import org.schwering.evi.util.HTMLBrowser;
 
@@ -95,13 +94,8 @@ public class DefaultModuleMenu extends JMenu {
 			i.setMnemonic(title.charAt(0));
 			i.addActionListener(new ActionListener() {
 				public void actionPerformed(ActionEvent arg0) {
-					try {
-						ModuleFactory.newInstance(module);
-					} catch (Exception exc) {
-						ExceptionDialog.show(
-								Messages.getString("DefaultModuleMenu.MODULE_INSTANTIATION_EXCEPTION_NOTICE"),  //$NON-NLS-1$
-								exc);
-					}
+					MainFrame.getInstance().getMainTabBar().newInstance(module, 
+							null, Messages.getString("DefaultModuleMenu.MODULE_INSTANTIATION_EXCEPTION_NOTICE")); //$NON-NLS-1$
 				}
 			});
 			add(i);
@@ -76,8 +76,10 @@ public class MainFrame extends JFrame {
 			public void windowDeactivated(WindowEvent arg0) {
 			}
 			public void windowDeiconified(WindowEvent arg0) {
+				setIconified(false);
 			}
 			public void windowIconified(WindowEvent arg0) {
+				setIconified(true);
 			}
 			public void windowOpened(WindowEvent arg0) {
 			}
@@ -102,6 +104,20 @@ public class MainFrame extends JFrame {
 		loadIcon();
 	}
 	
+	/**
+	 * Suspends or resumes the panels and applets.
+	 * @param b <code>true</code> if the window has been iconified.
+	 * @see org.schwering.evi.core.ISuspendable
+	 */
+	private void setIconified(boolean b) {
+		if (tabBar != null) {
+			tabBar.setIconified(b);
+		}
+		if (toolBar != null) {
+			toolBar.setIconified(b);
+		}
+	}
+	
 	/**
 	 * Sets a new menubar.
 	 * @param menuBar The menubar.
@@ -5,13 +5,15 @@ import java.awt.Event;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.Hashtable;
+import java.util.List;
 
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.KeyStroke;
 
-import org.schwering.evi.core.IModuleLoaderListener;
+import org.schwering.evi.core.EventBus;
+import org.schwering.evi.core.IEventSubscriber;
 import org.schwering.evi.core.IPanel;
 import org.schwering.evi.core.ModuleContainer;
 import org.schwering.evi.core.ModuleLoader;
@@ -23,10 +25,14 @@ import org.schwering.evi.util.Util;
 
 /**
  * The menu bar allows to open configuration dialogs and instantiate modules.
+ * The module menus are updated by {@link EventBus} events, which are 
+ * collected for {@link ToolBar#BATCH_DELAY} milliseconds. Because the 
+ * batches of the two topics are not ordered among each other, a menu is 
+ * only added for a module that is still loaded.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
  * @version $Id$
  */
-public class MenuBar extends JMenuBar implements IModuleLoaderListener {
+public class MenuBar extends JMenuBar {
 	private static final long serialVersionUID = -992480608627651585L;
 	
 	private Hashtable<ModuleContainer, JMenu> table = new Hashtable<ModuleContainer, JMenu>();
@@ -58,32 +64,49 @@ public class MenuBar extends JMenuBar implements IModuleLoaderListener {
 		addEnvironmentMenu(aboutMenu);
 		addLicenseMenu(aboutMenu);
 		addInformationMenu(aboutMenu);
+		addStartupReportMenu(aboutMenu);
 		addHelpMenu(aboutMenu);
 		add(aboutMenu);
 		
 		
+		EventBus.subscribe(EventBus.MODULE_LOADED, 
+				new IEventSubscriber<ModuleContainer>() {
+			public void handle(EventBus.Topic<ModuleContainer> topic, 
+					List<ModuleContainer> modules) {
+				for (int i = 0; i < modules.size(); i++) {
+					ModuleContainer module = modules.get(i);
+					if (ModuleLoader.getLoadedModule(module.getId()) == module) {
+						addModule(module);
+					}
+				}
+				revalidate();
+				repaint();
+			}
+		}, EventBus.EDT, ToolBar.BATCH_DELAY);
+		EventBus.subscribe(EventBus.MODULE_UNLOADED, 
+				new IEventSubscriber<ModuleContainer>() {
+			public void handle(EventBus.Topic<ModuleContainer> topic, 
+					List<ModuleContainer> modules) {
+				for (int i = 0; i < modules.size(); i++) {
+					removeModule(modules.get(i));
+				}
+				revalidate();
+				repaint();
+			}
+		}, EventBus.EDT, ToolBar.BATCH_DELAY);
+		
 		ModuleContainer[] modules = ModuleLoader.getLoadedModules();
 		for (int i = 0; i < modules.length; i++) {
 			addModule(modules[i]);
 		}
-		ModuleLoader.addListener(this);
 	}
 	
-	/* (non-Javadoc)
-	 * @see org.schwering.evi.core.IModuleLoaderListener#loaded(org.schwering.evi.core.ModuleContainer)
-	 */
-	public void loaded(ModuleContainer loadedModule) {
-		addModule(loadedModule);
-	}
-
-	/* (non-Javadoc)
-	 * @see org.schwering.evi.core.IModuleLoaderListener#unloaded(org.schwering.evi.core.ModuleContainer)
+	/**
+	 * Removes the menu of an unloaded module.
+	 * @param module The module whose menu is to be removed.
 	 */
-	public void unloaded(ModuleContainer unloadedModule) {
-		if (!unloadedModule.isPanel()) {
-			return;
-		}
-		Object o = table.remove(unloadedModule);
+	private void removeModule(ModuleContainer module) {
+		Object o = table.remove(module);
 		if (o != null && o instanceof JMenu) {
 			JMenu menu = (JMenu)o;
 			remove(menu);
@@ -95,6 +118,9 @@ public class MenuBar extends JMenuBar implements IModuleLoaderListener {
 	 * @param module The module for which menu entries are to be added.
 	 */
 	private void addModule(ModuleContainer module) {
+		if (table.containsKey(module)) {
+			return;
+		}
 		JMenu menu = null;
 		if (module.isMenuable()) {
 			if (module.isCustomMenuable()) {
@@ -237,6 +263,20 @@ public class MenuBar extends JMenuBar implements IModuleLoaderListener {
 		m.add(i);
 	}
 	
+	private void addStartupReportMenu(JMenu m) {
+		String title = StartupReportPanel.DEFAULT_TITLE;
+		JMenuItem i = new JMenuItem(title);
+		i.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				addTab(new StartupReportPanel());
+			}
+		});
+		if (title != null && title.length() > 0) {
+			i.setMnemonic(title.charAt(0));
+		}
+		m.add(i);
+	}
+	
 	private void addHelpMenu(JMenu m) {
 		String title = HelpPanel.DEFAULT_TITLE;
 		JMenuItem i = new JMenuItem(title);
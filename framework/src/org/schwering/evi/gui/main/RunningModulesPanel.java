@@ -2,46 +2,72 @@
 package org.schwering.evi.gui.main;
 
 import java.awt.BorderLayout;
+import java.awt.Color;
 import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Graphics;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Future;
 
 import javax.swing.Icon;
+import javax.swing.JComponent;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.SwingUtilities;
 import javax.swing.border.TitledBorder;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 import javax.swing.table.AbstractTableModel;
 
+import org.schwering.evi.core.EventBus;
+import org.schwering.evi.core.IEventSubscriber;
 import org.schwering.evi.core.IModule;
-import org.schwering.evi.core.IModuleListener;
-import org.schwering.evi.core.IModuleLoaderListener;
 import org.schwering.evi.core.IPanel;
+import org.schwering.evi.core.ISuspendable;
 import org.schwering.evi.core.ModuleContainer;
 import org.schwering.evi.core.ModuleFactory;
 import org.schwering.evi.core.ModuleLoader;
-import org.schwering.evi.util.ExceptionDialog;
+import org.schwering.evi.core.ResourceMonitor;
+import org.schwering.evi.util.TaskScheduler;
 
 /**
- * Shows all running module instances.
+ * Shows all running module instances and the resources each module uses.
+ * While the panel is visible, the resources are sampled with the
+ * {@link ResourceMonitor} every {@link ResourceMonitor#SAMPLE_INTERVAL}
+ * milliseconds. The table can be sorted by clicking a column header; the
+ * history of the selected module is drawn below the table.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
  * @version $Id$
  */
-public class RunningModulesPanel extends JPanel implements IPanel {
+public class RunningModulesPanel extends JPanel implements IPanel, ISuspendable {
 	private static final long serialVersionUID = 7224934024984148710L;
 	
 	public static final String DEFAULT_TITLE = org.schwering.evi.gui.main.Messages.getString("RunningModulesPanel.DEFAULT_TITLE"); //$NON-NLS-1$
 	
-	private JTable table = new JTable(new TableModel());
+	private TableModel model = new TableModel();
+	private JTable table = new JTable(model);
+	private HistoryGraph graph = new HistoryGraph();
 	private JPopupMenu menu = new JPopupMenu();
 	
+	/**
+	 * The periodic sampling or <code>null</code> while the panel is 
+	 * suspended.
+	 */
+	private Future<?> sampling;
+	
 	/**
 	 * Gives access to the one and only instance of this panel.
 	 * This avoids that the user might create a bunch of panels
@@ -79,8 +105,24 @@ public class RunningModulesPanel extends JPanel implements IPanel {
 		JScrollPane scrollPane = new JScrollPane(table);
 		JPanel panel = new JPanel(new BorderLayout(1, 0));
 		panel.add(scrollPane);
+		panel.add(graph, BorderLayout.SOUTH);
 		add(panel);
 		
+		table.getTableHeader().addMouseListener(new MouseAdapter() {
+			public void mouseClicked(MouseEvent e) {
+				int col = table.getTableHeader().columnAtPoint(e.getPoint());
+				if (col != -1) {
+					model.sortBy(table.convertColumnIndexToModel(col));
+				}
+			}
+		});
+		table.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+			public void valueChanged(ListSelectionEvent e) {
+				int row = table.getSelectedRow();
+				graph.setModule((row != -1) ? (String)table.getValueAt(row, 0) : null);
+			}
+		});
+		
 		final JMenuItem newInstance = new JMenuItem(Messages.getString("RunningModulesPanel.NEW_INSTANCE")); //$NON-NLS-1$
 		newInstance.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
@@ -146,6 +188,55 @@ public class RunningModulesPanel extends JPanel implements IPanel {
 			public void mouseReleased(MouseEvent e) {
 			}
 		} );
+		
+		resume();
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.schwering.evi.core.ISuspendable#suspend()
+	 */
+	public void suspend() {
+		if (sampling != null) {
+			sampling.cancel(false);
+			sampling = null;
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.schwering.evi.core.ISuspendable#resume()
+	 */
+	public void resume() {
+		if (sampling != null) {
+			return;
+		}
+		final Runnable update = new Runnable() {
+			public void run() {
+				model.usagesChanged();
+				graph.repaint();
+			}
+		};
+		sampling = TaskScheduler.scheduleWithFixedDelay(this, new Runnable() {
+			public void run() {
+				ResourceMonitor.sample();
+				SwingUtilities.invokeLater(update);
+			}
+		}, 0, ResourceMonitor.SAMPLE_INTERVAL);
+	}
+	
+	/**
+	 * Formats a number of bytes.
+	 * @param bytes The number of bytes.
+	 * @return The bytes in KB or MB or "-" if <code>bytes</code> is 
+	 * negative.
+	 */
+	private static String formatBytes(long bytes) {
+		if (bytes < 0) {
+			return "-"; //$NON-NLS-1$
+		} else if (bytes < 10 * 1024 * 1024) {
+			return (bytes / 1024) +" KB"; //$NON-NLS-1$
+		} else {
+			return (Math.round(bytes / (1024.0 * 1024.0) * 10.0) / 10.0) +" MB"; //$NON-NLS-1$
+		}
 	}
 	
 	/**
@@ -235,13 +326,11 @@ public class RunningModulesPanel extends JPanel implements IPanel {
 	 */
 	private void instantiate(int[] rows) {
 		for (int i = 0; i < rows.length; i++) {
-			try {
-				String id = (String)table.getValueAt(rows[i], 0);
-				ModuleContainer container = ModuleLoader.getLoadedModule(id);
-				ModuleFactory.newInstance(container);
-			} catch (Exception exc) {
-				ExceptionDialog.show(Messages.getString("RunningModulesPanel.NEW_INSTANCE_FAILED"), //$NON-NLS-1$
-						exc);
+			String id = (String)table.getValueAt(rows[i], 0);
+			ModuleContainer container = ModuleLoader.getLoadedModule(id);
+			if (container != null) {
+				MainFrame.getInstance().getMainTabBar().newInstance(container, 
+						null, Messages.getString("RunningModulesPanel.NEW_INSTANCE_FAILED")); //$NON-NLS-1$
 			}
 		}
 	}
@@ -267,12 +356,8 @@ public class RunningModulesPanel extends JPanel implements IPanel {
 		instanceCount--;
 		if (instanceCount == 0) {
 			instance = null;
-			TableModel model = (TableModel)table.getModel();
-			ModuleContainer[] containers = ModuleLoader.getLoadedModules();
-			for (int i = 0; i < containers.length; i++) {
-				containers[i].removeListener((IModuleListener)model);
-			}
-			ModuleLoader.removeListener((IModuleLoaderListener)model);
+			suspend();
+			model.dispose();
 		}
 	}
 
@@ -284,13 +369,19 @@ public class RunningModulesPanel extends JPanel implements IPanel {
 	}
 	
 	/**
-	 * A table model that updates the table using listeners.
+	 * A table model that updates the table using <code>EventBus</code> 
+	 * events.
 	 * @author Christoph Schwering (schwering@gmail.com)
 	 */
-	class TableModel extends AbstractTableModel 
-	implements IModuleListener, IModuleLoaderListener {
+	class TableModel extends AbstractTableModel {
 		private static final long serialVersionUID = 2712132043640778311L;
 		
+		/**
+		 * The subscriptions to the module events.
+		 */
+		private Vector<EventBus.Subscription<?>> subscriptions = 
+			new Vector<EventBus.Subscription<?>>();
+		
 		/**
 		 * Stores all currently loaded modules as 
 		 * <code>ModuleContainer</code>s.
@@ -303,8 +394,26 @@ public class RunningModulesPanel extends JPanel implements IPanel {
 		private String[] colNames = new String[] {
 				Messages.getString("RunningModulesPanel.MODULE_ID"),  //$NON-NLS-1$
 				Messages.getString("RunningModulesPanel.INSTANCE_COUNT"),  //$NON-NLS-1$
+				Messages.getString("RunningModulesPanel.THREADS"),  //$NON-NLS-1$
+				Messages.getString("RunningModulesPanel.CPU_LOAD"),  //$NON-NLS-1$
+				Messages.getString("RunningModulesPanel.CPU_TIME"),  //$NON-NLS-1$
+				Messages.getString("RunningModulesPanel.ALLOCATED"),  //$NON-NLS-1$
+				Messages.getString("RunningModulesPanel.ALLOCATION_RATE"),  //$NON-NLS-1$
+				Messages.getString("RunningModulesPanel.LISTENERS"),  //$NON-NLS-1$
+				Messages.getString("RunningModulesPanel.HANDLES"),  //$NON-NLS-1$
 		};
 		
+		/**
+		 * The column the rows are sorted by or -1.
+		 */
+		private int sortColumn = -1;
+		
+		/**
+		 * The sort order; numbers are sorted descending by default, so 
+		 * that the most expensive module is on top.
+		 */
+		private boolean ascending = false;
+		
 		/**
 		 * Creates a new object. The constructor simply fills the vector 
 		 * with the currently loaded modules.
@@ -314,54 +423,90 @@ public class RunningModulesPanel extends JPanel implements IPanel {
 			modules = new Vector<ModuleContainer>(containers.length);
 			for (int i = 0; i < containers.length; i++) {
 				modules.add(containers[i]);
-				containers[i].addListener(this);
 			}
-			ModuleLoader.addListener(this);
+			
+			IEventSubscriber<ModuleContainer> moduleSubscriber = 
+				new IEventSubscriber<ModuleContainer>() {
+				public void handle(EventBus.Topic<ModuleContainer> topic, 
+						List<ModuleContainer> events) {
+					for (int i = 0; i < events.size(); i++) {
+						if (topic == EventBus.MODULE_LOADED) {
+							loaded(events.get(i));
+						} else {
+							unloaded(events.get(i));
+						}
+					}
+				}
+			};
+			IEventSubscriber<IModule> instanceSubscriber = 
+				new IEventSubscriber<IModule>() {
+				public void handle(EventBus.Topic<IModule> topic, 
+						List<IModule> events) {
+					instancesChanged();
+				}
+			};
+			subscriptions.add(EventBus.subscribe(EventBus.MODULE_LOADED, 
+					moduleSubscriber, EventBus.EDT, ToolBar.BATCH_DELAY));
+			subscriptions.add(EventBus.subscribe(EventBus.MODULE_UNLOADED, 
+					moduleSubscriber, EventBus.EDT, ToolBar.BATCH_DELAY));
+			subscriptions.add(EventBus.subscribe(EventBus.INSTANTIATED, 
+					instanceSubscriber, EventBus.EDT, ToolBar.BATCH_DELAY));
+			subscriptions.add(EventBus.subscribe(EventBus.DISPOSED, 
+					instanceSubscriber, EventBus.EDT, ToolBar.BATCH_DELAY));
+		}
+		
+		/**
+		 * Cancels the subscriptions to the <code>EventBus</code>.
+		 */
+		public void dispose() {
+			for (int i = 0; i < subscriptions.size(); i++) {
+				EventBus.unsubscribe(subscriptions.get(i));
+			}
+			subscriptions.clear();
 		}
 
-		/* (non-Javadoc)
-		 * @see org.schwering.evi.core.IModuleLoaderListener#loaded(org.schwering.evi.core.ModuleContainer)
+		/**
+		 * Adds a row for a loaded module.
+		 * @param loadedModule The module.
 		 */
-		public void loaded(ModuleContainer loadedModule) {
+		private void loaded(ModuleContainer loadedModule) {
+			if (modules.contains(loadedModule)) {
+				return;
+			}
 			modules.add(loadedModule);
 			int i = modules.indexOf(loadedModule);
 			fireTableRowsInserted(i, i);
 		}
 
-		/* (non-Javadoc)
-		 * @see org.schwering.evi.core.IModuleLoaderListener#unloaded(org.schwering.evi.core.ModuleContainer)
+		/**
+		 * Removes the row of an unloaded module.
+		 * @param unloadedModule The module.
 		 */
-		public void unloaded(ModuleContainer unloadedModule) {
+		private void unloaded(ModuleContainer unloadedModule) {
 			int i = modules.indexOf(unloadedModule);
-			modules.remove(unloadedModule);
-			fireTableRowsDeleted(i, i);
-		}
-
-		/* (non-Javadoc)
-		 * @see org.schwering.evi.core.IModuleListener#disposed(org.schwering.evi.core.IModule)
-		 */
-		public void disposed(IModule disposedInstance) {
-			String id = ModuleContainer.getIdByClass(disposedInstance.getClass());
-			ModuleContainer m = ModuleLoader.getLoadedModule(id);
-			int i = modules.indexOf(m);
-			fireTableCellUpdated(i, 1);
+			if (i != -1) {
+				modules.remove(i);
+				fireTableRowsDeleted(i, i);
+			}
 		}
 
-		/* (non-Javadoc)
-		 * @see org.schwering.evi.core.IModuleListener#instantiated(org.schwering.evi.core.IModule)
+		/**
+		 * Updates the instance counts after modules have been instantiated 
+		 * or disposed.
 		 */
-		public void instantiated(IModule newInstance) {
-			String id = ModuleContainer.getIdByClass(newInstance.getClass());
-			ModuleContainer m = ModuleLoader.getLoadedModule(id);
-			int i = modules.indexOf(m);
-			fireTableCellUpdated(i, 1);
+		private void instancesChanged() {
+			if (sortColumn == 1) {
+				sort();
+			} else if (modules.size() > 0) {
+				fireTableRowsUpdated(0, modules.size() - 1);
+			}
 		}
-
+		
 		/* (non-Javadoc)
 		 * @see javax.swing.table.TableModel#getColumnCount()
 		 */
 		public int getColumnCount() {
-			return 2;
+			return colNames.length;
 		}
 
 		/* (non-Javadoc)
@@ -385,16 +530,205 @@ public class RunningModulesPanel extends JPanel implements IPanel {
 			ModuleContainer m = (ModuleContainer)modules.get(row);
 			if (col == 0) {
 				return m.getId();
-			} else {
+			} else if (col == 1) {
 				return String.valueOf(m.getInstances().length);
 			}
+			ResourceMonitor.Usage u = ResourceMonitor.getUsage(m.getId());
+			if (u == null) {
+				return "-"; //$NON-NLS-1$
+			}
+			switch (col) {
+			case 2:
+				return String.valueOf(u.getThreadCount());
+			case 3:
+				return (u.getCpuLoad() < 0) ? "-" //$NON-NLS-1$
+						: (Math.round(u.getCpuLoad() * 10.0) / 10.0) +" %"; //$NON-NLS-1$
+			case 4:
+				return (u.getCpuTime() < 0) ? "-" //$NON-NLS-1$
+						: (Math.round(u.getCpuTime() / 10000000.0) / 100.0) +" s"; //$NON-NLS-1$
+			case 5:
+				return formatBytes(u.getAllocatedBytes());
+			case 6:
+				return (u.getAllocationRate() < 0) ? "-" //$NON-NLS-1$
+						: formatBytes(u.getAllocationRate()) +"/s"; //$NON-NLS-1$
+			case 7:
+				return String.valueOf(u.getListenerCount());
+			default:
+				return String.valueOf(u.getHandleCount());
+			}
+		}
+		
+		/**
+		 * Returns the value of a module that the rows are sorted by.
+		 * @param m The module.
+		 * @param col The column.
+		 * @return The numeric value; -1 if it is unknown.
+		 */
+		private double getSortValue(ModuleContainer m, int col) {
+			if (col == 1) {
+				return m.getInstances().length;
+			}
+			ResourceMonitor.Usage u = ResourceMonitor.getUsage(m.getId());
+			if (u == null) {
+				return -1;
+			}
+			switch (col) {
+			case 2: return u.getThreadCount();
+			case 3: return u.getCpuLoad();
+			case 4: return u.getCpuTime();
+			case 5: return u.getAllocatedBytes();
+			case 6: return u.getAllocationRate();
+			case 7: return u.getListenerCount();
+			default: return u.getHandleCount();
+			}
+		}
+		
+		/**
+		 * Sorts the rows by a column. If they are already sorted by this 
+		 * column, the order is reversed.
+		 * @param col The column.
+		 */
+		public void sortBy(int col) {
+			if (col == sortColumn) {
+				ascending = !ascending;
+			} else {
+				sortColumn = col;
+				ascending = (col == 0);
+			}
+			sort();
+		}
+		
+		/**
+		 * Sorts the rows again, e.g. after new values have been sampled. 
+		 * The selection is kept.
+		 */
+		private void sort() {
+			if (sortColumn == -1) {
+				return;
+			}
+			Vector<ModuleContainer> selected = new Vector<ModuleContainer>();
+			int[] rows = table.getSelectedRows();
+			for (int i = 0; i < rows.length; i++) {
+				selected.add(modules.get(rows[i]));
+			}
+			
+			final int col = sortColumn;
+			Collections.sort(modules, new Comparator<ModuleContainer>() {
+				public int compare(ModuleContainer m1, ModuleContainer m2) {
+					int c;
+					if (col == 0) {
+						c = m1.getId().compareTo(m2.getId());
+					} else {
+						c = Double.compare(getSortValue(m1, col), 
+								getSortValue(m2, col));
+					}
+					return ascending ? c : -c;
+				}
+			});
+			fireTableDataChanged();
+			
+			for (int i = 0; i < selected.size(); i++) {
+				int row = modules.indexOf(selected.get(i));
+				if (row != -1) {
+					table.addRowSelectionInterval(row, row);
+				}
+			}
+		}
+		
+		/**
+		 * Shows the values of a new sample. Must be invoked in the event 
+		 * dispatching thread.
+		 */
+		public void usagesChanged() {
+			if (sortColumn > 0) {
+				sort();
+			} else if (modules.size() > 0) {
+				fireTableRowsUpdated(0, modules.size() - 1);
+			}
 		}
 		
 		/* (non-Javadoc)
 		 * @see javax.swing.table.TableModel#getColumnClass(int)
 		 */
 		public Class<?> getColumnClass(int col) {
-			return getValueAt(0, col).getClass();
+			return String.class;
+		}
+	}
+	
+	/**
+	 * Draws the CPU load (red) and the allocation rate (blue) of one 
+	 * module during the last {@link ResourceMonitor#HISTORY_SIZE} samples.
+	 * The CPU load is drawn relative to 100%, the allocation rate relative 
+	 * to its maximum.
+	 */
+	class HistoryGraph extends JComponent {
+		private static final long serialVersionUID = -3056417244939532846L;
+		
+		private String id;
+		
+		public HistoryGraph() {
+			setPreferredSize(new Dimension(100, 80));
+			setBorder(new TitledBorder(Messages.getString("RunningModulesPanel.HISTORY"))); //$NON-NLS-1$
+		}
+		
+		/**
+		 * Sets the module whose history is drawn.
+		 * @param id The module's id or <code>null</code>.
+		 */
+		public void setModule(String id) {
+			this.id = id;
+			String title = Messages.getString("RunningModulesPanel.HISTORY"); //$NON-NLS-1$
+			setBorder(new TitledBorder((id != null) ? title +": "+ id : title)); //$NON-NLS-1$
+			repaint();
+		}
+		
+		/* (non-Javadoc)
+		 * @see javax.swing.JComponent#paintComponent(java.awt.Graphics)
+		 */
+		protected void paintComponent(Graphics g) {
+			super.paintComponent(g);
+			if (id == null) {
+				return;
+			}
+			ResourceMonitor.Usage[] history = ResourceMonitor.getHistory(id);
+			java.awt.Insets in = getInsets();
+			int w = getWidth() - in.left - in.right;
+			int h = getHeight() - in.top - in.bottom;
+			if (history.length < 2 || w <= 0 || h <= 0) {
+				return;
+			}
+			
+			double maxRate = 1.0;
+			for (int i = 0; i < history.length; i++) {
+				maxRate = Math.max(maxRate, history[i].getAllocationRate());
+			}
+			double dx = (double)w / (ResourceMonitor.HISTORY_SIZE - 1);
+			int x0 = in.left + w - (int)Math.round(dx * (history.length - 1));
+			for (int i = 1; i < history.length; i++) {
+				int xa = x0 + (int)Math.round(dx * (i - 1));
+				int xb = x0 + (int)Math.round(dx * i);
+				g.setColor(Color.BLUE);
+				drawLine(g, xa, xb, in.top, h, 
+						history[i-1].getAllocationRate() / maxRate, 
+						history[i].getAllocationRate() / maxRate);
+				g.setColor(Color.RED);
+				drawLine(g, xa, xb, in.top, h, 
+						history[i-1].getCpuLoad() / 100.0, 
+						history[i].getCpuLoad() / 100.0);
+			}
+		}
+		
+		/**
+		 * Draws a line between two relative values unless one of them is 
+		 * unknown.
+		 */
+		private void drawLine(Graphics g, int xa, int xb, int top, int h, 
+				double ya, double yb) {
+			if (ya < 0 || yb < 0) {
+				return;
+			}
+			g.drawLine(xa, top + h - (int)Math.round(Math.min(ya, 1.0) * h), 
+					xb, top + h - (int)Math.round(Math.min(yb, 1.0) * h));
 		}
 	}
 }
\ No newline at end of file
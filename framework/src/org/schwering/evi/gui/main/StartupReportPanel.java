@@ -0,0 +1,153 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.gui.main;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.GridLayout;
+
+import javax.swing.Icon;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.border.TitledBorder;
+import javax.swing.table.AbstractTableModel;
+
+import org.schwering.evi.core.IPanel;
+import org.schwering.evi.util.Profiler;
+
+/**
+ * Shows the startup report, i.e. the time and memory each startup phase
+ * and each loaded or auto-started module took.
+ * @see Profiler
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public class StartupReportPanel extends JPanel implements IPanel {
+	private static final long serialVersionUID = -1486102655227309176L;
+
+	public static final String DEFAULT_TITLE = Messages.getString("StartupReportPanel.DEFAULT_TITLE"); //$NON-NLS-1$
+
+	/**
+	 * Creates a new panel with a table that lists all samples recorded
+	 * by the <code>Profiler</code>.
+	 */
+	public StartupReportPanel() {
+		super(new GridLayout(1, 1));
+		setBorder(new TitledBorder(DEFAULT_TITLE));
+
+		JTable table = new JTable(new TableModel(Profiler.getSamples()));
+		JScrollPane scrollPane = new JScrollPane(table);
+		JPanel panel = new JPanel(new BorderLayout(1, 0));
+		panel.add(scrollPane);
+		add(panel);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.schwering.evi.core.IPanel#getIcon()
+	 */
+	public Icon getIcon() {
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.schwering.evi.core.IPanel#getPanelInstance()
+	 */
+	public Component getPanelInstance() {
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.schwering.evi.core.IPanel#dispose()
+	 */
+	public void dispose() {
+	}
+
+	/* (non-Javadoc)
+	 * @see org.schwering.evi.core.IPanel#getTitle()
+	 */
+	public String getTitle() {
+		return DEFAULT_TITLE;
+	}
+
+	/**
+	 * A read-only table model for the samples.
+	 */
+	class TableModel extends AbstractTableModel {
+		private static final long serialVersionUID = 4650271329718204331L;
+
+		private Profiler.Sample[] samples;
+
+		private String[] colNames = new String[] {
+				Messages.getString("StartupReportPanel.CATEGORY"),  //$NON-NLS-1$
+				Messages.getString("StartupReportPanel.NAME"),  //$NON-NLS-1$
+				Messages.getString("StartupReportPanel.WALL_TIME"),  //$NON-NLS-1$
+				Messages.getString("StartupReportPanel.CPU_TIME"),  //$NON-NLS-1$
+				Messages.getString("StartupReportPanel.ALLOCATED"),  //$NON-NLS-1$
+		};
+
+		public TableModel(Profiler.Sample[] samples) {
+			this.samples = samples;
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.swing.table.TableModel#getColumnCount()
+		 */
+		public int getColumnCount() {
+			return colNames.length;
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.swing.table.TableModel#getRowCount()
+		 */
+		public int getRowCount() {
+			return samples.length;
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.swing.table.TableModel#getColumnName(int)
+		 */
+		public String getColumnName(int col) {
+			return colNames[col];
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.swing.table.TableModel#getValueAt(int, int)
+		 */
+		public Object getValueAt(int row, int col) {
+			Profiler.Sample s = samples[row];
+			switch (col) {
+			case 0:
+				return s.getCategory();
+			case 1:
+				return s.getName();
+			case 2:
+				return toMillis(s.getWallTime());
+			case 3:
+				return toMillis(s.getCpuTime());
+			default:
+				return (s.getAllocatedBytes() >= 0)
+						? String.valueOf(s.getAllocatedBytes() / 1024)
+						: "?"; //$NON-NLS-1$
+			}
+		}
+
+		/**
+		 * Formats nanoseconds as milliseconds with one decimal place.
+		 * @param nanos The nanoseconds or -1.
+		 * @return The milliseconds or "?".
+		 */
+		private String toMillis(long nanos) {
+			if (nanos < 0) {
+				return "?"; //$NON-NLS-1$
+			}
+			return String.valueOf(Math.round(nanos / 100000.0) / 10.0);
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.swing.table.TableModel#getColumnClass(int)
+		 */
+		public Class<?> getColumnClass(int col) {
+			return String.class;
+		}
+	}
+}
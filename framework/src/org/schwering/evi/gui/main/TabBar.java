@@ -1,30 +1,48 @@
 /* Copyright (C) 2006 Christoph Schwering */
 package org.schwering.evi.gui.main;
 
+import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseEvent;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.swing.Icon;
+import javax.swing.JLabel;
 import javax.swing.JMenuItem;
+import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.JTabbedPane;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
+import org.schwering.evi.conf.IPropertiesListener;
 import org.schwering.evi.conf.MainConfiguration;
+import org.schwering.evi.conf.Properties;
+import org.schwering.evi.conf.SessionConfiguration;
 import org.schwering.evi.core.IModule;
 import org.schwering.evi.core.IModuleListener;
 import org.schwering.evi.core.IModuleLoaderListener;
 import org.schwering.evi.core.IPanel;
+import org.schwering.evi.core.ISuspendable;
 import org.schwering.evi.core.ModuleContainer;
 import org.schwering.evi.core.ModuleFactory;
 import org.schwering.evi.core.ModuleLoader;
 import org.schwering.evi.util.ExceptionDialog;
+import org.schwering.evi.util.TaskScheduler;
 
 /**
  * The main tabbar of the application.<br>
@@ -35,7 +53,16 @@ import org.schwering.evi.util.ExceptionDialog;
  * <code>IModule</code>s and those that are not. <b>Module instances are added 
  * and removed automaticall</b> by a <code>IModuleListener</code>. All other 
  * kind <code>IPanel</code>s should be added and removed via the methods 
- * {@link #addTab(IPanel)} and {@link #remove(IPanel)}.
+ * {@link #addTab(IPanel)} and {@link #remove(IPanel)}.<br>
+ * <br>
+ * The module instances in the tabbar can be stored as session with 
+ * {@link #storeSession()} and restored with {@link #restoreSession()}. 
+ * Restored tabs are cheap placeholders at first; a module instance is 
+ * only created when its tab is selected or when 
+ * {@link #preloadSession()} gets to it.<br>
+ * <br>
+ * Panels that implement {@link ISuspendable} are suspended while their 
+ * tabs are not selected and while the main window is iconified.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
  * @version $Id$
  */
@@ -52,12 +79,71 @@ implements IModuleListener, IModuleLoaderListener {
 	 */
 	private Hashtable<Component, IPanel> table = new Hashtable<Component, IPanel>();
 	
+	/**
+	 * The asynchronous instantiations with placeholder tabs that have not 
+	 * finished yet. Only accessed in the event dispatching thread.
+	 */
+	private Hashtable<ModuleContainer, List<PendingInstance>> pendingInstances = 
+		new Hashtable<ModuleContainer, List<PendingInstance>>();
+	
+	/**
+	 * The new instances of modules with pending instantiations. Each is 
+	 * put into the placeholder of the instantiation that created it or, 
+	 * if it was created otherwise, added when the module has no pending 
+	 * instantiations anymore.
+	 */
+	private List<IModule> deferred = new Vector<IModule>();
+	
+	/**
+	 * The placeholder tabs of the restored session whose module instances 
+	 * have not been created yet. Only accessed in the event dispatching 
+	 * thread.
+	 */
+	private Hashtable<Component, SessionTab> restored = 
+		new Hashtable<Component, SessionTab>();
+	
+	/**
+	 * The panels that are currently suspended. Only accessed in the event 
+	 * dispatching thread.
+	 */
+	private Set<ISuspendable> suspended = new HashSet<ISuspendable>();
+	
+	/**
+	 * Indicates whether the main window is iconified.
+	 */
+	private boolean iconified = false;
+	
+	/**
+	 * The foreground of highlighted tabs, kept up to date with 
+	 * color.primary.
+	 */
+	private Color highlightColor;
+	
+	/**
+	 * The number of milliseconds {@link #preloadSession()} waits before 
+	 * it creates the first instance and between two instances.
+	 */
+	public static final long PRELOAD_DELAY = 3000;
+	
 	/**
 	 * Creates a new tabbar.
 	 */
 	public TabBar() {
 		setModel(new TabBarSingleSelectionModel());
 		setTabPlacement(MainConfiguration.PROPS.getInt("gui.tabs.placement", TOP)); //$NON-NLS-1$
+		highlightColor = MainConfiguration.PROPS.getColor("color.primary"); //$NON-NLS-1$
+		IPropertiesListener propsListener = new IPropertiesListener() {
+			public void propertiesChanged(Properties props, Set<String> keys) {
+				if (keys.contains("gui.tabs.placement")) { //$NON-NLS-1$
+					setTabPlacement(props.getInt("gui.tabs.placement", TOP)); //$NON-NLS-1$
+				}
+				if (keys.contains("color.primary")) { //$NON-NLS-1$
+					highlightColor = props.getColor("color.primary"); //$NON-NLS-1$
+				}
+			}
+		};
+		MainConfiguration.PROPS.addListener("gui.tabs.placement", propsListener); //$NON-NLS-1$
+		MainConfiguration.PROPS.addListener("color.primary", propsListener); //$NON-NLS-1$
 		addMouseListener(new MouseListener() {
 			public void mouseClicked(MouseEvent e) {
 			}
@@ -83,6 +169,18 @@ implements IModuleListener, IModuleLoaderListener {
 					setForegroundAt(index, null);
 					setBackgroundAt(index, null);
 				}
+				updateSuspension();
+				final Component selected = getSelectedComponent();
+				if (selected != null && restored.containsKey(selected)) {
+					// don't modify the tabs while the selection changes
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							if (getSelectedComponent() == selected) {
+								materialize(selected, TaskScheduler.HIGH, null);
+							}
+						}
+					});
+				}
 			}
 		});
 		
@@ -114,16 +212,400 @@ implements IModuleListener, IModuleLoaderListener {
 	 * The event method fired when a module is instantiated. 
 	 * If the module which is instantiated is an an instance of 
 	 * <code>IPanel</code>, a respective tab is added.
+	 * If invoked outside the event dispatching thread, the component is 
+	 * added later in the event dispatching thread.
 	 * @param newInstance The newly created instance object.
 	 */
-	public void instantiated(IModule newInstance) {
+	public void instantiated(final IModule newInstance) {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			// modules may be started concurrently, e.g. by the autostart
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					instantiated(newInstance);
+				}
+			});
+			return;
+		}
 		try {
-			addTab((IPanel)newInstance);
+			IPanel panel = (IPanel)newInstance;
+			ModuleContainer module = getModule(newInstance);
+			if (module != null && pendingInstances.containsKey(module)) {
+				// the instantiation that created it is not known yet
+				deferred.add(newInstance);
+			} else {
+				addTab(panel);
+			}
 		} catch (Exception exc) {
 			ExceptionDialog.show(Messages.getString("TabBar.UNEXPECTED_ERROR"), exc); //$NON-NLS-1$
 		}
 	}
 	
+	/**
+	 * Creates a new instance of a module with 
+	 * {@link ModuleFactory#newInstanceAsync(ModuleContainer, Object[], Runnable)}.
+	 * If the module is an asynchronous panel module, a placeholder tab is 
+	 * shown until the instance has been created; the instance's panel 
+	 * then takes the position of the placeholder of this invocation. If 
+	 * creating the instance fails, an <code>ExceptionDialog</code> is 
+	 * shown.<br>
+	 * This method must be invoked in the event dispatching thread.
+	 * @param module The module.
+	 * @param args The constructors arguments or <code>null</code>.
+	 * @param errorMsg The message shown if creating the instance fails.
+	 * @return The pending instance.
+	 */
+	public Future<IModule> newInstance(ModuleContainer module, Object[] args, 
+			String errorMsg) {
+		Component placeholder = null;
+		if (module.isPanel() && module.isAsynchronous()) {
+			placeholder = addPlaceholder(module);
+		}
+		PendingInstance pending = new PendingInstance(module, placeholder, 
+				errorMsg);
+		if (placeholder != null) {
+			registerPending(pending);
+		}
+		pending.future = ModuleFactory.newInstanceAsync(module, args, 
+				pending);
+		return pending.future;
+	}
+	
+	/**
+	 * Adds a placeholder tab for a module that is being instantiated.
+	 * @param module The module.
+	 * @return The placeholder component.
+	 */
+	private Component addPlaceholder(ModuleContainer module) {
+		Component placeholder = createPlaceholder(module);
+		int index = getTabCount();
+		super.insertTab(module.getName(), null, placeholder, 
+				module.getName(), index);
+		setSelectedComponent(placeholder);
+		return placeholder;
+	}
+	
+	/**
+	 * Creates the component of a placeholder tab.
+	 * @param module The module whose instance is represented.
+	 * @return A panel that says that the module is loading.
+	 */
+	private Component createPlaceholder(ModuleContainer module) {
+		JPanel placeholder = new JPanel(new BorderLayout());
+		JLabel label = new JLabel(Messages.getString("TabBar.LOADING") //$NON-NLS-1$
+				+ module.getName(), SwingConstants.CENTER);
+		placeholder.add(label, BorderLayout.CENTER);
+		return placeholder;
+	}
+	
+	/**
+	 * Registers an instantiation whose placeholder tab is replaced by the 
+	 * instance it creates.
+	 * @param pending The instantiation.
+	 */
+	private void registerPending(PendingInstance pending) {
+		List<PendingInstance> list = pendingInstances.get(pending.module);
+		if (list == null) {
+			list = new Vector<PendingInstance>(1);
+			pendingInstances.put(pending.module, list);
+		}
+		list.add(pending);
+	}
+	
+	/**
+	 * Unregisters a finished instantiation.
+	 * @param pending The instantiation.
+	 * @return <code>true</code> if the module has no other pending 
+	 * instantiations.
+	 */
+	private boolean unregisterPending(PendingInstance pending) {
+		List<PendingInstance> list = pendingInstances.get(pending.module);
+		if (list != null) {
+			list.remove(pending);
+			if (list.isEmpty()) {
+				pendingInstances.remove(pending.module);
+			}
+		}
+		return !pendingInstances.containsKey(pending.module);
+	}
+	
+	/**
+	 * Adds a placeholder tab for each tab of the session loaded by 
+	 * {@link SessionConfiguration#load()} and selects the tab that was 
+	 * selected when the session was stored. Only the module instance of 
+	 * the selected tab is created immediately; the others are created 
+	 * when their tabs are selected or by {@link #preloadSession()}.<br>
+	 * Tabs of modules that are not loaded are skipped.
+	 */
+	public void restoreSession() {
+		Component selected = null;
+		int count = SessionConfiguration.size();
+		for (int i = 0; i < count; i++) {
+			String id = SessionConfiguration.getId(i);
+			ModuleContainer module = ModuleLoader.getLoadedModule(id);
+			if (module == null || !module.isPanel()) {
+				continue;
+			}
+			String title = SessionConfiguration.getTitle(i);
+			if (title == null || title.length() == 0) {
+				title = module.getName();
+			}
+			Component placeholder = createPlaceholder(module);
+			restored.put(placeholder, new SessionTab(module, title, 
+					SessionConfiguration.getArgs(i)));
+			super.insertTab(title, null, placeholder, title, getTabCount());
+			if (i == SessionConfiguration.getSelectedIndex()) {
+				selected = placeholder;
+			}
+		}
+		if (selected != null) {
+			setSelectedComponent(selected);
+		}
+		if (getSelectedComponent() != null) {
+			materialize(getSelectedComponent(), TaskScheduler.HIGH, null);
+		}
+	}
+	
+	/**
+	 * Creates the module instance of a restored placeholder tab. The 
+	 * instance's panel takes the placeholder's position.
+	 * @param placeholder The placeholder component.
+	 * @param priority The priority with which the instance is created.
+	 * @param then Invoked in the event dispatching thread after the 
+	 * instance has been placed or creating it failed. May be 
+	 * <code>null</code>.
+	 * @return The pending instance or <code>null</code> if 
+	 * <code>placeholder</code> is no restored placeholder (anymore) or if 
+	 * its module has been unloaded meanwhile.
+	 */
+	private Future<IModule> materialize(Component placeholder, int priority, 
+			Runnable then) {
+		SessionTab tab = restored.remove(placeholder);
+		if (tab == null) {
+			return null;
+		}
+		if (!ModuleLoader.isLoaded(tab.module)) {
+			int index = indexOfComponent(placeholder);
+			if (index != -1) {
+				super.removeTabAt(index);
+			}
+			return null;
+		}
+		PendingInstance pending = new PendingInstance(tab.module, placeholder, 
+				Messages.getString("TabBar.RESTORE_FAILED") //$NON-NLS-1$
+				+ tab.module.getId());
+		pending.then = then;
+		registerPending(pending);
+		pending.future = ModuleFactory.newInstanceAsync(tab.module, tab.args, 
+				pending, priority);
+		return pending.future;
+	}
+	
+	/**
+	 * Creates the module instances of the remaining restored placeholder 
+	 * tabs one after another, starting {@link #PRELOAD_DELAY} milliseconds 
+	 * after the invocation. Asynchronous modules are constructed with 
+	 * <code>TaskScheduler.LOW</code> priority in the background; no thread 
+	 * waits for them, the next instance is scheduled when the previous 
+	 * one has been placed.
+	 */
+	public void preloadSession() {
+		TaskScheduler.schedule(this, new Runnable() {
+			public void run() {
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						preloadNextTab();
+					}
+				});
+			}
+		}, PRELOAD_DELAY);
+	}
+	
+	/**
+	 * Creates the module instance of the leftmost restored placeholder 
+	 * tab with low priority and invokes {@link #preloadSession()} when it 
+	 * has been placed. Must be invoked in the event dispatching thread.
+	 */
+	private void preloadNextTab() {
+		Runnable next = new Runnable() {
+			public void run() {
+				preloadSession();
+			}
+		};
+		while (!restored.isEmpty()) {
+			Component c = nextRestoredTab();
+			if (c == null || materialize(c, TaskScheduler.LOW, next) != null) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the leftmost restored placeholder tab.
+	 * @return The placeholder component or <code>null</code>.
+	 */
+	private Component nextRestoredTab() {
+		for (int i = 0; i < getTabCount(); i++) {
+			Component c = getComponentAt(i);
+			if (restored.containsKey(c)) {
+				return c;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Stores the module instances in the tabbar as session with 
+	 * {@link SessionConfiguration}. The session file is not written; 
+	 * use {@link SessionConfiguration#store()} afterwards.<br>
+	 * Instances that were created with other arguments than 
+	 * <code>String</code>s and <code>URI</code>s are skipped. Restored 
+	 * tabs whose instances have not been created yet are stored again.
+	 */
+	public void storeSession() {
+		SessionConfiguration.clear();
+		Component selected = getSelectedComponent();
+		for (int i = 0; i < getTabCount(); i++) {
+			Component c = getComponentAt(i);
+			Object owner = table.get(c);
+			SessionTab tab;
+			if (owner instanceof IModule) {
+				IModule instance = (IModule)owner;
+				String id = ModuleContainer.getIdByClass(instance.getClass());
+				ModuleContainer module = ModuleLoader.getLoadedModule(id);
+				if (module == null) {
+					continue;
+				}
+				Object[] args = module.getArguments(instance);
+				if (!isStorable(args)) {
+					continue;
+				}
+				tab = new SessionTab(module, getTitleAt(i), args);
+			} else {
+				tab = restored.get(c);
+				if (tab == null) {
+					continue;
+				}
+			}
+			if (c == selected) {
+				SessionConfiguration.setSelectedIndex(
+						SessionConfiguration.size());
+			}
+			SessionConfiguration.add(tab.module.getId(), tab.title, tab.args);
+		}
+	}
+	
+	/**
+	 * Indicates whether arguments can be stored in the session.
+	 * @param args The arguments or <code>null</code>.
+	 * @return <code>true</code> if all arguments are storable.
+	 * @see SessionConfiguration#isStorable(Object)
+	 */
+	private static boolean isStorable(Object[] args) {
+		for (int i = 0; args != null && i < args.length; i++) {
+			if (!SessionConfiguration.isStorable(args[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * A tab of the restored session whose module instance has not been 
+	 * created yet.
+	 */
+	private static class SessionTab {
+		private ModuleContainer module;
+		private String title;
+		private Object[] args;
+		
+		public SessionTab(ModuleContainer module, String title, Object[] args) {
+			this.module = module;
+			this.title = title;
+			this.args = args;
+		}
+	}
+	
+	/**
+	 * Returns the module of an instance.
+	 * @param instance The instance.
+	 * @return The module's container or <code>null</code> if the module 
+	 * has been unloaded.
+	 */
+	private static ModuleContainer getModule(IModule instance) {
+		String id = ModuleContainer.getIdByClass(instance.getClass());
+		return ModuleLoader.getLoadedModule(id);
+	}
+	
+	/**
+	 * Finishes an asynchronous instantiation: puts the new instance into 
+	 * its placeholder or removes the placeholder and reports the failure. 
+	 * If the module has no other pending instantiations, the instances 
+	 * that were created otherwise meanwhile are added.
+	 */
+	private class PendingInstance implements Runnable {
+		private ModuleContainer module;
+		private Component placeholder;
+		private String errorMsg;
+		private Future<IModule> future;
+		private Runnable then;
+		
+		public PendingInstance(ModuleContainer module, Component placeholder, 
+				String errorMsg) {
+			this.module = module;
+			this.placeholder = placeholder;
+			this.errorMsg = errorMsg;
+		}
+		
+		public void run() {
+			if (!SwingUtilities.isEventDispatchThread()) {
+				SwingUtilities.invokeLater(this);
+				return;
+			}
+			boolean last = unregisterPending(this);
+			IModule instance = null;
+			Throwable failure = null;
+			try {
+				instance = future.get();
+			} catch (ExecutionException exc) {
+				failure = exc.getCause();
+			} catch (Exception exc) {
+				failure = exc;
+			}
+			int index = (placeholder != null) 
+					? indexOfComponent(placeholder) : -1;
+			try {
+				if (instance != null && deferred.remove(instance)) {
+					if (index != -1) {
+						boolean selected = getSelectedComponent() == placeholder;
+						TabBar.super.removeTabAt(index);
+						addTab((IPanel)instance, index, selected);
+					} else {
+						addTab((IPanel)instance);
+					}
+				} else if (index != -1) {
+					TabBar.super.removeTabAt(index);
+				}
+				if (last) {
+					IModule[] others = deferred.toArray(new IModule[0]);
+					for (int i = 0; i < others.length; i++) {
+						if (getModule(others[i]) == module 
+								&& deferred.remove(others[i])) {
+							addTab((IPanel)others[i]);
+						}
+					}
+				}
+			} catch (Exception exc) {
+				ExceptionDialog.show(Messages.getString("TabBar.UNEXPECTED_ERROR"), exc); //$NON-NLS-1$
+			}
+			if (failure != null) {
+				ExceptionDialog.show(errorMsg, failure);
+			}
+			if (then != null) {
+				then.run();
+			}
+		}
+	}
+	
 	/**
 	 * The event method fired when a module is disposed.
 	 * If the disposing module is an instance of <code>IPanel</code>, 
@@ -142,7 +624,9 @@ implements IModuleListener, IModuleLoaderListener {
 			 * the disposed() event of all ModuleListeners.
 			 */
 			IPanel panel = (IPanel)disposedInstance;
+			deferred.remove(disposedInstance);
 			table.remove(panel.getPanelInstance());
+			suspended.remove(panel);
 			remove(panel);
 		} catch (Exception exc) {
 			ExceptionDialog.show(Messages.getString("TabBar.UNEXPECTED_ERROR"), exc); //$NON-NLS-1$
@@ -157,10 +641,19 @@ implements IModuleListener, IModuleLoaderListener {
 	 * @param panel The new panel.
 	 */
 	public void addTab(IPanel panel) {
+		addTab(panel, getTabCount(), true);
+	}
+	
+	/**
+	 * Adds a panel at a certain position.
+	 * @param panel The new panel.
+	 * @param index The position of the new tab.
+	 * @param select Whether the new tab should be selected.
+	 */
+	private void addTab(IPanel panel, int index, boolean select) {
 		if (panel == null) {
 			return;
 		}
-		int index = getTabCount();
 		String title = panel.getTitle();
 		Icon icon = panel.getIcon();
 		Component component = panel.getPanelInstance();
@@ -173,9 +666,12 @@ implements IModuleListener, IModuleLoaderListener {
 		// super.insertTab removes the component <-> panel 
 		// pair from the table if it already was contained
 		table.put(component, panel);
-		setSelectedComponent(component);
-		requestFocusInWindow();
-		component.requestFocusInWindow();
+		if (select) {
+			setSelectedComponent(component);
+			requestFocusInWindow();
+			component.requestFocusInWindow();
+		}
+		updateSuspension();
 	}
 	
 	/**
@@ -239,7 +735,9 @@ implements IModuleListener, IModuleLoaderListener {
 		}
 		
 		Component c = getComponentAt(index);
+		restored.remove(c);
 		Object owner = table.remove(c);
+		suspended.remove(owner);
 		if (owner != null && owner instanceof IModule) {
  			ModuleFactory.disposeInstance((IModule)owner);
 			// real removing done by listener (disposed())
@@ -251,6 +749,45 @@ implements IModuleListener, IModuleLoaderListener {
 		}
 	}
 	
+	/**
+	 * Suspends or resumes all panels when the main window is iconified or 
+	 * deiconified.
+	 * @param b <code>true</code> if the main window is iconified.
+	 * @see ISuspendable
+	 */
+	public void setIconified(boolean b) {
+		iconified = b;
+		updateSuspension();
+	}
+	
+	/**
+	 * Suspends the panels that have become invisible and resumes the 
+	 * panel that has become visible.
+	 * @see ISuspendable
+	 */
+	private void updateSuspension() {
+		Component selected = iconified ? null : getSelectedComponent();
+		for (Iterator<Map.Entry<Component, IPanel>> it = 
+			table.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<Component, IPanel> e = it.next();
+			if (!(e.getValue() instanceof ISuspendable)) {
+				continue;
+			}
+			ISuspendable panel = (ISuspendable)e.getValue();
+			try {
+				if (e.getKey() != selected) {
+					if (suspended.add(panel)) {
+						panel.suspend();
+					}
+				} else if (suspended.remove(panel)) {
+					panel.resume();
+				}
+			} catch (Exception exc) {
+				exc.printStackTrace();
+			}
+		}
+	}
+	
 	/**
 	 * Resets a tab with the default color.
 	 * @param tab The panel whose tabs should be changed.
@@ -297,8 +834,7 @@ implements IModuleListener, IModuleLoaderListener {
 	 * @param tab The panel whose tabs should be changed.
 	 */
 	public void setHighlightForeground(IPanel tab) {
-		Color color = MainConfiguration.PROPS.getColor("color.primary"); //$NON-NLS-1$
-		setForeground(tab, color);
+		setForeground(tab, highlightColor);
 	}
 	
 	/**
@@ -9,18 +9,23 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 import javax.swing.JButton;
 import javax.swing.JPanel;
 import javax.swing.JToolBar;
 
+import org.schwering.evi.core.EventBus;
 import org.schwering.evi.core.IApplet;
+import org.schwering.evi.core.IEventSubscriber;
 import org.schwering.evi.core.IModule;
-import org.schwering.evi.core.IModuleListener;
-import org.schwering.evi.core.IModuleLoaderListener;
+import org.schwering.evi.core.ISuspendable;
 import org.schwering.evi.core.ModuleContainer;
-import org.schwering.evi.core.ModuleFactory;
 import org.schwering.evi.core.ModuleLoader;
 import org.schwering.evi.util.ExceptionDialog;
 
@@ -33,14 +38,27 @@ import org.schwering.evi.util.ExceptionDialog;
  * </ul>
  * These elements are added with a <code>BorderLayout</code>.
  * The buttonpanel is at the left (WEST), the pluginpanel at the 
- * middle (CENTER) and the closebutton is at the right (EAST).
+ * middle (CENTER) and the closebutton is at the right (EAST).<br>
+ * <br>
+ * The toolbar receives the module events from the {@link EventBus} in the 
+ * event dispatching thread. Events that occur within 
+ * {@link #BATCH_DELAY} milliseconds are handled at once, so that the 
+ * toolbar is laid out only once when many modules are loaded or started.
+ * The batches of different topics are not ordered among each other, so 
+ * the handlers check the current state: buttons are only added for 
+ * modules that are still loaded, applets only for instances that are 
+ * still registered and have not been disposed.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
  * @version $Id$
  */
-public class ToolBar extends JToolBar 
-implements IModuleListener, IModuleLoaderListener {
+public class ToolBar extends JToolBar {
 	private static final long serialVersionUID = 6169662234007355911L;
 	
+	/**
+	 * The number of milliseconds module events are collected.
+	 */
+	public static final long BATCH_DELAY = 50;
+	
 	/**
 	 * Contains all modules and their respective buttons. Used to remove 
 	 * buttons when a module is unloaded.
@@ -57,6 +75,24 @@ implements IModuleListener, IModuleLoaderListener {
 	 */
 	private JPanel appletPanel = new JPanel();
 	
+	/**
+	 * The applets which are currently suspended because the main window 
+	 * is iconified.
+	 */
+	private Set<ISuspendable> suspended = new HashSet<ISuspendable>();
+	
+	/**
+	 * The applets whose DISPOSED event was handled before their 
+	 * INSTANTIATED event. Only accessed in the event dispatching thread.
+	 */
+	private Map<IApplet, Object> disposedApplets = 
+		new WeakHashMap<IApplet, Object>();
+	
+	/**
+	 * Indicates whether the main window is iconified.
+	 */
+	private boolean iconified = false;
+	
 	/**
 	 * Creates a new ToolBar.
 	 */
@@ -112,101 +148,166 @@ implements IModuleListener, IModuleLoaderListener {
 		add(alignAppletPanel, BorderLayout.CENTER);
 		add(closeButton, BorderLayout.EAST);
 		
-		ModuleLoader.addListener(this);
+		EventBus.subscribe(EventBus.MODULE_LOADED, 
+				new IEventSubscriber<ModuleContainer>() {
+			public void handle(EventBus.Topic<ModuleContainer> topic, 
+					List<ModuleContainer> modules) {
+				for (int i = 0; i < modules.size(); i++) {
+					ModuleContainer module = modules.get(i);
+					if (ModuleLoader.getLoadedModule(module.getId()) == module) {
+						addButton(module);
+					}
+				}
+				buttonPanel.revalidate();
+			}
+		}, EventBus.EDT, BATCH_DELAY);
+		EventBus.subscribe(EventBus.MODULE_UNLOADED, 
+				new IEventSubscriber<ModuleContainer>() {
+			public void handle(EventBus.Topic<ModuleContainer> topic, 
+					List<ModuleContainer> modules) {
+				for (int i = 0; i < modules.size(); i++) {
+					removeButton(modules.get(i));
+				}
+				buttonPanel.revalidate();
+			}
+		}, EventBus.EDT, BATCH_DELAY);
+		EventBus.subscribe(EventBus.INSTANTIATED, 
+				new IEventSubscriber<IModule>() {
+			public void handle(EventBus.Topic<IModule> topic, 
+					List<IModule> instances) {
+				for (int i = 0; i < instances.size(); i++) {
+					if (instances.get(i) instanceof IApplet) {
+						try {
+							addApplet((IApplet)instances.get(i));
+						} catch (Exception exc) {
+							ExceptionDialog.show(Messages.getString("ToolBar.UNEXPECTED_ERROR"), exc); //$NON-NLS-1$
+						}
+					}
+				}
+				appletPanel.revalidate();
+			}
+		}, EventBus.EDT, BATCH_DELAY);
+		EventBus.subscribe(EventBus.DISPOSED, 
+				new IEventSubscriber<IModule>() {
+			public void handle(EventBus.Topic<IModule> topic, 
+					List<IModule> instances) {
+				for (int i = 0; i < instances.size(); i++) {
+					if (instances.get(i) instanceof IApplet) {
+						try {
+							removeApplet((IApplet)instances.get(i));
+						} catch (Exception exc) {
+							ExceptionDialog.show(Messages.getString("ToolBar.UNEXPECTED_ERROR"), exc); //$NON-NLS-1$
+						}
+					}
+				}
+				appletPanel.revalidate();
+			}
+		}, EventBus.EDT, BATCH_DELAY);
+		
 		ModuleContainer[] modules = ModuleLoader.getLoadedModules();
 		for (int i = 0; i < modules.length; i++) {
 			addButton(modules[i]);
-			
-			if (modules[i].isApplet()) {
-				modules[i].addListener(this);
-			}
-		}
-	}
-	
-	/* (non-Javadoc)
-	 * @see org.schwering.evi.core.IModuleLoaderListener#loaded(org.schwering.evi.core.ModuleContainer)
-	 */
-	public void loaded(ModuleContainer loadedModule) {
-		addButton(loadedModule);
-		
-		if (loadedModule.isApplet()) {
-			loadedModule.addListener(this);
 		}
 	}
 
-	/* (non-Javadoc)
-	 * @see org.schwering.evi.core.IModuleLoaderListener#unloaded(org.schwering.evi.core.ModuleContainer)
-	 */
-	public void unloaded(ModuleContainer unloadedModule) {
-		removeButton(unloadedModule);
-	}
-
 	/**
-	 * The event method fired when a module is instantiated. 
-	 * If the module which is instantiated is an an instance of 
-	 * <code>IApplet</code>, the applet-panel is added.
-	 * @param newInstance The newly created instance object.
-	 */
-	public void instantiated(IModule newInstance) {
-		try {
-			addApplet((IApplet)newInstance);
-		} catch (Exception exc) {
-			ExceptionDialog.show(Messages.getString("ToolBar.UNEXPECTED_ERROR"), exc); //$NON-NLS-1$
-		}
-	}
-	
-	/**
-	 * The event method fired when a module is disposed.
-	 * If the disposing module is an instance of <code>IPanel</code>, 
-	 * the respective tab is removed.
-	 * @param disposedInstance The instance object which disposing.
-	 */
-	public void disposed(IModule disposedInstance) {
-		try {
-			IApplet applet = (IApplet)disposedInstance;
-			removeApplet(applet);
-		} catch (Exception exc) {
-			ExceptionDialog.show(Messages.getString("ToolBar.UNEXPECTED_ERROR"), exc); //$NON-NLS-1$
-		}
-	}
-
-	/**
-	 * Adds a new component to the appletpanel.
+	 * Adds a new component to the appletpanel. The panel must be 
+	 * revalidated afterwards.
 	 * @param b The new component.
 	 */
 	private void addApplet(IApplet a) {
-		if (a != null) {
+		if (a != null && disposedApplets.remove(a) == null 
+				&& isRegistered((IModule)a)) {
 			Component c = a.getAppletInstance();
 			if (c != null) {
 				appletPanel.add(c);
-				appletPanel.revalidate();
+			}
+			if (iconified && a instanceof ISuspendable 
+					&& suspended.add((ISuspendable)a)) {
+				((ISuspendable)a).suspend();
 			}
 		}
 	}
 	
 	/**
-	 * Removes a component.
+	 * Removes a component. The panel must be revalidated afterwards.
 	 * @param c The component.
 	 */
 	private void removeApplet(IApplet a) {
 		if (a != null) {
+			suspended.remove(a);
 			Component c = a.getAppletInstance();
-			if (c != null) {
+			if (c != null && c.getParent() == appletPanel) {
 				appletPanel.remove(c);
-				appletPanel.revalidate();
+			} else {
+				// the INSTANTIATED event has not been handled yet
+				disposedApplets.put(a, Boolean.TRUE);
+			}
+		}
+	}
+	
+	/**
+	 * Indicates whether an instance is registered at its module.
+	 * @param instance The instance.
+	 * @return <code>false</code> if the instance has been disposed or 
+	 * its module has been unloaded.
+	 */
+	private static boolean isRegistered(IModule instance) {
+		String id = ModuleContainer.getIdByClass(instance.getClass());
+		ModuleContainer container = ModuleLoader.getLoadedModule(id);
+		if (container == null) {
+			return false;
+		}
+		IModule[] instances = container.getInstances();
+		for (int i = 0; i < instances.length; i++) {
+			if (instances[i] == instance) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Suspends or resumes all applets that implement 
+	 * <code>ISuspendable</code> when the main window is iconified or 
+	 * deiconified.
+	 * @param b <code>true</code> if the main window is iconified.
+	 * @see ISuspendable
+	 */
+	public void setIconified(boolean b) {
+		iconified = b;
+		ModuleContainer[] modules = ModuleLoader.getLoadedModules();
+		for (int i = 0; i < modules.length; i++) {
+			if (!modules[i].isApplet()) {
+				continue;
+			}
+			IModule[] instances = modules[i].getInstances();
+			for (int j = 0; j < instances.length; j++) {
+				if (!(instances[j] instanceof ISuspendable)) {
+					continue;
+				}
+				ISuspendable applet = (ISuspendable)instances[j];
+				try {
+					if (b && suspended.add(applet)) {
+						applet.suspend();
+					} else if (!b && suspended.remove(applet)) {
+						applet.resume();
+					}
+				} catch (Exception exc) {
+					exc.printStackTrace();
+				}
 			}
 		}
 	}
 	
 	private void addButton(ModuleContainer module) {
-		if (!module.isButtonable()) {
+		if (!module.isButtonable() || buttonTable.containsKey(module)) {
 			return;
 		}
 		JButton button = (module.isCustomButtonable()) 
 							? module.getCustomButton()
 							: getDefaultButton(module);
 		buttonPanel.add(button);
-		buttonPanel.revalidate();
 		buttonTable.put(module, button);
 	}
 	
@@ -215,15 +316,10 @@ implements IModuleListener, IModuleLoaderListener {
 		button.setFocusPainted(false);
 		button.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				try {
-					ModuleFactory.newInstance(module);
-				} catch (Exception exc) {
-					ExceptionDialog.show(
-							Messages.getString("ToolBar.MODULE_INSTANTIATION_EXCEPTION_NOTICE") //$NON-NLS-1$ 
-							+":\n"+  //$NON-NLS-1$ 
-							module.getId(),
-							exc);
-				}
+				MainFrame.getInstance().getMainTabBar().newInstance(module, null,
+						Messages.getString("ToolBar.MODULE_INSTANTIATION_EXCEPTION_NOTICE") //$NON-NLS-1$ 
+						+":\n"+  //$NON-NLS-1$ 
+						module.getId());
 			}
 		});
 		return button;
@@ -237,7 +333,6 @@ implements IModuleListener, IModuleLoaderListener {
 		if (o != null && o instanceof JButton) {
 			JButton button = (JButton)o;
 			buttonPanel.remove(button);
-			buttonPanel.revalidate();
 		}
 	}
 }
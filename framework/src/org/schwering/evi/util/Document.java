@@ -300,7 +300,9 @@ public class Document extends DefaultStyledDocument {
 			if (maxSize > 0 && newSize > 0 && maxSize > newSize && getLength() > maxSize) {
 				remove(0, getLength() - newSize);
 			}
-			owner.setCaretPosition(getLength());
+			if (owner.getDocument() == this) {
+				owner.setCaretPosition(getLength());
+			}
 		} catch (Exception exc) {
 			ExceptionDialog.show(exc);
 		}
@@ -409,7 +411,9 @@ public class Document extends DefaultStyledDocument {
 			if (maxSize > 0 && newSize > 0 && maxSize > newSize && getLength() > maxSize) {
 				remove(newSize, getLength() - newSize);
 			}
-			owner.setCaretPosition(0);
+			if (owner.getDocument() == this) {
+				owner.setCaretPosition(0);
+			}
 		} catch (Exception exc) {
 			exc.printStackTrace();
 		}
@@ -14,6 +14,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JTable;
 
 import org.schwering.evi.core.IPanel;
+import org.schwering.evi.core.ISuspendable;
 import org.schwering.evi.gui.EVI;
 
 /**
@@ -21,7 +22,7 @@ import org.schwering.evi.gui.EVI;
  * @author Christoph Schwering (schwering@gmail.com)
  * @version $Id$
  */
-public class EnvironmentPanel extends JPanel implements IPanel {
+public class EnvironmentPanel extends JPanel implements IPanel, ISuspendable {
 	private static final long serialVersionUID = -4204646793461931426L;
 
 	/**
@@ -87,6 +88,20 @@ public class EnvironmentPanel extends JPanel implements IPanel {
 		memoryPanel.stop();
 	}
 	
+	/* (non-Javadoc)
+	 * @see org.schwering.evi.core.ISuspendable#suspend()
+	 */
+	public void suspend() {
+		memoryPanel.suspend();
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.schwering.evi.core.ISuspendable#resume()
+	 */
+	public void resume() {
+		memoryPanel.resume();
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.core.IPanel#getIcon()
 	 */
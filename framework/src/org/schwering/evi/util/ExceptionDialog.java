@@ -3,6 +3,7 @@ package org.schwering.evi.util;
 
 import java.awt.BorderLayout;
 import java.awt.Font;
+import java.awt.GraphicsEnvironment;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -25,7 +26,9 @@ import org.schwering.evi.core.ModuleContainer;
 import org.schwering.evi.core.ModuleLoader;
 
 /**
- * Displays a frame with information about a thrown exception.
+ * Displays a frame with information about a thrown exception.<br>
+ * If no display is available (headless mode), the message and the stack 
+ * trace are only printed to <code>System.err</code>.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
  * @version $Id$
  */
@@ -47,7 +50,7 @@ public class ExceptionDialog extends JFrame {
 	 * @param exc The exception.
 	 */
 	public static void show(Exception exc) {
-		new ExceptionDialog(exc);
+		show(Messages.getString("ExceptionDialog.0"), exc); //$NON-NLS-1$
 	}
 	
 	/**
@@ -56,17 +59,14 @@ public class ExceptionDialog extends JFrame {
 	 * @param exc The exception.
 	 */
 	public static void show(String msg, Throwable exc) {
+		if (GraphicsEnvironment.isHeadless()) {
+			System.err.println(msg);
+			exc.printStackTrace();
+			return;
+		}
 		new ExceptionDialog(msg, exc);
 	}
 	
-	/**
-	 * Creates and displays a new exception dialog.
-	 * @param exc The exception.
-	 */
-	private ExceptionDialog(Throwable exc) {
-		this(Messages.getString("ExceptionDialog.0"), exc); //$NON-NLS-1$
-	}
-	
 	/**
 	 * Creates and displays a new exception dialog.
 	 * @param msg The short description or message.
@@ -231,6 +231,7 @@ implements HyperlinkListener, KeyListener {
 	
 	/**
 	 * Tries to load a page. The old page is NOT added to history in this method.
+	 * The page is loaded by the {@link TaskScheduler}.
 	 * @param url The new page's URL.
 	 * @see #goTo(URL)
 	 */
@@ -238,13 +239,11 @@ implements HyperlinkListener, KeyListener {
 		if (url == null) {
 			return;
 		}
-		Thread t = new Thread() {
+		TaskScheduler.submitBlocking(this, new Runnable() {
 			public void run() {
 				setPageHelperMethod(url);
 			}
-		};
-		t.setDaemon(true);
-		t.start();
+		});
 	}
 	
 	/**
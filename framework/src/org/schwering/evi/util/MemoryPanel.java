@@ -4,18 +4,24 @@ package org.schwering.evi.util;
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.concurrent.Future;
 
 import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+
+import org.schwering.evi.core.ISuspendable;
 
 /**
- * A JPanel that shows frequently updated memory information.
+ * A JPanel that shows frequently updated memory information.<br>
+ * The information is updated by the timer of the {@link TaskScheduler}, 
+ * but not while the panel is suspended.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
  * @version $Id$
  */
-public class MemoryPanel extends JPanel {
+public class MemoryPanel extends JPanel implements ISuspendable {
 	private static final long serialVersionUID = -3385670873454994811L;
 	
 	/**
@@ -36,11 +42,16 @@ public class MemoryPanel extends JPanel {
 	 */
 	public static final int BUTTON = 4; 
 	
+	/**
+	 * The number of milliseconds between two updates.
+	 */
+	public static final long UPDATE_INTERVAL = 4000;
+	
 	private int options;
 	private JLabel memory = new JLabel();
 	private JProgressBar bar = new JProgressBar();
-	private Thread updateThread;
-	private volatile boolean runUpdateThread;
+	private Future<?> updateTask;
+	private boolean stopped = false;
 	
 	/**
 	 * Creates a new JPanel with memory information. The panel has a 
@@ -77,10 +88,7 @@ public class MemoryPanel extends JPanel {
 			add(collect, BorderLayout.WEST);
 		}
 		
-		runUpdateThread = true;
-		updateThread = new MemoryThread();
-		updateThread.setDaemon(true);
-		updateThread.start();
+		schedule();
 	}
 	
 	/**
@@ -112,30 +120,54 @@ public class MemoryPanel extends JPanel {
 	}
 	
 	/**
-	 * Stops the thread.
+	 * Starts the periodic updates unless they are running or the panel 
+	 * has been stopped.
 	 */
-	public void stop() {
-		try {
-			runUpdateThread = false;
-		} catch (Exception exc) {
-			exc.printStackTrace();
+	private synchronized void schedule() {
+		if (updateTask != null || stopped) {
+			return;
 		}
+		final Runnable update = new Runnable() {
+			public void run() {
+				updateLabels();
+			}
+		};
+		updateTask = TaskScheduler.scheduleWithFixedDelay(this, new Runnable() {
+			public void run() {
+				SwingUtilities.invokeLater(update);
+			}
+		}, 0, UPDATE_INTERVAL);
 	}
 	
 	/**
-	 * The thread that updates the memory field.
+	 * Cancels the periodic updates.
 	 */
-	class MemoryThread extends Thread {
-		public void run() {
-			while (runUpdateThread) {
-				updateLabels();
-				try {
-					Thread.sleep(4000);
-				} catch (Exception exc) {
-					runUpdateThread = false;
-					exc.printStackTrace();
-				}
-			}
+	private synchronized void unschedule() {
+		if (updateTask != null) {
+			updateTask.cancel(false);
+			updateTask = null;
 		}
 	}
+	
+	/**
+	 * Stops the updates for good.
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		unschedule();
+	}
+	
+	/**
+	 * Pauses the updates until {@link #resume()} is invoked.
+	 */
+	public void suspend() {
+		unschedule();
+	}
+	
+	/**
+	 * Updates the labels and continues the updates.
+	 */
+	public void resume() {
+		schedule();
+	}
 }
@@ -0,0 +1,288 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Records the wall-clock time, the CPU time and the allocated bytes of
+ * named sections of code. It is used to profile the startup of EVI: each
+ * startup phase and each module that is loaded or started automatically
+ * is recorded as one {@link Sample}.<br>
+ * <br>
+ * A section is measured in the thread that executes it:
+ * <pre>
+ * Profiler.Sample s = Profiler.start(Profiler.PHASE, "config");
+ * ...
+ * s.stop();
+ * </pre>
+ * The CPU time and the allocated bytes are only available if the JVM
+ * supports them; otherwise they are -1.<br>
+ * After {@link #finish()} has been invoked, no further samples are recorded.
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public final class Profiler {
+	/**
+	 * Category of the startup phases.
+	 */
+	public static final String PHASE = "phase";
+
+	/**
+	 * Category of loading a module.
+	 */
+	public static final String LOAD = "load";
+
+	/**
+	 * Category of starting a module automatically.
+	 */
+	public static final String AUTOSTART = "autostart";
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * <code>com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long)
+	 * </code> if available.
+	 */
+	private static final Method ALLOCATED_BYTES;
+
+	static {
+		Method m = null;
+		try {
+			if (THREADS.isCurrentThreadCpuTimeSupported()
+					&& !THREADS.isThreadCpuTimeEnabled()) {
+				THREADS.setThreadCpuTimeEnabled(true);
+			}
+		} catch (Exception exc) {
+		}
+		try {
+			Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+			if (c.isInstance(THREADS)) {
+				m = c.getMethod("getThreadAllocatedBytes",
+						new Class<?>[] { long.class });
+			}
+		} catch (Throwable exc) {
+			m = null;
+		}
+		ALLOCATED_BYTES = m;
+	}
+
+	private static List<Sample> samples = new Vector<Sample>();
+	private static volatile boolean finished = false;
+
+	/**
+	 * No instances allowed/useful.
+	 */
+	private Profiler() {
+	}
+
+	/**
+	 * Starts measuring a section of code in the current thread.
+	 * @param category The category, e.g. {@link #PHASE}.
+	 * @param name The name of the section.
+	 * @return The running sample. Invoke {@link Sample#stop()} in the same
+	 * thread when the section is finished.
+	 */
+	public static Sample start(String category, String name) {
+		return new Sample(category, name);
+	}
+
+	/**
+	 * Stops recording. Samples that are stopped later are ignored.
+	 */
+	public static void finish() {
+		finished = true;
+	}
+
+	/**
+	 * Indicates whether {@link #finish()} has been invoked.
+	 * @return <code>true</code> if no more samples are recorded.
+	 */
+	public static boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Returns all recorded samples in the order they were stopped.
+	 * @return The recorded samples.
+	 */
+	public static Sample[] getSamples() {
+		Sample[] arr = new Sample[samples.size()];
+		return samples.toArray(arr);
+	}
+
+	/**
+	 * Writes the recorded samples to a file. Each line contains the
+	 * tab-separated fields category, name, wall-clock time in microseconds,
+	 * CPU time in microseconds and allocated bytes. Lines starting with
+	 * <code>#</code> are comments.
+	 * @param file The destination.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public static void store(File file) throws IOException {
+		PrintWriter pw = null;
+		try {
+			pw = new PrintWriter(new FileWriter(file));
+			pw.println("# EVI startup report, "+ new Date());
+			pw.println("# category\tname\twall_us\tcpu_us\tallocated_bytes");
+			Sample[] arr = getSamples();
+			for (int i = 0; i < arr.length; i++) {
+				pw.println(arr[i].getCategory() +"\t"+ arr[i].getName()
+						+"\t"+ arr[i].getWallTime() / 1000
+						+"\t"+ ((arr[i].getCpuTime() >= 0)
+								? arr[i].getCpuTime() / 1000 : -1)
+						+"\t"+ arr[i].getAllocatedBytes());
+			}
+		} finally {
+			if (pw != null) {
+				pw.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns the CPU time of the current thread.
+	 * @return The CPU time in nanoseconds or -1.
+	 */
+	private static long currentCpuTime() {
+		try {
+			return THREADS.getCurrentThreadCpuTime();
+		} catch (Exception exc) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the current thread.
+	 * @return The allocated bytes or -1.
+	 */
+	private static long currentAllocatedBytes() {
+		return getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Indicates whether the JVM measures the bytes allocated by threads.
+	 * @return <code>true</code> if the allocated bytes are available.
+	 */
+	public static boolean isAllocatedBytesSupported() {
+		return ALLOCATED_BYTES != null;
+	}
+
+	/**
+	 * Returns the number of bytes allocated by a thread. This is also used
+	 * by the <code>ResourceMonitor</code>, so the JVM-specific method is
+	 * looked up only here.
+	 * @param threadId The thread's ID.
+	 * @return The allocated bytes or -1 if the JVM does not measure them
+	 * or the thread is not alive.
+	 */
+	public static long getThreadAllocatedBytes(long threadId) {
+		if (ALLOCATED_BYTES == null) {
+			return -1;
+		}
+		try {
+			Object o = ALLOCATED_BYTES.invoke(THREADS, new Object[] {
+					Long.valueOf(threadId) });
+			return ((Number)o).longValue();
+		} catch (Exception exc) {
+			return -1;
+		}
+	}
+
+	/**
+	 * One measured section of code.
+	 */
+	public static final class Sample {
+		private String category;
+		private String name;
+		private long wallStart;
+		private long cpuStart;
+		private long allocStart;
+		private long wallTime = -1;
+		private long cpuTime = -1;
+		private long allocatedBytes = -1;
+
+		private Sample(String category, String name) {
+			this.category = category;
+			this.name = name;
+			this.allocStart = currentAllocatedBytes();
+			this.cpuStart = currentCpuTime();
+			this.wallStart = System.nanoTime();
+		}
+
+		/**
+		 * Stops the measurement and records the sample. Must be invoked in
+		 * the thread that started the sample.
+		 */
+		public void stop() {
+			if (wallTime != -1) {
+				return;
+			}
+			wallTime = System.nanoTime() - wallStart;
+			long cpu = currentCpuTime();
+			cpuTime = (cpu >= 0 && cpuStart >= 0) ? cpu - cpuStart : -1;
+			long alloc = currentAllocatedBytes();
+			allocatedBytes = (alloc >= 0 && allocStart >= 0)
+					? alloc - allocStart : -1;
+			if (!finished) {
+				samples.add(this);
+			}
+		}
+
+		/**
+		 * Returns the category, e.g. {@link Profiler#PHASE}.
+		 * @return The category.
+		 */
+		public String getCategory() {
+			return category;
+		}
+
+		/**
+		 * Returns the name of the section.
+		 * @return The name.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the wall-clock time.
+		 * @return The time in nanoseconds or -1 if still running.
+		 */
+		public long getWallTime() {
+			return wallTime;
+		}
+
+		/**
+		 * Returns the CPU time of the measuring thread.
+		 * @return The time in nanoseconds or -1 if not available.
+		 */
+		public long getCpuTime() {
+			return cpuTime;
+		}
+
+		/**
+		 * Returns the number of bytes allocated by the measuring thread.
+		 * @return The allocated bytes or -1 if not available.
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		/**
+		 * Returns <code>category: name</code>.
+		 * @return A string representation.
+		 */
+		public String toString() {
+			return category +": "+ name;
+		}
+	}
+}
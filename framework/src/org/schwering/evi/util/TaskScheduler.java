@@ -0,0 +1,692 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.util;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.schwering.evi.core.IModule;
+import org.schwering.evi.core.ModuleContainer;
+import org.schwering.evi.core.ModuleLoader;
+
+/**
+ * Runs background tasks of the framework and of the modules.<br>
+ * <br>
+ * Instead of starting a new thread for each task, modules should submit
+ * their tasks to the scheduler. Each module has its own pool of at most
+ * {@link #MAX_POOL_THREADS} threads which are named after the module's id;
+ * the framework uses the pool {@link #FRAMEWORK_POOL}. The pool of a task
+ * is determined by its <i>owner</i>: module instances and objects whose
+ * classes were loaded by a module's class loader belong to the module's
+ * pool, all other objects to the framework's pool. Idle threads
+ * terminate after {@link #KEEP_ALIVE} milliseconds (Java 6 and later).<br>
+ * <br>
+ * Waiting tasks with a higher priority are started first; the thread runs
+ * with the task's priority. Short periodic tasks (e.g. updates of a
+ * label) are run by a single timer thread and must not block.<br>
+ * <br>
+ * The tasks of an owner can be cancelled with {@link #cancel(Object)}.
+ * When a module instance is disposed, the tasks it owns are cancelled;
+ * when the last instance of a module is disposed, all tasks of the
+ * module's pool are cancelled; when the module is unloaded, its pool is
+ * shut down.<br>
+ * <br>
+ * Tasks that mainly wait for I/O or run for a long time (e.g. downloads,
+ * file transfers and audio playback) should be submitted with
+ * {@link #submitBlocking(Object, Runnable)}, so that they do not occupy
+ * the threads of the owner's pool. If virtual threads are enabled and
+ * supported by the JRE (Java 21 and later), each such task runs in its
+ * own virtual thread; otherwise the pool starts a new thread for it
+ * unless an idle one is left from an earlier blocking task.<br>
+ * <br>
+ * The threads of each pool belong to a thread group named after the pool
+ * (see {@link #getThreadGroup(String)}), and so do the threads they
+ * create. This allows to account the resources of a module.
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public final class TaskScheduler {
+	/**
+	 * The priority of tasks that may wait.
+	 */
+	public static final int LOW = Thread.MIN_PRIORITY;
+
+	/**
+	 * The default priority.
+	 */
+	public static final int NORMAL = Thread.NORM_PRIORITY;
+
+	/**
+	 * The priority of tasks the user waits for.
+	 */
+	public static final int HIGH = Thread.NORM_PRIORITY + 2;
+
+	/**
+	 * The name of the framework's pool.
+	 */
+	public static final String FRAMEWORK_POOL = "evi"; //$NON-NLS-1$
+
+	/**
+	 * The maximum number of threads of one pool.
+	 */
+	public static final int MAX_POOL_THREADS = 4;
+
+	/**
+	 * The number of milliseconds after which an idle thread terminates.
+	 */
+	public static final long KEEP_ALIVE = 30000;
+
+	private static Map<String, ThreadPoolExecutor> pools =
+		new HashMap<String, ThreadPoolExecutor>();
+
+	private static Map<String, ExecutorService> virtualPools =
+		new HashMap<String, ExecutorService>();
+
+	/**
+	 * The unbounded executors of the blocking tasks of each pool, used if
+	 * virtual threads are not available.
+	 */
+	private static Map<String, ThreadPoolExecutor> blockingPools =
+		new HashMap<String, ThreadPoolExecutor>();
+
+	/**
+	 * The number of running tasks of each pool.
+	 */
+	private static Map<String, int[]> running = new HashMap<String, int[]>();
+
+	/**
+	 * The unfinished tasks of each owner.
+	 */
+	private static Map<Object, List<Entry>> owned =
+		new IdentityHashMap<Object, List<Entry>>();
+
+	/**
+	 * The thread group of each pool.
+	 */
+	private static Map<String, ThreadGroup> groups =
+		new HashMap<String, ThreadGroup>();
+
+	/**
+	 * The parent of the pools' thread groups.
+	 */
+	private static final ThreadGroup PARENT_GROUP =
+		Thread.currentThread().getThreadGroup();
+
+	private static ScheduledExecutorService timer;
+
+	private static boolean virtualThreads = false;
+
+	/**
+	 * Used to keep the order of tasks with equal priorities.
+	 */
+	private static long sequence = 0;
+
+	/**
+	 * No instances allowed/useful.
+	 */
+	private TaskScheduler() {
+	}
+
+	/**
+	 * Enables or disables virtual threads for blocking tasks. They are only
+	 * used if the JRE supports them.
+	 * @param b <code>true</code> enables virtual threads.
+	 * @see #isVirtualThreadsSupported()
+	 */
+	public static synchronized void setVirtualThreadsEnabled(boolean b) {
+		virtualThreads = b;
+	}
+
+	/**
+	 * Indicates whether the JRE supports virtual threads.
+	 * @return <code>true</code> if <code>Thread.ofVirtual()</code> exists.
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		try {
+			Thread.class.getMethod("ofVirtual", new Class<?>[0]); //$NON-NLS-1$
+			return true;
+		} catch (Exception exc) {
+			return false;
+		}
+	}
+
+	/**
+	 * Runs a task with normal priority in the owner's pool.
+	 * @param owner The object on whose behalf the task runs, usually a
+	 * module instance or <code>this</code>.
+	 * @param task The task.
+	 * @return The pending task; it can be cancelled with
+	 * <code>cancel(true)</code>.
+	 */
+	public static Future<?> submit(Object owner, Runnable task) {
+		return submit(owner, task, NORMAL);
+	}
+
+	/**
+	 * Runs a task in the owner's pool.
+	 * @param owner The object on whose behalf the task runs, usually a
+	 * module instance or <code>this</code>.
+	 * @param task The task.
+	 * @param priority The task's priority, e.g. {@link #LOW},
+	 * {@link #NORMAL} or {@link #HIGH}.
+	 * @return The pending task; it can be cancelled with
+	 * <code>cancel(true)</code>.
+	 */
+	public static Future<?> submit(Object owner, Runnable task, int priority) {
+		String pool = getPoolName(owner);
+		Task t;
+		synchronized (TaskScheduler.class) {
+			t = new Task(owner, pool, task, priority, sequence++);
+			register(owner, new Entry(t, pool));
+		}
+		getPool(pool).execute(t);
+		return t;
+	}
+
+	/**
+	 * Runs a task with normal priority that mainly waits for I/O or runs
+	 * for a long time.
+	 * @param owner The object on whose behalf the task runs.
+	 * @param task The task.
+	 * @return The pending task; it can be cancelled with
+	 * <code>cancel(true)</code>.
+	 * @see #submitBlocking(Object, Runnable, int)
+	 */
+	public static Future<?> submitBlocking(Object owner, Runnable task) {
+		return submitBlocking(owner, task, NORMAL);
+	}
+
+	/**
+	 * Runs a task that mainly waits for I/O or runs for a long time. The
+	 * task is started immediately and is not counted against the
+	 * {@link #MAX_POOL_THREADS} threads of the owner's pool: if virtual
+	 * threads are enabled and supported, the task gets its own virtual
+	 * thread; otherwise it is run by a platform thread of the pool's
+	 * thread group that is created if no idle one is left.
+	 * @param owner The object on whose behalf the task runs.
+	 * @param task The task.
+	 * @param priority The task's priority, e.g. {@link #LOW},
+	 * {@link #NORMAL} or {@link #HIGH}.
+	 * @return The pending task; it can be cancelled with
+	 * <code>cancel(true)</code>.
+	 * @see #setVirtualThreadsEnabled(boolean)
+	 */
+	public static Future<?> submitBlocking(Object owner, Runnable task,
+			int priority) {
+		String pool = getPoolName(owner);
+		ExecutorService executor = getVirtualPool(pool);
+		if (executor == null) {
+			executor = getBlockingPool(pool);
+		}
+		Task t;
+		synchronized (TaskScheduler.class) {
+			t = new Task(owner, pool, task, priority, sequence++);
+			register(owner, new Entry(t, pool));
+		}
+		executor.execute(t);
+		return t;
+	}
+
+	/**
+	 * Runs a short task once in the timer thread after a delay. The task
+	 * must not block.
+	 * @param owner The object on whose behalf the task runs.
+	 * @param task The task.
+	 * @param delay The number of milliseconds before the run.
+	 * @return The scheduled task; it can be cancelled with
+	 * <code>cancel(false)</code>.
+	 */
+	public static Future<?> schedule(Object owner, Runnable task, long delay) {
+		String pool = getPoolName(owner);
+		synchronized (TaskScheduler.class) {
+			Future<?> f = getTimer().schedule(task, delay,
+					TimeUnit.MILLISECONDS);
+			register(owner, new Entry(f, pool));
+			return f;
+		}
+	}
+
+	/**
+	 * Runs a short task periodically in the timer thread until it is
+	 * cancelled. The task must not block.
+	 * @param owner The object on whose behalf the task runs.
+	 * @param task The task.
+	 * @param initialDelay The number of milliseconds before the first run.
+	 * @param delay The number of milliseconds between the end of one run
+	 * and the start of the next one.
+	 * @return The scheduled task; it can be cancelled with
+	 * <code>cancel(false)</code>.
+	 */
+	public static Future<?> scheduleWithFixedDelay(Object owner, Runnable task,
+			long initialDelay, long delay) {
+		String pool = getPoolName(owner);
+		synchronized (TaskScheduler.class) {
+			Future<?> f = getTimer().scheduleWithFixedDelay(task, initialDelay,
+					delay, TimeUnit.MILLISECONDS);
+			register(owner, new Entry(f, pool));
+			return f;
+		}
+	}
+
+	/**
+	 * Cancels all unfinished tasks of an owner. Running tasks are
+	 * interrupted.
+	 * @param owner The owner.
+	 */
+	public static void cancel(Object owner) {
+		List<Entry> list;
+		synchronized (TaskScheduler.class) {
+			list = owned.remove(owner);
+		}
+		if (list != null) {
+			for (int i = 0; i < list.size(); i++) {
+				list.get(i).future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Cancels all unfinished tasks of a pool. Running tasks are
+	 * interrupted.
+	 * @param pool The pool's name, e.g. a module id.
+	 */
+	public static void cancelPool(String pool) {
+		List<Future<?>> futures = new Vector<Future<?>>();
+		synchronized (TaskScheduler.class) {
+			for (Iterator<List<Entry>> it = owned.values().iterator();
+			it.hasNext(); ) {
+				List<Entry> list = it.next();
+				for (Iterator<Entry> it2 = list.iterator(); it2.hasNext(); ) {
+					Entry e = it2.next();
+					if (e.pool.equals(pool)) {
+						futures.add(e.future);
+						it2.remove();
+					}
+				}
+				if (list.isEmpty()) {
+					it.remove();
+				}
+			}
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			futures.get(i).cancel(true);
+		}
+	}
+
+	/**
+	 * Cancels all tasks of a pool and terminates its threads. The pool is
+	 * created again when a new task is submitted.
+	 * @param pool The pool's name, e.g. a module id.
+	 */
+	public static void shutdownPool(String pool) {
+		cancelPool(pool);
+		ThreadPoolExecutor executor;
+		ThreadPoolExecutor blockingExecutor;
+		ExecutorService virtualExecutor;
+		synchronized (TaskScheduler.class) {
+			executor = pools.remove(pool);
+			blockingExecutor = blockingPools.remove(pool);
+			virtualExecutor = virtualPools.remove(pool);
+			running.remove(pool);
+			groups.remove(pool);
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		if (blockingExecutor != null) {
+			blockingExecutor.shutdownNow();
+		}
+		if (virtualExecutor != null) {
+			virtualExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the names of the pools that have been used.
+	 * @return The pool names, i.e. {@link #FRAMEWORK_POOL} and module ids.
+	 */
+	public static synchronized String[] getPoolNames() {
+		String[] arr = new String[running.size()];
+		return running.keySet().toArray(arr);
+	}
+
+	/**
+	 * Returns the number of tasks of a pool that are running at the moment.
+	 * @param pool The pool's name, e.g. a module id.
+	 * @return The number of running tasks, including the tasks that run in
+	 * virtual threads.
+	 */
+	public static synchronized int getRunningCount(String pool) {
+		int[] count = running.get(pool);
+		return (count != null) ? count[0] : 0;
+	}
+
+	/**
+	 * Returns the number of threads of a pool.
+	 * @param pool The pool's name, e.g. a module id.
+	 * @return The number of (platform) threads of the pool, including the
+	 * threads of blocking tasks.
+	 */
+	public static synchronized int getThreadCount(String pool) {
+		ThreadPoolExecutor executor = pools.get(pool);
+		ThreadPoolExecutor blockingExecutor = blockingPools.get(pool);
+		return ((executor != null) ? executor.getPoolSize() : 0)
+			+ ((blockingExecutor != null) ? blockingExecutor.getPoolSize() : 0);
+	}
+
+	/**
+	 * Returns the number of tasks of a pool that wait for a thread.
+	 * @param pool The pool's name, e.g. a module id.
+	 * @return The number of queued tasks.
+	 */
+	public static synchronized int getQueuedCount(String pool) {
+		ThreadPoolExecutor executor = pools.get(pool);
+		return (executor != null) ? executor.getQueue().size() : 0;
+	}
+
+	/**
+	 * Returns the thread group of a pool. Threads that are created by the
+	 * pool's threads belong to this group, too, unless they are created
+	 * with another group.
+	 * @param pool The pool's name, e.g. a module id.
+	 * @return The thread group or <code>null</code> if the pool does not
+	 * exist.
+	 */
+	public static synchronized ThreadGroup getThreadGroup(String pool) {
+		return groups.get(pool);
+	}
+
+	/**
+	 * Returns the name of the pool the tasks of an owner are run in.
+	 * @param owner The owner.
+	 * @return The id of the owner's module or {@link #FRAMEWORK_POOL}.
+	 */
+	public static String getPoolName(Object owner) {
+		if (owner instanceof IModule) {
+			return ModuleContainer.getIdByClass(((IModule)owner).getClass());
+		} else if (owner != null) {
+			ModuleContainer module = ModuleLoader.getDefiningModule(
+					owner.getClass());
+			if (module != null) {
+				return module.getId();
+			}
+		}
+		return FRAMEWORK_POOL;
+	}
+
+	/**
+	 * Returns the timer and creates it if necessary.
+	 * @return The executor of the timer thread.
+	 */
+	private static synchronized ScheduledExecutorService getTimer() {
+		if (timer == null) {
+			timer = new ScheduledThreadPoolExecutor(1,
+					new SchedulerThreadFactory(FRAMEWORK_POOL +"-timer", //$NON-NLS-1$
+							new ThreadGroup(PARENT_GROUP, FRAMEWORK_POOL +"-timer"), //$NON-NLS-1$
+							Thread.NORM_PRIORITY));
+		}
+		return timer;
+	}
+
+	/**
+	 * Returns a pool and creates it if necessary.
+	 * @param pool The pool's name.
+	 * @return The pool.
+	 */
+	private static synchronized ThreadPoolExecutor getPool(String pool) {
+		ThreadPoolExecutor executor = pools.get(pool);
+		if (executor == null) {
+			SchedulerThreadFactory factory = new SchedulerThreadFactory(pool,
+					getGroup(pool), Thread.NORM_PRIORITY);
+			executor = new ThreadPoolExecutor(MAX_POOL_THREADS,
+					MAX_POOL_THREADS, KEEP_ALIVE, TimeUnit.MILLISECONDS,
+					new PriorityBlockingQueue<Runnable>(), factory);
+			try {
+				// ThreadPoolExecutor.allowCoreThreadTimeOut(boolean) is
+				// available since 1.6
+				Method m = ThreadPoolExecutor.class.getMethod(
+						"allowCoreThreadTimeOut", //$NON-NLS-1$
+						new Class<?>[] { boolean.class });
+				m.invoke(executor, new Object[] { Boolean.TRUE });
+			} catch (Exception exc) {
+			}
+			pools.put(pool, executor);
+		}
+		if (!running.containsKey(pool)) {
+			running.put(pool, new int[1]);
+		}
+		return executor;
+	}
+
+	/**
+	 * Returns the executor of the blocking tasks of a pool and creates it
+	 * if necessary. It starts a new thread for each task unless an idle
+	 * thread is left; idle threads terminate after {@link #KEEP_ALIVE}
+	 * milliseconds.
+	 * @param pool The pool's name.
+	 * @return The executor.
+	 */
+	private static synchronized ThreadPoolExecutor getBlockingPool(
+			String pool) {
+		ThreadPoolExecutor executor = blockingPools.get(pool);
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+					KEEP_ALIVE, TimeUnit.MILLISECONDS,
+					new SynchronousQueue<Runnable>(),
+					new SchedulerThreadFactory(pool +"-io", //$NON-NLS-1$
+							getGroup(pool), Thread.NORM_PRIORITY));
+			blockingPools.put(pool, executor);
+		}
+		if (!running.containsKey(pool)) {
+			running.put(pool, new int[1]);
+		}
+		return executor;
+	}
+
+	/**
+	 * Returns the thread group of a pool and creates it if necessary.
+	 * @param pool The pool's name.
+	 * @return The thread group.
+	 */
+	private static synchronized ThreadGroup getGroup(String pool) {
+		ThreadGroup group = groups.get(pool);
+		if (group == null) {
+			group = new ThreadGroup(PARENT_GROUP, pool);
+			groups.put(pool, group);
+		}
+		return group;
+	}
+
+	/**
+	 * Returns the executor that creates a virtual thread per task.
+	 * @param pool The pool's name.
+	 * @return The executor or <code>null</code> if virtual threads are
+	 * disabled or not supported.
+	 */
+	private static synchronized ExecutorService getVirtualPool(String pool) {
+		if (!virtualThreads) {
+			return null;
+		}
+		ExecutorService executor = virtualPools.get(pool);
+		if (executor == null) {
+			try {
+				// Thread.ofVirtual().name(pool +"-v-", 1).factory() and
+				// Executors.newThreadPerTaskExecutor(factory) are available
+				// since 21
+				Object builder = Thread.class.getMethod("ofVirtual", //$NON-NLS-1$
+						new Class<?>[0]).invoke(null, new Object[0]);
+				builder = Class.forName("java.lang.Thread$Builder") //$NON-NLS-1$
+					.getMethod("name", new Class<?>[] { String.class, long.class }) //$NON-NLS-1$
+					.invoke(builder, new Object[] { pool +"-v-", Long.valueOf(1) }); //$NON-NLS-1$
+				ThreadFactory tf = (ThreadFactory)Class.forName(
+						"java.lang.Thread$Builder") //$NON-NLS-1$
+					.getMethod("factory", new Class<?>[0]) //$NON-NLS-1$
+					.invoke(builder, new Object[0]);
+				executor = (ExecutorService)java.util.concurrent.Executors.class
+					.getMethod("newThreadPerTaskExecutor", //$NON-NLS-1$
+							new Class<?>[] { ThreadFactory.class })
+					.invoke(null, new Object[] { tf });
+			} catch (Exception exc) {
+				virtualThreads = false;
+				return null;
+			}
+			virtualPools.put(pool, executor);
+		}
+		if (!running.containsKey(pool)) {
+			running.put(pool, new int[1]);
+		}
+		return executor;
+	}
+
+	/**
+	 * Remembers an unfinished task of an owner.
+	 * @param owner The owner.
+	 * @param entry The task.
+	 */
+	private static synchronized void register(Object owner, Entry entry) {
+		List<Entry> list = owned.get(owner);
+		if (list == null) {
+			list = new Vector<Entry>(2);
+			owned.put(owner, list);
+		}
+		for (Iterator<Entry> it = list.iterator(); it.hasNext(); ) {
+			if (it.next().future.isDone()) {
+				it.remove();
+			}
+		}
+		list.add(entry);
+	}
+
+	/**
+	 * Forgets a finished task of an owner.
+	 * @param owner The owner.
+	 * @param future The task.
+	 */
+	private static synchronized void unregister(Object owner, Future<?> future) {
+		List<Entry> list = owned.get(owner);
+		if (list == null) {
+			return;
+		}
+		for (Iterator<Entry> it = list.iterator(); it.hasNext(); ) {
+			if (it.next().future == future) {
+				it.remove();
+			}
+		}
+		if (list.isEmpty()) {
+			owned.remove(owner);
+		}
+	}
+
+	/**
+	 * Counts a running task.
+	 * @param pool The task's pool.
+	 * @param delta 1 if the task starts, -1 if it has finished.
+	 */
+	private static synchronized void countRunning(String pool, int delta) {
+		int[] count = running.get(pool);
+		if (count != null) {
+			count[0] += delta;
+		}
+	}
+
+	/**
+	 * An unfinished task of an owner.
+	 */
+	private static class Entry {
+		private Future<?> future;
+		private String pool;
+
+		public Entry(Future<?> future, String pool) {
+			this.future = future;
+			this.pool = pool;
+		}
+	}
+
+	/**
+	 * A task with a priority. Tasks with higher priorities come first,
+	 * tasks with equal priorities in the order they were submitted.
+	 */
+	private static class Task extends FutureTask<Object>
+	implements Comparable<Task> {
+		private Object owner;
+		private String pool;
+		private int priority;
+		private long seq;
+
+		public Task(Object owner, String pool, Runnable task, int priority,
+				long seq) {
+			super(task, null);
+			this.owner = owner;
+			this.pool = pool;
+			this.priority = Math.max(Thread.MIN_PRIORITY,
+					Math.min(Thread.MAX_PRIORITY, priority));
+			this.seq = seq;
+		}
+
+		public void run() {
+			Thread t = Thread.currentThread();
+			int oldPriority = t.getPriority();
+			countRunning(pool, 1);
+			try {
+				t.setPriority(priority);
+				super.run();
+			} finally {
+				t.setPriority(oldPriority);
+				countRunning(pool, -1);
+			}
+		}
+
+		protected void done() {
+			unregister(owner, this);
+		}
+
+		public int compareTo(Task other) {
+			if (priority != other.priority) {
+				return (priority > other.priority) ? -1 : 1;
+			}
+			return (seq < other.seq) ? -1 : ((seq == other.seq) ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Creates daemon threads named after the pool in the pool's thread
+	 * group. The threads' context class loader is the framework's, so that
+	 * they do not keep unloaded modules alive.
+	 */
+	private static class SchedulerThreadFactory implements ThreadFactory {
+		private String name;
+		private int priority;
+		private ThreadGroup group;
+		private int count = 0;
+
+		public SchedulerThreadFactory(String name, ThreadGroup group,
+				int priority) {
+			this.name = name;
+			this.priority = priority;
+			this.group = group;
+		}
+
+		public synchronized Thread newThread(Runnable r) {
+			Thread t = new Thread(group, r,
+					name +"-"+ (++count)); //$NON-NLS-1$
+			t.setDaemon(true);
+			t.setPriority(priority);
+			t.setContextClassLoader(TaskScheduler.class.getClassLoader());
+			return t;
+		}
+	}
+}
@@ -2,12 +2,16 @@
 package org.schwering.evi.util;
 
 import java.awt.Color;
+import java.awt.Component;
 
 import javax.swing.JTextPane;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
 import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
 
+import org.schwering.evi.core.ISuspendable;
 import org.schwering.evi.util.Document;
 
 /**
@@ -20,25 +24,74 @@ import org.schwering.evi.util.Document;
  * by default.<br />
  * <br />
  * This class encapsulates several often-used functionalities for colorful
- * textpanes.
+ * textpanes.<br />
+ * <br />
+ * While the textpane is suspended, text is appended to the document 
+ * without being laid out; the view is updated once when the textpane is 
+ * resumed.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
  * @version $Id$
  */
-public class TextPane extends JTextPane {
+public class TextPane extends JTextPane implements ISuspendable {
 	private static final long serialVersionUID = 2865927208666493111L;
 	
+	/**
+	 * The document that contains the text, even while the textpane is 
+	 * suspended and shows an empty document.
+	 */
+	private Document document;
+	private boolean suspended = false;
+	
 	/**
 	 * Creates a new non-editable <code>TextPane</code> with an empty document.
 	 */
 	public TextPane() {
 		super();
-		setDocument(new Document(this));
+		document = new Document(this);
+		setDocument(document);
 		setAutoscrolls(true);
 		setEditable(false);
 	}
 	
+	/**
+	 * Detaches the document from the view, so that appended text is not 
+	 * laid out until {@link #resume()} is invoked.
+	 */
+	public void suspend() {
+		if (!suspended) {
+			suspended = true;
+			setDocument(new DefaultStyledDocument());
+		}
+	}
+	
+	/**
+	 * Attaches the document to the view again and scrolls to its end.
+	 */
+	public void resume() {
+		if (suspended) {
+			suspended = false;
+			setDocument(document);
+			setCaretPosition(document.getLength());
+		}
+	}
+	
+	/**
+	 * Inserts a component. While the textpane is suspended, the component
+	 * is appended to the document.
+	 * @param c The component.
+	 */
+	public void insertComponent(Component c) {
+		if (suspended) {
+			SimpleAttributeSet attr = new SimpleAttributeSet();
+			StyleConstants.setComponent(attr, c);
+			document.append(" ", attr);
+		} else {
+			super.insertComponent(c);
+		}
+	}
+	
 	public void setLimit(int maxSize, int newSize) {
-		((Document)getDocument()).setLimit(maxSize, newSize);
+		document.setLimit(maxSize, newSize);
 	}
 	
 	/* (non-Javadoc)
@@ -46,7 +99,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void append(String text, Color foreground, boolean bold,
 			boolean italic, boolean underline) {
-		((Document)getDocument()).append(text, foreground, bold, italic, underline);
+		document.append(text, foreground, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
@@ -54,21 +107,21 @@ public class TextPane extends JTextPane {
 	 */
 	public void append(String text, Color foreground, Color background,
 			boolean bold, boolean italic, boolean underline) {
-		((Document)getDocument()).append(text, foreground, background, bold, italic, underline);
+		document.append(text, foreground, background, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#append(java.lang.String, java.awt.Color, java.awt.Color)
 	 */
 	public void append(String text, Color foreground, Color background) {
-		((Document)getDocument()).append(text, foreground, background);
+		document.append(text, foreground, background);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#append(java.lang.String, java.awt.Color)
 	 */
 	public void append(String text, Color foreground) {
-		((Document)getDocument()).append(text, foreground);
+		document.append(text, foreground);
 	}
 	
 	/* (non-Javadoc)
@@ -76,21 +129,21 @@ public class TextPane extends JTextPane {
 	 */
 	public void append(String text, int fontSize, boolean bold, boolean italic,
 			boolean underline) {
-		((Document)getDocument()).append(text, fontSize, bold, italic, underline);
+		document.append(text, fontSize, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#append(java.lang.String, int)
 	 */
 	public void append(String text, int fontSize) {
-		((Document)getDocument()).append(text, fontSize);
+		document.append(text, fontSize);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#append(java.lang.String, javax.swing.text.SimpleAttributeSet)
 	 */
 	public void append(String text, SimpleAttributeSet attr) {
-		((Document)getDocument()).append(text, attr);
+		document.append(text, attr);
 	}
 	
 	/* (non-Javadoc)
@@ -98,7 +151,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void append(String text, String fontFamily, boolean bold,
 			boolean italic, boolean underline) {
-		((Document)getDocument()).append(text, fontFamily, bold, italic, underline);
+		document.append(text, fontFamily, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
@@ -106,7 +159,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void append(String text, String fontFamily, int fontSize,
 			boolean bold, boolean italic, boolean underline) {
-		((Document)getDocument()).append(text, fontFamily, fontSize, bold, italic, underline);
+		document.append(text, fontFamily, fontSize, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
@@ -114,7 +167,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void append(String text, String fontFamily, int fontSize,
 			Color foreground, boolean bold, boolean italic, boolean underline) {
-		((Document)getDocument()).append(text, fontFamily, fontSize, foreground, bold, italic,
+		document.append(text, fontFamily, fontSize, foreground, bold, italic,
 				underline);
 	}
 	
@@ -124,7 +177,7 @@ public class TextPane extends JTextPane {
 	public void append(String text, String fontFamily, int fontSize,
 			Color foreground, Color background, boolean bold, boolean italic,
 			boolean underline) {
-		((Document)getDocument()).append(text, fontFamily, fontSize, foreground, background, bold,
+		document.append(text, fontFamily, fontSize, foreground, background, bold,
 				italic, underline);
 	}
 	
@@ -133,7 +186,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void append(String text, String fontFamily, int fontSize,
 			Color foreground, Color background) {
-		((Document)getDocument()).append(text, fontFamily, fontSize, foreground, background);
+		document.append(text, fontFamily, fontSize, foreground, background);
 	}
 	
 	/* (non-Javadoc)
@@ -141,35 +194,35 @@ public class TextPane extends JTextPane {
 	 */
 	public void append(String text, String fontFamily, int fontSize,
 			Color foreground) {
-		((Document)getDocument()).append(text, fontFamily, fontSize, foreground);
+		document.append(text, fontFamily, fontSize, foreground);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#append(java.lang.String, java.lang.String, int)
 	 */
 	public void append(String text, String fontFamily, int fontSize) {
-		((Document)getDocument()).append(text, fontFamily, fontSize);
+		document.append(text, fontFamily, fontSize);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#append(java.lang.String, java.lang.String)
 	 */
 	public void append(String text, String fontFamily) {
-		((Document)getDocument()).append(text, fontFamily);
+		document.append(text, fontFamily);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#append(java.lang.String)
 	 */
 	public void append(String text) {
-		((Document)getDocument()).append(text);
+		document.append(text);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#getAttributes()
 	 */
 	public SimpleAttributeSet getAttributes() {
-		return ((Document)getDocument()).getAttributes();
+		return document.getAttributes();
 	}
 	
 	/* (non-Javadoc)
@@ -177,7 +230,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void insertString(int pos, String str, AttributeSet attr)
 			throws BadLocationException {
-		((Document)getDocument()).insertString(pos, str, attr);
+		document.insertString(pos, str, attr);
 	}
 	
 	/* (non-Javadoc)
@@ -185,7 +238,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void modifyAttributes(Color foreground, boolean bold,
 			boolean italic, boolean underline) {
-		((Document)getDocument()).modifyAttributes(foreground, bold, italic, underline);
+		document.modifyAttributes(foreground, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
@@ -193,21 +246,21 @@ public class TextPane extends JTextPane {
 	 */
 	public void modifyAttributes(Color foreground, Color background,
 			boolean bold, boolean italic, boolean underline) {
-		((Document)getDocument()).modifyAttributes(foreground, background, bold, italic, underline);
+		document.modifyAttributes(foreground, background, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#modifyAttributes(java.awt.Color, java.awt.Color)
 	 */
 	public void modifyAttributes(Color foreground, Color background) {
-		((Document)getDocument()).modifyAttributes(foreground, background);
+		document.modifyAttributes(foreground, background);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#modifyAttributes(java.awt.Color)
 	 */
 	public void modifyAttributes(Color foreground) {
-		((Document)getDocument()).modifyAttributes(foreground);
+		document.modifyAttributes(foreground);
 	}
 	
 	/* (non-Javadoc)
@@ -215,14 +268,14 @@ public class TextPane extends JTextPane {
 	 */
 	public void modifyAttributes(int fontSize, boolean bold, boolean italic,
 			boolean underline) {
-		((Document)getDocument()).modifyAttributes(fontSize, bold, italic, underline);
+		document.modifyAttributes(fontSize, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#modifyAttributes(int)
 	 */
 	public void modifyAttributes(int fontSize) {
-		((Document)getDocument()).modifyAttributes(fontSize);
+		document.modifyAttributes(fontSize);
 	}
 	
 	/* (non-Javadoc)
@@ -230,7 +283,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void modifyAttributes(String fontFamily, boolean bold,
 			boolean italic, boolean underline) {
-		((Document)getDocument()).modifyAttributes(fontFamily, bold, italic, underline);
+		document.modifyAttributes(fontFamily, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
@@ -238,7 +291,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void modifyAttributes(String fontFamily, int fontSize, boolean bold,
 			boolean italic, boolean underline) {
-		((Document)getDocument()).modifyAttributes(fontFamily, fontSize, bold, italic, underline);
+		document.modifyAttributes(fontFamily, fontSize, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
@@ -246,7 +299,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void modifyAttributes(String fontFamily, int fontSize,
 			Color foreground, boolean bold, boolean italic, boolean underline) {
-		((Document)getDocument()).modifyAttributes(fontFamily, fontSize, foreground, bold, italic,
+		document.modifyAttributes(fontFamily, fontSize, foreground, bold, italic,
 				underline);
 	}
 	
@@ -256,7 +309,7 @@ public class TextPane extends JTextPane {
 	public void modifyAttributes(String fontFamily, int fontSize,
 			Color foreground, Color background, boolean bold, boolean italic,
 			boolean underline) {
-		((Document)getDocument()).modifyAttributes(fontFamily, fontSize, foreground, background,
+		document.modifyAttributes(fontFamily, fontSize, foreground, background,
 				bold, italic, underline);
 	}
 	
@@ -265,7 +318,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void modifyAttributes(String fontFamily, int fontSize,
 			Color foreground, Color background) {
-		((Document)getDocument()).modifyAttributes(fontFamily, fontSize, foreground, background);
+		document.modifyAttributes(fontFamily, fontSize, foreground, background);
 	}
 	
 	/* (non-Javadoc)
@@ -273,21 +326,21 @@ public class TextPane extends JTextPane {
 	 */
 	public void modifyAttributes(String fontFamily, int fontSize,
 			Color foreground) {
-		((Document)getDocument()).modifyAttributes(fontFamily, fontSize, foreground);
+		document.modifyAttributes(fontFamily, fontSize, foreground);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#modifyAttributes(java.lang.String, int)
 	 */
 	public void modifyAttributes(String fontFamily, int fontSize) {
-		((Document)getDocument()).modifyAttributes(fontFamily, fontSize);
+		document.modifyAttributes(fontFamily, fontSize);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#modifyAttributes(java.lang.String)
 	 */
 	public void modifyAttributes(String fontFamily) {
-		((Document)getDocument()).modifyAttributes(fontFamily);
+		document.modifyAttributes(fontFamily);
 	}
 	
 	/* (non-Javadoc)
@@ -295,7 +348,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void prepend(String text, Color foreground, boolean bold,
 			boolean italic, boolean underline) {
-		((Document)getDocument()).prepend(text, foreground, bold, italic, underline);
+		document.prepend(text, foreground, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
@@ -303,21 +356,21 @@ public class TextPane extends JTextPane {
 	 */
 	public void prepend(String text, Color foreground, Color background,
 			boolean bold, boolean italic, boolean underline) {
-		((Document)getDocument()).prepend(text, foreground, background, bold, italic, underline);
+		document.prepend(text, foreground, background, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#prepend(java.lang.String, java.awt.Color, java.awt.Color)
 	 */
 	public void prepend(String text, Color foreground, Color background) {
-		((Document)getDocument()).prepend(text, foreground, background);
+		document.prepend(text, foreground, background);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#prepend(java.lang.String, java.awt.Color)
 	 */
 	public void prepend(String text, Color foreground) {
-		((Document)getDocument()).prepend(text, foreground);
+		document.prepend(text, foreground);
 	}
 	
 	/* (non-Javadoc)
@@ -325,21 +378,21 @@ public class TextPane extends JTextPane {
 	 */
 	public void prepend(String text, int fontSize, boolean bold,
 			boolean italic, boolean underline) {
-		((Document)getDocument()).prepend(text, fontSize, bold, italic, underline);
+		document.prepend(text, fontSize, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#prepend(java.lang.String, int)
 	 */
 	public void prepend(String text, int fontSize) {
-		((Document)getDocument()).prepend(text, fontSize);
+		document.prepend(text, fontSize);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#prepend(java.lang.String, javax.swing.text.SimpleAttributeSet)
 	 */
 	public void prepend(String text, SimpleAttributeSet attr) {
-		((Document)getDocument()).prepend(text, attr);
+		document.prepend(text, attr);
 	}
 	
 	/* (non-Javadoc)
@@ -347,7 +400,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void prepend(String text, String fontFamily, boolean bold,
 			boolean italic, boolean underline) {
-		((Document)getDocument()).prepend(text, fontFamily, bold, italic, underline);
+		document.prepend(text, fontFamily, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
@@ -355,7 +408,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void prepend(String text, String fontFamily, int fontSize,
 			boolean bold, boolean italic, boolean underline) {
-		((Document)getDocument()).prepend(text, fontFamily, fontSize, bold, italic, underline);
+		document.prepend(text, fontFamily, fontSize, bold, italic, underline);
 	}
 	
 	/* (non-Javadoc)
@@ -363,7 +416,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void prepend(String text, String fontFamily, int fontSize,
 			Color foreground, boolean bold, boolean italic, boolean underline) {
-		((Document)getDocument()).prepend(text, fontFamily, fontSize, foreground, bold, italic,
+		document.prepend(text, fontFamily, fontSize, foreground, bold, italic,
 				underline);
 	}
 	
@@ -373,7 +426,7 @@ public class TextPane extends JTextPane {
 	public void prepend(String text, String fontFamily, int fontSize,
 			Color foreground, Color background, boolean bold, boolean italic,
 			boolean underline) {
-		((Document)getDocument()).prepend(text, fontFamily, fontSize, foreground, background, bold,
+		document.prepend(text, fontFamily, fontSize, foreground, background, bold,
 				italic, underline);
 	}
 	
@@ -382,7 +435,7 @@ public class TextPane extends JTextPane {
 	 */
 	public void prepend(String text, String fontFamily, int fontSize,
 			Color foreground, Color background) {
-		((Document)getDocument()).prepend(text, fontFamily, fontSize, foreground, background);
+		document.prepend(text, fontFamily, fontSize, foreground, background);
 	}
 	
 	/* (non-Javadoc)
@@ -390,41 +443,41 @@ public class TextPane extends JTextPane {
 	 */
 	public void prepend(String text, String fontFamily, int fontSize,
 			Color foreground) {
-		((Document)getDocument()).prepend(text, fontFamily, fontSize, foreground);
+		document.prepend(text, fontFamily, fontSize, foreground);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#prepend(java.lang.String, java.lang.String, int)
 	 */
 	public void prepend(String text, String fontFamily, int fontSize) {
-		((Document)getDocument()).prepend(text, fontFamily, fontSize);
+		document.prepend(text, fontFamily, fontSize);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#prepend(java.lang.String, java.lang.String)
 	 */
 	public void prepend(String text, String fontFamily) {
-		((Document)getDocument()).prepend(text, fontFamily);
+		document.prepend(text, fontFamily);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#prepend(java.lang.String)
 	 */
 	public void prepend(String text) {
-		((Document)getDocument()).prepend(text);
+		document.prepend(text);
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#removeText()
 	 */
 	public void removeText() {
-		((Document)getDocument()).removeText();
+		document.removeText();
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.util.Document#setAttributes(javax.swing.text.SimpleAttributeSet)
 	 */
 	public void setAttributes(SimpleAttributeSet attr) {
-		((Document)getDocument()).setAttributes(attr);
+		document.setAttributes(attr);
 	}
 }
@@ -13,6 +13,7 @@ import javax.swing.UIManager;
 import javax.swing.SwingUtilities;
 
 import org.schwering.evi.conf.MainConfiguration;
+import org.schwering.evi.conf.SessionConfiguration;
 import org.schwering.evi.gui.main.MainFrame;
 
 /**
@@ -197,7 +198,9 @@ public class Util {
 	}
 	
 	/**
-	 * Asks whether the user wants to exit and does the respective.
+	 * Asks whether the user wants to exit and does the respective.<br>
+	 * If <code>app.restoresession</code> is set, the open tabs are stored 
+	 * as session before.
 	 */		
 	public static void askToExit() {
 		if (MainConfiguration.PROPS.getBoolean("gui.asktoexit")) { //$NON-NLS-1$
@@ -208,6 +211,10 @@ public class Util {
 			}
 		}
 		if (MainFrame.getInstance() != null) {
+			if (MainConfiguration.PROPS.getBoolean("app.restoresession", true)) { //$NON-NLS-1$
+				MainFrame.getInstance().getMainTabBar().storeSession();
+				SessionConfiguration.store();
+			}
 			MainFrame.getInstance().dispose();
 		}
 		System.exit(0);
@@ -0,0 +1,385 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.conf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the persistence of {@link Properties}: replaying the journal and
+ * cutting off a torn journal record, replaying the log of the
+ * {@link ConfigurationStore} and cutting off a torn record, compacting
+ * the store while other threads put their namespaces, and migrating a
+ * properties file into the store and back out of it.<br>
+ * The store and the config dir are static, so each step runs in a JVM of
+ * its own with <code>-Devi.configdir</code> pointing to a temporary
+ * directory; the config dir is not touched. A step that simulates a crash
+ * ends its JVM with <code>Runtime.halt()</code>, so no shutdown hook
+ * stores anything. Run it with
+ * <code>java -cp bin:test-bin org.schwering.evi.conf.ConfigurationStoreTest</code>;
+ * it exits with 1 if a check fails.
+ * @author Christoph Schwering (schwering@gmail.com)
+ * @version $Id$
+ */
+public class ConfigurationStoreTest {
+	private static final String STORE = "-Devi.configstore=true";
+
+	/**
+	 * The number of threads that put small namespaces during compactions.
+	 */
+	private static final int THREADS = 4;
+
+	/**
+	 * The number of values each thread stores.
+	 */
+	private static final int ROUNDS = 200;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			runStep(args[0]);
+			return;
+		}
+		scenario("journal", new String[][] {
+				{ null, "journalWrite" }, { null, "journalCheck" } });
+		scenario("store log", new String[][] {
+				{ STORE, "logWrite" }, { STORE, "logCheck" } });
+		scenario("compaction", new String[][] {
+				{ STORE, "compactionWrite" }, { STORE, "compactionCheck" } });
+		scenario("migration", new String[][] {
+				{ null, "migrationPlain" }, { STORE, "migrationInto" },
+				{ null, "migrationOut" } });
+		System.out.println(failures +" failures");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Runs the steps of a scenario in a new temporary config dir, each in
+	 * a JVM of its own.
+	 * @param name The scenario's name.
+	 * @param steps The system property that enables the store (or
+	 * <code>null</code>) and the step's name.
+	 */
+	private static void scenario(String name, String[][] steps)
+	throws Exception {
+		File dir = File.createTempFile("evi-conf", "");
+		dir.delete();
+		dir.mkdir();
+		try {
+			for (int i = 0; i < steps.length; i++) {
+				List<String> cmd = new ArrayList<String>();
+				cmd.add(new File(new File(System.getProperty("java.home"),
+						"bin"), "java").getPath());
+				cmd.add("-cp");
+				cmd.add(System.getProperty("java.class.path"));
+				cmd.add("-Djava.awt.headless=true");
+				cmd.add("-Devi.configdir="+ dir.getPath());
+				if (steps[i][0] != null) {
+					cmd.add(steps[i][0]);
+				}
+				cmd.add(ConfigurationStoreTest.class.getName());
+				cmd.add(steps[i][1]);
+				ProcessBuilder pb = new ProcessBuilder(cmd);
+				pb.redirectErrorStream(true);
+				Process p = pb.start();
+				InputStream in = p.getInputStream();
+				byte[] b = new byte[4096];
+				for (int n; (n = in.read(b)) != -1; ) {
+					System.out.write(b, 0, n);
+				}
+				System.out.flush();
+				int exit = p.waitFor();
+				if (exit != 0) {
+					check(false, name +": step "+ steps[i][1] +" exited with "
+							+ exit);
+					break;
+				}
+			}
+		} finally {
+			delete(dir);
+		}
+	}
+
+	/**
+	 * Runs one step in this JVM and exits.
+	 * @param step The step's name.
+	 */
+	private static void runStep(String step) throws Exception {
+		File dir = new File(System.getProperty("evi.configdir"));
+		if (step.equals("journalWrite")) {
+			journalWrite(dir);
+		} else if (step.equals("journalCheck")) {
+			journalCheck(dir);
+		} else if (step.equals("logWrite")) {
+			logWrite(dir);
+		} else if (step.equals("logCheck")) {
+			logCheck(dir);
+		} else if (step.equals("compactionWrite")) {
+			compactionWrite();
+		} else if (step.equals("compactionCheck")) {
+			compactionCheck(dir);
+		} else if (step.equals("migrationPlain")) {
+			migrationPlain(dir);
+		} else if (step.equals("migrationInto")) {
+			migrationInto(dir);
+		} else if (step.equals("migrationOut")) {
+			migrationOut(dir);
+		} else {
+			throw new IllegalArgumentException(step);
+		}
+		System.out.flush();
+		Runtime.getRuntime().halt(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Journals some changes, appends half a record as if the process had
+	 * been killed while it wrote the journal and crashes.
+	 */
+	private static void journalWrite(File dir) throws IOException {
+		Properties p = open("journal", true);
+		p.setString("a", "1");
+		p.setString("b", "2");
+		p.setString("c", "3");
+		p.remove("c");
+		p.setString("a", "4");
+		p.syncJournal();
+		File journal = new File(dir, "journal"+ Properties.JOURNAL_SUFFIX);
+		check(journal.length() > 0 && journal.length() == p.getJournalSize(),
+				"journal: changes are written to the journal");
+		check(new File(dir, "journal").length() == 0,
+				"journal: file is not rewritten");
+		writeLength(dir, "journal.len", journal.length());
+		append(journal, new byte[] { 'P', 0, 0, 0, 5, 'a' });
+	}
+
+	private static void journalCheck(File dir) throws IOException {
+		File journal = new File(dir, "journal"+ Properties.JOURNAL_SUFFIX);
+		long before = journal.length();
+		Properties p = open("journal", true);
+		check("4".equals(p.getProperty("a")) && "2".equals(p.getProperty("b"))
+				&& p.getProperty("c") == null,
+				"journal: replayed changes are loaded");
+		check(journal.length() == readLength(dir, "journal.len")
+				&& journal.length() < before,
+				"journal: torn record is cut off");
+		check(p.isDirty(), "journal: replayed changes are to be stored");
+		p.store();
+		check(!journal.exists() && new File(dir, "journal").length() > 0,
+				"journal: store folds the journal into the file");
+	}
+
+	/**
+	 * Stores some namespaces, appends half a record as if the process had
+	 * been killed while it appended to the store and crashes.
+	 */
+	private static void logWrite(File dir) throws IOException {
+		Properties a = open("a", false);
+		a.setString("x", "1");
+		a.store();
+		a.setString("x", "2");
+		a.store();
+		Properties b = open("b", false);
+		b.setString("y", "1");
+		b.store();
+		b.delete();
+		File file = ConfigurationStore.getFile();
+		check(file.isFile() && !new File(dir, "a").exists(),
+				"store log: properties are kept in the store");
+		writeLength(dir, "store.len", file.length());
+		append(file, "a\t100\t0\nx=3".getBytes("ISO-8859-1"));
+	}
+
+	private static void logCheck(File dir) throws IOException {
+		File file = ConfigurationStore.getFile();
+		check(file.length() == readLength(dir, "store.len"),
+				"store log: torn record is cut off");
+		Properties a = open("a", false);
+		check("2".equals(a.getProperty("x")),
+				"store log: last complete record wins");
+		check(ConfigurationStore.get("b") == null,
+				"store log: removed namespace stays removed");
+	}
+
+	/**
+	 * Stores a large namespace over and over, so that the store is
+	 * compacted repeatedly, while other threads store small namespaces.
+	 */
+	private static void compactionWrite() throws Exception {
+		final Properties big = open("big", false);
+		final Throwable[] error = new Throwable[1];
+		Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < threads.length; i++) {
+			final Properties p = open("small"+ i, false);
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < ROUNDS; j++) {
+							p.setString("n", String.valueOf(j));
+							p.store();
+						}
+					} catch (Throwable exc) {
+						error[0] = exc;
+					}
+				}
+			};
+		}
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < 20000; i++) {
+			sb.append('x');
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].start();
+		}
+		int rounds = 0;
+		boolean running = true;
+		while (running || rounds < 10) {
+			big.setString("v", rounds + sb.toString());
+			big.store();
+			rounds++;
+			running = false;
+			for (int i = 0; i < threads.length; i++) {
+				running |= threads[i].isAlive();
+			}
+		}
+		check(error[0] == null, "compaction: concurrent stores succeed"
+				+ (error[0] != null ? " ("+ error[0] +")" : ""));
+		writeLength(ConfigurationStore.getFile().getParentFile(), "big.len",
+				rounds - 1);
+	}
+
+	private static void compactionCheck(File dir) throws IOException {
+		check(new File(dir, ConfigurationStore.FILE_NAME
+				+ ConfigurationStore.BACKUP_SUFFIX).isFile(),
+				"compaction: store was compacted");
+		check(!new File(dir, ConfigurationStore.FILE_NAME + ".tmp").exists(),
+				"compaction: no temporary file is left");
+		Properties big = open("big", false);
+		String v = big.getProperty("v");
+		check(v != null && v.startsWith(readLength(dir, "big.len") +"x"),
+				"compaction: large namespace has its last value");
+		boolean ok = true;
+		for (int i = 0; i < THREADS; i++) {
+			ok &= String.valueOf(ROUNDS - 1).equals(
+					open("small"+ i, false).getProperty("n"));
+		}
+		check(ok, "compaction: no concurrent store is lost");
+	}
+
+	/**
+	 * Stores properties in a file of their own.
+	 */
+	private static void migrationPlain(File dir) throws IOException {
+		Properties p = open("m", false);
+		p.setString("k", "v");
+		p.store();
+		check(new File(dir, "m").length() > 0
+				&& !ConfigurationStore.getFile().exists(),
+				"migration: file is used without the store");
+	}
+
+	/**
+	 * Loads the properties with the store enabled and changes them.
+	 */
+	private static void migrationInto(File dir) throws IOException {
+		Properties p = open("m", false);
+		check("v".equals(p.getProperty("k")),
+				"migration: file is loaded into the store");
+		check(!new File(dir, "m").exists()
+				&& new File(dir, "m"+ ConfigurationStore.BACKUP_SUFFIX).isFile()
+				&& ConfigurationStore.get("m") != null,
+				"migration: file is moved into the store and kept as m.bak");
+		p.setString("k", "w");
+		p.store();
+		check("w".equals(open("m", false).getProperty("k")),
+				"migration: changes are stored in the store");
+		check(!new File(dir, "m").exists(),
+				"migration: file is not written again");
+	}
+
+	/**
+	 * Moves back to files as the store's documentation suggests: the store
+	 * is deleted and the files kept as *.bak are renamed back.
+	 */
+	private static void migrationOut(File dir) throws IOException {
+		// before ConfigurationStore is initialized
+		new File(dir, ConfigurationStore.FILE_NAME).delete();
+		new File(dir, ConfigurationStore.FILE_NAME
+				+ ConfigurationStore.BACKUP_SUFFIX).delete();
+		new File(dir, "m"+ ConfigurationStore.BACKUP_SUFFIX).renameTo(
+				new File(dir, "m"));
+		check(!ConfigurationStore.isEnabled(),
+				"migration: store is disabled without its file");
+		Properties p = open("m", false);
+		check("v".equals(p.getProperty("k")),
+				"migration: backup is used as file again");
+		p.setString("k", "x");
+		p.store();
+		check("x".equals(open("m", false).getProperty("k"))
+				&& !ConfigurationStore.getFile().exists(),
+				"migration: changes are stored in the file");
+	}
+
+	private static Properties open(String name, boolean journal)
+	throws IOException {
+		Properties p = new Properties(name);
+		p.setShutdownHook(false);
+		p.setJournal(journal);
+		p.load();
+		return p;
+	}
+
+	private static void append(File file, byte[] b) throws IOException {
+		OutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(b);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeLength(File dir, String name, long n)
+	throws IOException {
+		OutputStream out = new FileOutputStream(new File(dir, name));
+		try {
+			out.write(String.valueOf(n).getBytes("ISO-8859-1"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static long readLength(File dir, String name) throws IOException {
+		byte[] b = new byte[64];
+		InputStream in = new FileInputStream(new File(dir, name));
+		try {
+			int n = in.read(b);
+			return Long.parseLong(new String(b, 0, n, "ISO-8859-1").trim());
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void check(boolean b, String what) {
+		System.out.println((b ? "ok   " : "FAIL ") + what);
+		if (!b) {
+			failures++;
+		}
+	}
+
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			if (files[i].isDirectory()) {
+				delete(files[i]);
+			} else {
+				files[i].delete();
+			}
+		}
+		dir.delete();
+	}
+}
@@ -0,0 +1,68 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+import java.net.URI;
+
+/**
+ * Measures how long <code>ModuleFactory</code> needs to find the
+ * constructor of a ModuleClass for a list of arguments, with and without
+ * the constructor cache of the <code>ModuleContainer</code>. Without the
+ * cache, the cache is cleared before each lookup, so every lookup scans
+ * the constructors as before the cache existed.<br>
+ * Run it with
+ * <code>java -cp bin:test-bin org.schwering.evi.core.ConstructorCacheBenchmark [iterations]</code>.
+ * Each variant is warmed up first and measured five times; the best
+ * round is printed in nanoseconds per lookup.
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public class ConstructorCacheBenchmark {
+	/**
+	 * A module with three constructors; the arguments used below match
+	 * the last one.
+	 */
+	public static class Module implements IModule {
+		public Module() {
+		}
+		public Module(Object[] args) {
+		}
+		public Module(String s, URI uri) {
+		}
+		public void dispose() {
+		}
+	}
+
+	private static volatile Object sink;
+
+	public static void main(String[] args) throws Exception {
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		ModuleContainer container = new ModuleContainer(Module.class);
+		Object[] moduleArgs = new Object[] { "evi", new URI("irc://irc.freenode.net/evi") };
+
+		run(container, moduleArgs, iterations, false);
+		run(container, moduleArgs, iterations, true);
+		System.out.println("uncached: "+ run(container, moduleArgs, iterations, false) +" ns/op");
+		System.out.println("cached:   "+ run(container, moduleArgs, iterations, true) +" ns/op");
+	}
+
+	/**
+	 * Measures five rounds of lookups.
+	 * @return The nanoseconds per lookup of the fastest round.
+	 */
+	private static double run(ModuleContainer container, Object[] moduleArgs,
+			int iterations, boolean cached) throws Exception {
+		double best = Double.MAX_VALUE;
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				if (!cached) {
+					container.clearConstructors();
+				}
+				sink = ModuleFactory.searchConstructor(container, moduleArgs);
+			}
+			long time = System.nanoTime() - start;
+			best = Math.min(best, (double)time / iterations);
+		}
+		return Math.round(best * 10) / 10.0;
+	}
+}
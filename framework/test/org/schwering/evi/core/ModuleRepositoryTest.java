@@ -0,0 +1,151 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.MessageDigest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests {@link ModuleRepository} against a local HTTP server: conditional
+ * requests of the module list, downloading a JAR once, replacing a
+ * corrupt local copy and rejecting a JAR whose checksum does not match
+ * the module list.<br>
+ * The repository is moved to a temporary directory, so the config dir is
+ * not touched. Run it with
+ * <code>java -cp bin:test-bin org.schwering.evi.core.ModuleRepositoryTest</code>;
+ * it exits with 1 if a check fails.
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public class ModuleRepositoryTest {
+	private static final String ETAG = "\"v1\"";
+
+	private static HttpServer server;
+	private static byte[] jar = "not really a JAR".getBytes();
+	private static String checksum;
+	private static int jarRequests = 0;
+	private static int listRequests = 0;
+	private static int notModified = 0;
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		File root = File.createTempFile("evi-repository", "");
+		root.delete();
+		root.mkdir();
+		ModuleRepository.setRoot(root);
+		checksum = hex(MessageDigest.getInstance("SHA-1").digest(jar));
+		startServer();
+		try {
+			URL list = url("/modulelist");
+			URL[] urls = ModuleRepository.fetchModuleList(list);
+			check(urls.length == 2, "module list has two entries");
+			urls = ModuleRepository.fetchModuleList(list);
+			check(listRequests == 2 && notModified == 1,
+					"unchanged module list is not transferred again");
+
+			URL local = ModuleRepository.localize(urls[0]);
+			check("file".equals(local.getProtocol()), "JAR is copied");
+			check(local.getPath().startsWith(root.toURI().getPath()),
+					"copy is in the injected root");
+			ModuleRepository.localize(urls[0]);
+			check(jarRequests == 1, "intact copy is not downloaded again");
+
+			File file = new File(local.toURI());
+			OutputStream out = new FileOutputStream(file, true);
+			out.write(1);
+			out.close();
+			ModuleRepository.localize(urls[0]);
+			check(jarRequests == 2, "corrupt copy is downloaded again");
+
+			try {
+				ModuleRepository.localize(urls[1]);
+				check(false, "JAR with wrong checksum is rejected");
+			} catch (IOException exc) {
+				check(true, "JAR with wrong checksum is rejected");
+			}
+		} finally {
+			server.stop(0);
+			delete(root);
+		}
+		System.out.println(failures +" failures");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/good.jar", new HttpHandler() {
+			public void handle(HttpExchange x) throws IOException {
+				jarRequests++;
+				respond(x, jar);
+			}
+		});
+		server.createContext("/bad.jar", new HttpHandler() {
+			public void handle(HttpExchange x) throws IOException {
+				respond(x, "tampered".getBytes());
+			}
+		});
+		server.createContext("/modulelist", new HttpHandler() {
+			public void handle(HttpExchange x) throws IOException {
+				listRequests++;
+				if (ETAG.equals(x.getRequestHeaders().getFirst("If-None-Match"))) {
+					notModified++;
+					x.sendResponseHeaders(304, -1);
+					x.close();
+					return;
+				}
+				String list = "# test\n"
+					+ url("/good.jar") +" "+ checksum +"\n"
+					+ url("/bad.jar") +" "+ checksum +"\n";
+				x.getResponseHeaders().add("ETag", ETAG);
+				respond(x, list.getBytes());
+			}
+		});
+		server.start();
+	}
+
+	private static void respond(HttpExchange x, byte[] b) throws IOException {
+		x.sendResponseHeaders(200, b.length);
+		x.getResponseBody().write(b);
+		x.close();
+	}
+
+	private static URL url(String path) throws IOException {
+		return new URL("http://127.0.0.1:"+ server.getAddress().getPort() + path);
+	}
+
+	private static void check(boolean b, String what) {
+		System.out.println((b ? "ok   " : "FAIL ") + what);
+		if (!b) {
+			failures++;
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < bytes.length; i++) {
+			sb.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(bytes[i] & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			if (files[i].isDirectory()) {
+				delete(files[i]);
+			} else {
+				files[i].delete();
+			}
+		}
+		dir.delete();
+	}
+}
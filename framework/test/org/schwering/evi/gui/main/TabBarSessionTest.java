@@ -0,0 +1,176 @@
+/* Copyright (C) 2006 Christoph Schwering */
+package org.schwering.evi.gui.main;
+
+import java.awt.Component;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.concurrent.Future;
+
+import javax.swing.Icon;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+import org.schwering.evi.conf.SessionConfiguration;
+import org.schwering.evi.core.IModule;
+import org.schwering.evi.core.IModuleInfo;
+import org.schwering.evi.core.IPanel;
+import org.schwering.evi.core.ModuleContainer;
+import org.schwering.evi.core.ModuleLoader;
+
+/**
+ * Tests that the {@link TabBar} restores the tabs of a session in their
+ * stored order and creates instances of synchronous modules, i.e.
+ * modules whose ModuleInfoClass does not implement
+ * <code>IAsynchronous</code>, without reporting a failure.<br>
+ * The config dir is moved to a temporary directory. Run it with
+ * <code>java -Djava.awt.headless=true -cp bin:test-bin org.schwering.evi.gui.main.TabBarSessionTest</code>;
+ * it exits with 1 if a check fails.
+ * @author Christoph Schwering (mailto:schwering@gmail.com)
+ * @version $Id$
+ */
+public class TabBarSessionTest {
+	/**
+	 * A synchronous module.
+	 */
+	public static class SyncInfo implements IModuleInfo {
+		public IModule newInstance() {
+			return new SyncPanel();
+		}
+		public Class<? extends IModule> getModuleClass() {
+			return SyncPanel.class;
+		}
+		public String getName() {
+			return "Sync";
+		}
+		public float getVersion() {
+			return 1.0f;
+		}
+		public String getInfoURL() {
+			return null;
+		}
+	}
+
+	/**
+	 * The panel of the synchronous module.
+	 */
+	public static class SyncPanel implements IModule, IPanel {
+		private JPanel panel = new JPanel();
+		public Component getPanelInstance() {
+			return panel;
+		}
+		public String getTitle() {
+			return "Sync";
+		}
+		public Icon getIcon() {
+			return null;
+		}
+		public void dispose() {
+		}
+	}
+
+	private static TabBar tabBar;
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		File dir = File.createTempFile("evi-tabbar", "");
+		dir.delete();
+		dir.mkdir();
+		System.setProperty("evi.configdir", dir.getPath());
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		PrintStream oldErr = System.err;
+		System.setErr(new PrintStream(err, true));
+		try {
+			final ModuleContainer module = ModuleLoader.load(
+					SyncInfo.class.getName());
+			check(!module.isAsynchronous(), "module is synchronous");
+
+			SessionConfiguration.clear();
+			SessionConfiguration.add(module.getId(), "first", null);
+			SessionConfiguration.add(module.getId(), "second", null);
+			SessionConfiguration.add(module.getId(), "third", null);
+			SessionConfiguration.setSelectedIndex(1);
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					tabBar = new TabBar();
+					tabBar.restoreSession();
+				}
+			});
+			drainEventQueue();
+			check(tabBar.getTabCount() == 3, "all tabs are restored");
+			check(isInstance(1) && !isInstance(0) && !isInstance(2),
+					"selected tab is created in its position");
+			check(tabBar.getSelectedIndex() == 1, "selected tab stays selected");
+
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					tabBar.setSelectedIndex(2);
+				}
+			});
+			drainEventQueue();
+			check(tabBar.getTabCount() == 3 && isInstance(2) && !isInstance(0),
+					"tab is created in its position when it is selected");
+
+			final Future<?>[] future = new Future<?>[1];
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					future[0] = tabBar.newInstance(module, null, "failed");
+				}
+			});
+			drainEventQueue();
+			check(future[0].isDone() && future[0].get() != null
+					&& tabBar.getTabCount() == 4 && isInstance(3),
+					"new instance is added");
+		} finally {
+			System.setErr(oldErr);
+		}
+		check(err.size() == 0, "no failure is reported");
+		if (err.size() > 0) {
+			System.out.println(err.toString());
+		}
+		delete(dir);
+		System.out.println(failures +" failures");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Indicates whether a tab shows a module instance instead of a
+	 * placeholder.
+	 */
+	private static boolean isInstance(int index) {
+		return index < tabBar.getTabCount()
+			&& "Sync".equals(tabBar.getTitleAt(index));
+	}
+
+	/**
+	 * Waits until the events that have been posted, and the events they
+	 * post, have been processed.
+	 */
+	private static void drainEventQueue() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+				}
+			});
+		}
+	}
+
+	private static void check(boolean b, String what) {
+		System.out.println((b ? "ok   " : "FAIL ") + what);
+		if (!b) {
+			failures++;
+		}
+	}
+
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			if (files[i].isDirectory()) {
+				delete(files[i]);
+			} else {
+				files[i].delete();
+			}
+		}
+		dir.delete();
+	}
+}
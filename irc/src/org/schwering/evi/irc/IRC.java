@@ -4,36 +4,48 @@ package org.schwering.evi.irc;
 import java.awt.Component;
 import java.io.IOException;
 import java.net.URI;
+import java.util.List;
+import java.util.Vector;
 
 import javax.swing.Icon;
+import javax.swing.SwingUtilities;
 
 import org.schwering.evi.core.IModule;
 import org.schwering.evi.core.IPanel;
+import org.schwering.evi.core.ISuspendable;
+import org.schwering.evi.gui.EVI;
 import org.schwering.evi.gui.main.MainFrame;
 import org.schwering.evi.irc.conf.FullProfile;
 import org.schwering.evi.irc.conf.Profile;
 import org.schwering.evi.irc.conf.URIProfile;
+import org.schwering.evi.irc.gui.AbstractWindow;
 import org.schwering.evi.irc.gui.ConnectPanel;
 import org.schwering.evi.irc.gui.TabBar;
 
 /**
- * The IModule class of the IRC module.
+ * The IModule class of the IRC module.<br>
+ * The constructors only read the profiles, so that they can run in a 
+ * worker thread. The tabs are created and the profiles are connected in 
+ * the event dispatching thread afterwards.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
  */
-public class IRC implements IModule, IPanel {
-	private TabBar tabs = new TabBar();
+public class IRC implements IModule, IPanel, ISuspendable {
+	private TabBar tabs;
+	private boolean showConnectPanel = false;
+	private List<Profile> profiles = new Vector<Profile>();
 
 	public IRC() {
-		tabs.addTab("Connect", new ConnectPanel(this));
+		showConnectPanel = true;
+		init();
 	}
 	
 	public IRC(Object[] args) {
 		for (int i = 0; i < args.length; i++) {
 			if (args[i] instanceof Profile) {
-				ConnectionManager.connect(this, (Profile)args[i]);
+				profiles.add((Profile)args[i]);
 			} else if (args[i] instanceof String) {
 				try {
-					ConnectionManager.connect(this, new FullProfile((String)args[i]));
+					profiles.add(new FullProfile((String)args[i]));
 				} catch (IOException exc) {
 					exc.printStackTrace();
 				}
@@ -41,16 +53,69 @@ public class IRC implements IModule, IPanel {
 				System.err.println("Parameter "+ args[i] +" instance of "+ args[i].getClass());
 			}
 		}
+		init();
 	}
 	
 	public IRC(URI uri) {
-		ConnectionManager.connect(this, new URIProfile(uri));
+		profiles.add(new URIProfile(uri));
+		init();
+	}
+	
+	/**
+	 * Creates the tabs in the event dispatching thread.
+	 */
+	private void init() {
+		if (SwingUtilities.isEventDispatchThread()) {
+			createComponents();
+		} else {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					createComponents();
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Creates the tabs and connects the profiles passed to the 
+	 * constructor unless this has been done already.
+	 */
+	private synchronized void createComponents() {
+		if (tabs != null) {
+			return;
+		}
+		tabs = new TabBar();
+		if (showConnectPanel) {
+			tabs.addTab("Connect", new ConnectPanel(this));
+		}
+		for (int i = 0; i < profiles.size(); i++) {
+			ConnectionManager.connect(this, profiles.get(i));
+		}
+		profiles = null;
 	}
 	
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.core.IPanel#dispose()
 	 */
 	public void dispose() {
+		AbstractWindow[] windows = getTabBar().getInstancesOf(AbstractWindow.class);
+		for (int i = 0; i < windows.length; i++) {
+			windows[i].stopLayoutUpdates();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.schwering.evi.core.ISuspendable#suspend()
+	 */
+	public void suspend() {
+		getTabBar().setSuspended(true);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.schwering.evi.core.ISuspendable#resume()
+	 */
+	public void resume() {
+		getTabBar().setSuspended(false);
 	}
 
 	/* (non-Javadoc)
@@ -64,7 +129,7 @@ public class IRC implements IModule, IPanel {
 	 * @see org.schwering.evi.core.IPanel#getPanelInstance()
 	 */
 	public Component getPanelInstance() {
-		return tabs;
+		return getTabBar();
 	}
 
 	/* (non-Javadoc)
@@ -75,19 +140,29 @@ public class IRC implements IModule, IPanel {
 	}
 	
 	public TabBar getTabBar() {
+		createComponents();
 		return tabs;
 	}
 
 	public void updateTitle(String newTitle) {
+		if (EVI.isHeadless()) {
+			return;
+		}
 		MainFrame.getInstance().getMainTabBar().setTitle(this, newTitle);
 	}
 	
 	public void reset() {
+		if (EVI.isHeadless()) {
+			return;
+		}
 		MainFrame.getInstance().getMainTabBar().setDefaultBackground(this);
 		MainFrame.getInstance().getMainTabBar().setDefaultForeground(this);
 	}
 	
 	public void highlight() {
+		if (EVI.isHeadless()) {
+			return;
+		}
 		MainFrame.getInstance().getMainTabBar().setHighlightForeground(this);
 		MainFrame.getInstance().getMainTabBar().setHighlightBackground(this);
 	}
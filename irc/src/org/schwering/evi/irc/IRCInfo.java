@@ -3,8 +3,10 @@ package org.schwering.evi.irc;
 
 import java.net.URI;
 
+import org.schwering.evi.core.IAsynchronous;
 import org.schwering.evi.core.IButtonable;
 import org.schwering.evi.core.IConfigurable;
+import org.schwering.evi.core.IHeadless;
 import org.schwering.evi.core.IMenuable;
 import org.schwering.evi.core.IModule;
 import org.schwering.evi.core.IModuleInfo;
@@ -18,7 +20,7 @@ import org.schwering.evi.irc.gui.conf.Configuration;
  * @author Christoph Schwering (mailto:schwering@gmail.com)
  */
 public class IRCInfo implements IModuleInfo, IButtonable, IConfigurable, IMenuable, 
-IParameterizable, IURIHandler {
+IParameterizable, IURIHandler, IAsynchronous, IHeadless {
 
 	/* (non-Javadoc)
 	 * @see org.schwering.evi.core.IModuleInfo#newInstance()
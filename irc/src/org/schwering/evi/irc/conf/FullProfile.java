@@ -5,14 +5,13 @@ import java.awt.Font;
 import java.awt.Color;
 
 import java.io.File;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Hashtable;
 
 import org.schwering.evi.core.ModuleContainer;
 import org.schwering.evi.irc.IRC;
-import org.schwering.evi.conf.MainConfiguration;
+import org.schwering.evi.conf.IPropertiesListener;
 import org.schwering.evi.conf.Properties;
 
 /**
@@ -28,15 +27,9 @@ public class FullProfile implements Profile {
 	private static Hashtable<String, Profile> profileTable = new Hashtable<String, Profile>();
 	
 	public static FullProfile[] getProfiles() {
-		FilenameFilter filter = new FilenameFilter() {
-			public boolean accept(File dir, String name) {
-				return name.startsWith(PROFILE_PREFIX);
-			}
-		};
-		File[] files = MainConfiguration.CONFIG_DIR.listFiles(filter);
-		for (int i = 0; i < files.length; i++) {
-			String name = files[i].getName();
-			name = name.substring(PROFILE_PREFIX.length());
+		String[] names = Properties.getNames(PROFILE_PREFIX);
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i].substring(PROFILE_PREFIX.length());
 			if (!profileTable.containsKey(name)) {
 				try {
 					FullProfile profile = new FullProfile(name);
@@ -60,8 +53,11 @@ public class FullProfile implements Profile {
 	}
 	
 	public void delete() {
-		props.setShutdownHook(false);
-		props.getFile().delete();
+		try {
+			props.delete();
+		} catch (IOException exc) {
+			exc.printStackTrace();
+		}
 	}
 	
 	public String getName() {
@@ -76,6 +72,15 @@ public class FullProfile implements Profile {
 		return props.getFile();
 	}
 	
+	public void addLayoutListener(IPropertiesListener listener) {
+		props.addPrefixListener("font.", listener);
+		props.addPrefixListener("color.", listener);
+	}
+	
+	public void removeLayoutListener(IPropertiesListener listener) {
+		props.removeListener(listener);
+	}
+	
 	public void setServer(String s) {
 		props.setString("conn.server", s);
 	}
@@ -4,6 +4,8 @@ package org.schwering.evi.irc.conf;
 import java.awt.Font;
 import java.awt.Color;
 
+import org.schwering.evi.conf.IPropertiesListener;
+
 /**
  * Interface for different profile types, file (= full) and URI profile.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
@@ -65,4 +67,18 @@ public interface Profile {
 	public String getBrowser();
 	
 	public String getPerform();
+	
+	/**
+	 * Registers a listener that is notified in the event dispatching 
+	 * thread when the fonts or colors of the profile change.
+	 * @param listener The listener.
+	 */
+	public void addLayoutListener(IPropertiesListener listener);
+	
+	/**
+	 * Removes a listener registered with 
+	 * {@link #addLayoutListener(IPropertiesListener)}.
+	 * @param listener The listener.
+	 */
+	public void removeLayoutListener(IPropertiesListener listener);
 }
@@ -5,6 +5,7 @@ import java.awt.Color;
 import java.awt.Font;
 import java.net.URI;
 
+import org.schwering.evi.conf.IPropertiesListener;
 import org.schwering.evi.conf.MainConfiguration;
 
 /**
@@ -227,4 +228,18 @@ public class URIProfile implements Profile {
 	public String getUsername() {
 		return nick;
 	}
+	
+	/* (non-Javadoc)
+	 * @see org.schwering.evi.irc.conf.Profile#addLayoutListener(org.schwering.evi.conf.IPropertiesListener)
+	 */
+	public void addLayoutListener(IPropertiesListener listener) {
+		MainConfiguration.PROPS.addPrefixListener("font.", listener);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.schwering.evi.irc.conf.Profile#removeLayoutListener(org.schwering.evi.conf.IPropertiesListener)
+	 */
+	public void removeLayoutListener(IPropertiesListener listener) {
+		MainConfiguration.PROPS.removeListener(listener);
+	}
 }
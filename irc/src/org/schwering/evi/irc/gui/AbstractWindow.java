@@ -3,18 +3,31 @@ package org.schwering.evi.irc.gui;
 
 import java.awt.BorderLayout;
 import java.awt.Component;
+import java.util.Set;
 
 import javax.swing.JPanel;
 
+import org.schwering.evi.conf.IPropertiesListener;
+import org.schwering.evi.conf.Properties;
+import org.schwering.evi.core.ISuspendable;
+
 /**
- * Base class for console, channels and queries.
+ * Base class for console, channels and queries.<br />
+ * Windows are suspended by the IRC tabbar while they are not visible.<br />
+ * The layout is updated when the fonts or colors of the profile change.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
  * @version $Id$
  */
-public abstract class AbstractWindow extends JPanel {
+public abstract class AbstractWindow extends JPanel implements ISuspendable {
 	protected ConnectionController controller;
 	protected String title;
 	
+	private IPropertiesListener layoutListener = new IPropertiesListener() {
+		public void propertiesChanged(Properties props, Set<String> keys) {
+			updateLayout();
+		}
+	};
+	
 	public AbstractWindow(ConnectionController controller) {
 		super(new BorderLayout());
 		this.controller = controller;
@@ -34,6 +47,7 @@ public abstract class AbstractWindow extends JPanel {
 		}
 		
 		updateLayout();
+		controller.getProfile().addLayoutListener(layoutListener);
 	}
 	
 	/**
@@ -68,6 +82,29 @@ public abstract class AbstractWindow extends JPanel {
 	 * Invokes when the tab is closed with <code>TabBar.removeTab</code>.
 	 */
 	public void dispose() {
+		stopLayoutUpdates();
+	}
+	
+	/**
+	 * Stops updating the layout when the profile changes. Invoked by 
+	 * <code>dispose</code> and when the IRC module is disposed.
+	 */
+	public void stopLayoutUpdates() {
+		controller.getProfile().removeLayoutListener(layoutListener);
+	}
+	
+	/**
+	 * Invoked when the window becomes invisible. Might be invoked 
+	 * repeatedly.
+	 */
+	public void suspend() {
+	}
+	
+	/**
+	 * Invoked when the window becomes visible. Might be invoked 
+	 * repeatedly.
+	 */
+	public void resume() {
 	}
 	
 	/**
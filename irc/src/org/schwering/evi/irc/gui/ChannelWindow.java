@@ -40,6 +40,7 @@ import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 
 import org.schwering.evi.util.ExceptionDialog;
+import org.schwering.evi.util.TaskScheduler;
 import org.schwering.irc.manager.Channel;
 import org.schwering.irc.manager.ChannelUser;
 import org.schwering.irc.manager.Topic;
@@ -338,8 +339,7 @@ public class ChannelWindow extends SimpleWindow {
 						controller.getConnection().sendDccChat(user.getNick(), 
 								serverSock.getInetAddress(), 
 								serverSock.getLocalPort());
-						new Thread() {
-							@Override
+						TaskScheduler.submitBlocking(controller.getIRC(), new Runnable() {
 							public void run() {
 								try {
 									Socket sock = serverSockPtr.accept();
@@ -355,7 +355,7 @@ public class ChannelWindow extends SimpleWindow {
 									}
 								}
 							}
-						}.start();
+						});
 					} catch (Exception exc) {
 						exc.printStackTrace();
 						ExceptionDialog.show(exc);
@@ -392,8 +392,7 @@ public class ChannelWindow extends SimpleWindow {
 								file.getName(), serverSock.getInetAddress(), 
 								serverSock.getLocalPort(), raf.length());
 						final ServerSocket serverSockPtr = serverSock;
-						new Thread() {
-							@Override
+						TaskScheduler.submitBlocking(controller.getIRC(), new Runnable() {
 							public void run() {
 								Socket sock = null;
 								OutputStream out = null;
@@ -433,7 +432,7 @@ public class ChannelWindow extends SimpleWindow {
 									}
 								}
 							}
-						}.start();
+						});
 					} catch (Exception exc) {
 						exc.printStackTrace();
 						ExceptionDialog.show(exc);
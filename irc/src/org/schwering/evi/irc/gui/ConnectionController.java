@@ -8,11 +8,13 @@ import java.util.Date;
 
 import javax.swing.JOptionPane;
 
+import org.schwering.evi.core.ResourceMonitor;
 import org.schwering.evi.gui.EVI;
 import org.schwering.evi.irc.IRC;
 import org.schwering.evi.irc.IRCInfo;
 import org.schwering.evi.irc.conf.Profile;
 import org.schwering.evi.util.ExceptionDialog;
+import org.schwering.evi.util.TaskScheduler;
 import org.schwering.irc.manager.Channel;
 import org.schwering.irc.manager.Connection;
 import org.schwering.irc.manager.event.ConnectionAdapter;
@@ -62,12 +64,18 @@ public class ConnectionController {
 		connection.addConnectionListener(new ConnectionListener());
 		connection.addCtcpListener(new CtcpListener());
 		new ConsoleWindow(this);
-		try {
-			connection.connect();
-		} catch (Exception exc) {
-			// TODO better error handling
-			exc.printStackTrace();
-		}
+		// the controller is created in the event dispatching thread
+		TaskScheduler.submitBlocking(irc, new Runnable() {
+			public void run() {
+				try {
+					connection.connect();
+					ResourceMonitor.handleOpened(getIRC());
+				} catch (Exception exc) {
+					// TODO better error handling
+					exc.printStackTrace();
+				}
+			}
+		});
 	}
 	
 	public IRC getIRC() {
@@ -91,6 +99,7 @@ public class ConnectionController {
 		}
 
 		public void connectionLost(ConnectionEvent event) {
+			ResourceMonitor.handleClosed(irc);
 			SimpleWindow[] windows = (SimpleWindow[])irc.getTabBar().getInstancesOf(SimpleWindow.class);
 			for (int i = 0; i < windows.length; i++) {
 				windows[i].appendLine("Disconnected.");
@@ -213,6 +222,10 @@ public class ConnectionController {
 					+ event.getSender() + " ("
 					+ event.getAddress().getHostAddress() +":"+ event.getPort()
 					+ ")?";
+				if (EVI.isHeadless()) {
+					// nobody to ask
+					return;
+				}
 				int answer = JOptionPane.showConfirmDialog(null, question, 
 						"DCC Send", JOptionPane.YES_NO_OPTION);
 				if (answer == JOptionPane.YES_OPTION) {
@@ -242,6 +255,10 @@ public class ConnectionController {
 				} else {
 					question = "Do you want to receive\n"+ file +"?";
 				}
+				if (EVI.isHeadless()) {
+					// nobody to ask
+					return;
+				}
 				int answer = JOptionPane.showConfirmDialog(null, question, 
 						"DCC Send", JOptionPane.YES_NO_OPTION);
 				if (answer == JOptionPane.YES_OPTION) {
@@ -71,6 +71,7 @@ public class ConsoleWindow extends SimpleWindow {
 	}
 	
 	public void dispose() {
+		super.dispose();
 		if (controller.getConnection().isConnected()) {
 			controller.getConnection().send("QUIT");
 		}
@@ -99,6 +99,20 @@ public abstract class SimpleWindow extends AbstractWindow {
 				font.isBold(), font.isItalic(), false);
 	}
 	
+	/**
+	 * Stops laying out the text until the window is resumed.
+	 */
+	public void suspend() {
+		text.suspend();
+	}
+	
+	/**
+	 * Shows the text that was appended while the window was suspended.
+	 */
+	public void resume() {
+		text.resume();
+	}
+	
 	/**
 	 * Forwards the focus to the input line.
 	 */
@@ -6,22 +6,59 @@ import java.lang.reflect.Array;
 import java.util.Vector;
 
 import javax.swing.JTabbedPane;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import org.schwering.evi.irc.conf.Configuration;
 
 /**
- * The IRC tabbar.
+ * The IRC tabbar.<br />
+ * Only the selected window is resumed; all other windows are suspended. 
+ * All windows are suspended while the tabbar itself is suspended.
  * @author Christoph Schwering (mailto:schwering@gmail.com)
  * @version $Id$
  */
 public class TabBar extends JTabbedPane {
 	private static final long serialVersionUID = -417945783840186410L;
 	
+	private boolean suspended = false;
+	
 	/**
 	 * Initializes the new TabBar.
 	 */
 	public TabBar() {
 		setTabPlacement(Configuration.getTabPlacement());
+		addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				updateSuspension();
+			}
+		});
+	}
+	
+	/**
+	 * Suspends or resumes the windows.
+	 * @param b <code>true</code> if all windows should be suspended.
+	 */
+	public void setSuspended(boolean b) {
+		suspended = b;
+		updateSuspension();
+	}
+	
+	/**
+	 * Resumes the selected window and suspends all others.
+	 */
+	private void updateSuspension() {
+		Component selected = suspended ? null : getSelectedComponent();
+		for (int i = 0; i < getTabCount(); i++) {
+			Component c = getComponentAt(i);
+			if (c instanceof AbstractWindow) {
+				if (c == selected) {
+					((AbstractWindow)c).resume();
+				} else {
+					((AbstractWindow)c).suspend();
+				}
+			}
+		}
 	}
 	
 	/**
@@ -42,6 +79,7 @@ public class TabBar extends JTabbedPane {
 		String shortTitle = shortenTitle(title);
 		insertTab(shortTitle, null, tab, title, index);
 		tab.requestFocus();
+		updateSuspension();
 	}
 	
 	/**
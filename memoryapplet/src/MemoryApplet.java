@@ -8,11 +8,12 @@ import javax.swing.JPopupMenu;
 
 import org.schwering.evi.core.IApplet;
 import org.schwering.evi.core.IModule;
+import org.schwering.evi.core.ISuspendable;
 import org.schwering.evi.core.ModuleFactory;
 import org.schwering.evi.util.MemoryPanel;
 import org.schwering.evi.util.RightClickMenu;
 
-public class MemoryApplet implements IModule, IApplet {
+public class MemoryApplet implements IModule, IApplet, ISuspendable {
 
 	MemoryPanel m;
 	
@@ -35,6 +36,15 @@ public class MemoryApplet implements IModule, IApplet {
 		return m;
 	}
 
+	public void suspend() {
+		m.suspend();
+	}
+	
+	public void resume() {
+		m.resume();
+	}
+
 	public void dispose() {
+		m.stop();
 	}
 }
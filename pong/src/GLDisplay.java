@@ -61,13 +61,26 @@ public class GLDisplay extends JPanel {
 		animator.setRunAsFastAsPossible(false);
 	}
 	
-	public void start() {
+	/*
+	 * FPSAnimator throws a GLException if it is started or stopped twice.
+	 */
+	
+	public synchronized void start() {
+		if ( animator.isAnimating() ) {
+			return;
+		}
 		glCanvas.requestFocus();
 		animator.start();
 	}
 	
-	public void stop() {
-		animator.stop();
+	public synchronized void stop() {
+		if ( animator.isAnimating() ) {
+			animator.stop();
+		}
+	}
+	
+	public synchronized boolean isRunning() {
+		return animator.isAnimating();
 	}
 	
 	public void addGLEventListener( GLEventListener glEventListener ) {
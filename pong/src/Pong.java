@@ -5,6 +5,7 @@ import javax.swing.JMenu;
 
 import org.schwering.evi.core.IModule;
 import org.schwering.evi.core.IPanel;
+import org.schwering.evi.core.ISuspendable;
 import org.schwering.evi.core.ModuleContainer;
 import org.schwering.evi.core.ModuleLoader;
 import org.schwering.evi.gui.main.DefaultModuleMenu;
@@ -12,10 +13,17 @@ import org.schwering.evi.gui.main.DefaultModuleMenu;
 /**
  * @author Mike Kremer
  */
-public class Pong implements IModule, IPanel {
+public class Pong implements IModule, IPanel, ISuspendable {
 	private static Pong instance = null;
 	private GLDisplay display;
 	
+	/**
+	 * Indicates whether suspend() has stopped the display, i.e. whether 
+	 * resume() has to restart it. A display that was stopped with ESC 
+	 * stays stopped.
+	 */
+	private boolean suspended = false;
+	
 	public static void main(String[] args){
 		new Pong();
 	}
@@ -48,11 +56,28 @@ public class Pong implements IModule, IPanel {
 	
 	public void dispose() {
 		instance = null;
-		display.stop();
-		SoundManager.killAllData();
+		try {
+			display.stop();
+		} finally {
+			SoundManager.killAllData();
+		}
 		System.out.println("Pong.dispose()");
 	}
 	
+	public synchronized void suspend() {
+		if (display.isRunning()) {
+			display.stop();
+			suspended = true;
+		}
+	}
+	
+	public synchronized void resume() {
+		if (suspended) {
+			suspended = false;
+			display.start();
+		}
+	}
+	
 	public IPanel getConfigPanel() {
 		return new PongConfig();
 	}